@@ -25,6 +25,7 @@ export type SendResponse = {
   fileName: string;
   bytes: number;
   message: string;
+  bytesSaved?: number;
 };
 
 export async function sendToKindle(engineUrl: string, req: SendRequest): Promise<SendResponse> {
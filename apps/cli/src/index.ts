@@ -60,6 +60,7 @@ program
 
       spinner.succeed(`Sent ✅  ${res.fileName} (${formatBytes(res.bytes)})`);
       console.log(`Resolved: ${res.resolvedUrl}`);
+      if (res.bytesSaved) console.log(`Repacked: ${formatBytes(res.bytesSaved)} smaller`);
     } catch (err: any) {
       spinner.fail(err?.response?.data?.message ?? err?.message ?? "Unknown error");
       if (opts.verbose) {
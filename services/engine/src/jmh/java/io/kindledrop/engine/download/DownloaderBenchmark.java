@@ -0,0 +1,115 @@
+package io.kindledrop.engine.download;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The download hot path without the network: the capped copy loop (with and without the cache's SHA-256)
+ * from an in-memory body to a temp file, the whole staging lifecycle (stage, read back, release) on disk and
+ * in pooled memory, and file name sanitizing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DownloaderBenchmark {
+
+    @Param({"65536", "1048576", "10485760"})
+    int size;
+
+    private byte[] body;
+    private Path dir;
+    private Path target;
+    private final Stager diskStager = Stager.diskOnly();
+    private final Stager memoryStager = new Stager(new BufferPool(256 * 1024, 64L << 20), 16L << 20);
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        body = new byte[size];
+        new Random(42).nextBytes(body);
+        dir = Files.createTempDirectory("kindledrop-bench-");
+        target = dir.resolve("body.bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public long copyCapped() throws IOException {
+        return SecureDownloader.copyCapped(new ByteArrayInputStream(body), target, Long.MAX_VALUE, null);
+    }
+
+    @Benchmark
+    public long copyCappedWithDigest() throws IOException {
+        return SecureDownloader.copyCapped(new ByteArrayInputStream(body), target, Long.MAX_VALUE, DownloadCache.newSha256());
+    }
+
+    @Benchmark
+    public long stageOnDisk() throws IOException {
+        return stage(diskStager);
+    }
+
+    @Benchmark
+    public long stageInMemory() throws IOException {
+        return stage(memoryStager);
+    }
+
+    private long stage(Stager stager) throws IOException {
+        StagedContent content;
+        try (Stager.Output out = stager.open("body.pdf", body.length)) {
+            SecureDownloader.copyCapped(new ByteArrayInputStream(body), out, Long.MAX_VALUE, null, ByteBudget.NONE, Long.MAX_VALUE);
+            content = out.finish();
+        }
+        try (var in = content.open()) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        } finally {
+            content.release();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Names {
+        final String plain = "Programming The Semantic Web.pdf";
+        final String hostile = "..\\..\\etc/passwd\r\n\tbook\0.pdf";
+        final String longName = "a".repeat(400) + ".epub";
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String sanitizePlain(Names names) {
+        return SecureDownloader.sanitizeFileName(names.plain);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String sanitizeHostile(Names names) {
+        return SecureDownloader.sanitizeFileName(names.hostile);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String sanitizeLong(Names names) {
+        return SecureDownloader.sanitizeFileName(names.longName);
+    }
+}
@@ -0,0 +1,188 @@
+package io.kindledrop.engine.download;
+
+import io.kindledrop.engine.loadtest.SmtpSink;
+import io.kindledrop.engine.mail.AttachmentPacker;
+import io.kindledrop.engine.mail.KindleMailSender;
+import io.kindledrop.engine.mail.SmtpTransportPool;
+import io.kindledrop.engine.metrics.SendMetrics;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * One EPUB send, repack stage included, against the load-test SMTP sink set to a {@code uplinkKbps} uplink, with
+ * and without {@link EpubRepacker}. The difference in time per send is the wall time saved, CPU for the repack
+ * included. The corpus is a generated book of 20 chapters of prose (about 2.5 MB of XHTML) and 6 photos (1.2 MB of
+ * incompressible bytes), zipped the ways GitHub repos ship them:
+ *
+ * <ul>
+ *   <li>{@code stored}: no compression at all, as zipped by build scripts that only want the EPUB layout</li>
+ *   <li>{@code fast}: deflate level 1</li>
+ *   <li>{@code compact}: deflate level 9, where the repack should find nothing worth sending</li>
+ * </ul>
+ *
+ * The setup prints each corpus's size before and after the repack, raw and base64-encoded as it goes over SMTP.
+ * {@code attachmentBytes} counts what was attached per iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class EpubRepackBenchmark {
+
+    private static final String[] WORDS = ("the of and to a in that it was he she his her you with as for had on at by "
+            + "not be this are from which have were one all an they we said there been their when who will more no if "
+            + "out so up into what could them than then its only other some these two may first new time would my over "
+            + "kindle lantern harbour morning letter window garden silence shadow river station").split(" ");
+
+    @Param({"stored", "fast", "compact"})
+    String corpus;
+
+    @Param({"false", "true"})
+    boolean repack;
+
+    @Param({"8000"})
+    int uplinkKbps;
+
+    private SmtpSink sink;
+    private KindleMailSender mailer;
+    private KindleMailSender.Smtp smtp;
+    private EpubRepacker repacker;
+    private Path dir;
+    private Path file;
+    // never released: the same book is sent every time
+    private StagedContent original;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sent {
+        public long attachmentBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sink = SmtpSink.start(0, Duration.ZERO, uplinkKbps * 1000L / 8);
+        mailer = new KindleMailSender(new SmtpTransportPool(2, Duration.ofMinutes(5), Duration.ofMinutes(5), Duration.ofMinutes(5)), SendMetrics.noop());
+        smtp = new KindleMailSender.Smtp("127.0.0.1", sink.port(), "bench", "bench@example.com", false, false, "secret");
+        // the engine's default staging: copies up to 4 MB in pooled memory
+        repacker = new EpubRepacker(new Stager(new BufferPool(256 * 1024, 128L * 1024 * 1024), 4L * 1024 * 1024), 9, 0.05);
+        dir = Files.createTempDirectory("kindledrop-bench-");
+        file = dir.resolve("book.epub");
+        writeBook(file, switch (corpus) {
+            case "stored" -> -1;
+            case "fast" -> Deflater.BEST_SPEED;
+            default -> Deflater.BEST_COMPRESSION;
+        });
+
+        original = StagedContent.onDisk(file);
+        EpubRepacker.Repacked sample = repacker.repack(original, "book.epub");
+        long before = Files.size(file);
+        long after = sample == null ? before : sample.bytes();
+        if (sample != null) sample.content().release();
+        System.out.printf("%n%s: %,d -> %,d bytes (%,d on the wire -> %,d)%s%n", corpus, before, after,
+                AttachmentPacker.encodedSize(before), AttachmentPacker.encodedSize(after),
+                sample == null ? ", sent as is" : "");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mailer.close();
+        sink.close();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public void send(Sent sent) throws Exception {
+        EpubRepacker.Repacked repacked = repack ? repacker.repack(original, "book.epub") : null;
+        try {
+            StagedContent attachment = repacked != null ? repacked.content() : original;
+            mailer.sendWithAttachment(smtp, "reader@kindle.com", "KindleDrop: book.epub", "Sent by KindleDrop.",
+                    attachment.dataSource("book.epub"), "book.epub");
+            sent.attachmentBytes += attachment.size();
+        } finally {
+            if (repacked != null) repacked.content().release();
+        }
+    }
+
+    private static void writeBook(Path target, int level) throws IOException {
+        Random random = new Random(42);
+        try (OutputStream out = Files.newOutputStream(target); ZipOutputStream zip = new ZipOutputStream(out)) {
+            put(zip, "mimetype", "application/epub+zip".getBytes(StandardCharsets.US_ASCII), -1);
+            put(zip, "META-INF/container.xml", ("<?xml version=\"1.0\"?><container version=\"1.0\" xmlns=\"urn:oasis:names:tc:opendocument:xmlns:container\">"
+                    + "<rootfiles><rootfile full-path=\"OEBPS/content.opf\" media-type=\"application/oebps-package+xml\"/></rootfiles></container>")
+                    .getBytes(StandardCharsets.UTF_8), level);
+            put(zip, "OEBPS/content.opf", "<package version=\"3.0\"><metadata/><manifest/><spine/></package>".getBytes(StandardCharsets.UTF_8), level);
+            put(zip, "OEBPS/style.css", "p { text-indent: 1em; margin: 0; }\nh1 { text-align: center; }\n".repeat(50).getBytes(StandardCharsets.UTF_8), level);
+            for (int i = 1; i <= 20; i++) {
+                put(zip, "OEBPS/chapter" + i + ".xhtml", chapter(random, i), level);
+            }
+            for (int i = 1; i <= 6; i++) {
+                byte[] photo = new byte[200 * 1024];
+                random.nextBytes(photo);
+                put(zip, "OEBPS/images/photo" + i + ".jpg", photo, level);
+            }
+        }
+    }
+
+    private static byte[] chapter(Random random, int n) {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<html xmlns=\"http://www.w3.org/1999/xhtml\"><body>\n");
+        sb.append("<h1>Chapter ").append(n).append("</h1>\n");
+        while (sb.length() < 125_000) {
+            sb.append("<p>");
+            int sentences = 3 + random.nextInt(5);
+            for (int s = 0; s < sentences; s++) {
+                int words = 6 + random.nextInt(14);
+                for (int w = 0; w < words; w++) {
+                    String word = WORDS[random.nextInt(WORDS.length)];
+                    sb.append(w == 0 ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word);
+                    sb.append(w == words - 1 ? ". " : " ");
+                }
+            }
+            sb.append("</p>\n");
+        }
+        return sb.append("</body></html>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** {@code level} -1 stores the entry. */
+    private static void put(ZipOutputStream zip, String name, byte[] content, int level) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        if (level < 0) {
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setCrc(crc.getValue());
+        } else {
+            entry.setMethod(ZipEntry.DEFLATED);
+            zip.setLevel(level);
+        }
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+}
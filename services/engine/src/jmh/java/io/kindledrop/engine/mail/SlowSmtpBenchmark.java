@@ -0,0 +1,115 @@
+package io.kindledrop.engine.mail;
+
+import io.kindledrop.engine.loadtest.SmtpSink;
+import io.kindledrop.engine.metrics.SendMetrics;
+import io.kindledrop.engine.service.SendScope;
+import jakarta.mail.util.ByteArrayDataSource;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code sends} concurrent sends of a 64KB attachment against a local SMTP sink that takes {@code smtpDelayMs} to
+ * accept each message. Each send runs the mail stage through {@link SendScope}, as {@code POST /api/send} does.
+ *
+ * <ul>
+ *   <li>{@code platform}: request threads come from a fixed pool of 200, Tomcat's default {@code threads.max}.
+ *       Each blocked send holds one, so at most 200 sends are in flight and the rest queue.</li>
+ *   <li>{@code virtual}: one virtual thread per request, as with {@code spring.threads.virtual.enabled}.
+ *       Every send is in flight at once.</li>
+ * </ul>
+ *
+ * The time per batch shows the throughput. The {@code heldAtSmtp} counter shows how many sends the instance held
+ * open at once. Each send keeps a connection open, so raise {@code ulimit -n} before running the larger batches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class SlowSmtpBenchmark {
+
+    private static final int PLATFORM_THREADS = 200;
+
+    @Param({"platform", "virtual"})
+    String threads;
+
+    @Param({"200", "1000", "2000"})
+    int sends;
+
+    @Param({"500"})
+    int smtpDelayMs;
+
+    private SmtpSink sink;
+    private KindleMailSender mailer;
+    private KindleMailSender.Smtp smtp;
+    private byte[] attachment;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Held {
+        public int heldAtSmtp;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sink = SmtpSink.start(0, Duration.ofMillis(smtpDelayMs));
+        // one connection per concurrent send, so the pool is not what limits concurrency here
+        mailer = new KindleMailSender(new SmtpTransportPool(sends, Duration.ofMinutes(5), Duration.ofMinutes(5), Duration.ofMinutes(5)), SendMetrics.noop());
+        smtp = new KindleMailSender.Smtp("127.0.0.1", sink.port(), "bench", "bench@example.com", false, false, "secret");
+        attachment = new byte[64 * 1024];
+        new Random(42).nextBytes(attachment);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mailer.close();
+        sink.close();
+    }
+
+    @Benchmark
+    public long sendAll(Held held) throws Exception {
+        sink.resetPeak();
+        long before = sink.messages();
+        try (ExecutorService requests = threads.equals("virtual")
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS)) {
+            List<Future<?>> futures = new ArrayList<>(sends);
+            for (int i = 0; i < sends; i++) {
+                futures.add(requests.submit(this::sendOne));
+            }
+            for (Future<?> f : futures) f.get();
+        }
+        held.heldAtSmtp = sink.peakConcurrentMessages();
+        return sink.messages() - before;
+    }
+
+    private Void sendOne() throws Exception {
+        SendScope scope = new SendScope(Duration.ofMinutes(5));
+        return scope.run("mail", null, () -> {
+            mailer.sendWithAttachment(smtp, "reader@kindle.com", "KindleDrop: book.pdf", "Sent by KindleDrop.",
+                    new ByteArrayDataSource(attachment, "application/pdf"), "book.pdf");
+            return null;
+        });
+    }
+}
@@ -0,0 +1,62 @@
+package io.kindledrop.engine.resolve;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link GitHubLinkResolver#resolve} over a corpus shaped like what users paste: blob and raw links, spaces,
+ * already-encoded and unicode names, deep paths and query strings. The plain variants bypass the memo cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResolverBenchmark {
+
+    static final String[] CORPUS = {
+            "https://github.com/org/repo/blob/main/book.pdf",
+            "https://github.com/org/repo/blob/main/path/book.pdf",
+            "https://github.com/org/repo/blob/main/Semantic Web/Programming The Semantic Web.pdf",
+            "https://github.com/org/repo/blob/main/Semantic%20Web/Programming%20The%20Semantic%20Web.pdf",
+            "https://github.com/someone/free-programming-books/blob/master/books/Computer Science/Algorithms/Introduction to Algorithms (3rd ed).pdf",
+            "https://github.com/org/repo/blob/v1.2.0/a/b/c/d/e/f/g/h/deeply-nested-notes.epub",
+            "https://github.com/org/repo/blob/main/文档/机器学习 入门.pdf",
+            "https://github.com/org/repo/blob/main/Livres/Les Misérables – Tome I.epub",
+            "https://raw.githubusercontent.com/org/repo/main/path/book.pdf",
+            "https://raw.githubusercontent.com/org/repo/main/My Books/Clean Code.mobi?token=abc123",
+            "https://github.com/Org-Name/Repo.Name/blob/feature-branch/docs/release notes #42.azw3",
+            "https://github.com/org/repo/blob/main/a%2Bb/c+d.pdf",
+    };
+
+    private final GitHubLinkResolver uncached = new GitHubLinkResolver(0);
+    private final GitHubLinkResolver cached = new GitHubLinkResolver();
+
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void resolveCorpus(Blackhole bh) {
+        for (String url : CORPUS) {
+            bh.consume(uncached.resolve(url));
+        }
+    }
+
+    @Benchmark
+    public GitHubLinkResolver.ResolvedLink resolveSimpleBlob() {
+        return uncached.resolve(CORPUS[1]);
+    }
+
+    /** Memo hits; gc.alloc.rate.norm should be ~0 B/op. */
+    @Benchmark
+    @OperationsPerInvocation(12)
+    public void resolveCorpusCached(Blackhole bh) {
+        for (String url : CORPUS) {
+            bh.consume(cached.resolve(url));
+        }
+    }
+}
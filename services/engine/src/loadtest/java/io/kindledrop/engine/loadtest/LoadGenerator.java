@@ -0,0 +1,151 @@
+package io.kindledrop.engine.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * Drives {@code POST /api/send} open-loop at a fixed arrival rate: request {@code i} is sent at
+ * {@code start + i / rate} whether or not earlier ones have finished. Latency is measured from that scheduled
+ * time rather than from when the request actually left. A stalled engine therefore shows up in the
+ * percentiles instead of quietly lowering the offered load.
+ */
+public final class LoadGenerator {
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final List<URI> sendUris;
+    private final Duration requestTimeout;
+
+    /**
+     * @param engine base URL of the engine, e.g. {@code http://localhost:8080}
+     * @param nonBlocking drive {@code /api/send?nonBlocking=true} instead of the thread-per-request endpoint
+     */
+    public LoadGenerator(URI engine, boolean nonBlocking, Duration requestTimeout) {
+        this(List.of(engine), nonBlocking, requestTimeout);
+    }
+
+    /** Spreads the sends round-robin over several engines, e.g. the nodes of a cluster. */
+    public LoadGenerator(List<URI> engines, boolean nonBlocking, Duration requestTimeout) {
+        this.sendUris = engines.stream()
+                .map(engine -> engine.resolve(nonBlocking ? "/api/send?nonBlocking=true" : "/api/send"))
+                .toList();
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Offers {@code rate} sends per second for {@code duration}, then waits for the stragglers.
+     *
+     * @param body request body for the {@code i}-th send
+     */
+    public Result run(double rate, Duration duration, IntFunction<String> body) {
+        int total = (int) Math.max(1, Math.round(rate * duration.toNanos() / 1e9));
+        long interval = (long) (1e9 / rate);
+        long[] latencies = new long[total];
+        AtomicInteger completed = new AtomicInteger();
+        AtomicLong ok = new AtomicLong();
+        Map<String, AtomicLong> errors = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> inFlight = new ArrayList<>(total);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long scheduled = start + i * interval;
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+
+            HttpRequest request = HttpRequest.newBuilder(sendUris.get(i % sendUris.size()))
+                    .timeout(requestTimeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body.apply(i)))
+                    .build();
+            inFlight.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()).handle((resp, e) -> {
+                latencies[completed.getAndIncrement()] = System.nanoTime() - scheduled;
+                String outcome = outcome(resp, e);
+                if (outcome == null) {
+                    ok.incrementAndGet();
+                } else {
+                    errors.computeIfAbsent(outcome, k -> new AtomicLong()).incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(inFlight.toArray(CompletableFuture[]::new)).join();
+        long elapsed = System.nanoTime() - start;
+
+        long[] sorted = Arrays.copyOf(latencies, completed.get());
+        Arrays.sort(sorted);
+        Map<String, Long> breakdown = new TreeMap<>();
+        errors.forEach((k, v) -> breakdown.put(k, v.get()));
+        return new Result(rate, total, ok.get(), elapsed,
+                percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99),
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1], breakdown);
+    }
+
+    /** Null for a successful send, otherwise a short label for the error breakdown. */
+    private static String outcome(HttpResponse<String> resp, Throwable e) {
+        if (e != null) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            return cause.getClass().getSimpleName();
+        }
+        if (resp.statusCode() != 200) return "HTTP " + resp.statusCode();
+        return resp.body().replace(" ", "").contains("\"ok\":true") ? null : "HTTP 200 ok=false";
+    }
+
+    /** Nearest-rank percentile of a sorted array, in nanoseconds. */
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * @param rate offered sends per second
+     * @param elapsedNanos from the first arrival to the last response
+     * @param errors failed sends by HTTP status or exception type
+     */
+    public record Result(double rate, int sent, long ok, long elapsedNanos, long p50Nanos, long p95Nanos, long p99Nanos,
+                         long maxNanos, Map<String, Long> errors) {
+
+        /** Successful sends per second of wall-clock time. */
+        public double throughput() {
+            return ok / (elapsedNanos / 1e9);
+        }
+
+        public long failed() {
+            return sent - ok;
+        }
+
+        static String header() {
+            return String.format("%8s %7s %7s %7s %9s %9s %9s %9s %9s  %s",
+                    "rate/s", "sent", "ok", "failed", "ok/s", "p50 ms", "p95 ms", "p99 ms", "max ms", "errors");
+        }
+
+        String row() {
+            return String.format("%8.1f %7d %7d %7d %9.1f %9d %9d %9d %9d  %s",
+                    rate, sent, ok, failed(), throughput(), millis(p50Nanos), millis(p95Nanos), millis(p99Nanos),
+                    millis(maxNanos), errors.isEmpty() ? "-" : errors);
+        }
+
+        private static long millis(long nanos) {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+}
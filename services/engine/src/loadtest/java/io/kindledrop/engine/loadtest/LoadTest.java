@@ -0,0 +1,126 @@
+package io.kindledrop.engine.loadtest;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Entry point for {@code ./gradlew loadTest}. Starts the raw-file stand-in and the SMTP sink, then drives a
+ * running engine (started with the {@code loadtest} profile) at each of the given arrival rates and prints one
+ * report row per rate. Every send carries its own SMTP settings pointing at the sink, so no real relay or
+ * credentials are involved.
+ *
+ * <pre>
+ *   --engine http://localhost:8080   engine under test; a comma-separated list spreads sends round-robin
+ *   --rates 5,10,20                  offered sends per second, one run each
+ *   --duration 30s                   length of each run
+ *   --size 1MB                       file size served by the stand-in
+ *   --latency 0ms                    stand-in delay before each response
+ *   --redirects 0                    302 hops in front of each file
+ *   --throttle 0                     share of stand-in answers that are 429 (0..1)
+ *   --smtp-latency 100ms             sink delay before accepting each message
+ *   --file-port 18080 --smtp-port 2525
+ *   --shared                         every send fetches the same URL (exercises coalescing); default is unique URLs
+ *   --non-blocking                   drive /api/send?nonBlocking=true
+ *   --env-password                   leave the SMTP password out of the request; engines need KINDLEDROP_SMTP_PASS.
+ *                                    In cluster mode this lets any node run any send instead of pinning it.
+ *   --stubs-only                     start the stand-ins and wait, for manual testing
+ * </pre>
+ */
+public final class LoadTest {
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = parse(args);
+        List<URI> engines = new ArrayList<>();
+        for (String e : opts.getOrDefault("engine", "http://localhost:8080").split(",")) engines.add(URI.create(e.trim()));
+        List<Double> rates = new ArrayList<>();
+        for (String r : opts.getOrDefault("rates", "5,10,20").split(",")) rates.add(Double.parseDouble(r.trim()));
+        Duration duration = duration(opts.getOrDefault("duration", "30s"));
+        long size = bytes(opts.getOrDefault("size", "1MB"));
+        Duration latency = duration(opts.getOrDefault("latency", "0ms"));
+        int redirects = Integer.parseInt(opts.getOrDefault("redirects", "0"));
+        double throttle = Double.parseDouble(opts.getOrDefault("throttle", "0"));
+        Duration smtpLatency = duration(opts.getOrDefault("smtp-latency", "100ms"));
+        int filePort = Integer.parseInt(opts.getOrDefault("file-port", "18080"));
+        int smtpPort = Integer.parseInt(opts.getOrDefault("smtp-port", "2525"));
+        boolean shared = opts.containsKey("shared");
+        boolean nonBlocking = opts.containsKey("non-blocking");
+        boolean envPassword = opts.containsKey("env-password");
+
+        try (RawFileServer files = RawFileServer.start(filePort);
+             SmtpSink smtp = SmtpSink.start(smtpPort, smtpLatency)) {
+            System.out.printf("raw-file stand-in on %s, SMTP sink on 127.0.0.1:%d (accept latency %d ms)%n",
+                    files.origin(), smtp.port(), smtpLatency.toMillis());
+            System.out.printf("engine must allow the stand-in: SPRING_PROFILES_ACTIVE=loadtest, or kindledrop.download.extra-origins=%s%n",
+                    files.origin());
+
+            if (opts.containsKey("stubs-only")) {
+                Thread.currentThread().join();
+            }
+
+            String query = "size=" + size + "&latencyMs=" + latency.toMillis() + "&redirects=" + redirects + "&throttle=" + throttle;
+            LoadGenerator generator = new LoadGenerator(engines, nonBlocking, Duration.ofMinutes(5));
+            System.out.printf("%s -> %s, %d bytes per file, %s per rate%n%n", engines, nonBlocking ? "/api/send?nonBlocking=true" : "/api/send",
+                    size, duration);
+            System.out.println(LoadGenerator.Result.header());
+            for (double rate : rates) {
+                long mailedBefore = smtp.messages();
+                LoadGenerator.Result result = generator.run(rate, duration, i -> {
+                    String body = body(files.origin(), query, shared ? 0 : i, smtp.port());
+                    return envPassword ? body.replace(",\"password\":\"load\"", "") : body;
+                });
+                System.out.println(result.row());
+                if (smtp.messages() - mailedBefore != result.ok()) {
+                    System.out.printf("%8s note: the sink received %d messages for %d successful sends%n", "",
+                            smtp.messages() - mailedBefore, result.ok());
+                }
+            }
+            RawFileServer.Stats stats = files.stats();
+            System.out.printf("%nstand-in: %d files, %d redirects, %d throttled; sink: %d messages%n",
+                    stats.served(), stats.redirected(), stats.throttled(), smtp.messages());
+        }
+    }
+
+    static String body(String origin, String query, int n, int smtpPort) {
+        String url = origin + "/load/test/main/book-" + n + ".pdf?" + query + "&n=" + n;
+        return """
+                {"url":"%s","kindleEmail":"reader@kindle.example","dryRun":false,
+                 "smtp":{"host":"127.0.0.1","port":%d,"user":"load","from":"load@kindledrop.test",
+                         "useStartTLS":false,"useSSL":false,"password":"load"}}""".formatted(url, smtpPort);
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            String key = args[i].substring(2);
+            boolean flag = i + 1 >= args.length || args[i + 1].startsWith("--");
+            opts.put(key, flag ? "true" : args[++i]);
+        }
+        return opts;
+    }
+
+    /** {@code 250ms}, {@code 30s}, {@code 2m}. */
+    static Duration duration(String s) {
+        s = s.trim().toLowerCase(Locale.ROOT);
+        if (s.endsWith("ms")) return Duration.ofMillis(Long.parseLong(s.substring(0, s.length() - 2)));
+        if (s.endsWith("s")) return Duration.ofSeconds(Long.parseLong(s.substring(0, s.length() - 1)));
+        if (s.endsWith("m")) return Duration.ofMinutes(Long.parseLong(s.substring(0, s.length() - 1)));
+        return Duration.ofSeconds(Long.parseLong(s));
+    }
+
+    /** {@code 512KB}, {@code 10MB}, or plain bytes. */
+    static long bytes(String s) {
+        s = s.trim().toUpperCase(Locale.ROOT);
+        if (s.endsWith("KB")) return Long.parseLong(s.substring(0, s.length() - 2)) * 1024;
+        if (s.endsWith("MB")) return Long.parseLong(s.substring(0, s.length() - 2)) * 1024 * 1024;
+        return Long.parseLong(s);
+    }
+}
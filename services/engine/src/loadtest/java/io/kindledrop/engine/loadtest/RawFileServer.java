@@ -0,0 +1,150 @@
+package io.kindledrop.engine.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for raw.githubusercontent.com on loopback, over plain http. Any {@code /<org>/<repo>/<ref>/<file>} path
+ * serves a generated body. The engine must list the server's origin in {@code kindledrop.download.extra-origins}.
+ * Each request is shaped by its query string, so one server covers every scenario:
+ *
+ * <ul>
+ *   <li>{@code size}: body bytes (default 1MB)</li>
+ *   <li>{@code latencyMs}: delay before the response headers</li>
+ *   <li>{@code redirects}: length of the 302 chain in front of the file</li>
+ *   <li>{@code throttle}: probability (0..1) of answering 429 with {@code Retry-After: 1}</li>
+ * </ul>
+ *
+ * Any other parameter is ignored, so callers can add one (e.g. {@code n=<seq>}) to make URLs unique.
+ */
+public final class RawFileServer implements AutoCloseable {
+
+    private static final int CHUNK = 64 * 1024;
+    // a PDF header, then filler; enough for anything that sniffs the first bytes
+    private static final byte[] HEADER = "%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong redirected = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private RawFileServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /** @param port 0 for any free port */
+    public static RawFileServer start(int port) throws IOException {
+        return new RawFileServer(port);
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /** {@code http://127.0.0.1:<port>}, the value for {@code kindledrop.download.extra-origins}. */
+    public String origin() {
+        return "http://127.0.0.1:" + port();
+    }
+
+    public Stats stats() {
+        return new Stats(served.get(), redirected.get(), throttled.get(), bytes.get());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            URI uri = exchange.getRequestURI();
+            Map<String, String> query = query(uri.getRawQuery());
+            long size;
+            long latencyMs;
+            int redirects;
+            double throttle;
+            try {
+                size = Long.parseLong(query.getOrDefault("size", "1048576"));
+                latencyMs = Long.parseLong(query.getOrDefault("latencyMs", "0"));
+                redirects = Integer.parseInt(query.getOrDefault("redirects", "0"));
+                throttle = Double.parseDouble(query.getOrDefault("throttle", "0"));
+            } catch (NumberFormatException e) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            if (latencyMs > 0) Thread.sleep(Duration.ofMillis(latencyMs));
+
+            if (throttle > 0 && ThreadLocalRandom.current().nextDouble() < throttle) {
+                throttled.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(429, -1);
+                return;
+            }
+            if (redirects > 0) {
+                redirected.incrementAndGet();
+                query.put("redirects", Integer.toString(redirects - 1));
+                exchange.getResponseHeaders().set("Location", uri.getRawPath() + "?" + format(query));
+                exchange.sendResponseHeaders(302, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, size == 0 ? -1 : size);
+            try (OutputStream out = exchange.getResponseBody()) {
+                byte[] chunk = new byte[(int) Math.min(CHUNK, Math.max(size, 1))];
+                System.arraycopy(HEADER, 0, chunk, 0, Math.min(HEADER.length, chunk.length));
+                for (long left = size; left > 0; ) {
+                    int n = (int) Math.min(chunk.length, left);
+                    out.write(chunk, 0, n);
+                    left -= n;
+                }
+            }
+            served.incrementAndGet();
+            bytes.addAndGet(size);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> out = new HashMap<>();
+        if (raw == null || raw.isEmpty()) return out;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) out.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return out;
+    }
+
+    private static String format(Map<String, String> query) {
+        StringBuilder out = new StringBuilder();
+        query.forEach((k, v) -> {
+            if (!out.isEmpty()) out.append('&');
+            out.append(k).append('=').append(v);
+        });
+        return out.toString();
+    }
+
+    public record Stats(long served, long redirected, long throttled, long bytes) {}
+}
@@ -0,0 +1,147 @@
+package io.kindledrop.engine.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A loopback SMTP server that accepts everything and throws it away. It answers the end of every DATA phase
+ * only after {@code acceptLatency}, like a relay that scans content before queueing it. It speaks just enough
+ * ESMTP (EHLO, AUTH PLAIN, MAIL, RCPT, DATA, RSET, NOOP, QUIT) for the engine's mailer. Each connection gets
+ * its own virtual thread, so the sink itself never limits a test. With {@code bytesPerSecond}, the answer is also
+ * held back by the time the message would take over an uplink of that speed, so message size shows in send time.
+ */
+public final class SmtpSink implements AutoCloseable {
+
+    private final ServerSocket socket;
+    private final Duration acceptLatency;
+    private final long bytesPerSecond;
+    private final ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger inData = new AtomicInteger();
+    private final AtomicInteger peakInData = new AtomicInteger();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private SmtpSink(int port, Duration acceptLatency, long bytesPerSecond) throws IOException {
+        this.acceptLatency = acceptLatency;
+        this.bytesPerSecond = bytesPerSecond;
+        this.socket = new ServerSocket(port, 4096, InetAddress.getLoopbackAddress());
+        Thread.ofPlatform().daemon().name("smtp-sink-accept").start(this::accept);
+    }
+
+    /** @param port 0 for any free port */
+    public static SmtpSink start(int port, Duration acceptLatency) throws IOException {
+        return new SmtpSink(port, acceptLatency, 0);
+    }
+
+    /** @param bytesPerSecond simulated uplink speed; 0 for unlimited */
+    public static SmtpSink start(int port, Duration acceptLatency, long bytesPerSecond) throws IOException {
+        return new SmtpSink(port, acceptLatency, bytesPerSecond);
+    }
+
+    public int port() {
+        return socket.getLocalPort();
+    }
+
+    public long messages() {
+        return messages.get();
+    }
+
+    /** Message bytes received, as sent on the wire (base64 and headers included). */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /** Most messages that were waiting on the sink at the same moment since the last reset. */
+    public int peakConcurrentMessages() {
+        return peakInData.get();
+    }
+
+    public void resetPeak() {
+        peakInData.set(0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        sessions.shutdownNow();
+    }
+
+    private void accept() {
+        while (!socket.isClosed()) {
+            try {
+                Socket client = socket.accept();
+                sessions.submit(() -> session(client));
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void session(Socket client) {
+        try (client;
+             var in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.US_ASCII));
+             OutputStream out = client.getOutputStream()) {
+            reply(out, "220 smtp-sink ESMTP");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String cmd = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                switch (cmd) {
+                    case "EHLO" -> reply(out, "250-smtp-sink\r\n250-AUTH PLAIN\r\n250 8BITMIME");
+                    case "HELO", "MAIL", "RCPT", "RSET", "NOOP" -> reply(out, "250 OK");
+                    case "AUTH" -> {
+                        // "AUTH PLAIN" with or without the initial response
+                        if (line.trim().split(" ").length < 3) {
+                            reply(out, "334 ");
+                            in.readLine();
+                        }
+                        reply(out, "235 Authenticated");
+                    }
+                    case "DATA" -> {
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        long size = 0;
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            size += line.length() + 2;
+                        }
+                        // dropped before the final dot: a relay delivers nothing
+                        if (line == null) return;
+                        int now = inData.incrementAndGet();
+                        peakInData.accumulateAndGet(now, Math::max);
+                        try {
+                            Thread.sleep(bytesPerSecond > 0
+                                    ? acceptLatency.plusNanos(size * 1_000_000_000L / bytesPerSecond)
+                                    : acceptLatency);
+                        } finally {
+                            inData.decrementAndGet();
+                        }
+                        messages.incrementAndGet();
+                        bytes.addAndGet(size);
+                        reply(out, "250 Queued");
+                    }
+                    case "QUIT" -> {
+                        reply(out, "221 Bye");
+                        return;
+                    }
+                    default -> reply(out, "502 Not implemented");
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // client went away or sink closing
+        }
+    }
+
+    private static void reply(OutputStream out, String text) throws IOException {
+        out.write((text + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+}
@@ -0,0 +1,183 @@
+package io.kindledrop.engine.loadtest;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entry point for {@code ./gradlew cdsArchive} and {@code ./gradlew startupReport}. Launches the extracted engine
+ * jar as a child process against the raw-file stand-in and the SMTP sink, and measures time-to-first-successful-send:
+ * from process start until a real {@code POST /api/send} (download and mail included) answers {@code ok:true}.
+ *
+ * <pre>
+ *   --jar build/fast-start/kindledrop-engine-0.1.0.jar   extracted engine jar
+ *   --archive build/fast-start/kindledrop-engine.jsa     CDS archive to write (--train) or use
+ *   --train                                              one AOT run that writes the archive at exit
+ *   --runs 5                                             launches per mode for the report
+ * </pre>
+ *
+ * The report launches each mode {@code --runs} times: {@code baseline} (plain JIT start, warm-up off, i.e. before
+ * this mode existed), {@code jit}, {@code aot} and {@code aot+cds}.
+ */
+public final class StartupProbe {
+
+    private static final Duration START_TIMEOUT = Duration.ofSeconds(60);
+    private static final int TRAINING_SENDS = 20;
+
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+    private final Path jar;
+    private final RawFileServer files;
+    private final SmtpSink smtp;
+
+    private StartupProbe(Path jar, RawFileServer files, SmtpSink smtp) {
+        this.jar = jar;
+        this.files = files;
+        this.smtp = smtp;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = LoadTest.parse(args);
+        if (!opts.containsKey("jar")) throw new IllegalArgumentException("--jar is required");
+        Path jar = Path.of(opts.get("jar"));
+        Path archive = Path.of(opts.getOrDefault("archive", jar.resolveSibling("kindledrop-engine.jsa").toString()));
+        if (!Files.isRegularFile(jar)) throw new IllegalArgumentException("No such jar: " + jar + " (run ./gradlew extractBootJar)");
+
+        try (RawFileServer files = RawFileServer.start(0);
+             SmtpSink smtp = SmtpSink.start(0, Duration.ZERO)) {
+            StartupProbe probe = new StartupProbe(jar, files, smtp);
+            if (opts.containsKey("train")) {
+                probe.train(archive);
+            } else {
+                probe.report(archive, Integer.parseInt(opts.getOrDefault("runs", "5")));
+            }
+        }
+    }
+
+    /**
+     * One AOT launch with {@code -XX:ArchiveClassesAtExit}: the first send, then a mix of sends so the archive
+     * covers the classes of the steady path too. The JVM writes the archive when it exits on SIGTERM.
+     */
+    private void train(Path archive) throws Exception {
+        Files.deleteIfExists(archive);
+        int port = freePort();
+        long t0 = System.nanoTime();
+        Process engine = launch("training", port, List.of("-XX:ArchiveClassesAtExit=" + archive, "-Dspring.aot.enabled=true"), List.of());
+        try {
+            long first = firstSend(engine, port, t0);
+            for (int i = 1; i <= TRAINING_SENDS; i++) {
+                send(port, "/api/send", LoadTest.body(files.origin(), "size=" + (i * 64 * 1024), i, smtp.port()));
+            }
+            send(port, "/api/send?nonBlocking=true", LoadTest.body(files.origin(), "size=65536", 0, smtp.port()));
+            send(port, "/api/send", LoadTest.body(files.origin(), "size=65536", 0, smtp.port()).replace("\"dryRun\":false", "\"dryRun\":true"));
+            System.out.printf("training run: first send after %d ms, %d messages mailed%n", TimeUnit.NANOSECONDS.toMillis(first), smtp.messages());
+        } finally {
+            stop(engine);
+        }
+        if (!Files.isRegularFile(archive)) {
+            throw new IllegalStateException("JVM wrote no archive to " + archive + "; see " + log("training"));
+        }
+        System.out.printf("CDS archive: %s (%d MB)%n", archive, Files.size(archive) >> 20);
+    }
+
+    private void report(Path archive, int runs) throws Exception {
+        List<Mode> modes = new ArrayList<>(List.of(
+                new Mode("baseline", List.of(), List.of("--kindledrop.startup.warm-up=false")),
+                new Mode("jit", List.of(), List.of()),
+                new Mode("aot", List.of("-Dspring.aot.enabled=true"), List.of())
+        ));
+        if (Files.isRegularFile(archive)) {
+            modes.add(new Mode("aot+cds", List.of("-Dspring.aot.enabled=true", "-XX:SharedArchiveFile=" + archive, "-Xshare:auto"), List.of()));
+        } else {
+            System.out.printf("no CDS archive at %s, skipping aot+cds (run ./gradlew cdsArchive)%n", archive);
+        }
+
+        System.out.printf("time to first successful send, %d runs per mode%n%n", runs);
+        System.out.printf("%-9s %9s %9s %9s%n", "mode", "median ms", "min ms", "max ms");
+        for (Mode mode : modes) {
+            long[] millis = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                int port = freePort();
+                long t0 = System.nanoTime();
+                Process engine = launch(mode.name(), port, mode.jvmArgs(), mode.appArgs());
+                try {
+                    millis[i] = TimeUnit.NANOSECONDS.toMillis(firstSend(engine, port, t0));
+                } finally {
+                    stop(engine);
+                }
+            }
+            Arrays.sort(millis);
+            System.out.printf("%-9s %9d %9d %9d%n", mode.name(), millis[runs / 2], millis[0], millis[runs - 1]);
+        }
+    }
+
+    private Process launch(String name, int port, List<String> jvmArgs, List<String> appArgs) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ProcessHandle.current().info().command().orElse("java"));
+        cmd.addAll(jvmArgs);
+        cmd.add("-jar");
+        cmd.add(jar.toString());
+        cmd.add("--server.port=" + port);
+        cmd.add("--kindledrop.download.extra-origins=" + files.origin());
+        cmd.add("--kindledrop.cache.enabled=false");
+        cmd.addAll(appArgs);
+        return new ProcessBuilder(cmd)
+                .redirectErrorStream(true)
+                .redirectOutput(log(name).toFile())
+                .start();
+    }
+
+    /** Polls {@code /api/send} until a send succeeds, from just before the launch; returns the elapsed nanoseconds. */
+    private long firstSend(Process engine, int port, long launchedAt) throws Exception {
+        long deadline = launchedAt + START_TIMEOUT.toNanos();
+        String body = LoadTest.body(files.origin(), "size=1048576", 0, smtp.port());
+        while (System.nanoTime() < deadline) {
+            if (!engine.isAlive()) throw new IllegalStateException("Engine exited with " + engine.exitValue() + "; see its log");
+            try {
+                if (send(port, "/api/send", body)) return System.nanoTime() - launchedAt;
+            } catch (ConnectException e) {
+                // not listening yet
+            }
+            Thread.sleep(10);
+        }
+        throw new IllegalStateException("No successful send within " + START_TIMEOUT);
+    }
+
+    private boolean send(int port, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + path))
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        HttpResponse<String> resp = client.send(request, HttpResponse.BodyHandlers.ofString());
+        return resp.statusCode() == 200 && resp.body().replace(" ", "").contains("\"ok\":true");
+    }
+
+    private static void stop(Process engine) throws InterruptedException {
+        engine.destroy();
+        if (!engine.waitFor(30, TimeUnit.SECONDS)) engine.destroyForcibly().waitFor();
+    }
+
+    private Path log(String mode) {
+        return jar.resolveSibling("startup-" + mode.replace('+', '-') + ".log");
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private record Mode(String name, List<String> jvmArgs, List<String> appArgs) {}
+}
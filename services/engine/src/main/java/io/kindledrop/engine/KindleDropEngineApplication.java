@@ -2,8 +2,10 @@ package io.kindledrop.engine;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class KindleDropEngineApplication {
     public static void main(String[] args) {
         SpringApplication.run(KindleDropEngineApplication.class, args);
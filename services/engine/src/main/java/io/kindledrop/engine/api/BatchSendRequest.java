@@ -0,0 +1,15 @@
+package io.kindledrop.engine.api;
+
+import jakarta.validation.constraints.Email;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.List;
+
+public record BatchSendRequest(
+        @NotEmpty List<@NotBlank String> urls,
+        @NotBlank @Email String kindleEmail,
+        boolean dryRun,
+        SendRequest.SmtpConfig smtp,
+        SendRequest.Limits limits
+) {}
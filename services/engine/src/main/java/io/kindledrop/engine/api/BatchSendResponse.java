@@ -0,0 +1,18 @@
+package io.kindledrop.engine.api;
+
+import java.util.List;
+
+public record BatchSendResponse(
+        boolean ok,
+        int messages,
+        List<Item> results
+) {
+    public record Item(
+            String url,
+            boolean ok,
+            String resolvedUrl,
+            String fileName,
+            long bytes,
+            String message
+    ) {}
+}
@@ -0,0 +1,56 @@
+package io.kindledrop.engine.api;
+
+import io.kindledrop.engine.service.SendJobService;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.net.URI;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api")
+public class JobController {
+
+    private final SendJobService jobs;
+
+    public JobController(SendJobService jobs) {
+        this.jobs = jobs;
+    }
+
+    @PostMapping(path = "/send", params = {"async=true", "nonBlocking!=true"},
+            consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatusResponse> submitAsync(@Valid @RequestBody SendRequest req) {
+        return submit(req);
+    }
+
+    @PostMapping(path = "/jobs", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatusResponse> submit(@Valid @RequestBody SendRequest req) {
+        var job = jobs.submit(req);
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/jobs/" + job.id()))
+                .body(JobStatusResponse.of(job));
+    }
+
+    @GetMapping(path = "/jobs/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<JobStatusResponse> status(@PathVariable String id) {
+        return jobs.find(id)
+                .map(JobStatusResponse::of)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("ok", false, "message", e.getMessage() == null ? "Invalid request." : e.getMessage()));
+    }
+
+    @ExceptionHandler(SendJobService.JobQueueFullException.class)
+    public ResponseEntity<Map<String, Object>> queueFull(SendJobService.JobQueueFullException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "5")
+                .body(Map.of("ok", false, "message", e.getMessage()));
+    }
+}
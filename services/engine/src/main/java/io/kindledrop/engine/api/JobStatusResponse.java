@@ -0,0 +1,41 @@
+package io.kindledrop.engine.api;
+
+import io.kindledrop.engine.service.SendJob;
+
+import java.time.Instant;
+import java.util.Map;
+
+public record JobStatusResponse(
+        String id,
+        String state,
+        Instant submittedAt,
+        Instant startedAt,
+        Instant finishedAt,
+        String resolvedUrl,
+        String fileName,
+        long bytes,
+        String message,
+        Map<String, Long> stageMillis,
+        int attempts,
+        long queueMillis,
+        long expectedBytes
+) {
+    public static JobStatusResponse of(SendJob job) {
+        SendResponse r = job.result();
+        return new JobStatusResponse(
+                job.id(),
+                job.state().name(),
+                job.submittedAt(),
+                job.startedAt(),
+                job.finishedAt(),
+                r == null ? null : r.resolvedUrl(),
+                r == null ? null : r.fileName(),
+                r == null ? 0 : r.bytes(),
+                job.error() != null ? job.error() : (r == null ? null : r.message()),
+                job.timings().millis(),
+                job.attempts(),
+                job.queueWait().toMillis(),
+                job.expectedBytes()
+        );
+    }
+}
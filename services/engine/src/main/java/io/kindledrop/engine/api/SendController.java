@@ -1,22 +1,123 @@
 package io.kindledrop.engine.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.kindledrop.engine.download.OverloadedException;
+import io.kindledrop.engine.download.UnexpectedContentException;
+import io.kindledrop.engine.metrics.SendEvents;
+import io.kindledrop.engine.service.BatchSendService;
+import io.kindledrop.engine.service.SendJobService;
 import io.kindledrop.engine.service.SendToKindleService;
+import io.kindledrop.engine.service.StageTimeoutException;
+import io.kindledrop.engine.service.TreeSendService;
 import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.http.HttpTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/api")
 public class SendController {
 
     private final SendToKindleService service;
+    private final BatchSendService batchService;
+    private final TreeSendService treeService;
+    private final SendJobService jobs;
+    private final ObjectMapper json;
 
-    public SendController(SendToKindleService service) {
+    public SendController(SendToKindleService service, BatchSendService batchService, TreeSendService treeService,
+                          SendJobService jobs, ObjectMapper json) {
         this.service = service;
+        this.batchService = batchService;
+        this.treeService = treeService;
+        this.jobs = jobs;
+        this.json = json;
     }
 
+    /** In cluster mode the send runs on whichever node has a free worker; dry runs stay local. */
     @PostMapping(path = "/send", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
     public SendResponse send(@Valid @RequestBody SendRequest req) throws Exception {
+        if (jobs.isShared() && !req.dryRun()) return jobs.sendShared(req);
         return service.send(req);
     }
+
+    /**
+     * Same contract as {@code POST /api/send}, but the request thread is released while the file downloads;
+     * the response is written when the send completes.
+     */
+    @PostMapping(path = "/send", params = {"nonBlocking=true", "async!=true"},
+            consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public CompletableFuture<SendResponse> sendNonBlocking(@Valid @RequestBody SendRequest req) throws IOException {
+        return service.sendNonBlocking(req);
+    }
+
+    /** Either the job API answers at once or the send answers when done; both at once has no meaning. */
+    @PostMapping(path = "/send", params = {"async=true", "nonBlocking=true"})
+    public SendResponse asyncAndNonBlocking() {
+        throw new IllegalArgumentException("async and nonBlocking cannot be combined.");
+    }
+
+    @PostMapping(path = "/send/batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public BatchSendResponse sendBatch(@Valid @RequestBody BatchSendRequest req) throws Exception {
+        return batchService.send(req);
+    }
+
+    /**
+     * Sends every document under a GitHub folder link. The response is NDJSON: one {@code file} line per
+     * document as it finishes, then a {@code done} (or {@code error}) line.
+     */
+    @PostMapping(path = "/send/tree", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> sendTree(@Valid @RequestBody SendRequest req) {
+        // parse before streaming starts so a bad link is still a plain 400
+        var tree = treeService.parse(req.url());
+        // written on an async request thread, which does not inherit the request's correlation id
+        String correlationId = SendEvents.correlationId();
+        StreamingResponseBody body = out -> {
+            try (var ignored = SendEvents.correlate(correlationId)) {
+                treeService.send(req, tree, event -> {
+                    try {
+                        out.write(json.writeValueAsBytes(event));
+                        out.write('\n');
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Folder send interrupted");
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, Object>> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("ok", false, "message", e.getMessage() == null ? "Invalid request." : e.getMessage()));
+    }
+
+    @ExceptionHandler(OverloadedException.class)
+    public ResponseEntity<Map<String, Object>> overloaded(OverloadedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header("Retry-After", String.valueOf(Math.max(1, e.retryAfter().toSeconds())))
+                .body(Map.of("ok", false, "message", e.getMessage()));
+    }
+
+    @ExceptionHandler(UnexpectedContentException.class)
+    public ResponseEntity<Map<String, Object>> unexpectedContent(UnexpectedContentException e) {
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(Map.of("ok", false, "message", e.getMessage()));
+    }
+
+    @ExceptionHandler({StageTimeoutException.class, HttpTimeoutException.class})
+    public ResponseEntity<Map<String, Object>> timedOut(IOException e) {
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(Map.of("ok", false, "message", e.getMessage()));
+    }
 }
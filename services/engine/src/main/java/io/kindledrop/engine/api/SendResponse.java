@@ -5,5 +5,11 @@ public record SendResponse(
         String resolvedUrl,
         String fileName,
         long bytes,
-        String message
-) {}
+        String message,
+        long bytesSaved
+) {
+    /** {@code bytesSaved}: attachment bytes an EPUB repack took off the download size, 0 if it was sent as is. */
+    public SendResponse(boolean ok, String resolvedUrl, String fileName, long bytes, String message) {
+        this(ok, resolvedUrl, fileName, bytes, message, 0);
+    }
+}
@@ -0,0 +1,33 @@
+package io.kindledrop.engine.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One NDJSON line of a folder send. There is one {@code file} event per file as it finishes, then a final
+ * {@code done} event, or an {@code error} event if listing the folder failed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record TreeSendEvent(
+        String event,
+        String path,
+        Boolean ok,
+        String resolvedUrl,
+        String fileName,
+        Long bytes,
+        String message,
+        Integer files,
+        Integer sent,
+        Boolean truncated
+) {
+    public static TreeSendEvent file(String path, boolean ok, String resolvedUrl, String fileName, long bytes, String message) {
+        return new TreeSendEvent("file", path, ok, resolvedUrl, fileName, bytes, message, null, null, null);
+    }
+
+    public static TreeSendEvent done(int files, int sent, boolean truncated) {
+        return new TreeSendEvent("done", null, files == sent, null, null, null, null, files, sent, truncated);
+    }
+
+    public static TreeSendEvent error(String message) {
+        return new TreeSendEvent("error", null, false, null, null, null, message, null, null, null);
+    }
+}
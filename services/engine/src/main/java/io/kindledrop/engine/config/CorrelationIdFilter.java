@@ -0,0 +1,35 @@
+package io.kindledrop.engine.config;
+
+import io.kindledrop.engine.metrics.SendEvents;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.regex.Pattern;
+
+/**
+ * Gives every API call a correlation id for the flight recorder events: the caller's {@code X-Request-Id} if it
+ * is a plain token, otherwise a fresh one. It is echoed back in the response header.
+ */
+@Component
+public class CorrelationIdFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-Request-Id";
+
+    private static final Pattern VALID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String id = request.getHeader(HEADER);
+        if (id == null || !VALID.matcher(id).matches()) id = SendEvents.newId();
+        response.setHeader(HEADER, id);
+        try (var ignored = SendEvents.correlate(id)) {
+            chain.doFilter(request, response);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package io.kindledrop.engine.config;
+
+import io.kindledrop.engine.metrics.SendEvents;
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.boot.actuate.endpoint.web.WebEndpointResponse;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Time-boxed flight recordings on demand, at {@code /actuator/flightrecording}. A POST starts one with the send
+ * events enabled on top of the configured JVM settings; it stops by itself after its duration (capped at
+ * {@code max-duration}) and is written to the recording directory, where the newest {@code keep} files are kept.
+ * A DELETE stops the running one early and writes what it has. One recording at a time.
+ */
+@Component
+@Endpoint(id = "flightrecording")
+public class FlightRecordingEndpoint {
+
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    private final KindleDropProperties.FlightRecording props;
+    private final Path dir;
+    private Recording active;
+    private Path activeFile;
+
+    public FlightRecordingEndpoint(KindleDropProperties props) {
+        this.props = props.flightRecording();
+        this.dir = this.props.dir().isBlank()
+                ? Path.of(System.getProperty("java.io.tmpdir"), "kindledrop-jfr")
+                : Path.of(this.props.dir());
+    }
+
+    @WriteOperation
+    public synchronized WebEndpointResponse<Map<String, Object>> start(@Nullable Duration duration) {
+        if (!FlightRecorder.isAvailable()) {
+            return new WebEndpointResponse<>(Map.of("message", "Flight recorder is not available in this JVM."),
+                    WebEndpointResponse.STATUS_SERVICE_UNAVAILABLE);
+        }
+        if (running()) {
+            return new WebEndpointResponse<>(describe(), 409);
+        }
+        Duration d = duration == null || duration.isNegative() || duration.isZero() ? props.defaultDuration() : duration;
+        if (d.compareTo(props.maxDuration()) > 0) d = props.maxDuration();
+
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration(props.settings()));
+        } catch (IOException | ParseException e) {
+            return new WebEndpointResponse<>(Map.of("message", "Unknown recording settings: " + props.settings()),
+                    WebEndpointResponse.STATUS_INTERNAL_SERVER_ERROR);
+        }
+        try {
+            Files.createDirectories(dir);
+            prune(props.keep() - 1);
+            Path file = dir.resolve("kindledrop-" + STAMP.format(Instant.now()) + ".jfr");
+            for (Class<? extends Event> type : SendEvents.TYPES) {
+                recording.enable(type);
+            }
+            recording.setName(file.getFileName().toString());
+            recording.setToDisk(true);
+            recording.setDestination(file);
+            recording.setDuration(d);
+            recording.start();
+            // the previous one has stopped and been written; release its repository chunks
+            if (active != null) active.close();
+            active = recording;
+            activeFile = file;
+        } catch (IOException | RuntimeException e) {
+            recording.close();
+            return new WebEndpointResponse<>(Map.of("message", "Could not start a recording: " + e.getMessage()),
+                    WebEndpointResponse.STATUS_INTERNAL_SERVER_ERROR);
+        }
+        return new WebEndpointResponse<>(describe(), WebEndpointResponse.STATUS_OK);
+    }
+
+    @ReadOperation
+    public synchronized Map<String, Object> status() {
+        Map<String, Object> out = describe();
+        List<Map<String, Object>> files = new ArrayList<>();
+        for (Path file : recordings()) {
+            try {
+                files.add(Map.of("file", file.toString(), "bytes", Files.size(file),
+                        "modified", Files.getLastModifiedTime(file).toInstant().toString()));
+            } catch (IOException ignored) {
+                // pruned or still being written
+            }
+        }
+        out.put("files", files);
+        return out;
+    }
+
+    @DeleteOperation
+    public synchronized Map<String, Object> stop() {
+        if (running()) {
+            // writes the recording to its destination
+            active.stop();
+        }
+        return describe();
+    }
+
+    private boolean running() {
+        return active != null && active.getState() == RecordingState.RUNNING;
+    }
+
+    private Map<String, Object> describe() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("dir", dir.toString());
+        if (active == null) {
+            out.put("recording", null);
+            return out;
+        }
+        Map<String, Object> recording = new LinkedHashMap<>();
+        recording.put("file", activeFile.toString());
+        recording.put("state", active.getState().name());
+        recording.put("startedAt", String.valueOf(active.getStartTime()));
+        recording.put("duration", String.valueOf(active.getDuration()));
+        out.put("recording", recording);
+        return out;
+    }
+
+    /** Newest first. */
+    private List<Path> recordings() {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".jfr"))
+                    .sorted(Comparator.comparing(Path::getFileName).reversed())
+                    .toList();
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+
+    private void prune(int keep) {
+        List<Path> files = recordings();
+        for (int i = Math.max(0, keep); i < files.size(); i++) {
+            try {
+                Files.deleteIfExists(files.get(i));
+            } catch (IOException ignored) {
+                // retried on the next start
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package io.kindledrop.engine.config;
+
+import io.kindledrop.engine.service.SendJobService;
+import io.kindledrop.engine.service.SendToKindleService;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Engine internals that are useful when tuning under load, at {@code /actuator/kindledrop}. Not exposed over
+ * HTTP by default, as it names hosts, queued work and cluster nodes.
+ */
+@Component
+@Endpoint(id = "kindledrop")
+public class KindleDropEndpoint {
+
+    private final SendToKindleService service;
+    private final SendJobService jobs;
+
+    public KindleDropEndpoint(SendToKindleService service, SendJobService jobs) {
+        this.service = service;
+        this.jobs = jobs;
+    }
+
+    @ReadOperation
+    public Map<String, Object> stats() {
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("admission", service.admissionStats());
+        out.put("smtpPool", service.smtpPoolStats());
+        out.put("resolverCache", service.resolverCacheStats());
+        out.put("downloadCache", service.downloadCacheStats());
+        out.put("downloads", service.coalescerStats());
+        out.put("staging", service.stagingStats());
+        out.put("hostLimits", service.rateLimiterStats());
+        out.put("jobs", Map.of("queued", jobs.queueDepth(), "running", jobs.activeWorkers()));
+        out.put("scheduler", jobs.schedulerStats());
+        out.put("outbox", jobs.outboxStats());
+        out.put("cluster", jobs.clusterStats());
+        return out;
+    }
+}
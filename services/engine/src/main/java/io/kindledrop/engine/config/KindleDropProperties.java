@@ -0,0 +1,152 @@
+package io.kindledrop.engine.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
+
+@ConfigurationProperties(prefix = "kindledrop")
+public record KindleDropProperties(
+        @DefaultValue SmtpPool smtpPool,
+        @DefaultValue Jobs jobs,
+        @DefaultValue Batch batch,
+        @DefaultValue Cache cache,
+        @DefaultValue Streaming streaming,
+        @DefaultValue Download download,
+        @DefaultValue RateLimit rateLimit,
+        @DefaultValue Outbox outbox,
+        @DefaultValue Tree tree,
+        @DefaultValue Admission admission,
+        @DefaultValue Staging staging,
+        @DefaultValue Send send,
+        @DefaultValue NonBlocking nonBlocking,
+        @DefaultValue Startup startup,
+        @DefaultValue Cluster cluster,
+        @DefaultValue FlightRecording flightRecording,
+        @DefaultValue Repack repack
+) {
+    public record SmtpPool(
+            @DefaultValue("4") int maxPerKey,
+            @DefaultValue("100") int maxKeys,
+            @DefaultValue("60s") Duration idleTimeout,
+            @DefaultValue("5s") Duration validateAfterIdle,
+            @DefaultValue("30s") Duration borrowTimeout
+    ) {}
+
+    public record Jobs(
+            @DefaultValue("8") int workers,
+            @DefaultValue("200") int queueCapacity,
+            @DefaultValue("false") boolean virtualThreads,
+            @DefaultValue("1h") Duration retention,
+            @DefaultValue("true") boolean sizeAware,
+            @DefaultValue("1MB") DataSize ageingRate,
+            @DefaultValue("2s") Duration probeTimeout
+    ) {}
+
+    public record Batch(
+            @DefaultValue("50") int maxUrls,
+            @DefaultValue("4") int downloadConcurrency,
+            @DefaultValue("25MB") DataSize maxMessageSize
+    ) {}
+
+    public record Cache(
+            @DefaultValue("true") boolean enabled,
+            @DefaultValue("") String dir,
+            @DefaultValue("1GB") DataSize maxSize
+    ) {}
+
+    public record Streaming(
+            @DefaultValue("false") boolean enabled,
+            @DefaultValue("1MB") DataSize bufferSize
+    ) {}
+
+    public record Download(
+            @DefaultValue("4") int rangeParts,
+            @DefaultValue("8MB") DataSize rangeMinSize,
+            @DefaultValue("3") int rangeMaxAttempts,
+            @DefaultValue List<String> extraOrigins,
+            @DefaultValue("true") boolean validateContent
+    ) {}
+
+    public record RateLimit(
+            @DefaultValue("8") int initialLimit,
+            @DefaultValue("1") int minLimit,
+            @DefaultValue("32") int maxLimit,
+            @DefaultValue("60s") Duration maxWait,
+            @DefaultValue("500") int maxQueue,
+            @DefaultValue("4") int maxAttempts,
+            @DefaultValue("30s") Duration maxRetryAfter
+    ) {}
+
+    public record Outbox(
+            @DefaultValue("true") boolean enabled,
+            @DefaultValue("") String dir,
+            @DefaultValue("16MB") DataSize segmentSize,
+            @DefaultValue("10000") int maxPending,
+            @DefaultValue("5") int maxAttempts,
+            @DefaultValue("30s") Duration retryBackoff
+    ) {}
+
+    public record Tree(
+            @DefaultValue("https://api.github.com") String apiBaseUrl,
+            @DefaultValue("") String token,
+            @DefaultValue("100") int maxFiles,
+            @DefaultValue("4") int listConcurrency,
+            @DefaultValue("4") int downloadConcurrency,
+            @DefaultValue("2") int mailConcurrency,
+            @DefaultValue("2") int mailQueue
+    ) {}
+
+    public record Admission(
+            @DefaultValue("true") boolean enabled,
+            @DefaultValue("1GB") DataSize maxInFlightBytes,
+            @DefaultValue("64") int maxInFlightSends,
+            @DefaultValue("1MB") DataSize initialEstimate,
+            @DefaultValue("5s") Duration retryAfter
+    ) {}
+
+    public record Staging(
+            @DefaultValue("true") boolean enabled,
+            @DefaultValue("4MB") DataSize memoryThreshold,
+            @DefaultValue("128MB") DataSize poolSize,
+            @DefaultValue("256KB") DataSize slabSize
+    ) {}
+
+    public record Send(
+            @DefaultValue("10m") Duration timeout,
+            @DefaultValue("5m") Duration downloadTimeout,
+            @DefaultValue("5m") Duration mailTimeout
+    ) {}
+
+    public record NonBlocking(
+            @DefaultValue("8") int mailThreads
+    ) {}
+
+    public record Startup(
+            @DefaultValue("true") boolean warmUp
+    ) {}
+
+    public record Cluster(
+            @DefaultValue("false") boolean enabled,
+            @DefaultValue("") String dir,
+            @DefaultValue("") String nodeId,
+            @DefaultValue("30s") Duration leaseTtl,
+            @DefaultValue("250ms") Duration pollInterval
+    ) {}
+
+    public record FlightRecording(
+            @DefaultValue("") String dir,
+            @DefaultValue("60s") Duration defaultDuration,
+            @DefaultValue("5m") Duration maxDuration,
+            @DefaultValue("default") String settings,
+            @DefaultValue("10") int keep
+    ) {}
+
+    public record Repack(
+            @DefaultValue("false") boolean enabled,
+            @DefaultValue("9") int level,
+            @DefaultValue("0.05") double minSavings
+    ) {}
+}
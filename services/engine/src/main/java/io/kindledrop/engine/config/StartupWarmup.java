@@ -0,0 +1,61 @@
+package io.kindledrop.engine.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.kindledrop.engine.api.SendRequest;
+import io.kindledrop.engine.api.SendResponse;
+import io.kindledrop.engine.service.SendToKindleService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+
+/**
+ * Exercises the send path once as soon as the engine is up (request JSON, resolver, HTTP clients, MIME assembly),
+ * so a one-off send from the CLI does not pay for class loading and first-call setup. Nothing leaves the machine.
+ * Disable with {@code kindledrop.startup.warm-up=false}.
+ */
+@Component
+public class StartupWarmup {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupWarmup.class);
+
+    private static final String SAMPLE_REQUEST = """
+            {"url":"https://github.com/kindledrop/warmup/blob/main/warmup.pdf","kindleEmail":"warmup@kindle.com",
+             "dryRun":true,"smtp":{"host":"localhost","port":587,"user":"warmup","from":"warmup@localhost",
+             "useStartTLS":true,"useSSL":false,"password":"unused"},"limits":{"maxBytes":1024}}""";
+
+    private final SendToKindleService service;
+    private final ObjectMapper json;
+    private final boolean enabled;
+
+    public StartupWarmup(SendToKindleService service, ObjectMapper json, KindleDropProperties props) {
+        this.service = service;
+        this.json = json;
+        this.enabled = props.startup().warmUp();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady(ApplicationReadyEvent event) {
+        if (!enabled) return;
+        long t0 = System.nanoTime();
+        try {
+            SendRequest request = json.readValue(SAMPLE_REQUEST, SendRequest.class);
+            json.writeValueAsString(new SendResponse(true, request.url(), "warmup.pdf", 0, "Dry run: resolved + validated."));
+
+            // a GET to our own info endpoint starts both HTTP clients and initializes the dispatcher servlet
+            URI self = null;
+            if (event.getApplicationContext() instanceof WebServerApplicationContext web && web.getWebServer().getPort() > 0) {
+                self = URI.create("http://127.0.0.1:" + web.getWebServer().getPort() + "/actuator/info");
+            }
+            service.warmUp(self);
+            log.info("Send path warmed up in {} ms", (System.nanoTime() - t0) / 1_000_000);
+        } catch (Exception e) {
+            // don't fail startup because of warm-up
+            log.debug("Exception while warming up the send path", e);
+        }
+    }
+}
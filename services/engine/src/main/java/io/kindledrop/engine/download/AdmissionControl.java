@@ -0,0 +1,126 @@
+package io.kindledrop.engine.download;
+
+import java.time.Duration;
+
+/**
+ * Global limit on sends in flight and on the bytes they hold. Each send takes a {@link Ticket} that reserves
+ * an initial estimate. The download then adjusts the ticket to the real size, first from Content-Length and
+ * then as bytes arrive. Reservations are weighted by the base64 expansion of the MIME attachment, so the
+ * budget covers the temp file and the encoded message.
+ *
+ * <p>Nothing waits. When a send or a resize does not fit, it fails at once with {@link OverloadedException},
+ * so under overload clients get a quick 429 instead of every send slowing down. A ticket that is alone in
+ * the budget is always granted, so a single file larger than the whole budget can still be sent.
+ */
+public class AdmissionControl {
+
+    private final long maxBytes;
+    private final int maxSends;
+    private final long initialEstimate;
+    private final Duration retryAfter;
+
+    // guarded by this
+    private long bytes;
+    private int sends;
+    private long admitted;
+    private long rejected;
+
+    public AdmissionControl(long maxBytes, int maxSends, long initialEstimate, Duration retryAfter) {
+        if (maxBytes < 1 || maxSends < 1) throw new IllegalArgumentException("maxBytes and maxSends must be >= 1");
+        this.maxBytes = maxBytes;
+        this.maxSends = maxSends;
+        this.initialEstimate = initialEstimate;
+        this.retryAfter = retryAfter;
+    }
+
+    /** No limits; every send is admitted. */
+    public static AdmissionControl unlimited() {
+        return new AdmissionControl(Long.MAX_VALUE, Integer.MAX_VALUE, 0, Duration.ZERO);
+    }
+
+    public Ticket admit() throws OverloadedException {
+        long weight = weigh(initialEstimate);
+        synchronized (this) {
+            if (sends >= maxSends) {
+                throw reject("Too many sends in progress (" + maxSends + "). Try again later.");
+            }
+            if (sends > 0 && bytes + weight > maxBytes) {
+                throw reject("Too many bytes in flight. Try again later.");
+            }
+            sends++;
+            bytes += weight;
+            admitted++;
+        }
+        return new Ticket(weight);
+    }
+
+    public synchronized Stats stats() {
+        double utilization = Math.max((double) bytes / maxBytes, (double) sends / maxSends);
+        return new Stats(sends, maxSends, bytes, maxBytes, utilization, admitted, rejected);
+    }
+
+    /** Reserved bytes for a download of {@code bytes}: the file plus its base64 encoding overhead. */
+    static long weigh(long bytes) {
+        return bytes + (bytes + 2) / 3;
+    }
+
+    private synchronized boolean reserve(Ticket ticket, long needed) {
+        if (ticket.closed) return true;
+        long delta = needed - ticket.reserved;
+        // the only holder always fits, however large
+        if (delta > 0 && bytes != ticket.reserved && bytes + delta > maxBytes) {
+            rejected++;
+            return false;
+        }
+        bytes += delta;
+        ticket.reserved = needed;
+        return true;
+    }
+
+    // called with the lock held
+    private OverloadedException reject(String message) {
+        rejected++;
+        return new OverloadedException(message, retryAfter);
+    }
+
+    /** One admitted send. Close it when the send is finished, whatever the outcome. */
+    public final class Ticket implements ByteBudget, AutoCloseable {
+        // guarded by AdmissionControl.this
+        private long reserved;
+        private boolean closed;
+
+        private Ticket(long reserved) {
+            this.reserved = reserved;
+        }
+
+        /** Resizes the reservation to fit a download of {@code bytes}; shrinking always succeeds. */
+        @Override
+        public void charge(long bytes) throws OverloadedException {
+            if (!reserve(this, weigh(bytes))) {
+                throw new OverloadedException("Too many bytes in flight. Try again later.", retryAfter);
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (AdmissionControl.this) {
+                if (closed) return;
+                closed = true;
+                bytes -= reserved;
+                reserved = 0;
+                sends--;
+            }
+        }
+    }
+
+    /** @param utilization the higher of bytes and sends used, as a fraction of their limit */
+    public record Stats(
+            int sends,
+            int maxSends,
+            long bytes,
+            long maxBytes,
+            double utilization,
+            long admitted,
+            long rejected
+    ) {}
+}
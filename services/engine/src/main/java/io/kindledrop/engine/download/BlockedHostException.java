@@ -0,0 +1,9 @@
+package io.kindledrop.engine.download;
+
+/** The URL (or a redirect target) is not on the allowlist, or is not https. */
+public class BlockedHostException extends IllegalArgumentException {
+
+    public BlockedHostException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,52 @@
+package io.kindledrop.engine.download;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size direct {@link ByteBuffer} slabs, allocated on first use and recycled afterwards, up to
+ * {@code capacity} bytes in total. Callers that find the pool empty fall back to disk; nothing waits.
+ */
+public class BufferPool {
+
+    private final int slabSize;
+    private final int maxSlabs;
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final ConcurrentLinkedDeque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+
+    public BufferPool(int slabSize, long capacity) {
+        if (slabSize < 1) throw new IllegalArgumentException("slabSize must be >= 1");
+        this.slabSize = slabSize;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, capacity / slabSize);
+    }
+
+    public int slabSize() {
+        return slabSize;
+    }
+
+    /** An empty slab, or null if the pool is exhausted. */
+    public ByteBuffer tryAcquire() {
+        ByteBuffer slab = free.pollFirst();
+        if (slab != null) return slab;
+        if (allocated.incrementAndGet() > maxSlabs) {
+            allocated.decrementAndGet();
+            return null;
+        }
+        return ByteBuffer.allocateDirect(slabSize);
+    }
+
+    public void release(ByteBuffer slab) {
+        slab.clear();
+        // LIFO keeps the most recently touched slabs warm
+        free.offerFirst(slab);
+    }
+
+    public Stats stats() {
+        int total = allocated.get();
+        int idle = free.size();
+        return new Stats(slabSize, maxSlabs, total, total - idle);
+    }
+
+    public record Stats(int slabSize, int maxSlabs, int allocated, int inUse) {}
+}
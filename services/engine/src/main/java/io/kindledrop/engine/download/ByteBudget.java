@@ -0,0 +1,16 @@
+package io.kindledrop.engine.download;
+
+import java.io.IOException;
+
+/**
+ * Receives a download's size as it becomes known: once from Content-Length, then again whenever more bytes
+ * arrive than were announced. May refuse by throwing, which aborts the download.
+ */
+@FunctionalInterface
+public interface ByteBudget {
+
+    ByteBudget NONE = bytes -> {};
+
+    /** The download needs at least {@code bytes} bytes in total. */
+    void charge(long bytes) throws IOException;
+}
@@ -0,0 +1,168 @@
+package io.kindledrop.engine.download;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+/**
+ * Stages a response body as the HTTP client pushes it, so no thread sits blocked on a stream while a slow
+ * origin trickles bytes. The {@code maxBytes} cap and the byte budget apply as in
+ * {@link SecureDownloader#copyCapped}, and so does the {@link ContentValidator} check, which cancels the
+ * transfer on the first wrong bytes. The next buffer is requested only once the previous one is staged.
+ *
+ * <p>Staging may write to disk, so it runs on {@code writer} rather than on the HTTP client's few threads, one
+ * step at a time and in the order the client signalled them. {@link #abort} cancels the transfer and releases
+ * what was staged from any thread.
+ */
+final class CappedBodySubscriber implements HttpResponse.BodySubscriber<StagedContent> {
+
+    private final CompletableFuture<StagedContent> body = new CompletableFuture<>();
+    private final Stager stager;
+    private final Executor writer;
+    private final String fileName;
+    private final long declaredLen;
+    private final long maxBytes;
+    private final ByteBudget budget;
+    private final ContentValidator validator;
+    private final String contentType;
+
+    private volatile Flow.Subscription subscription;
+    // the last staging step; only the client's signals, which never overlap, extend it
+    private CompletableFuture<Void> staged = CompletableFuture.completedFuture(null);
+    private ContentValidator.Check check;
+    private Stager.Output out;
+    private long written;
+    private long charged;
+
+    CappedBodySubscriber(Stager stager, Executor writer, String fileName, long declaredLen, long maxBytes, ByteBudget budget,
+                         ContentValidator validator, String contentType) {
+        this.stager = stager;
+        this.writer = writer;
+        this.fileName = fileName;
+        this.declaredLen = declaredLen;
+        this.maxBytes = maxBytes;
+        this.budget = budget;
+        this.validator = validator;
+        this.contentType = contentType;
+    }
+
+    @Override
+    public CompletionStage<StagedContent> getBody() {
+        return body;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        // aborted before the body started, e.g. by a timeout during the request
+        if (body.isDone()) {
+            subscription.cancel();
+            return;
+        }
+        then(this::open);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        then(() -> write(buffers));
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        then(() -> fail(error));
+    }
+
+    @Override
+    public void onComplete() {
+        then(this::complete);
+    }
+
+    /** Stops the transfer and discards what was staged; a no-op once the body is complete. */
+    synchronized void abort(Throwable cause) {
+        if (!body.completeExceptionally(cause)) return;
+        Flow.Subscription s = subscription;
+        if (s != null) s.cancel();
+        discard();
+    }
+
+    private void then(Runnable step) {
+        staged = staged.thenRunAsync(() -> {
+            try {
+                step.run();
+            } catch (RuntimeException | Error e) {
+                abort(e);
+            }
+        }, writer);
+    }
+
+    private synchronized void open() {
+        if (body.isDone()) return;
+        try {
+            check = validator.begin(fileName, contentType);
+            if (declaredLen > maxBytes) {
+                throw new FileTooLargeException("File too large (content-length " + declaredLen + " bytes). Max allowed is " + maxBytes + " bytes.");
+            }
+            if (declaredLen >= 0) {
+                budget.charge(declaredLen);
+                charged = declaredLen;
+            }
+            out = stager.open(fileName, declaredLen);
+        } catch (IOException | RuntimeException e) {
+            abort(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    private synchronized void write(List<ByteBuffer> buffers) {
+        if (body.isDone()) return;
+        try {
+            for (ByteBuffer buf : buffers) {
+                written += buf.remaining();
+                if (written > maxBytes) {
+                    throw new FileTooLargeException("File too large (streamed > " + maxBytes + " bytes).");
+                }
+                if (written > charged) {
+                    charged = Math.min(maxBytes, written + SecureDownloader.CHARGE_STEP);
+                    budget.charge(charged);
+                }
+                check.update(buf);
+                out.write(buf);
+            }
+        } catch (IOException | RuntimeException e) {
+            abort(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    private synchronized void fail(Throwable error) {
+        if (!body.completeExceptionally(error)) return;
+        discard();
+    }
+
+    private synchronized void complete() {
+        if (body.isDone()) return;
+        try {
+            check.finish();
+            body.complete(out.finish());
+        } catch (IOException e) {
+            discard();
+            body.completeExceptionally(e);
+        }
+    }
+
+    private void discard() {
+        if (out == null) return;
+        try {
+            out.close();
+        } catch (IOException ignored) {
+            // best effort: the temp dir is gone or going
+        }
+    }
+}
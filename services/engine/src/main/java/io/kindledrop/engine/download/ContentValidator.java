@@ -0,0 +1,46 @@
+package io.kindledrop.engine.download;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Checks a body while it streams in, so a link that serves the wrong thing is dropped after its first bytes
+ * instead of being downloaded in full and mailed. The copy loops feed every chunk to a {@link Check} before
+ * staging it; a {@link UnexpectedContentException} aborts the transfer.
+ */
+public interface ContentValidator {
+
+    /** Lets everything through. */
+    ContentValidator NONE = (fileName, contentType) -> Check.NONE;
+
+    /**
+     * Starts checking one body, before any of it is read. Throws right away if the response's
+     * {@code contentType} alone rules it out.
+     */
+    Check begin(String fileName, String contentType) throws UnexpectedContentException;
+
+    /** State for one body. Calls after it has decided are cheap no-ops. */
+    interface Check {
+
+        Check NONE = new Check() {
+            @Override
+            public void update(byte[] buf, int off, int len) {
+            }
+
+            @Override
+            public void update(ByteBuffer buf) {
+            }
+
+            @Override
+            public void finish() {
+            }
+        };
+
+        void update(byte[] buf, int off, int len) throws UnexpectedContentException;
+
+        /** Like {@link #update(byte[], int, int)} for {@code buf}'s remaining bytes; does not move its position. */
+        void update(ByteBuffer buf) throws UnexpectedContentException;
+
+        /** End of body. Fails a body that ended before it could be recognized. */
+        void finish() throws UnexpectedContentException;
+    }
+}
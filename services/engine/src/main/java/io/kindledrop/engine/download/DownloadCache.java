@@ -0,0 +1,277 @@
+package io.kindledrop.engine.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-disk download cache. Bodies are stored once per SHA-256 ({@code blobs/<sha256>}); an index entry per
+ * resolved URL keeps the validators (ETag / Last-Modified) used to revalidate with a conditional GET.
+ * Entries are evicted least-recently-used once the blobs exceed the size cap.
+ *
+ * <p>Callers never read blobs in place: {@link #materialize} hard-links (or copies) the blob into the caller's
+ * own temp dir, so eviction can delete a blob while an older send is still attaching it.
+ */
+public class DownloadCache {
+
+    private final Path blobDir;
+    private final Path indexDir;
+    private final long maxSizeBytes;
+
+    // access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, Integer> blobRefs = new HashMap<>();
+    private final Map<String, Long> blobSizes = new HashMap<>();
+    private long sizeBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    public DownloadCache(Path dir, long maxSizeBytes) throws IOException {
+        this.blobDir = Files.createDirectories(dir.resolve("blobs"));
+        this.indexDir = Files.createDirectories(dir.resolve("index"));
+        this.maxSizeBytes = maxSizeBytes;
+        load();
+    }
+
+    /** Returns the cached entry for a URL if its body is still on disk. */
+    public synchronized Optional<Entry> lookup(String url) {
+        Entry e = index.get(key(url));
+        if (e == null) return Optional.empty();
+        if (Files.notExists(blobDir.resolve(e.sha256()))) {
+            remove(key(url));
+            return Optional.empty();
+        }
+        return Optional.of(e);
+    }
+
+    /** Places the cached body for {@code entry} at {@code target} after the origin answered 304. */
+    public synchronized void materialize(Entry entry, Path target) throws IOException {
+        Path blob = blobDir.resolve(entry.sha256());
+        try {
+            Files.createLink(target, blob);
+        } catch (UnsupportedOperationException | IOException e) {
+            Files.copy(blob, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        touch(key(entry.url()));
+        hits.incrementAndGet();
+        bytesSaved.addAndGet(entry.bytes());
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Adds a freshly downloaded body. Only responses with a validator are worth keeping, since without one
+     * we could never confirm the copy is current.
+     */
+    public synchronized void store(String url, String etag, String lastModified, String contentType,
+                                   Path file, String sha256, long bytes) throws IOException {
+        store(url, etag, lastModified, contentType, tmp -> {
+            try {
+                Files.createLink(tmp, file);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(file, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }, sha256, bytes);
+    }
+
+    /** Like {@link #store(String, String, String, String, Path, String, long)} for a body that may be in memory. */
+    public synchronized void store(String url, String etag, String lastModified, String contentType,
+                                   StagedContent body, String sha256, long bytes) throws IOException {
+        if (body.file() != null) {
+            store(url, etag, lastModified, contentType, body.file(), sha256, bytes);
+            return;
+        }
+        store(url, etag, lastModified, contentType, tmp -> {
+            try (InputStream in = body.open()) {
+                Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }, sha256, bytes);
+    }
+
+    private void store(String url, String etag, String lastModified, String contentType,
+                       BlobWriter writer, String sha256, long bytes) throws IOException {
+        if (etag == null && lastModified == null) return;
+        if (bytes > maxSizeBytes) return;
+
+        Path blob = blobDir.resolve(sha256);
+        if (Files.notExists(blob)) {
+            Path tmp = blobDir.resolve(sha256 + ".tmp");
+            Files.deleteIfExists(tmp);
+            writer.write(tmp);
+            Files.move(tmp, blob, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        String key = key(url);
+        Entry entry = new Entry(url, etag, lastModified, sha256, bytes, contentType);
+        writeIndex(key, entry);
+        Entry previous = index.remove(key);
+        add(key, entry);
+        // released after add() so an unchanged body keeps its blob
+        if (previous != null) release(previous.sha256());
+        evictToFit();
+    }
+
+    public synchronized void invalidate(String url) {
+        remove(key(url));
+    }
+
+    public synchronized Stats stats() {
+        long h = hits.get();
+        long m = misses.get();
+        double ratio = (h + m) == 0 ? 0.0 : (double) h / (h + m);
+        return new Stats(h, m, ratio, bytesSaved.get(), index.size(), sizeBytes, maxSizeBytes);
+    }
+
+    private void add(String key, Entry entry) {
+        index.put(key, entry);
+        if (blobRefs.merge(entry.sha256(), 1, Integer::sum) == 1) {
+            blobSizes.put(entry.sha256(), entry.bytes());
+            sizeBytes += entry.bytes();
+        }
+    }
+
+    private void remove(String key) {
+        Entry e = index.remove(key);
+        if (e == null) return;
+        try { Files.deleteIfExists(indexDir.resolve(key + ".properties")); } catch (IOException ignored) {}
+        release(e.sha256());
+    }
+
+    private void release(String sha256) {
+        Integer refs = blobRefs.merge(sha256, -1, Integer::sum);
+        if (refs != null && refs <= 0) {
+            blobRefs.remove(sha256);
+            Long size = blobSizes.remove(sha256);
+            sizeBytes -= size == null ? 0 : size;
+            try { Files.deleteIfExists(blobDir.resolve(sha256)); } catch (IOException ignored) {}
+        }
+    }
+
+    private void evictToFit() {
+        Iterator<String> lru = new ArrayList<>(index.keySet()).iterator();
+        while (sizeBytes > maxSizeBytes && lru.hasNext()) {
+            remove(lru.next());
+        }
+    }
+
+    private void touch(String key) {
+        index.get(key); // bumps access order
+        try {
+            Files.setLastModifiedTime(indexDir.resolve(key + ".properties"), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {}
+    }
+
+    private void writeIndex(String key, Entry e) throws IOException {
+        Properties p = new Properties();
+        p.setProperty("url", e.url());
+        if (e.etag() != null) p.setProperty("etag", e.etag());
+        if (e.lastModified() != null) p.setProperty("lastModified", e.lastModified());
+        p.setProperty("sha256", e.sha256());
+        p.setProperty("bytes", Long.toString(e.bytes()));
+        if (e.contentType() != null) p.setProperty("contentType", e.contentType());
+
+        Path tmp = indexDir.resolve(key + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            p.store(out, null);
+        }
+        Files.move(tmp, indexDir.resolve(key + ".properties"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (var stream = Files.list(indexDir)) {
+            stream.filter(p -> p.getFileName().toString().endsWith(".properties")).forEach(files::add);
+        }
+        // oldest access first so the rebuilt LRU order matches the previous run
+        files.sort(Comparator.comparing(p -> {
+            try { return Files.getLastModifiedTime(p); } catch (IOException e) { return FileTime.fromMillis(0); }
+        }));
+
+        for (Path f : files) {
+            Properties p = new Properties();
+            try (InputStream in = Files.newInputStream(f)) {
+                p.load(in);
+            } catch (IOException e) {
+                continue;
+            }
+            String sha = p.getProperty("sha256");
+            String url = p.getProperty("url");
+            if (sha == null || url == null || Files.notExists(blobDir.resolve(sha))) {
+                try { Files.deleteIfExists(f); } catch (IOException ignored) {}
+                continue;
+            }
+            long bytes = Long.parseLong(p.getProperty("bytes", "0"));
+            add(key(url), new Entry(url, p.getProperty("etag"), p.getProperty("lastModified"), sha, bytes, p.getProperty("contentType")));
+        }
+
+        // blobs nobody references any more (e.g. after a crash mid-eviction)
+        try (var stream = Files.list(blobDir)) {
+            stream.filter(p -> !blobRefs.containsKey(p.getFileName().toString())).forEach(p -> {
+                try { Files.deleteIfExists(p); } catch (IOException ignored) {}
+            });
+        }
+        evictToFit();
+    }
+
+    static String key(String url) {
+        return sha256Hex(url.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String sha256Hex(byte[] data) {
+        return HexFormat.of().formatHex(newSha256().digest(data));
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface BlobWriter {
+        void write(Path target) throws IOException;
+    }
+
+    public record Entry(
+            String url,
+            String etag,
+            String lastModified,
+            String sha256,
+            long bytes,
+            String contentType
+    ) {}
+
+    public record Stats(
+            long hits,
+            long misses,
+            double hitRatio,
+            long bytesSaved,
+            int entries,
+            long sizeBytes,
+            long maxSizeBytes
+    ) {}
+}
@@ -0,0 +1,178 @@
+package io.kindledrop.engine.download;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Single-flight for downloads: concurrent requests for the same URL (and the same name and size cap) share
+ * one download instead of each fetching their own copy. The first caller downloads; everyone else waits
+ * for its result, or its exception.
+ *
+ * <p>The exception is shared only when it is about the download. If the first caller was cancelled instead (its
+ * send timed out or its thread was interrupted), the waiters do not inherit that: the flight is dropped and one
+ * of them takes over as the downloader, with its own budget, while the rest wait on it.
+ *
+ * <p>Every caller pays for the file out of its own budget, joiners included: the downloader as the bytes arrive,
+ * a joiner once the shared file is complete. Each send goes on to mail the file, so the budget counts sends, not
+ * unique downloads. A joiner whose budget refuses fails the way the downloader would have.
+ *
+ * <p>The file is reference-counted. Each caller gets a {@link SharedDownload} and must close it when done
+ * with the file; the temp dir is removed when the last one closes. Until then, new callers for the same key
+ * join the existing file rather than starting another download.
+ */
+public class DownloadCoalescer {
+
+    @FunctionalInterface
+    public interface Loader {
+        DownloadResult load(URI uri, String fileNameHint, long maxBytes, ByteBudget budget) throws IOException, InterruptedException;
+    }
+
+    private final Loader loader;
+    private final Consumer<DownloadResult> cleanup;
+    private final Map<Key, Flight> flights = new HashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public DownloadCoalescer(Loader loader, Consumer<DownloadResult> cleanup) {
+        this.loader = loader;
+        this.cleanup = cleanup;
+    }
+
+    public SharedDownload acquire(URI uri, String fileNameHint, long maxBytes) throws IOException, InterruptedException {
+        return acquire(uri, fileNameHint, maxBytes, ByteBudget.NONE);
+    }
+
+    /** The caller that downloads charges {@code budget} as it goes; a joiner charges the finished file's size. */
+    public SharedDownload acquire(URI uri, String fileNameHint, long maxBytes, ByteBudget budget) throws IOException, InterruptedException {
+        Key key = new Key(uri.toString(), fileNameHint, maxBytes);
+        while (true) {
+            Flight flight;
+            boolean leader = false;
+            synchronized (flights) {
+                flight = flights.get(key);
+                if (flight == null) {
+                    flight = new Flight(key);
+                    flights.put(key, flight);
+                    leader = true;
+                } else {
+                    coalesced.incrementAndGet();
+                }
+                flight.refs++;
+            }
+
+            if (leader) {
+                try {
+                    flight.result.complete(loader.load(uri, fileNameHint, maxBytes, budget));
+                } catch (Throwable e) {
+                    synchronized (flights) {
+                        flights.remove(key, flight);
+                    }
+                    flight.result.completeExceptionally(cancelled(e) ? new Handover() : e);
+                    throw e;
+                }
+                return new SharedDownload(flight, false, budget);
+            }
+
+            try {
+                return new SharedDownload(flight, true, budget);
+            } catch (Handover e) {
+                // the downloader was cancelled, not the download: start over, and maybe lead this time
+                release(flight);
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                release(flight);
+                throw e;
+            }
+        }
+    }
+
+    /** True if the leader's own send was cancelled, as opposed to the download itself failing. */
+    private static boolean cancelled(Throwable e) {
+        if (e instanceof SocketTimeoutException) return false; // the origin stalled, which a new leader would hit too
+        return e instanceof InterruptedIOException || e instanceof InterruptedException || Thread.currentThread().isInterrupted();
+    }
+
+    public Stats stats() {
+        synchronized (flights) {
+            return new Stats(flights.size(), coalesced.get());
+        }
+    }
+
+    private void release(Flight flight) {
+        synchronized (flights) {
+            if (--flight.refs > 0) return;
+            flights.remove(flight.key, flight);
+        }
+        // only a successful flight has a file; a failed one was already dropped from the map
+        DownloadResult result = flight.result.getNow(null);
+        if (result != null) cleanup.accept(result);
+    }
+
+    private record Key(String url, String fileNameHint, long maxBytes) {}
+
+    /** Tells the waiters of a cancelled leader to retry rather than fail. */
+    private static final class Handover extends RuntimeException {
+        Handover() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class Flight {
+        final Key key;
+        final CompletableFuture<DownloadResult> result = new CompletableFuture<>();
+        int refs; // guarded by flights
+
+        Flight(Key key) {
+            this.key = key;
+        }
+    }
+
+    /** One caller's hold on a shared download. Close it once the file is no longer needed. */
+    public final class SharedDownload implements AutoCloseable {
+        private final Flight flight;
+        private final DownloadResult result;
+        private final boolean joined;
+        private boolean closed;
+
+        private SharedDownload(Flight flight, boolean joined, ByteBudget budget) throws IOException, InterruptedException {
+            this.flight = flight;
+            this.joined = joined;
+            try {
+                this.result = flight.result.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException io) throw io;
+                if (cause instanceof InterruptedException) throw new IOException("Shared download was interrupted.", cause);
+                if (cause instanceof RuntimeException re) throw re;
+                if (cause instanceof Error err) throw err;
+                throw new IOException(cause);
+            }
+            // the downloader was charged while it read
+            if (joined) budget.charge(result.bytes());
+        }
+
+        public DownloadResult result() {
+            return result;
+        }
+
+        /** True if this caller waited on another caller's download. */
+        public boolean joined() {
+            return joined;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) return;
+            closed = true;
+            release(flight);
+        }
+    }
+
+    public record Stats(int inFlight, long coalesced) {}
+}
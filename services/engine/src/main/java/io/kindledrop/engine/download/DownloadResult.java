@@ -1,10 +1,31 @@
 package io.kindledrop.engine.download;
 
+import jakarta.activation.DataSource;
+
 import java.nio.file.Path;
 
+/**
+ * A downloaded body and what we know about it. The body is in {@link #content()}, in memory or on disk; whoever
+ * ends up owning the result must release it.
+ */
 public record DownloadResult(
-        Path file,
+        StagedContent content,
         String fileName,
         long bytes,
         String contentType
-) {}
+) {
+    /** A body already written to {@code file}, which sits in a temp dir of its own. */
+    public DownloadResult(Path file, String fileName, long bytes, String contentType) {
+        this(StagedContent.onDisk(file), fileName, bytes, contentType);
+    }
+
+    /** The temp file, or null if the body is held in memory. */
+    public Path file() {
+        return content.file();
+    }
+
+    /** The body as a mail attachment source, read straight from wherever it is staged. */
+    public DataSource dataSource() {
+        return content.dataSource(fileName);
+    }
+}
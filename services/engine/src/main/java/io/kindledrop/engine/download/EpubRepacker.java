@@ -0,0 +1,180 @@
+package io.kindledrop.engine.download;
+
+import java.io.BufferedInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Re-deflates the entries of a downloaded EPUB so less goes over SMTP, where every byte costs 4/3 after base64.
+ * Many EPUBs on GitHub are zipped with no or weak compression. The archive is read as a stream, entry by entry,
+ * and written straight into a new staged body; nothing is unpacked to disk.
+ *
+ * <p>{@code mimetype} stays the first entry and stays stored, as the EPUB container spec requires. An archive
+ * that does not start with it is left alone. The copy is kept only if it is at least {@code minSavings} smaller.
+ * Writing stops as soon as it grows past that, and an archive that expands to more than {@link #MAX_EXPANSION}
+ * times its size is not worth the CPU. Archives {@link ZipInputStream} cannot read (stored entries with data
+ * descriptors) are sent as they are.
+ */
+public final class EpubRepacker {
+
+    /** Uncompressed bytes per archive byte beyond which a repack is abandoned (zip bombs, mostly). */
+    static final int MAX_EXPANSION = 20;
+
+    /** Already compressed; deflating them again only costs time, so they get the fastest level. */
+    private static final Set<String> PRECOMPRESSED = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "m4a", "mp4", "woff", "woff2", "zip");
+
+    private final Stager stager;
+    private final int level;
+    private final double minSavings;
+    private final AtomicLong repacked = new AtomicLong();
+    private final AtomicLong kept = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * @param level deflate level, 1 (fastest) to 9 (smallest)
+     * @param minSavings fraction of the original the copy must save to be used, e.g. 0.05
+     */
+    public EpubRepacker(Stager stager, int level, double minSavings) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("level must be 1..9");
+        }
+        this.stager = stager;
+        this.level = level;
+        this.minSavings = minSavings;
+    }
+
+    public static boolean applies(String fileName) {
+        return fileName.toLowerCase(Locale.ROOT).endsWith(".epub");
+    }
+
+    /**
+     * A smaller copy of {@code original}, which the caller must release, or null if the original should be sent:
+     * not an EPUB, not meaningfully smaller, or not readable as a stream. {@code original} is left as it is.
+     */
+    public Repacked repack(StagedContent original, String fileName) throws IOException {
+        if (!applies(fileName)) return null;
+        long size = original.size();
+        long limit = size - (long) Math.ceil(size * minSavings);
+        StagedContent copy = null;
+        try (Stager.Output out = stager.open(fileName, size);
+             ZipOutputStream zip = new ZipOutputStream(new CappedOutputStream(out, limit));
+             ZipInputStream in = new ZipInputStream(new BufferedInputStream(original.open(), 64 * 1024))) {
+            if (copyEntries(in, zip, size * MAX_EXPANSION)) {
+                zip.finish();
+                copy = out.finish();
+            }
+        } catch (NotSmallerException | ZipException e) {
+            // grew past the limit, or not readable as a stream; an abandoned copy is discarded on close
+            if (copy != null) copy.release();
+            copy = null;
+        }
+        if (copy == null) {
+            kept.incrementAndGet();
+            return null;
+        }
+        repacked.incrementAndGet();
+        bytesSaved.addAndGet(size - copy.size());
+        return new Repacked(copy, size, copy.size());
+    }
+
+    public Stats stats() {
+        return new Stats(repacked.get(), kept.get(), bytesSaved.get());
+    }
+
+    /** False if the archive is not one to rewrite. */
+    private boolean copyEntries(ZipInputStream in, ZipOutputStream zip, long maxInflated) throws IOException {
+        ZipEntry first = in.getNextEntry();
+        if (first == null || !first.getName().equals("mimetype")) return false;
+        byte[] mimetype = in.readNBytes(256);
+        if (in.read() != -1) return false;
+
+        ZipEntry stored = new ZipEntry("mimetype");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(mimetype.length);
+        stored.setCompressedSize(mimetype.length);
+        CRC32 crc = new CRC32();
+        crc.update(mimetype);
+        stored.setCrc(crc.getValue());
+        stored.setTime(first.getTime());
+        zip.putNextEntry(stored);
+        zip.write(mimetype);
+        zip.closeEntry();
+
+        byte[] buf = new byte[64 * 1024];
+        long inflated = mimetype.length;
+        for (ZipEntry e; (e = in.getNextEntry()) != null; ) {
+            if (e.getName().equals("mimetype")) return false;
+            ZipEntry copy = new ZipEntry(e.getName());
+            copy.setTime(e.getTime());
+            if (e.getComment() != null) copy.setComment(e.getComment());
+            zip.setLevel(precompressed(e.getName()) ? Deflater.BEST_SPEED : level);
+            zip.putNextEntry(copy);
+            for (int n; (n = in.read(buf)) > 0; ) {
+                inflated += n;
+                if (inflated > maxInflated) return false;
+                zip.write(buf, 0, n);
+            }
+            zip.closeEntry();
+        }
+        return true;
+    }
+
+    private static boolean precompressed(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && PRECOMPRESSED.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /** The rewritten body and the sizes before and after. */
+    public record Repacked(StagedContent content, long originalBytes, long bytes) {
+        public long saved() {
+            return originalBytes - bytes;
+        }
+    }
+
+    /**
+     * @param repacked EPUBs sent as a rewritten copy
+     * @param kept EPUBs sent as they were (already compact, or not rewritable)
+     * @param bytesSaved attachment bytes saved, before base64
+     */
+    public record Stats(long repacked, long kept, long bytesSaved) {}
+
+    private static final class NotSmallerException extends IOException {
+        NotSmallerException() {
+            super("Repacked copy is not smaller");
+        }
+    }
+
+    /** Fails once more than {@code limit} bytes are written: the copy could no longer be used. */
+    private static final class CappedOutputStream extends FilterOutputStream {
+        private final long limit;
+        private long written;
+
+        CappedOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            written += len;
+            if (written > limit) throw new NotSmallerException();
+            out.write(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package io.kindledrop.engine.download;
+
+import java.io.IOException;
+
+/** The download exceeded the request's {@code maxBytes}, either by Content-Length or while streaming. */
+public class FileTooLargeException extends IOException {
+
+    public FileTooLargeException(String message) {
+        super(message);
+    }
+}
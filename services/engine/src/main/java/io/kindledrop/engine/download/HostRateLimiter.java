@@ -0,0 +1,298 @@
+package io.kindledrop.engine.download;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-host adaptive concurrency limit (AIMD). Every success raises the limit by {@code 1/limit}, so roughly
+ * one extra slot per limit's worth of good responses. A 429/503 halves it and pauses the host for the
+ * server's {@code Retry-After}. Requests over the limit queue up, and only fail once they have waited
+ * {@code maxWait} or the queue is full.
+ */
+public class HostRateLimiter {
+
+    private final Options options;
+    private final ConcurrentHashMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+    public HostRateLimiter(Options options) {
+        if (options.minLimit() < 1) throw new IllegalArgumentException("minLimit must be >= 1");
+        this.options = options;
+    }
+
+    public Options options() {
+        return options;
+    }
+
+    public Permit acquire(String host) throws IOException, InterruptedException {
+        return hosts.computeIfAbsent(host.toLowerCase(), Host::new).acquire();
+    }
+
+    /**
+     * Like {@link #acquire}, but waits without a thread: the future completes once a slot frees up (or the host's
+     * pause ends), and fails after {@code maxWait} or at once if the queue is full.
+     */
+    public CompletableFuture<Permit> acquireAsync(String host) {
+        return hosts.computeIfAbsent(host.toLowerCase(), Host::new).acquireAsync();
+    }
+
+    /** A slot only if one is free right now (not paused, under the limit, nobody queued), otherwise null. */
+    public Permit tryAcquire(String host) {
+        return hosts.computeIfAbsent(host.toLowerCase(), Host::new).tryAcquire();
+    }
+
+    public HostStats stats(String host) {
+        Host h = hosts.get(host.toLowerCase());
+        return h == null ? null : h.stats();
+    }
+
+    public Map<String, HostStats> stats() {
+        Map<String, HostStats> out = new TreeMap<>();
+        hosts.forEach((name, h) -> out.put(name, h.stats()));
+        return out;
+    }
+
+    /**
+     * Parses {@code Retry-After} (delta-seconds or HTTP-date), capped at {@code maxRetryAfter}.
+     * Falls back to {@code fallback} when the header is missing or unparseable.
+     */
+    Duration retryAfter(HttpResponse<?> resp, Duration fallback) {
+        Duration d = resp.headers().firstValue("retry-after").map(v -> {
+            try {
+                return Duration.ofSeconds(Long.parseLong(v.trim()));
+            } catch (NumberFormatException e) {
+                try {
+                    return Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(v.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                } catch (Exception ignored) {
+                    return null;
+                }
+            }
+        }).orElse(fallback);
+        if (d == null || d.isNegative()) d = fallback;
+        return d.compareTo(options.maxRetryAfter()) > 0 ? options.maxRetryAfter() : d;
+    }
+
+    static boolean isThrottle(int status) {
+        return status == 429 || status == 503;
+    }
+
+    private final class Host {
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private double limit = options.initialLimit();
+        private int inFlight;
+        private int queued;
+        private long blockedUntil;
+        private long throttled;
+        private final ArrayDeque<CompletableFuture<Permit>> waiting = new ArrayDeque<>();
+
+        private Host(String name) {
+            this.name = name;
+        }
+
+        private Permit acquire() throws IOException, InterruptedException {
+            long deadline = System.nanoTime() + options.maxWait().toNanos();
+            lock.lock();
+            try {
+                if (queued >= options.maxQueue()) {
+                    throw new IOException("Too many requests queued for " + name + " (" + queued + "). Try again later.");
+                }
+                queued++;
+                try {
+                    while (true) {
+                        long now = System.nanoTime();
+                        long wait;
+                        if (now < blockedUntil) {
+                            wait = blockedUntil - now;
+                        } else if (inFlight < (int) limit) {
+                            inFlight++;
+                            return new Permit(this);
+                        } else {
+                            wait = deadline - now;
+                        }
+                        long remaining = deadline - now;
+                        if (remaining <= 0) {
+                            throw new IOException("Rate limited by " + name + ": no slot within " + options.maxWait().toMillis() + " ms.");
+                        }
+                        changed.awaitNanos(Math.min(wait, remaining));
+                    }
+                } finally {
+                    queued--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private CompletableFuture<Permit> acquireAsync() {
+            CompletableFuture<Permit> waiter = new CompletableFuture<>();
+            long wakeIn;
+            lock.lock();
+            try {
+                if (queued >= options.maxQueue()) {
+                    return CompletableFuture.failedFuture(new IOException("Too many requests queued for " + name + " (" + queued + "). Try again later."));
+                }
+                long now = System.nanoTime();
+                if (now >= blockedUntil && inFlight < (int) limit && waiting.isEmpty()) {
+                    inFlight++;
+                    return CompletableFuture.completedFuture(new Permit(this));
+                }
+                queued++;
+                waiting.add(waiter);
+                wakeIn = blockedUntil - now;
+            } finally {
+                lock.unlock();
+            }
+            CompletableFuture.delayedExecutor(options.maxWait().toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+                if (dequeue(waiter)) {
+                    waiter.completeExceptionally(new IOException("Rate limited by " + name + ": no slot within " + options.maxWait().toMillis() + " ms."));
+                }
+            });
+            if (wakeIn > 0) wakeAfter(wakeIn);
+            return waiter;
+        }
+
+        private Permit tryAcquire() {
+            lock.lock();
+            try {
+                if (System.nanoTime() < blockedUntil || inFlight >= (int) limit || queued > 0) return null;
+                inFlight++;
+                return new Permit(this);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean dequeue(CompletableFuture<Permit> waiter) {
+            lock.lock();
+            try {
+                if (!waiting.remove(waiter)) return false;
+                queued--;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Hands free slots to async waiters, in arrival order. Completes them outside the lock. */
+        private void grantWaiting() {
+            List<CompletableFuture<Permit>> granted = new ArrayList<>();
+            long wakeIn = 0;
+            lock.lock();
+            try {
+                long now = System.nanoTime();
+                if (now < blockedUntil) {
+                    if (!waiting.isEmpty()) wakeIn = blockedUntil - now;
+                } else {
+                    while (!waiting.isEmpty() && inFlight < (int) limit) {
+                        granted.add(waiting.poll());
+                        queued--;
+                        inFlight++;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (wakeIn > 0) wakeAfter(wakeIn);
+            for (CompletableFuture<Permit> waiter : granted) {
+                Permit permit = new Permit(this);
+                // the caller gave up in the meantime
+                if (!waiter.complete(permit)) permit.failed();
+            }
+        }
+
+        private void wakeAfter(long nanos) {
+            CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS).execute(this::grantWaiting);
+        }
+
+        private void release(Outcome outcome, Duration retryAfter) {
+            lock.lock();
+            try {
+                inFlight--;
+                switch (outcome) {
+                    case SUCCESS -> limit = Math.min(options.maxLimit(), limit + 1.0 / limit);
+                    case THROTTLED -> {
+                        throttled++;
+                        long now = System.nanoTime();
+                        // a burst of 429s from one server pause is one signal: halve once per Retry-After window
+                        if (now >= blockedUntil) limit = Math.max(options.minLimit(), limit / 2);
+                        blockedUntil = Math.max(blockedUntil, now + retryAfter.toNanos());
+                    }
+                    case FAILED -> { /* network errors say nothing about the server's rate limit */ }
+                }
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            grantWaiting();
+        }
+
+        private HostStats stats() {
+            lock.lock();
+            try {
+                long blockedFor = Math.max(0, blockedUntil - System.nanoTime());
+                return new HostStats((int) limit, inFlight, queued, TimeUnit.NANOSECONDS.toMillis(blockedFor), throttled);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private enum Outcome { SUCCESS, THROTTLED, FAILED }
+
+    /** One in-flight request slot. Exactly one of the release methods takes effect. */
+    public static final class Permit {
+        private final Host host;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Host host) {
+            this.host = host;
+        }
+
+        public void success() {
+            if (released.compareAndSet(false, true)) host.release(Outcome.SUCCESS, Duration.ZERO);
+        }
+
+        public void throttled(Duration retryAfter) {
+            if (released.compareAndSet(false, true)) host.release(Outcome.THROTTLED, retryAfter);
+        }
+
+        public void failed() {
+            if (released.compareAndSet(false, true)) host.release(Outcome.FAILED, Duration.ZERO);
+        }
+    }
+
+    public record Options(
+            int initialLimit,
+            int minLimit,
+            int maxLimit,
+            Duration maxWait,
+            int maxQueue,
+            int maxAttempts,
+            Duration maxRetryAfter
+    ) {
+        public static final Options DEFAULTS = new Options(8, 1, 32, Duration.ofSeconds(60), 500, 4, Duration.ofSeconds(30));
+    }
+
+    public record HostStats(
+            int limit,
+            int inFlight,
+            int queued,
+            long blockedForMillis,
+            long throttled
+    ) {}
+}
@@ -0,0 +1,18 @@
+package io.kindledrop.engine.download;
+
+import java.io.IOException;
+
+/** The origin answered with a non-success status. */
+public class HttpStatusException extends IOException {
+
+    private final int status;
+
+    public HttpStatusException(String message, int status) {
+        super(message);
+        this.status = status;
+    }
+
+    public int status() {
+        return status;
+    }
+}
@@ -0,0 +1,215 @@
+package io.kindledrop.engine.download;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Recognizes the allowed formats by their leading bytes: {@code %PDF-} within the first 1024 bytes, a ZIP whose
+ * first entry (if it is {@code mimetype}) says {@code application/epub+zip}, and a PalmDB header of type
+ * {@code BOOKMOBI} or {@code TEXtREAd} for MOBI/AZW3. A body that starts like an HTML page or a Git LFS pointer
+ * is rejected as soon as that is clear. At most {@link #PROBE} bytes are held per body.
+ *
+ * <p>The response's {@code Content-Type} is cross-checked up front: {@code text/html}, or an ebook type of a
+ * different format than the file name, fails before the body is read. Generic types such as
+ * {@code application/octet-stream} (what raw.githubusercontent.com sends) are left to the magic bytes.
+ */
+public final class MagicByteValidator implements ContentValidator {
+
+    /** Bytes looked at, at most, before a body is let through. */
+    static final int PROBE = 1024;
+
+    private static final byte[] PDF_MAGIC = ascii("%PDF-");
+    private static final byte[] ZIP_MAGIC = {'P', 'K', 3, 4};
+    private static final byte[] LFS_MAGIC = ascii("version https://git-lfs.github.com/spec/");
+    private static final String EPUB_MIMETYPE = "application/epub+zip";
+
+    @Override
+    public Check begin(String fileName, String contentType) throws UnexpectedContentException {
+        Format expected = Format.ofFileName(fileName);
+        if (expected == null) return Check.NONE;
+
+        String declared = mediaType(contentType);
+        if (declared.equals("text/html") || declared.equals("application/xhtml+xml")) {
+            throw new UnexpectedContentException("Expected " + expected.label + ", but the server sent " + declared + ".");
+        }
+        Format claimed = Format.ofMediaType(declared);
+        if (claimed != null && claimed != expected) {
+            throw new UnexpectedContentException("Expected " + expected.label + ", but the server sent " + claimed.label + " (" + declared + ").");
+        }
+        return new Probe(expected);
+    }
+
+    private enum Format {
+        PDF("a PDF"),
+        EPUB("an EPUB"),
+        MOBI("a MOBI/AZW3 book");
+
+        final String label;
+
+        Format(String label) {
+            this.label = label;
+        }
+
+        static Format ofFileName(String fileName) {
+            int idx = fileName.lastIndexOf('.');
+            if (idx < 0) return null;
+            return switch (fileName.substring(idx + 1).toLowerCase(Locale.ROOT)) {
+                case "pdf" -> PDF;
+                case "epub" -> EPUB;
+                case "mobi", "azw3" -> MOBI;
+                default -> null;
+            };
+        }
+
+        static Format ofMediaType(String type) {
+            return switch (type) {
+                case "application/pdf" -> PDF;
+                case EPUB_MIMETYPE -> EPUB;
+                case "application/x-mobipocket-ebook", "application/vnd.amazon.ebook", "application/vnd.amazon.mobi8-ebook" -> MOBI;
+                default -> null;
+            };
+        }
+    }
+
+    private static final class Probe implements Check {
+
+        private final Format expected;
+        private final byte[] head = new byte[PROBE];
+        private int size;
+        private boolean passed;
+
+        Probe(Format expected) {
+            this.expected = expected;
+        }
+
+        @Override
+        public void update(byte[] buf, int off, int len) throws UnexpectedContentException {
+            if (passed) return;
+            int n = Math.min(len, PROBE - size);
+            System.arraycopy(buf, off, head, size, n);
+            size += n;
+            decide(false);
+        }
+
+        @Override
+        public void update(ByteBuffer buf) throws UnexpectedContentException {
+            if (passed) return;
+            int n = Math.min(buf.remaining(), PROBE - size);
+            buf.get(buf.position(), head, size, n);
+            size += n;
+            decide(false);
+        }
+
+        @Override
+        public void finish() throws UnexpectedContentException {
+            if (!passed) decide(true);
+        }
+
+        private void decide(boolean eof) throws UnexpectedContentException {
+            if (startsWith(LFS_MAGIC) || looksLikeHtml()) throw mismatch();
+            Boolean ok = switch (expected) {
+                case PDF -> pdf();
+                case EPUB -> epub();
+                case MOBI -> mobi();
+            };
+            if (ok == null) {
+                // undecided: wait for more bytes, unless there are none
+                if (!eof) return;
+                ok = false;
+            }
+            if (!ok) throw mismatch();
+            passed = true;
+        }
+
+        /** Null while undecided. Files may carry junk before the header; readers accept it within 1024 bytes. */
+        private Boolean pdf() {
+            if (indexOf(PDF_MAGIC) >= 0) return true;
+            return size >= PROBE ? false : null;
+        }
+
+        /**
+         * A ZIP. If its first entry is {@code mimetype} and stored, that must say EPUB; archives that do not
+         * start with it are still let through, as e-readers open them.
+         */
+        private Boolean epub() {
+            if (size < ZIP_MAGIC.length) return null;
+            if (!startsWith(ZIP_MAGIC)) return false;
+            if (size < 30) return null;
+            int method = u16(8);
+            int nameLen = u16(26);
+            int extraLen = u16(28);
+            if (nameLen != 8) return true;
+            if (size < 38) return null;
+            if (!new String(head, 30, 8, StandardCharsets.US_ASCII).equals("mimetype")) return true;
+            int data = 38 + extraLen;
+            if (method != 0 || data + EPUB_MIMETYPE.length() > PROBE) return true;
+            if (size < data + EPUB_MIMETYPE.length()) return null;
+            return new String(head, data, EPUB_MIMETYPE.length(), StandardCharsets.US_ASCII).equals(EPUB_MIMETYPE);
+        }
+
+        /** PalmDB type and creator at offset 60. */
+        private Boolean mobi() {
+            if (size < 68) return null;
+            String type = new String(head, 60, 8, StandardCharsets.US_ASCII);
+            return type.equals("BOOKMOBI") || type.equals("TEXtREAd");
+        }
+
+        private UnexpectedContentException mismatch() {
+            return new UnexpectedContentException("Expected " + expected.label + ", but the link serves " + describe() + ".");
+        }
+
+        /** What the head looks like, for the error message. */
+        private String describe() {
+            if (startsWith(LFS_MAGIC)) return "a Git LFS pointer (the file itself is stored in Git LFS)";
+            if (looksLikeHtml()) return "an HTML page";
+            if (size == 0) return "an empty body";
+            if (indexOf(PDF_MAGIC) >= 0) return Format.PDF.label;
+            if (startsWith(ZIP_MAGIC)) return "a ZIP archive";
+            if (size >= 68 && mobi()) return Format.MOBI.label;
+            return "something else";
+        }
+
+        /** Full match once enough bytes are in; a partial match is not enough to call it. */
+        private boolean startsWith(byte[] magic) {
+            if (size < magic.length) return false;
+            for (int i = 0; i < magic.length; i++) {
+                if (head[i] != magic[i]) return false;
+            }
+            return true;
+        }
+
+        private boolean looksLikeHtml() {
+            int i = 0;
+            if (size >= 3 && (head[0] & 0xff) == 0xEF && (head[1] & 0xff) == 0xBB && (head[2] & 0xff) == 0xBF) i = 3;
+            while (i < size && Character.isWhitespace(head[i])) i++;
+            String start = new String(head, i, Math.min(size - i, 14), StandardCharsets.US_ASCII).toLowerCase(Locale.ROOT);
+            return start.startsWith("<!doctype html") || start.startsWith("<html");
+        }
+
+        private int indexOf(byte[] magic) {
+            outer:
+            for (int i = 0; i + magic.length <= size; i++) {
+                for (int j = 0; j < magic.length; j++) {
+                    if (head[i + j] != magic[j]) continue outer;
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private int u16(int at) {
+            return (head[at] & 0xff) | (head[at + 1] & 0xff) << 8;
+        }
+    }
+
+    private static String mediaType(String contentType) {
+        if (contentType == null) return "";
+        int semi = contentType.indexOf(';');
+        return (semi >= 0 ? contentType.substring(0, semi) : contentType).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
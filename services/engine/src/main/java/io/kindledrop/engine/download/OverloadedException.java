@@ -0,0 +1,19 @@
+package io.kindledrop.engine.download;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/** The engine's in-flight send or byte budget is used up; the client should retry after {@link #retryAfter()}. */
+public class OverloadedException extends IOException {
+
+    private final Duration retryAfter;
+
+    public OverloadedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration retryAfter() {
+        return retryAfter;
+    }
+}
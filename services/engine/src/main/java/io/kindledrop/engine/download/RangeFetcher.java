@@ -0,0 +1,176 @@
+package io.kindledrop.engine.download;
+
+import io.kindledrop.engine.metrics.SendEvents;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Splits a large download into byte ranges fetched in parallel and written with positional writes into a
+ * preallocated file. Each range retries on its own and resumes from the last byte it wrote, so a dropped
+ * connection late in a big file only costs the remainder of that range.
+ *
+ * <p>Range requests go through the same redirect-following sender as the plain download, so every hop is
+ * still checked against the host allowlist. The total size is bounded by the Content-Length that was already
+ * checked against {@code maxBytes}, and no range may write past its end.
+ */
+class RangeFetcher {
+
+    interface Sender {
+        HttpResponse<InputStream> send(URI uri, Consumer<HttpRequest.Builder> customizer) throws IOException, InterruptedException;
+    }
+
+    /** The server answered a range request with a full body; the caller should fall back to a plain GET. */
+    static class RangeNotHonoredException extends IOException {
+        RangeNotHonoredException(int status) {
+            super("Server ignored Range request (status " + status + ").");
+        }
+    }
+
+    private final Sender sender;
+    private final RangeOptions options;
+
+    RangeFetcher(Sender sender, RangeOptions options) {
+        this.sender = sender;
+        this.options = options;
+    }
+
+    boolean supports(HttpResponse<?> resp, long contentLength) {
+        return options.parts() > 1
+                && contentLength >= options.minBytes()
+                && resp.headers().firstValue("accept-ranges").map(v -> v.equalsIgnoreCase("bytes")).orElse(false);
+    }
+
+    /**
+     * Downloads {@code contentLength} bytes into {@code target}. The already-open body of {@code first} is used
+     * for the first range, so no bytes of the initial GET are wasted. The first range is fed to {@code check} as
+     * it arrives, so a wrong body fails the whole download after its first read, cancelling the other ranges.
+     */
+    long fetch(HttpResponse<InputStream> first, Path target, long contentLength, ContentValidator.Check check)
+            throws IOException, InterruptedException {
+        try (RandomAccessFile raf = new RandomAccessFile(target.toFile(), "rw")) {
+            raf.setLength(contentLength);
+        }
+
+        URI source = first.uri();
+        // If-Range makes the server send a full 200 (-> fallback) instead of mixing ranges of two file versions
+        String validator = first.headers().firstValue("etag").filter(e -> !e.startsWith("W/")).orElse(null);
+        List<long[]> ranges = split(contentLength, options.parts());
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE);
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                InputStream initial = i == 0 ? first.body() : null;
+                ContentValidator.Check rangeCheck = i == 0 ? check : ContentValidator.Check.NONE;
+                futures.add(executor.submit(SendEvents.carry(() -> {
+                    fetchRange(channel, source, validator, range[0], range[1], initial, rangeCheck);
+                    return null;
+                })));
+            }
+            try {
+                for (Future<Void> f : futures) {
+                    f.get();
+                }
+            } catch (ExecutionException e) {
+                futures.forEach(f -> f.cancel(true));
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException io) throw io;
+                if (cause instanceof InterruptedException ie) throw ie;
+                if (cause instanceof RuntimeException re) throw re;
+                throw new IOException(cause);
+            } catch (InterruptedException e) {
+                futures.forEach(f -> f.cancel(true));
+                throw e;
+            }
+        } finally {
+            // normally closed by range 0 already; this covers a range 0 task that was cancelled before it ran
+            first.body().close();
+        }
+        return contentLength;
+    }
+
+    /** Bytes go through {@code check} in file order, including after a resume, before they are written. */
+    private void fetchRange(FileChannel channel, URI source, String validator, long start, long end, InputStream initial,
+                            ContentValidator.Check check) throws IOException, InterruptedException {
+        long pos = start;
+        InputStream in = initial;
+        int attempt = 0;
+
+        while (true) {
+            try {
+                if (in == null) {
+                    in = openRange(source, validator, pos, end);
+                }
+                try (InputStream body = in) {
+                    byte[] buf = new byte[64 * 1024];
+                    while (pos <= end) {
+                        int want = (int) Math.min(buf.length, end - pos + 1);
+                        int r = body.read(buf, 0, want);
+                        if (r == -1) throw new IOException("Connection closed at byte " + pos + " of range " + start + "-" + end + ".");
+                        check.update(buf, 0, r);
+                        ByteBuffer bb = ByteBuffer.wrap(buf, 0, r);
+                        while (bb.hasRemaining()) {
+                            pos += channel.write(bb, pos);
+                        }
+                    }
+                }
+                check.finish();
+                return;
+            } catch (RangeNotHonoredException | UnexpectedContentException e) {
+                throw e;
+            } catch (IOException e) {
+                in = null;
+                if (++attempt >= options.maxAttempts()) throw e;
+                // resume from the first byte not yet written
+            }
+        }
+    }
+
+    private InputStream openRange(URI source, String validator, long from, long to) throws IOException, InterruptedException {
+        HttpResponse<InputStream> resp = sender.send(source, b -> {
+            b.header("Range", "bytes=" + from + "-" + to);
+            if (validator != null) b.header("If-Range", validator);
+        });
+        int code = resp.statusCode();
+        if (code == 200) {
+            resp.body().close();
+            throw new RangeNotHonoredException(code);
+        }
+        if (code != 206) {
+            resp.body().close();
+            throw new HttpStatusException("Range request failed with status " + code, code);
+        }
+        String contentRange = resp.headers().firstValue("content-range").orElse("");
+        if (!contentRange.startsWith("bytes " + from + "-")) {
+            resp.body().close();
+            throw new IOException("Unexpected Content-Range '" + contentRange + "' for bytes " + from + "-" + to + ".");
+        }
+        return resp.body();
+    }
+
+    static List<long[]> split(long length, int parts) {
+        List<long[]> out = new ArrayList<>();
+        long size = (length + parts - 1) / parts;
+        for (long start = 0; start < length; start += size) {
+            out.add(new long[] {start, Math.min(length, start + size) - 1});
+        }
+        return out;
+    }
+}
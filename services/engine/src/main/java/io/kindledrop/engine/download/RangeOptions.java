@@ -0,0 +1,10 @@
+package io.kindledrop.engine.download;
+
+/**
+ * Parallel range download settings: files of at least {@code minBytes} are split into {@code parts} ranges,
+ * each retried up to {@code maxAttempts} times.
+ */
+public record RangeOptions(int parts, long minBytes, int maxAttempts) {
+
+    public static final RangeOptions DISABLED = new RangeOptions(1, Long.MAX_VALUE, 1);
+}
@@ -1,15 +1,36 @@
 package io.kindledrop.engine.download;
 
+import io.kindledrop.engine.metrics.SendEvents;
+import io.kindledrop.engine.metrics.SendMetrics;
+import io.kindledrop.engine.resolve.Origins;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.time.Duration;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 public class SecureDownloader {
 
@@ -21,35 +42,547 @@ public class SecureDownloader {
 
     private static final Set<String> ALLOWED_EXTENSIONS = Set.of("pdf", "epub", "mobi", "azw3");
 
+    // fewer read() calls per MB than the old 8KB buffer; the body still streams through one heap array
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    // bodies without a usable Content-Length are charged against the byte budget in steps of this size
+    static final long CHARGE_STEP = 1 << 20;
+
+    // async downloads never block these threads (staging runs on its own virtual threads), so a few carry any number of transfers
+    private static final int ASYNC_THREADS = 2;
+
     private final HttpClient client;
+    private final HttpClient asyncClient;
+    // a virtual thread per staging step of an async download, as a write to a temp file blocks
+    private final Executor stagingWriter = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("download-stage-", 0).factory());
+    private final DownloadCache cache;
+    private final RangeFetcher rangeFetcher;
+    private final HostRateLimiter limiter;
+    private final SendMetrics metrics;
+    private final Stager stager;
+    private final Set<String> extraOrigins;
+    private final ContentValidator validator;
+    private final DownloadCoalescer inFlight = new DownloadCoalescer(this::downloadToTemp, r -> r.content().release());
 
     public SecureDownloader() {
+        this(null, RangeOptions.DISABLED, new HostRateLimiter(HostRateLimiter.Options.DEFAULTS), SendMetrics.noop());
+    }
+
+    public SecureDownloader(DownloadCache cache, RangeOptions ranges, HostRateLimiter limiter, SendMetrics metrics) {
+        this(cache, ranges, limiter, metrics, Stager.diskOnly());
+    }
+
+    public SecureDownloader(DownloadCache cache, RangeOptions ranges, HostRateLimiter limiter, SendMetrics metrics, Stager stager) {
+        this(cache, ranges, limiter, metrics, stager, List.of());
+    }
+
+    /**
+     * @param extraOrigins {@code scheme://host[:port]} origins allowed on top of GitHub, over their own scheme
+     *                     (plain http included). Meant for local stand-ins in load tests, never for production.
+     */
+    public SecureDownloader(DownloadCache cache, RangeOptions ranges, HostRateLimiter limiter, SendMetrics metrics, Stager stager,
+                            List<String> extraOrigins) {
+        this(cache, ranges, limiter, metrics, stager, extraOrigins, new MagicByteValidator());
+    }
+
+    /** @param validator checks each body as it streams in; {@link ContentValidator#NONE} to skip */
+    public SecureDownloader(DownloadCache cache, RangeOptions ranges, HostRateLimiter limiter, SendMetrics metrics, Stager stager,
+                            List<String> extraOrigins, ContentValidator validator) {
         this.client = HttpClient.newBuilder()
                 .followRedirects(HttpClient.Redirect.NEVER) // we handle redirects manually to enforce allowlist
                 .connectTimeout(Duration.ofSeconds(10))
                 .build();
+        this.asyncClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(10))
+                .executor(Executors.newFixedThreadPool(ASYNC_THREADS, Thread.ofPlatform().name("download-io-", 0).daemon().factory()))
+                .build();
+        this.cache = cache;
+        this.rangeFetcher = new RangeFetcher(this::sendFollowingRedirects, ranges);
+        this.limiter = limiter;
+        this.metrics = metrics;
+        this.stager = stager;
+        Set<String> origins = new HashSet<>();
+        for (String o : extraOrigins) origins.add(Origins.of(URI.create(o.trim())));
+        this.extraOrigins = Set.copyOf(origins);
+        this.validator = validator;
+    }
+
+    /**
+     * Sends one throwaway GET to {@code local} (the engine itself) on each HTTP client, so the first real download
+     * does not pay for starting the client and loading its classes. Failures are ignored.
+     */
+    public void warmUp(URI local) {
+        HttpRequest request = HttpRequest.newBuilder(local).timeout(Duration.ofSeconds(5)).GET().build();
+        try {
+            client.send(request, HttpResponse.BodyHandlers.discarding());
+            asyncClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).get(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // nothing to warm then; the first download will do it
+        }
+    }
+
+    public Stager.Stats stagingStats() {
+        return stager.stats();
+    }
+
+    public Map<String, HostRateLimiter.HostStats> rateLimiterStats() {
+        return limiter.stats();
+    }
+
+    public DownloadCache.Stats cacheStats() {
+        return cache == null ? null : cache.stats();
+    }
+
+    public DownloadCoalescer.Stats coalescerStats() {
+        return inFlight.stats();
+    }
+
+    /**
+     * Like {@link #downloadToTemp}, but concurrent calls for the same URL share one download. Close the
+     * returned handle instead of deleting the file; the temp dir goes away after the last holder closes.
+     */
+    public DownloadCoalescer.SharedDownload acquire(URI uri, String fileNameHint, long maxBytes) throws IOException, InterruptedException {
+        return acquire(uri, fileNameHint, maxBytes, ByteBudget.NONE);
+    }
+
+    /** Like {@link #acquire(URI, String, long)}; the file's size is charged to {@code budget}, also when this call joins another's. */
+    public DownloadCoalescer.SharedDownload acquire(URI uri, String fileNameHint, long maxBytes, ByteBudget budget) throws IOException, InterruptedException {
+        return inFlight.acquire(uri, fileNameHint, maxBytes, budget);
     }
 
     public DownloadResult downloadToTemp(URI uri, String fileNameHint, long maxBytes) throws IOException, InterruptedException {
+        return downloadToTemp(uri, fileNameHint, maxBytes, ByteBudget.NONE);
+    }
+
+    /**
+     * Downloads {@code uri} and stages the body: small bodies in pooled memory, the rest in a new temp dir.
+     * Release the result's {@link DownloadResult#content() content} when done. The size is charged to {@code budget} from Content-Length
+     * before the body is read, and again while streaming if more arrives.
+     */
+    public DownloadResult downloadToTemp(URI uri, String fileNameHint, long maxBytes, ByteBudget budget) throws IOException, InterruptedException {
         validateHost(uri);
         String fileName = sanitizeFileName(fileNameHint);
         validateExtension(fileName);
 
-        // Follow redirects up to 5 times, enforcing allowlist each step.
-        URI current = uri;
-        HttpResponse<InputStream> resp = null;
+        DownloadCache.Entry cached = cache == null ? null : cache.lookup(uri.toString()).orElse(null);
 
-        for (int i = 0; i < 6; i++) {
-            HttpRequest req = HttpRequest.newBuilder(current)
+        HttpResponse<InputStream> resp = sendFollowingRedirects(uri, builder -> {
+            if (cached == null) return;
+            if (cached.etag() != null) builder.header("If-None-Match", cached.etag());
+            if (cached.lastModified() != null) builder.header("If-Modified-Since", cached.lastModified());
+        });
+
+        if (resp.statusCode() == 304 && cached != null) {
+            // Not modified: reuse the cached body, no bytes transferred.
+            resp.body().close();
+            if (cached.bytes() > maxBytes) {
+                throw new FileTooLargeException("File too large (content-length " + cached.bytes() + " bytes). Max allowed is " + maxBytes + " bytes.");
+            }
+            budget.charge(cached.bytes());
+            // a hard link into a temp dir, so still cheaper than copying into memory
+            StagedContent content = StagedContent.onDisk(Stager.tempFile(fileName));
+            try {
+                cache.materialize(cached, content.file());
+            } catch (IOException e) {
+                content.release();
+                throw e;
+            }
+            return new DownloadResult(content, fileName, cached.bytes(), cached.contentType());
+        }
+
+        long declaredLen = checkResponse(resp, maxBytes, budget);
+        long charged = Math.max(0, declaredLen);
+
+        String contentType = resp.headers().firstValue("content-type").orElse("");
+        ContentValidator.Check check = begin(resp, fileName, contentType);
+
+        MessageDigest sha256 = cache == null ? null : DownloadCache.newSha256();
+
+        StagedContent content = null;
+        long written = 0;
+        boolean ranged = false;
+        Timer.Sample body = metrics.start();
+        SendEvents.DownloadBody event = new SendEvents.DownloadBody();
+        event.begin();
+        try {
+            if (rangeFetcher.supports(resp, declaredLen)) {
+                ranged = true;
+                // parallel ranges write at offsets, so these always go to a file
+                StagedContent file = StagedContent.onDisk(Stager.tempFile(fileName));
+                try {
+                    // range 0 is checked while it streams; the assembled head is checked again as a backstop
+                    written = rangeFetcher.fetch(resp, file.file(), declaredLen, check);
+                    checkHead(file.file(), validator.begin(fileName, contentType));
+                    if (sha256 != null) digestFile(file.file(), sha256);
+                    content = file;
+                } catch (RangeFetcher.RangeNotHonoredException e) {
+                    // advertised Accept-Ranges but sent full bodies: start over with a single stream,
+                    // which may be another version of the file, so it is checked like the first response
+                    ranged = false;
+                    file.release();
+                    resp = sendFollowingRedirects(uri, builder -> {});
+                    declaredLen = checkResponse(resp, maxBytes, budget);
+                    charged = Math.max(charged, declaredLen);
+                    contentType = resp.headers().firstValue("content-type").orElse("");
+                    check = begin(resp, fileName, contentType);
+                } catch (IOException e) {
+                    file.release();
+                    throw e;
+                }
+            }
+            if (content == null) {
+                try (Stager.Output out = stager.open(fileName, declaredLen)) {
+                    written = copyCapped(resp.body(), out, maxBytes, sha256, budget, charged, check);
+                    content = out.finish();
+                }
+            }
+        } catch (IOException e) {
+            metrics.stop(body, "kindledrop.download.body", "outcome", "failure");
+            event.finish(resp.uri().getHost(), resp.statusCode(), written, declaredLen, false, ranged, false);
+            throw e;
+        }
+        metrics.stop(body, "kindledrop.download.body", "outcome", "success");
+        event.finish(resp.uri().getHost(), resp.statusCode(), written, declaredLen, content.file() == null, ranged, true);
+        metrics.bytesDownloaded(written);
+
+        if (cache != null) {
+            cache.recordMiss();
+            try {
+                cache.store(
+                        uri.toString(),
+                        resp.headers().firstValue("etag").orElse(null),
+                        resp.headers().firstValue("last-modified").orElse(null),
+                        contentType,
+                        content,
+                        HexFormat.of().formatHex(sha256.digest()),
+                        written
+                );
+            } catch (IOException ignored) {
+                // a cache write failure must not fail the send
+            }
+        }
+
+        return new DownloadResult(content, fileName, written, contentType);
+    }
+
+    static long copyCapped(InputStream body, Path target, long maxBytes, MessageDigest sha256) throws IOException {
+        try (var out = Files.newOutputStream(target)) {
+            return copyCapped(body, out, maxBytes, sha256, ByteBudget.NONE, Long.MAX_VALUE);
+        }
+    }
+
+    static long copyCapped(InputStream body, OutputStream out, long maxBytes, MessageDigest sha256, ByteBudget budget, long charged) throws IOException {
+        return copyCapped(body, out, maxBytes, sha256, budget, charged, ContentValidator.Check.NONE);
+    }
+
+    /**
+     * Copies with the {@code maxBytes} cap, charging {@code budget} ahead of the bytes once past {@code charged}.
+     * Each chunk goes through {@code check} before it is written, so a wrong body stops after its first read.
+     */
+    static long copyCapped(InputStream body, OutputStream out, long maxBytes, MessageDigest sha256, ByteBudget budget, long charged,
+                           ContentValidator.Check check) throws IOException {
+        long written = 0;
+        try (InputStream in = body) {
+            // stream with hard cap
+            byte[] buf = new byte[COPY_BUFFER];
+            int r;
+            while ((r = in.read(buf)) != -1) {
+                written += r;
+                if (written > maxBytes) {
+                    throw new FileTooLargeException("File too large (streamed > " + maxBytes + " bytes).");
+                }
+                if (written > charged) {
+                    charged = Math.min(maxBytes, written + CHARGE_STEP);
+                    budget.charge(charged);
+                }
+                check.update(buf, 0, r);
+                out.write(buf, 0, r);
+                if (sha256 != null) sha256.update(buf, 0, r);
+            }
+            check.finish();
+        }
+        return written;
+    }
+
+    /**
+     * Non-blocking download: the request, redirects, the per-host limit and the body all complete on the HTTP
+     * client's callbacks, so no thread waits while the origin is slow. The body is staged like
+     * {@link #downloadToTemp}'s, with the same allowlist, cap and budget checks. The cache, range requests and
+     * coalescing are skipped; this path is for many small, mostly idle transfers. Fails with
+     * {@link HttpTimeoutException} if the body is not complete within {@code timeout}.
+     */
+    public CompletableFuture<DownloadResult> downloadAsync(URI uri, String fileNameHint, long maxBytes, ByteBudget budget, Duration timeout) {
+        validateHost(uri);
+        String fileName = sanitizeFileName(fileNameHint);
+        validateExtension(fileName);
+
+        AtomicReference<CappedBodySubscriber> body = new AtomicReference<>();
+        CompletableFuture<DownloadResult> result = new CompletableFuture<>();
+        Timer.Sample sample = metrics.start();
+        // callbacks run on the HTTP client's threads, so the id travels with the request
+        fetchAsync(uri, 0, 1, SendEvents.correlationId(), info -> {
+            if (info.statusCode() < 200 || info.statusCode() >= 300) return HttpResponse.BodySubscribers.replacing(null);
+            CappedBodySubscriber subscriber = new CappedBodySubscriber(stager, stagingWriter, fileName,
+                    info.headers().firstValueAsLong("content-length").orElse(-1), maxBytes, budget,
+                    validator, info.headers().firstValue("content-type").orElse(""));
+            body.set(subscriber);
+            // timed out while the request was under way: do not read the body at all
+            if (result.isDone()) subscriber.abort(new HttpTimeoutException("Download timed out after " + timeout.toSeconds() + "s."));
+            return subscriber;
+        }).whenComplete((resp, e) -> {
+            if (e != null) {
+                metrics.stop(sample, "kindledrop.download.body", "outcome", "failure");
+                result.completeExceptionally(unwrap(e));
+                return;
+            }
+            StagedContent content = resp.body();
+            metrics.stop(sample, "kindledrop.download.body", "outcome", "success");
+            metrics.bytesDownloaded(content.size());
+            DownloadResult download = new DownloadResult(content, fileName, content.size(), resp.headers().firstValue("content-type").orElse(""));
+            // lost the race against the timeout
+            if (!result.complete(download)) content.release();
+        });
+
+        if (timeout != null && timeout.isPositive()) {
+            CompletableFuture.delayedExecutor(timeout.toNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+                HttpTimeoutException e = new HttpTimeoutException("Download timed out after " + timeout.toSeconds() + "s.");
+                if (result.completeExceptionally(e)) {
+                    CappedBodySubscriber subscriber = body.get();
+                    if (subscriber != null) subscriber.abort(e);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * One hop of {@link #downloadAsync}: waits for a host slot without a thread, sends, and either follows a
+     * redirect (allowlist-checked), retries a throttled answer after its {@code Retry-After}, or returns the
+     * final 2xx response with its body staged. The host slot is released once the body is done.
+     */
+    private CompletableFuture<HttpResponse<StagedContent>> fetchAsync(URI uri, int hop, int attempt, String correlationId,
+                                                                     HttpResponse.BodyHandler<StagedContent> handler) {
+        String host = uri.getHost().toLowerCase();
+        return limiter.acquireAsync(host).thenCompose(permit -> {
+            watchHost(host);
+            HttpRequest request = HttpRequest.newBuilder(uri)
                     .timeout(Duration.ofSeconds(30))
                     .GET()
                     .header("User-Agent", "KindleDrop/0.1")
                     .build();
+            Timer.Sample sample = metrics.start();
+            SendEvents.HttpExchange event = new SendEvents.HttpExchange();
+            event.begin();
+            return asyncClient.sendAsync(request, handler).handle((resp, e) -> {
+                if (e != null) {
+                    permit.failed();
+                    metrics.stop(sample, "kindledrop.http.request", "host", host, "status", "error", "redirect", "false");
+                    event.finish(correlationId, host, -1, hop, attempt, true);
+                    return CompletableFuture.<HttpResponse<StagedContent>>failedFuture(unwrap(e));
+                }
+                int code = resp.statusCode();
+                boolean redirect = code >= 300 && code < 400 && code != 304;
+                metrics.stop(sample, "kindledrop.http.request", "host", host, "status", Integer.toString(code), "redirect", Boolean.toString(redirect));
+                event.finish(correlationId, host, code, hop, attempt, true);
+
+                if (HostRateLimiter.isThrottle(code)) {
+                    permit.throttled(limiter.retryAfter(resp, Duration.ofSeconds(attempt)));
+                    if (attempt < limiter.options().maxAttempts()) {
+                        // the next acquireAsync() completes once the Retry-After window is over
+                        return fetchAsync(uri, hop, attempt + 1, correlationId, handler);
+                    }
+                    return CompletableFuture.<HttpResponse<StagedContent>>failedFuture(
+                            new HttpStatusException("Download failed with status " + code, code));
+                }
+                permit.success();
+                if (redirect) {
+                    if (hop >= 5) {
+                        return CompletableFuture.<HttpResponse<StagedContent>>failedFuture(
+                                new HttpStatusException("Download failed with status " + code, code));
+                    }
+                    URI next;
+                    try {
+                        String loc = resp.headers().firstValue("location").orElseThrow(() ->
+                                new IOException("Redirect without Location header"));
+                        next = uri.resolve(loc);
+                        validateHost(next);
+                    } catch (IOException | RuntimeException ex) {
+                        return CompletableFuture.<HttpResponse<StagedContent>>failedFuture(ex);
+                    }
+                    return fetchAsync(next, hop + 1, 1, correlationId, handler);
+                }
+                if (code < 200 || code >= 300) {
+                    return CompletableFuture.<HttpResponse<StagedContent>>failedFuture(
+                            new HttpStatusException("Download failed with status " + code, code));
+                }
+                return CompletableFuture.completedFuture(resp);
+            }).thenCompose(f -> f);
+        });
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while ((e instanceof CompletionException || e instanceof ExecutionException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    private static void digestFile(Path file, MessageDigest sha256) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buf = new byte[64 * 1024];
+            int r;
+            while ((r = in.read(buf)) != -1) {
+                sha256.update(buf, 0, r);
+            }
+        }
+    }
+
+    /**
+     * The {@code Content-Length} of {@code uri} from a HEAD request (redirects followed and checked as for a
+     * download), or -1 on any miss: no {@code Content-Length}, a non-2xx or throttled answer, an error, or no
+     * answer within {@code timeout}, which bounds all hops together. It is only an estimate, so it never waits:
+     * a host without a free slot right now is not asked, and a throttled answer is not retried.
+     */
+    public CompletableFuture<Long> probeSize(URI uri, Duration timeout) {
+        validateHost(uri);
+        return probeHop(uri, 0, timeout, SendEvents.correlationId())
+                .completeOnTimeout(-1L, timeout.toNanos(), TimeUnit.NANOSECONDS)
+                .exceptionally(e -> -1L);
+    }
+
+    private CompletableFuture<Long> probeHop(URI uri, int hop, Duration timeout, String correlationId) {
+        String host = uri.getHost().toLowerCase();
+        HostRateLimiter.Permit permit = limiter.tryAcquire(host);
+        if (permit == null) return CompletableFuture.completedFuture(-1L);
+        watchHost(host);
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .header("User-Agent", "KindleDrop/0.1")
+                .build();
+        Timer.Sample sample = metrics.start();
+        SendEvents.HttpExchange event = new SendEvents.HttpExchange();
+        event.begin();
+        return asyncClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).handle((resp, e) -> {
+            if (e != null) {
+                permit.failed();
+                metrics.stop(sample, "kindledrop.http.request", "host", host, "status", "error", "redirect", "false");
+                event.finish(correlationId, host, -1, hop, 1, true);
+                return CompletableFuture.completedFuture(-1L);
+            }
+            int code = resp.statusCode();
+            boolean redirect = code >= 300 && code < 400 && code != 304;
+            metrics.stop(sample, "kindledrop.http.request", "host", host, "status", Integer.toString(code), "redirect", Boolean.toString(redirect));
+            event.finish(correlationId, host, code, hop, 1, true);
+            if (HostRateLimiter.isThrottle(code)) {
+                permit.throttled(limiter.retryAfter(resp, Duration.ofSeconds(1)));
+                return CompletableFuture.completedFuture(-1L);
+            }
+            permit.success();
+            if (redirect && hop < 5) {
+                URI next;
+                try {
+                    next = uri.resolve(resp.headers().firstValue("location").orElseThrow());
+                    validateHost(next);
+                } catch (RuntimeException ex) {
+                    return CompletableFuture.completedFuture(-1L);
+                }
+                return probeHop(next, hop + 1, timeout, correlationId);
+            }
+            if (code < 200 || code >= 300) return CompletableFuture.completedFuture(-1L);
+            return CompletableFuture.completedFuture(resp.headers().firstValueAsLong("content-length").orElse(-1));
+        }).thenCompose(f -> f);
+    }
+
+    /**
+     * Opens {@code uri} for streaming instead of writing it to a temp file. Host, extension and the declared
+     * Content-Length are checked before any body byte is read; the streamed byte cap is enforced while reading.
+     */
+    public StreamingDownload openStream(URI uri, String fileNameHint, long maxBytes, int bufferSize) throws IOException, InterruptedException {
+        return openStream(uri, fileNameHint, maxBytes, bufferSize, ByteBudget.NONE);
+    }
+
+    /** Like {@link #openStream(URI, String, long, int)}, charging the size to {@code budget} as it becomes known. */
+    public StreamingDownload openStream(URI uri, String fileNameHint, long maxBytes, int bufferSize, ByteBudget budget) throws IOException, InterruptedException {
+        validateHost(uri);
+        String fileName = sanitizeFileName(fileNameHint);
+        validateExtension(fileName);
+
+        HttpResponse<InputStream> resp = sendFollowingRedirects(uri, builder -> {});
+        long declaredLen = checkResponse(resp, maxBytes, budget);
+
+        String contentType = resp.headers().firstValue("content-type").orElse("");
+        ContentValidator.Check check = begin(resp, fileName, contentType);
+
+        StreamingDownload download = new StreamingDownload(resp.body(), fileName, contentType, declaredLen, maxBytes, bufferSize, budget, check);
+        download.start();
+        return download;
+    }
+
+    /** Starts the content check; a Content-Type that already rules the body out closes it unread. */
+    private ContentValidator.Check begin(HttpResponse<InputStream> resp, String fileName, String contentType) throws IOException {
+        try {
+            return validator.begin(fileName, contentType);
+        } catch (UnexpectedContentException e) {
+            resp.body().close();
+            throw e;
+        }
+    }
+
+    private static void checkHead(Path file, ContentValidator.Check check) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] head = in.readNBytes(MagicByteValidator.PROBE);
+            check.update(head, 0, head.length);
+            check.finish();
+        }
+    }
+
+    /**
+     * Fails a non-2xx response or a Content-Length over {@code maxBytes}, and charges the declared length to
+     * {@code budget}. Returns the declared length, or -1. The body is closed if the response is refused.
+     */
+    private static long checkResponse(HttpResponse<InputStream> resp, long maxBytes, ByteBudget budget) throws IOException {
+        if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
+            resp.body().close();
+            throw new HttpStatusException("Download failed with status " + resp.statusCode(), resp.statusCode());
+        }
+        long declaredLen = resp.headers().firstValueAsLong("content-length").orElse(-1);
+        if (declaredLen > maxBytes) {
+            resp.body().close();
+            throw new FileTooLargeException("File too large (content-length " + declaredLen + " bytes). Max allowed is " + maxBytes + " bytes.");
+        }
+        chargeDeclared(resp, budget, declaredLen);
+        return declaredLen;
+    }
+
+    private static void chargeDeclared(HttpResponse<InputStream> resp, ByteBudget budget, long declaredLen) throws IOException {
+        if (declaredLen < 0) return;
+        try {
+            budget.charge(declaredLen);
+        } catch (IOException | RuntimeException e) {
+            resp.body().close();
+            throw e;
+        }
+    }
+
+    /**
+     * GETs {@code uri}, following up to 5 redirects manually so every hop is checked against the allowlist.
+     * Returns the first non-redirect response with its body unread.
+     */
+    private HttpResponse<InputStream> sendFollowingRedirects(URI uri, Consumer<HttpRequest.Builder> customizer)
+            throws IOException, InterruptedException {
+        URI current = uri;
+        HttpResponse<InputStream> resp = null;
 
-            resp = client.send(req, HttpResponse.BodyHandlers.ofInputStream());
+        for (int i = 0; i < 6; i++) {
+            resp = sendThrottled(current, i, customizer);
 
             int code = resp.statusCode();
-            if (code >= 300 && code < 400) {
+            if (code >= 300 && code < 400 && code != 304) {
+                resp.body().close();
                 String loc = resp.headers().firstValue("location").orElseThrow(() ->
                         new IOException("Redirect without Location header"));
                 current = current.resolve(loc);
@@ -60,54 +593,106 @@ public class SecureDownloader {
         }
 
         if (resp == null) throw new IOException("No response received.");
+        return resp;
+    }
 
-        if (resp.statusCode() < 200 || resp.statusCode() >= 300) {
-            throw new IOException("Download failed with status " + resp.statusCode());
-        }
+    /**
+     * One request through the per-host limiter. The slot is held until the body is closed, so a slow transfer
+     * counts against the host's concurrency. 429/503 answers are retried after {@code Retry-After} rather than
+     * failing the download; the last one is returned if every attempt is throttled.
+     */
+    private HttpResponse<InputStream> sendThrottled(URI uri, int hop, Consumer<HttpRequest.Builder> customizer)
+            throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofSeconds(30))
+                    .GET()
+                    .header("User-Agent", "KindleDrop/0.1");
+            customizer.accept(builder);
 
-        long declaredLen = resp.headers().firstValueAsLong("content-length").orElse(-1);
-        if (declaredLen > maxBytes) {
-            throw new IOException("File too large (content-length " + declaredLen + " bytes). Max allowed is " + maxBytes + " bytes.");
-        }
+            String host = uri.getHost().toLowerCase();
+            HostRateLimiter.Permit permit = limiter.acquire(host);
+            watchHost(host);
 
-        String contentType = resp.headers().firstValue("content-type").orElse("");
+            HttpResponse<InputStream> resp;
+            Timer.Sample request = metrics.start();
+            SendEvents.HttpExchange event = new SendEvents.HttpExchange();
+            event.begin();
+            try {
+                resp = client.send(builder.build(), info -> HttpResponse.BodySubscribers.mapping(
+                        HttpResponse.BodySubscribers.ofInputStream(),
+                        in -> new PermitReleasingInputStream(in, permit)));
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                permit.failed();
+                metrics.stop(request, "kindledrop.http.request", "host", host, "status", "error", "redirect", "false");
+                event.finish(SendEvents.correlationId(), host, -1, hop, attempt, false);
+                throw e;
+            }
+            int code = resp.statusCode();
+            boolean redirect = code >= 300 && code < 400 && code != 304;
+            metrics.stop(request, "kindledrop.http.request", "host", host, "status", Integer.toString(code), "redirect", Boolean.toString(redirect));
+            event.finish(SendEvents.correlationId(), host, code, hop, attempt, false);
 
-        Path tmpDir = Files.createTempDirectory("kindledrop-");
-        Path tmpFile = tmpDir.resolve(fileName);
+            if (!HostRateLimiter.isThrottle(resp.statusCode())) {
+                return resp;
+            }
 
-        long written = 0;
-        try (InputStream in = resp.body()) {
-            // stream with hard cap
-            try (var out = Files.newOutputStream(tmpFile)) {
-                byte[] buf = new byte[8192];
-                int r;
-                while ((r = in.read(buf)) != -1) {
-                    written += r;
-                    if (written > maxBytes) {
-                        throw new IOException("File too large (streamed > " + maxBytes + " bytes).");
-                    }
-                    out.write(buf, 0, r);
-                }
+            Duration retryAfter = limiter.retryAfter(resp, Duration.ofSeconds(attempt));
+            permit.throttled(retryAfter);
+            if (attempt >= limiter.options().maxAttempts()) {
+                return resp;
             }
-        } catch (IOException e) {
-            // cleanup temp dir on failure
-            safeDeleteRecursive(tmpDir);
-            throw e;
+            resp.body().close();
+            // the next acquire() waits out the Retry-After window (bounded by maxWait)
+        }
+    }
+
+    private void watchHost(String host) {
+        metrics.watch("kindledrop.host.limit", "host", host, limiter, l -> {
+            var stats = l.stats(host);
+            return stats == null ? 0 : stats.limit();
+        });
+        metrics.watch("kindledrop.host.queued", "host", host, limiter, l -> {
+            var stats = l.stats(host);
+            return stats == null ? 0 : stats.queued();
+        });
+    }
+
+    private static final class PermitReleasingInputStream extends FilterInputStream {
+        private final HostRateLimiter.Permit permit;
+
+        private PermitReleasingInputStream(InputStream in, HostRateLimiter.Permit permit) {
+            super(in);
+            this.permit = permit;
         }
 
-        return new DownloadResult(tmpFile, fileName, written, contentType);
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                permit.success();
+            }
+        }
     }
 
     private void validateHost(URI uri) {
+        if (!extraOrigins.isEmpty() && extraOrigins.contains(Origins.of(uri))) return;
         String host = uri.getHost();
         if (host == null || !ALLOWED_HOSTS.contains(host.toLowerCase())) {
-            throw new IllegalArgumentException("Blocked host: " + host);
+            throw new BlockedHostException("Blocked host: " + host);
         }
         if (!"https".equalsIgnoreCase(uri.getScheme())) {
-            throw new IllegalArgumentException("Only https URLs are allowed.");
+            throw new BlockedHostException("Only https URLs are allowed.");
         }
     }
 
+    /** True if a file with this name could be downloaded (pdf/epub/mobi/azw3). */
+    public static boolean isAllowedFile(String fileName) {
+        int idx = fileName.lastIndexOf('.');
+        return idx >= 0 && ALLOWED_EXTENSIONS.contains(fileName.substring(idx + 1).toLowerCase());
+    }
+
     private void validateExtension(String fileName) {
         int idx = fileName.lastIndexOf('.');
         if (idx < 0) {
@@ -119,7 +704,7 @@ public class SecureDownloader {
         }
     }
 
-    private String sanitizeFileName(String name) {
+    static String sanitizeFileName(String name) {
         if (name == null || name.isBlank()) return "document.pdf";
         // remove path separators and control chars
         name = name.replaceAll("[\\/\r\n\t\0]", "_");
@@ -127,15 +712,4 @@ public class SecureDownloader {
         if (name.length() > 150) name = name.substring(name.length() - 150);
         return name;
     }
-
-    private void safeDeleteRecursive(Path dir) {
-        try {
-            if (Files.notExists(dir)) return;
-            Files.walk(dir)
-                    .sorted((a, b) -> b.getNameCount() - a.getNameCount())
-                    .forEach(p -> {
-                        try { Files.deleteIfExists(p); } catch (Exception ignored) {}
-                    });
-        } catch (Exception ignored) {}
-    }
 }
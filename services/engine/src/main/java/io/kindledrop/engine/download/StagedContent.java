@@ -0,0 +1,194 @@
+package io.kindledrop.engine.download;
+
+import io.kindledrop.engine.metrics.SendEvents;
+import jakarta.activation.DataSource;
+import jakarta.activation.FileDataSource;
+import jakarta.activation.FileTypeMap;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A downloaded body, held either in pooled memory slabs or in a file in its own temp directory. It can be read
+ * any number of times until {@link #release()}, which returns the slabs or deletes the file.
+ */
+public abstract sealed class StagedContent permits StagedContent.Memory, StagedContent.Disk {
+
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    public abstract long size();
+
+    public abstract InputStream open() throws IOException;
+
+    /** The backing file, or null if the body is in memory. */
+    public abstract Path file();
+
+    /** For attaching to a mail without copying the body. */
+    public abstract DataSource dataSource(String name);
+
+    /** Frees the body. Idempotent. */
+    public final void release() {
+        if (!released.compareAndSet(false, true)) return;
+        SendEvents.Cleanup event = new SendEvents.Cleanup();
+        event.begin();
+        // a stat for the size, only while a recording wants it
+        long bytes = event.isEnabled() ? size() : 0;
+        free();
+        event.finish(bytes, file() != null);
+    }
+
+    abstract void free();
+
+    /** A body written to {@code file}; releasing it deletes the file and its parent directory. */
+    public static StagedContent onDisk(Path file) {
+        return new Disk(file, file.getParent());
+    }
+
+    static final class Disk extends StagedContent {
+        private final Path file;
+        private final Path dir;
+
+        Disk(Path file, Path dir) {
+            this.file = file;
+            this.dir = dir;
+        }
+
+        @Override
+        public long size() {
+            try {
+                return Files.size(file);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return Files.newInputStream(file);
+        }
+
+        @Override
+        public Path file() {
+            return file;
+        }
+
+        @Override
+        public DataSource dataSource(String name) {
+            return new FileDataSource(file.toFile());
+        }
+
+        @Override
+        void free() {
+            // the dir only ever holds this one file, so no need to walk it
+            try { Files.deleteIfExists(file); } catch (IOException ignored) {}
+            if (dir != null) {
+                try { Files.deleteIfExists(dir); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    static final class Memory extends StagedContent {
+        private final BufferPool pool;
+        private final List<ByteBuffer> slabs;
+        private final long size;
+
+        /** {@code slabs} are filled up to their position. */
+        Memory(BufferPool pool, List<ByteBuffer> slabs, long size) {
+            this.pool = pool;
+            this.slabs = slabs;
+            this.size = size;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public InputStream open() {
+            return new SlabInputStream(slabs);
+        }
+
+        @Override
+        public Path file() {
+            return null;
+        }
+
+        @Override
+        public DataSource dataSource(String name) {
+            String type = FileTypeMap.getDefaultFileTypeMap().getContentType(name);
+            return new DataSource() {
+                @Override
+                public InputStream getInputStream() {
+                    return open();
+                }
+
+                @Override
+                public OutputStream getOutputStream() throws IOException {
+                    throw new IOException("Read-only data source.");
+                }
+
+                @Override
+                public String getContentType() {
+                    return type;
+                }
+
+                @Override
+                public String getName() {
+                    return name;
+                }
+            };
+        }
+
+        @Override
+        void free() {
+            for (ByteBuffer slab : slabs) pool.release(slab);
+        }
+    }
+
+    /** Reads filled slabs through read-only views, so concurrent readers don't disturb each other. */
+    private static final class SlabInputStream extends InputStream {
+        private final List<ByteBuffer> slabs;
+        private int index;
+        private ByteBuffer current;
+
+        SlabInputStream(List<ByteBuffer> slabs) {
+            this.slabs = slabs;
+        }
+
+        @Override
+        public int read() {
+            ByteBuffer b = next();
+            return b == null ? -1 : b.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) {
+            if (len == 0) return 0;
+            ByteBuffer b = next();
+            if (b == null) return -1;
+            int n = Math.min(len, b.remaining());
+            b.get(buf, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.remaining();
+        }
+
+        private ByteBuffer next() {
+            while (current == null || !current.hasRemaining()) {
+                if (index == slabs.size()) return null;
+                current = slabs.get(index++).asReadOnlyBuffer().flip();
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package io.kindledrop.engine.download;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides where a download body lives. Bodies up to {@code memoryThreshold} go into {@link BufferPool} slabs,
+ * so small sends never create, write or delete anything on disk. A body spills to a temp file as soon as it
+ * outgrows the threshold or the pool runs dry. The slabs written so far are flushed to the file, and the
+ * caller does not notice the switch.
+ */
+public class Stager {
+
+    private final BufferPool pool;
+    private final long memoryThreshold;
+    private final AtomicLong inMemory = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong onDisk = new AtomicLong();
+
+    public Stager(BufferPool pool, long memoryThreshold) {
+        this.pool = pool;
+        this.memoryThreshold = pool == null ? 0 : memoryThreshold;
+    }
+
+    /** Every body goes straight to disk. */
+    public static Stager diskOnly() {
+        return new Stager(null, 0);
+    }
+
+    /**
+     * Starts staging a body named {@code fileName}. {@code expectedLength} (-1 if unknown) picks disk up front
+     * for bodies that could never fit in memory.
+     */
+    public Output open(String fileName, long expectedLength) throws IOException {
+        Output out = new Output(fileName);
+        if (memoryThreshold == 0 || expectedLength > memoryThreshold) out.spill();
+        return out;
+    }
+
+    /** A new temp dir holding an empty file named {@code fileName}, for writers that need a real file. */
+    static Path tempFile(String fileName) throws IOException {
+        return Files.createTempDirectory("kindledrop-").resolve(fileName);
+    }
+
+    public Stats stats() {
+        return new Stats(inMemory.get(), spilled.get(), onDisk.get(), memoryThreshold, pool == null ? null : pool.stats());
+    }
+
+    /** Write the body, then {@link #finish()}; on failure {@link #close()} discards whatever was staged. */
+    public final class Output extends OutputStream {
+        private final String fileName;
+        private final List<ByteBuffer> slabs = new ArrayList<>();
+        private ByteBuffer current;
+        private long size;
+        private Path file;
+        private FileChannel channel;
+        private boolean done;
+
+        private Output(String fileName) {
+            this.fileName = fileName;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (channel == null && size + len > memoryThreshold) spill();
+            if (channel != null) {
+                writeFully(ByteBuffer.wrap(b, off, len));
+                size += len;
+                return;
+            }
+            while (len > 0) {
+                if (current == null || !current.hasRemaining()) {
+                    current = pool.tryAcquire();
+                    if (current == null) {
+                        spill();
+                        write(b, off, len);
+                        return;
+                    }
+                    slabs.add(current);
+                }
+                int n = Math.min(len, current.remaining());
+                current.put(b, off, n);
+                off += n;
+                len -= n;
+                size += n;
+            }
+        }
+
+        /** Like {@link #write(byte[], int, int)}, straight from a buffer handed over by the HTTP client. */
+        public void write(ByteBuffer src) throws IOException {
+            int len = src.remaining();
+            if (channel == null && size + len > memoryThreshold) spill();
+            if (channel != null) {
+                writeFully(src);
+                size += len;
+                return;
+            }
+            while (src.hasRemaining()) {
+                if (current == null || !current.hasRemaining()) {
+                    current = pool.tryAcquire();
+                    if (current == null) {
+                        spill();
+                        write(src);
+                        return;
+                    }
+                    slabs.add(current);
+                }
+                int n = Math.min(src.remaining(), current.remaining());
+                current.put(src.slice(src.position(), n));
+                src.position(src.position() + n);
+                size += n;
+            }
+        }
+
+        /** Hands the staged body over; the caller now owns it and must release it. */
+        public StagedContent finish() throws IOException {
+            done = true;
+            if (channel != null) {
+                channel.close();
+                onDisk.incrementAndGet();
+                return new StagedContent.Disk(file, file.getParent());
+            }
+            inMemory.incrementAndGet();
+            return new StagedContent.Memory(pool, List.copyOf(slabs), size);
+        }
+
+        /** Discards the body unless {@link #finish()} was called. */
+        @Override
+        public void close() throws IOException {
+            if (done) return;
+            done = true;
+            releaseSlabs();
+            if (channel != null) {
+                channel.close();
+                new StagedContent.Disk(file, file.getParent()).release();
+            }
+        }
+
+        private void spill() throws IOException {
+            if (channel != null) return;
+            file = tempFile(fileName);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            if (!slabs.isEmpty()) {
+                spilled.incrementAndGet();
+                for (ByteBuffer slab : slabs) {
+                    writeFully(slab.flip());
+                }
+            }
+            releaseSlabs();
+        }
+
+        private void releaseSlabs() {
+            for (ByteBuffer slab : slabs) pool.release(slab);
+            slabs.clear();
+            current = null;
+        }
+
+        private void writeFully(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) channel.write(buf);
+        }
+    }
+
+    /**
+     * @param inMemory bodies kept entirely in pooled memory
+     * @param spilled bodies that started in memory and moved to disk
+     * @param onDisk bodies that ended up on disk, spilled or not
+     */
+    public record Stats(long inMemory, long spilled, long onDisk, long memoryThreshold, BufferPool.Stats pool) {}
+}
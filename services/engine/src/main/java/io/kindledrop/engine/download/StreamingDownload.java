@@ -0,0 +1,225 @@
+package io.kindledrop.engine.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A download that is consumed while it is still arriving. A background pump copies the HTTP body into a
+ * bounded ring buffer and {@link #stream()} drains it, so the consumer (the SMTP upload) runs concurrently
+ * with the download but can never get more than one buffer behind.
+ *
+ * <p>The {@code maxBytes} cap is enforced by the pump: once exceeded the consumer's next read fails, which
+ * aborts the SMTP DATA phase before the message is completed. Bytes beyond the announced length are
+ * charged to the {@link ByteBudget} as they arrive, and a refusal fails the stream the same way. So does a
+ * {@link ContentValidator} check that rejects the first bytes, before any of them reach the consumer.
+ */
+public class StreamingDownload implements AutoCloseable {
+
+    private static final long CHARGE_STEP = 1 << 20;
+
+    private final String fileName;
+    private final String contentType;
+    private final long declaredLength;
+    private final long maxBytes;
+    private final InputStream source;
+    private final ByteBudget budget;
+    private final ContentValidator.Check check;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final byte[] ring;
+    private int head;
+    private int count;
+    private boolean eof;
+    private boolean closed;
+    private IOException failure;
+    private long received;
+    private long charged; // pump thread only
+    private long consumed;
+
+    private Thread pump;
+    private boolean streamTaken;
+
+    StreamingDownload(InputStream source, String fileName, String contentType, long declaredLength, long maxBytes, int bufferSize) {
+        this(source, fileName, contentType, declaredLength, maxBytes, bufferSize, ByteBudget.NONE, ContentValidator.Check.NONE);
+    }
+
+    StreamingDownload(InputStream source, String fileName, String contentType, long declaredLength, long maxBytes, int bufferSize,
+                      ByteBudget budget, ContentValidator.Check check) {
+        this.source = source;
+        this.budget = budget;
+        this.check = check;
+        this.charged = Math.max(0, declaredLength);
+        this.fileName = fileName;
+        this.contentType = contentType;
+        this.declaredLength = declaredLength;
+        this.maxBytes = maxBytes;
+        this.ring = new byte[bufferSize];
+    }
+
+    void start() {
+        pump = Thread.ofVirtual().name("download-pump").start(this::pump);
+    }
+
+    public String fileName() {
+        return fileName;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    /** Content-Length announced by the server, or -1. */
+    public long declaredLength() {
+        return declaredLength;
+    }
+
+    /** Bytes handed to the consumer so far. */
+    public long bytes() {
+        lock.lock();
+        try {
+            return consumed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The body as it arrives. Can only be taken once. */
+    public synchronized InputStream stream() throws IOException {
+        if (streamTaken) throw new IOException("Download stream already consumed.");
+        streamTaken = true;
+        return new Consumer();
+    }
+
+    public synchronized boolean streamTaken() {
+        return streamTaken;
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try { source.close(); } catch (IOException ignored) {}
+        if (pump != null) pump.interrupt();
+    }
+
+    private void pump() {
+        byte[] buf = new byte[16 * 1024];
+        try (InputStream in = source) {
+            int r;
+            long read = 0;
+            while ((r = in.read(buf)) != -1) {
+                read += r;
+                if (read > charged && read <= maxBytes) {
+                    charged = Math.min(maxBytes, read + CHARGE_STEP);
+                    budget.charge(charged);
+                }
+                check.update(buf, 0, r);
+                if (!put(buf, r)) return;
+            }
+            check.finish();
+            lock.lock();
+            try {
+                eof = true;
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (InterruptedException e) {
+            fail(new IOException("Download interrupted.", e));
+        }
+    }
+
+    /** Copies {@code len} bytes into the ring, blocking while it is full. Returns false once closed or failed. */
+    private boolean put(byte[] buf, int len) throws InterruptedException {
+        lock.lock();
+        try {
+            received += len;
+            if (received > maxBytes) {
+                failLocked(new FileTooLargeException("File too large (streamed > " + maxBytes + " bytes)."));
+                return false;
+            }
+            int off = 0;
+            while (off < len) {
+                while (count == ring.length && !closed) notFull.await();
+                if (closed) return false;
+                int tail = (head + count) % ring.length;
+                int n = Math.min(len - off, Math.min(ring.length - count, ring.length - tail));
+                System.arraycopy(buf, off, ring, tail, n);
+                count += n;
+                off += n;
+                notEmpty.signalAll();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(IOException e) {
+        lock.lock();
+        try {
+            failLocked(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void failLocked(IOException e) {
+        if (failure == null) failure = e;
+        notEmpty.signalAll();
+    }
+
+    private final class Consumer extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int r = read(one, 0, 1);
+            return r == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            lock.lock();
+            try {
+                while (count == 0 && failure == null && !eof && !closed) {
+                    notEmpty.await();
+                }
+                if (failure != null) throw failure;
+                if (closed) throw new IOException("Download closed.");
+                if (count == 0) return -1;
+
+                int n = Math.min(len, Math.min(count, ring.length - head));
+                System.arraycopy(ring, head, b, off, n);
+                head = (head + n) % ring.length;
+                count -= n;
+                consumed += n;
+                notFull.signalAll();
+                return n;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for download data.", e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            StreamingDownload.this.close();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package io.kindledrop.engine.download;
+
+import java.io.IOException;
+
+/** The body is not the document its name promises, e.g. an HTML error page or a Git LFS pointer under a .pdf name. */
+public class UnexpectedContentException extends IOException {
+
+    public UnexpectedContentException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,52 @@
+package io.kindledrop.engine.mail;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Groups attachments into as few messages as possible while keeping each message under a byte budget.
+ * Sizes are compared after base64 inflation, since that is what actually goes over SMTP.
+ */
+public final class AttachmentPacker {
+
+    private AttachmentPacker() {}
+
+    /** Size on the wire of {@code rawBytes} once base64 encoded with 76-char lines (CRLF). */
+    public static long encodedSize(long rawBytes) {
+        long base64 = ((rawBytes + 2) / 3) * 4;
+        return base64 + (base64 / 76) * 2;
+    }
+
+    /**
+     * First-fit decreasing. An item larger than the budget on its own still gets a message of its own
+     * rather than being dropped; whether the relay accepts it is up to the relay.
+     */
+    public static <T> List<List<T>> pack(List<T> items, ToLongFunction<T> rawSize, long maxMessageBytes) {
+        List<T> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparingLong(rawSize).reversed());
+
+        List<List<T>> bins = new ArrayList<>();
+        List<Long> used = new ArrayList<>();
+
+        for (T item : sorted) {
+            long size = encodedSize(rawSize.applyAsLong(item));
+            int target = -1;
+            for (int i = 0; i < bins.size(); i++) {
+                if (used.get(i) + size <= maxMessageBytes) {
+                    target = i;
+                    break;
+                }
+            }
+            if (target < 0) {
+                bins.add(new ArrayList<>());
+                used.add(0L);
+                target = bins.size() - 1;
+            }
+            bins.get(target).add(item);
+            used.set(target, used.get(target) + size);
+        }
+        return bins;
+    }
+}
@@ -1,15 +1,46 @@
 package io.kindledrop.engine.mail;
 
+import io.kindledrop.engine.metrics.SendEvents;
+import io.kindledrop.engine.metrics.SendMetrics;
+import io.micrometer.core.instrument.Timer;
+import jakarta.activation.DataHandler;
+import jakarta.activation.DataSource;
+import jakarta.activation.FileDataSource;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Part;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMessage;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.mail.javamail.JavaMailSenderImpl;
+import jakarta.mail.internet.MimeUtility;
+import jakarta.mail.util.ByteArrayDataSource;
 import org.springframework.mail.javamail.MimeMessageHelper;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Path;
-import java.util.Properties;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
 
 public class KindleMailSender {
 
+    private final SmtpTransportPool pool;
+    private final SendMetrics metrics;
+
+    public KindleMailSender() {
+        this(new SmtpTransportPool(4, Duration.ofSeconds(60), Duration.ofSeconds(5), Duration.ofSeconds(30)), SendMetrics.noop());
+    }
+
+    public KindleMailSender(SmtpTransportPool pool, SendMetrics metrics) {
+        this.pool = pool;
+        this.metrics = metrics;
+    }
+
     public void sendWithAttachment(
             Smtp smtp,
             String toKindleEmail,
@@ -18,40 +49,279 @@ public class KindleMailSender {
             Path attachment,
             String attachmentName
     ) throws Exception {
+        sendWithAttachments(smtp, toKindleEmail, subject, text, List.of(new Attachment(attachment, attachmentName)));
+    }
+
+    /** Attaches {@code attachment} as is, e.g. a body held in memory, without going through a file. */
+    public void sendWithAttachment(
+            Smtp smtp,
+            String toKindleEmail,
+            String subject,
+            String text,
+            DataSource attachment,
+            String attachmentName
+    ) throws Exception {
+        sendWithAttachments(smtp, toKindleEmail, subject, text, List.of(new Attachment(attachment, attachmentName)));
+    }
+
+    public void sendWithAttachments(
+            Smtp smtp,
+            String toKindleEmail,
+            String subject,
+            String text,
+            List<Attachment> attachments
+    ) throws Exception {
+
+        Timer.Sample build = metrics.start();
+        SendEvents.MimeBuild event = new SendEvents.MimeBuild();
+        event.begin();
+        LongAdder read = new LongAdder();
+        MimeMessage msg = buildMessage(pool.session(smtp), smtp, toKindleEmail, subject, text, attachments, read);
+        metrics.stop(build, "kindledrop.mail.build");
+        event.finish(attachments.size(), false);
+
+        send(smtp, msg, () -> true, read);
+    }
 
-        JavaMailSenderImpl sender = new JavaMailSenderImpl();
-        sender.setHost(smtp.host());
-        sender.setPort(smtp.port());
-        sender.setUsername(smtp.user());
-        sender.setPassword(smtp.password());
+    /** Assembles the multipart message without sending it. */
+    MimeMessage buildMessage(
+            Smtp smtp,
+            String toKindleEmail,
+            String subject,
+            String text,
+            List<Attachment> attachments
+    ) throws Exception {
+        return buildMessage(pool.session(smtp), smtp, toKindleEmail, subject, text, attachments, new LongAdder());
+    }
 
-        Properties props = sender.getJavaMailProperties();
-        props.put("mail.transport.protocol", "smtp");
-        props.put("mail.smtp.auth", "true");
+    private static MimeMessage buildMessage(
+            Session session,
+            Smtp smtp,
+            String toKindleEmail,
+            String subject,
+            String text,
+            List<Attachment> attachments,
+            LongAdder read
+    ) throws Exception {
+        MimeMessage msg = new MimeMessage(session);
+        MimeMessageHelper helper = new MimeMessageHelper(msg, true, "UTF-8");
+        helper.setFrom(smtp.from());
+        helper.setTo(toKindleEmail);
+        helper.setSubject(subject);
+        helper.setText(text, false);
 
-        // TLS/SSL options
-        if (smtp.useSSL()) {
-            props.put("mail.smtp.ssl.enable", "true");
-        } else if (smtp.useStartTLS()) {
-            props.put("mail.smtp.starttls.enable", "true");
-            props.put("mail.smtp.starttls.required", "true");
+        for (Attachment attachment : attachments) {
+            // typed by name through Spring's MIME map, as for file attachments
+            String type = helper.getFileTypeMap().getContentType(attachment.name());
+            helper.addAttachment(attachment.name(), new TypedDataSource(attachment.source(), type, read));
         }
 
-        props.put("mail.smtp.connectiontimeout", "10000");
-        props.put("mail.smtp.timeout", "30000");
-        props.put("mail.smtp.writetimeout", "30000");
+        msg.saveChanges();
+        return msg;
+    }
+
+    /**
+     * Sends {@code content} as the attachment while it is still being produced (e.g. downloaded). The stream is
+     * read exactly once, during the SMTP DATA phase; if it fails midway the DATA phase is aborted and nothing is
+     * delivered.
+     */
+    public void sendStreaming(
+            Smtp smtp,
+            String toKindleEmail,
+            String subject,
+            String text,
+            String attachmentName,
+            String contentType,
+            InputStream content
+    ) throws Exception {
 
-        MimeMessage msg = sender.createMimeMessage();
+        Timer.Sample build = metrics.start();
+        SendEvents.MimeBuild event = new SendEvents.MimeBuild();
+        event.begin();
+        MimeMessage msg = new MimeMessage(pool.session(smtp));
         MimeMessageHelper helper = new MimeMessageHelper(msg, true, "UTF-8");
         helper.setFrom(smtp.from());
         helper.setTo(toKindleEmail);
         helper.setSubject(subject);
         helper.setText(text, false);
 
-        FileSystemResource file = new FileSystemResource(attachment.toFile());
-        helper.addAttachment(attachmentName, file);
+        LongAdder read = new LongAdder();
+        OneShotDataSource source = new OneShotDataSource(attachmentName, contentType, new CountingInputStream(content, read));
+        MimeBodyPart part = new MimeBodyPart();
+        part.setDisposition(Part.ATTACHMENT);
+        part.setFileName(MimeUtility.encodeText(attachmentName));
+        part.setDataHandler(new DataHandler(source));
+        // Set explicitly, otherwise JavaMail reads the whole stream up front to pick an encoding.
+        part.setHeader("Content-Transfer-Encoding", "base64");
+        helper.getMimeMultipart().addBodyPart(part);
+
+        msg.saveChanges();
+        metrics.stop(build, "kindledrop.mail.build");
+        event.finish(1, true);
 
-        sender.send(msg);
+        send(smtp, msg, () -> !source.opened(), read);
+    }
+
+    /**
+     * Builds and encodes a small message and loads the SMTP transport without connecting, so the first real send
+     * does not pay for loading the MIME and activation stack. Uses its own session; the pool is not touched.
+     */
+    public void warmUp() throws Exception {
+        Smtp smtp = new Smtp("localhost", 25, "warmup", "warmup@localhost", false, false, "unused");
+        Session session = Session.getInstance(SmtpTransportPool.sessionProperties(smtp));
+        MimeMessage msg = buildMessage(session, smtp, "warmup@kindle.com", "KindleDrop: warmup.pdf", "Sent by KindleDrop.",
+                List.of(new Attachment(new ByteArrayDataSource(new byte[4096], "application/pdf"), "warmup.pdf")), new LongAdder());
+        msg.writeTo(OutputStream.nullOutputStream());
+        session.getTransport("smtp");
+    }
+
+    public SmtpTransportPool.Stats poolStats() {
+        return pool.stats();
+    }
+
+    public void close() {
+        pool.close();
+    }
+
+    /** {@code read} counts the attachment bytes read for encoding, for the flight recorder event. */
+    private void send(Smtp smtp, MimeMessage msg, BooleanSupplier replayable, LongAdder read) throws MessagingException, InterruptedException {
+        Timer.Sample sample = metrics.start();
+        String outcome = "failure";
+        try (var ignored = metrics.track("mail")) {
+            sendPooled(smtp, msg, replayable, read);
+            outcome = "success";
+        } finally {
+            metrics.stop(sample, "kindledrop.mail.send", "outcome", outcome);
+        }
+    }
+
+    private void sendPooled(Smtp smtp, MimeMessage msg, BooleanSupplier replayable, LongAdder read)
+            throws MessagingException, InterruptedException {
+        SendEvents.SmtpSend event = new SendEvents.SmtpSend();
+        event.begin();
+        int attempt = 0;
+        boolean reused = false;
+        boolean sent = false;
+        try {
+            for (; ; attempt++) {
+                SmtpTransportPool.Lease lease = pool.borrow(smtp);
+                reused = lease.reused();
+                try {
+                    lease.transport().sendMessage(msg, msg.getAllRecipients());
+                    sent = true;
+                    return;
+                } catch (MessagingException e) {
+                    // A pooled connection may have been dropped by the server since it was last used;
+                    // retry once on a fresh connection unless the failure is about the message itself,
+                    // or the send was cancelled (an interrupted virtual thread fails its socket I/O).
+                    if (attempt == 0 && lease.reused() && !isPermanent(e) && replayable.getAsBoolean()
+                            && !Thread.currentThread().isInterrupted()) {
+                        pool.recordReconnect();
+                        continue;
+                    }
+                    throw e;
+                } finally {
+                    if (sent) lease.close(); else lease.invalidate();
+                }
+            }
+        } finally {
+            event.finish(smtp.host(), read.sum(), attempt + 1, reused, sent);
+        }
+    }
+
+    private static boolean isPermanent(MessagingException e) {
+        return e instanceof SendFailedException || e instanceof AuthenticationFailedException;
+    }
+
+    /** One attachment; the source can be read more than once, so a failed send can be retried. */
+    public record Attachment(DataSource source, String name) {
+        public Attachment(Path file, String name) {
+            this(new FileDataSource(file.toFile()), name);
+        }
+    }
+
+    private record TypedDataSource(DataSource source, String type, LongAdder read) implements DataSource {
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return new CountingInputStream(source.getInputStream(), read);
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Read-only data source.");
+        }
+
+        @Override
+        public String getContentType() {
+            return type;
+        }
+
+        @Override
+        public String getName() {
+            return source.getName();
+        }
+    }
+
+    private static final class OneShotDataSource implements DataSource {
+        private final String name;
+        private final String contentType;
+        private final InputStream content;
+        private volatile boolean opened;
+
+        private OneShotDataSource(String name, String contentType, InputStream content) {
+            this.name = name;
+            this.contentType = contentType == null || contentType.isBlank() ? "application/octet-stream" : contentType;
+            this.content = content;
+        }
+
+        boolean opened() {
+            return opened;
+        }
+
+        @Override
+        public synchronized InputStream getInputStream() throws IOException {
+            if (opened) throw new IOException("Attachment stream can only be read once.");
+            opened = true;
+            return content;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Read-only data source.");
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private final LongAdder read;
+
+        CountingInputStream(InputStream in, LongAdder read) {
+            super(in);
+            this.read = read;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) read.increment();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) read.add(n);
+            return n;
+        }
     }
 
     public record Smtp(
@@ -0,0 +1,306 @@
+package io.kindledrop.engine.mail;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps authenticated SMTP connections open between sends, keyed by the full {@link KindleMailSender.Smtp}
+ * settings (so a changed password or port never reuses an old connection).
+ *
+ * <p>Since the key holds the caller's password, keys do not outlive their connections: a key is dropped once it
+ * has had no connection for {@code idleTimeout}, and at most {@code maxKeys} are kept, the least recently used
+ * going first. A key with connections out on lease is never dropped.
+ */
+public class SmtpTransportPool implements AutoCloseable {
+
+    private final int maxPerKey;
+    private final int maxKeys;
+    private final long idleTimeoutNanos;
+    private final long validateAfterIdleNanos;
+    private final Duration borrowTimeout;
+
+    // access order, so the first entry is the least recently used key; guarded by itself
+    private final LinkedHashMap<KindleMailSender.Smtp, KeyPool> pools = new LinkedHashMap<>(16, 0.75f, true);
+    private final ScheduledExecutorService sweeper;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong keyEvictions = new AtomicLong();
+
+    public SmtpTransportPool(int maxPerKey, Duration idleTimeout, Duration validateAfterIdle, Duration borrowTimeout) {
+        this(maxPerKey, 100, idleTimeout, validateAfterIdle, borrowTimeout);
+    }
+
+    public SmtpTransportPool(int maxPerKey, int maxKeys, Duration idleTimeout, Duration validateAfterIdle, Duration borrowTimeout) {
+        if (maxPerKey < 1) throw new IllegalArgumentException("maxPerKey must be >= 1");
+        if (maxKeys < 1) throw new IllegalArgumentException("maxKeys must be >= 1");
+        this.maxPerKey = maxPerKey;
+        this.maxKeys = maxKeys;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.validateAfterIdleNanos = validateAfterIdle.toNanos();
+        this.borrowTimeout = borrowTimeout;
+
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "smtp-pool-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long sweepMillis = Math.max(1000, idleTimeout.toMillis() / 2);
+        sweeper.scheduleWithFixedDelay(this::evictIdle, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Session session(KindleMailSender.Smtp smtp) {
+        return keyPool(smtp).session;
+    }
+
+    public Lease borrow(KindleMailSender.Smtp smtp) throws MessagingException, InterruptedException {
+        KeyPool pool = keyPool(smtp);
+        if (!pool.permits.tryAcquire(borrowTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new MessagingException("Timed out waiting for a free SMTP connection to " + smtp.host());
+        }
+
+        try {
+            Idle idle;
+            while ((idle = pool.idle.pollFirst()) != null) {
+                long idleFor = System.nanoTime() - idle.since();
+                if (idleFor > idleTimeoutNanos) {
+                    evictions.incrementAndGet();
+                    closeQuietly(idle.transport());
+                    continue;
+                }
+                // SMTPTransport.isConnected() pings the server (NOOP), so only pay for it after a quiet spell.
+                if (idleFor > validateAfterIdleNanos && !idle.transport().isConnected()) {
+                    evictions.incrementAndGet();
+                    closeQuietly(idle.transport());
+                    continue;
+                }
+                hits.incrementAndGet();
+                return new Lease(pool, idle.transport(), true);
+            }
+
+            misses.incrementAndGet();
+            return new Lease(pool, pool.connect(), false);
+        } catch (MessagingException | RuntimeException e) {
+            pool.permits.release();
+            throw e;
+        }
+    }
+
+    void recordReconnect() {
+        reconnects.incrementAndGet();
+    }
+
+    public Stats stats() {
+        int idle = 0;
+        int leased = 0;
+        int keys;
+        synchronized (pools) {
+            for (KeyPool pool : pools.values()) {
+                idle += pool.idle.size();
+                leased += pool.leased();
+            }
+            keys = pools.size();
+        }
+        return new Stats(hits.get(), misses.get(), evictions.get(), reconnects.get(), idle, leased, keys, keyEvictions.get());
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        List<KeyPool> all;
+        synchronized (pools) {
+            all = new ArrayList<>(pools.values());
+            pools.clear();
+        }
+        all.forEach(KeyPool::retire);
+    }
+
+    private KeyPool keyPool(KindleMailSender.Smtp smtp) {
+        KeyPool evicted = null;
+        KeyPool pool;
+        synchronized (pools) {
+            pool = pools.get(smtp);
+            if (pool == null) {
+                pool = new KeyPool(smtp);
+                pools.put(smtp, pool);
+                if (pools.size() > maxKeys) evicted = removeLeastRecentlyUsed(pool);
+            }
+            pool.lastUsed = System.nanoTime();
+        }
+        // outside the lock: closing connections may wait on the network
+        if (evicted != null) evicted.retire();
+        return pool;
+    }
+
+    /** The least recently used key with nothing on lease; keys in use are skipped, so the map may briefly exceed the cap. */
+    private KeyPool removeLeastRecentlyUsed(KeyPool keep) {
+        for (Iterator<KeyPool> it = pools.values().iterator(); it.hasNext(); ) {
+            KeyPool candidate = it.next();
+            if (candidate != keep && candidate.leased() == 0) {
+                it.remove();
+                keyEvictions.incrementAndGet();
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        List<KeyPool> snapshot;
+        synchronized (pools) {
+            snapshot = new ArrayList<>(pools.values());
+        }
+        List<KeyPool> empty = new ArrayList<>();
+        for (KeyPool pool : snapshot) {
+            for (Idle idle : pool.idle) {
+                if (now - idle.since() > idleTimeoutNanos && pool.idle.removeFirstOccurrence(idle)) {
+                    evictions.incrementAndGet();
+                    closeQuietly(idle.transport());
+                }
+            }
+            if (pool.idle.isEmpty() && pool.leased() == 0 && now - pool.lastUsed > idleTimeoutNanos) empty.add(pool);
+        }
+        if (empty.isEmpty()) return;
+        synchronized (pools) {
+            for (KeyPool pool : empty) {
+                // checked again under the lock: a send may have picked the key up since
+                if (pool.idle.isEmpty() && pool.leased() == 0 && now - pool.lastUsed > idleTimeoutNanos
+                        && pools.remove(pool.smtp, pool)) {
+                    keyEvictions.incrementAndGet();
+                    pool.retired = true;
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(Transport transport) {
+        try { transport.close(); } catch (Exception ignored) {}
+    }
+
+    static Properties sessionProperties(KindleMailSender.Smtp smtp) {
+        Properties props = new Properties();
+        props.put("mail.transport.protocol", "smtp");
+        props.put("mail.smtp.auth", "true");
+
+        // TLS/SSL options
+        if (smtp.useSSL()) {
+            props.put("mail.smtp.ssl.enable", "true");
+        } else if (smtp.useStartTLS()) {
+            props.put("mail.smtp.starttls.enable", "true");
+            props.put("mail.smtp.starttls.required", "true");
+        }
+
+        props.put("mail.smtp.connectiontimeout", "10000");
+        props.put("mail.smtp.timeout", "30000");
+        props.put("mail.smtp.writetimeout", "30000");
+        return props;
+    }
+
+    private final class KeyPool {
+        private final KindleMailSender.Smtp smtp;
+        private final Session session;
+        private final Semaphore permits = new Semaphore(maxPerKey, true);
+        // LIFO so the most recently used (warmest) connection is handed out first.
+        private final ConcurrentLinkedDeque<Idle> idle = new ConcurrentLinkedDeque<>();
+        // written under the pools lock
+        private volatile long lastUsed;
+        // no longer in the map: connections coming back are closed instead of kept
+        private volatile boolean retired;
+
+        private KeyPool(KindleMailSender.Smtp smtp) {
+            this.smtp = smtp;
+            this.session = Session.getInstance(sessionProperties(smtp));
+        }
+
+        private int leased() {
+            return maxPerKey - permits.availablePermits();
+        }
+
+        private void retire() {
+            retired = true;
+            Idle i;
+            while ((i = idle.pollFirst()) != null) {
+                closeQuietly(i.transport());
+            }
+        }
+
+        private Transport connect() throws MessagingException {
+            Transport transport = session.getTransport("smtp");
+            transport.connect(smtp.host(), smtp.port(), smtp.user(), smtp.password());
+            return transport;
+        }
+    }
+
+    private record Idle(Transport transport, long since) {}
+
+    public final class Lease implements AutoCloseable {
+        private final KeyPool pool;
+        private final Transport transport;
+        private final boolean reused;
+        private boolean done;
+
+        private Lease(KeyPool pool, Transport transport, boolean reused) {
+            this.pool = pool;
+            this.transport = transport;
+            this.reused = reused;
+        }
+
+        public Transport transport() {
+            return transport;
+        }
+
+        /** True when the connection came from the pool rather than a fresh connect + AUTH. */
+        public boolean reused() {
+            return reused;
+        }
+
+        /** Drops the connection instead of returning it, e.g. after a failed send. */
+        public void invalidate() {
+            if (done) return;
+            done = true;
+            closeQuietly(transport);
+            pool.permits.release();
+        }
+
+        @Override
+        public void close() {
+            if (done) return;
+            done = true;
+            // No liveness check here: that would cost a NOOP per send. Stale connections are caught on borrow.
+            Idle returned = new Idle(transport, System.nanoTime());
+            pool.idle.offerFirst(returned);
+            // checked after the offer, so a key dropped meanwhile cannot keep this connection
+            if (pool.retired && pool.idle.removeFirstOccurrence(returned)) closeQuietly(transport);
+            pool.permits.release();
+        }
+    }
+
+    public record Stats(
+            long hits,
+            long misses,
+            long evictions,
+            long reconnects,
+            int idle,
+            int leased,
+            int keys,
+            long keyEvictions
+    ) {}
+}
@@ -0,0 +1,224 @@
+package io.kindledrop.engine.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * JDK Flight Recorder events for the stages of a send, so a single slow send can be lined up with GC pauses,
+ * safepoints and socket reads in the same recording. Metrics say that p99 moved; these say which send and where.
+ * A disabled event costs a flag check; an enabled one a pair of timestamps and a write to a thread-local buffer.
+ *
+ * <p>Every event carries the send's correlation id: the {@code X-Request-Id} of the API call, or the job id for
+ * async jobs. It is set with {@link #correlate} and is not inherited: a pool thread created during one send would
+ * otherwise keep that send's id for good. Work handed to another thread carries it along explicitly, with
+ * {@link #carry} (stage threads, ranges, batch and folder workers) or by passing the id (HTTP client callbacks,
+ * the non-blocking mail pool).
+ */
+public final class SendEvents {
+
+    /** Every event type, for recordings that enable them by class. */
+    public static final List<Class<? extends Event>> TYPES = List.of(
+            Resolve.class, HttpExchange.class, DownloadBody.class, MimeBuild.class, SmtpSend.class, Cleanup.class);
+
+    private static final ThreadLocal<String> CORRELATION = new ThreadLocal<>();
+
+    private SendEvents() {
+    }
+
+    /** The current thread's correlation id, or empty. */
+    public static String correlationId() {
+        String id = CORRELATION.get();
+        return id == null ? "" : id;
+    }
+
+    /** Sets the correlation id until the returned scope is closed, which restores the previous one. */
+    public static Scope correlate(String id) {
+        String previous = CORRELATION.get();
+        CORRELATION.set(id);
+        return () -> {
+            if (previous == null) CORRELATION.remove();
+            else CORRELATION.set(previous);
+        };
+    }
+
+    /** Wraps {@code task} to run under the calling thread's correlation id, on whichever thread runs it. */
+    public static <T> Callable<T> carry(Callable<T> task) {
+        String id = CORRELATION.get();
+        if (id == null) return task;
+        return () -> {
+            try (var ignored = correlate(id)) {
+                return task.call();
+            }
+        };
+    }
+
+    /** A fresh 16-hex-digit id for a request that did not bring one. */
+    public static String newId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? "" : host;
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+
+    @Name("io.kindledrop.Resolve")
+    @Label("Resolve Link")
+    @Category({"KindleDrop", "Send"})
+    @Description("GitHubLinkResolver turning a user link into a raw download URL")
+    @StackTrace(false)
+    public static final class Resolve extends Event {
+        @Label("Correlation Id") String correlationId;
+        @Label("Host") String host;
+        @Label("Resolved Host") String resolvedHost;
+        @Label("Cached") boolean cached;
+
+        public void finish(String url, String resolvedUrl, boolean cached) {
+            if (!shouldCommit()) return;
+            this.correlationId = correlationId();
+            this.host = host(url);
+            this.resolvedHost = host(resolvedUrl);
+            this.cached = cached;
+            commit();
+        }
+    }
+
+    @Name("io.kindledrop.HttpExchange")
+    @Label("Download Request")
+    @Category({"KindleDrop", "Send"})
+    @Description("One HTTP request of a download, redirect hops and throttled retries included, until the response headers are in")
+    @StackTrace(false)
+    public static final class HttpExchange extends Event {
+        @Label("Correlation Id") String correlationId;
+        @Label("Host") String host;
+        @Label("Status") @Description("HTTP status, or -1 if the request failed") int status;
+        @Label("Redirect") boolean redirect;
+        @Label("Hop") @Description("Redirects followed before this request; -1 where not tracked") int hop;
+        @Label("Attempt") int attempt;
+        @Label("Non-Blocking") boolean nonBlocking;
+
+        public void finish(String correlationId, String host, int status, int hop, int attempt, boolean nonBlocking) {
+            if (!shouldCommit()) return;
+            this.correlationId = correlationId;
+            this.host = host;
+            this.status = status;
+            this.redirect = status >= 300 && status < 400 && status != 304;
+            this.hop = hop;
+            this.attempt = attempt;
+            this.nonBlocking = nonBlocking;
+            commit();
+        }
+    }
+
+    @Name("io.kindledrop.DownloadBody")
+    @Label("Download Body")
+    @Category({"KindleDrop", "Send"})
+    @Description("Copying a response body into staging (memory slabs or a temp file), validation and size cap included")
+    @StackTrace(false)
+    public static final class DownloadBody extends Event {
+        @Label("Correlation Id") String correlationId;
+        @Label("Host") String host;
+        @Label("Status") int status;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Declared Bytes") @Description("Content-Length, or -1") @DataAmount long declaredBytes;
+        @Label("In Memory") boolean inMemory;
+        @Label("Ranged") boolean ranged;
+        @Label("Succeeded") boolean succeeded;
+
+        public void finish(String host, int status, long bytes, long declaredBytes, boolean inMemory, boolean ranged, boolean succeeded) {
+            if (!shouldCommit()) return;
+            this.correlationId = correlationId();
+            this.host = host;
+            this.status = status;
+            this.bytes = bytes;
+            this.declaredBytes = declaredBytes;
+            this.inMemory = inMemory;
+            this.ranged = ranged;
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+
+    @Name("io.kindledrop.MimeBuild")
+    @Label("MIME Assembly")
+    @Category({"KindleDrop", "Mail"})
+    @Description("Building the multipart message; encoding happens later, during the SMTP send")
+    @StackTrace(false)
+    public static final class MimeBuild extends Event {
+        @Label("Correlation Id") String correlationId;
+        @Label("Attachments") int attachments;
+        @Label("Streaming") boolean streaming;
+
+        public void finish(int attachments, boolean streaming) {
+            if (!shouldCommit()) return;
+            this.correlationId = correlationId();
+            this.attachments = attachments;
+            this.streaming = streaming;
+            commit();
+        }
+    }
+
+    @Name("io.kindledrop.SmtpSend")
+    @Label("SMTP Send")
+    @Category({"KindleDrop", "Mail"})
+    @Description("Transport.sendMessage on a pooled connection: connect or borrow, base64 encoding and the DATA phase")
+    @StackTrace(false)
+    public static final class SmtpSend extends Event {
+        @Label("Correlation Id") String correlationId;
+        @Label("Host") String host;
+        @Label("Attachment Bytes") @Description("Attachment bytes read for encoding, over all attempts") @DataAmount long attachmentBytes;
+        @Label("Attempts") int attempts;
+        @Label("Reused Connection") boolean reusedConnection;
+        @Label("Succeeded") boolean succeeded;
+
+        public void finish(String host, long attachmentBytes, int attempts, boolean reusedConnection, boolean succeeded) {
+            if (!shouldCommit()) return;
+            this.correlationId = correlationId();
+            this.host = host;
+            this.attachmentBytes = attachmentBytes;
+            this.attempts = attempts;
+            this.reusedConnection = reusedConnection;
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+
+    @Name("io.kindledrop.Cleanup")
+    @Label("Temp Cleanup")
+    @Category({"KindleDrop", "Send"})
+    @Description("Releasing a staged body: deleting its temp file and directory, or returning its memory slabs")
+    @StackTrace(false)
+    public static final class Cleanup extends Event {
+        @Label("Correlation Id") String correlationId;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("On Disk") boolean onDisk;
+
+        public void finish(long bytes, boolean onDisk) {
+            if (!shouldCommit()) return;
+            this.correlationId = correlationId();
+            this.bytes = bytes;
+            this.onDisk = onDisk;
+            commit();
+        }
+    }
+}
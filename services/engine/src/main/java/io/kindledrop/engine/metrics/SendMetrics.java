@@ -0,0 +1,144 @@
+package io.kindledrop.engine.metrics;
+
+import io.kindledrop.engine.download.BlockedHostException;
+import io.kindledrop.engine.download.FileTooLargeException;
+import io.kindledrop.engine.download.HttpStatusException;
+import io.kindledrop.engine.download.OverloadedException;
+import io.kindledrop.engine.download.UnexpectedContentException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.MessagingException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.http.HttpTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer instrumentation for the send pipeline. Meter names all start with {@code kindledrop.}; timers
+ * publish percentile histograms so p99 SLOs can be computed in Prometheus.
+ */
+public class SendMetrics {
+
+    private final MeterRegistry registry;
+    private final Counter bytesDownloaded;
+    private final Counter bytesMailed;
+    private final ConcurrentHashMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+    private final Set<String> watched = ConcurrentHashMap.newKeySet();
+
+    public SendMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.bytesDownloaded = Counter.builder("kindledrop.bytes.downloaded")
+                .description("Body bytes received from origins (cache hits excluded)")
+                .baseUnit("bytes")
+                .register(registry);
+        this.bytesMailed = Counter.builder("kindledrop.bytes.mailed")
+                .description("Attachment bytes handed to SMTP in successfully sent messages")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    /** Metrics that go nowhere, for components built outside Spring (tests, benchmarks). */
+    public static SendMetrics noop() {
+        return new SendMetrics(new CompositeMeterRegistry());
+    }
+
+    public MeterRegistry registry() {
+        return registry;
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    public void stop(Timer.Sample sample, String name, String... tags) {
+        sample.stop(Timer.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    /** Records one pipeline stage (resolve, download, mail, ...) under {@code kindledrop.stage}. */
+    public void recordStage(String stage, long nanos) {
+        Timer.builder("kindledrop.stage")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Records how long an async job waited for a worker, under {@code kindledrop.job.queue.wait}. */
+    public void recordQueueWait(String lane, long nanos) {
+        Timer.builder("kindledrop.job.queue.wait")
+                .tag("lane", lane)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void bytesDownloaded(long bytes) {
+        bytesDownloaded.increment(bytes);
+    }
+
+    public void bytesMailed(long bytes) {
+        bytesMailed.increment(bytes);
+    }
+
+    public void failure(Throwable e) {
+        registry.counter("kindledrop.failures", "cause", cause(e)).increment();
+    }
+
+    /** Counts the caller as in flight in {@code stage} until the returned handle is closed. */
+    public InFlight track(String stage) {
+        AtomicInteger gauge = inFlight.computeIfAbsent(stage, s ->
+                registry.gauge("kindledrop.inflight", Tags.of("stage", s), new AtomicInteger()));
+        gauge.incrementAndGet();
+        return gauge::decrementAndGet;
+    }
+
+    /** Registers gauges reading from {@code source} once per name/tag combination. */
+    public <T> void watch(String name, String tagKey, String tagValue, T source, ToDoubleFunction<T> value) {
+        if (watched.add(name + '|' + tagKey + '|' + tagValue)) {
+            Gauge.builder(name, source, value).tag(tagKey, tagValue).register(registry);
+        }
+    }
+
+    /** Registers a monotonically increasing count read from {@code source}. */
+    public <T> void watchCount(String name, T source, ToDoubleFunction<T> value) {
+        if (watched.add(name)) {
+            FunctionCounter.builder(name, source, value).register(registry);
+        }
+    }
+
+    /** Maps a failure to a low-cardinality cause tag. */
+    public static String cause(Throwable e) {
+        if (e instanceof FileTooLargeException) return "size_cap";
+        if (e instanceof BlockedHostException) return "blocked_host";
+        if (e instanceof OverloadedException) return "overloaded";
+        if (e instanceof HttpStatusException) return "http_status";
+        if (e instanceof UnexpectedContentException) return "bad_content";
+        // stage deadlines and socket read timeouts alike
+        if (e instanceof InterruptedIOException || e instanceof HttpTimeoutException) return "timeout";
+        if (e instanceof AuthenticationFailedException) return "smtp_auth";
+        if (e instanceof MessagingException) return "smtp";
+        if (e instanceof IllegalArgumentException) return "invalid_request";
+        if (e instanceof IOException) return "io";
+        return "other";
+    }
+
+    @FunctionalInterface
+    public interface InFlight extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,241 @@
+package io.kindledrop.engine.outbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log split into numbered segment files ({@code 00000000000000000001.log}, ...). Each record is
+ * framed as {@code [int length][int crc32c][payload]}, so a record torn by a crash is detected on replay and
+ * everything after it in that segment is ignored.
+ *
+ * <p>Durable appends use group commit: a writer that needs its record on disk either runs the fsync itself
+ * or, if one is already running, waits for the next one. One fsync therefore covers every record appended
+ * while the previous fsync was in progress, so throughput grows with concurrency instead of being capped at
+ * one append per disk flush.
+ */
+class SegmentedLog implements Closeable {
+
+    private static final String SUFFIX = ".log";
+    private static final int HEADER = 8;
+    private static final int MAX_RECORD = 1 << 20;
+
+    private final Path dir;
+    private final long segmentBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition synced = lock.newCondition();
+    private final TreeMap<Long, Long> segments = new TreeMap<>(); // seq -> size
+    private FileChannel active;
+    private long activeSeq;
+    private long written;   // bytes appended since open, across segments
+    private long durable;   // prefix of 'written' known to be on disk
+    private boolean syncing;
+
+    private long appends;
+    private long fsyncs;
+
+    SegmentedLog(Path dir, long segmentBytes) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.segmentBytes = segmentBytes;
+        try (var files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (!name.endsWith(SUFFIX)) continue;
+                try {
+                    segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), Files.size(p));
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface RecordHandler {
+        void accept(long segment, byte[] payload) throws IOException;
+    }
+
+    /**
+     * Reads every intact record of the existing segments, oldest first. Must be called before the first append;
+     * appends always go to a fresh segment.
+     */
+    void replay(RecordHandler handler) throws IOException {
+        for (long seq : new ArrayList<>(segments.keySet())) {
+            try (FileChannel ch = FileChannel.open(segment(seq), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                while (true) {
+                    header.clear();
+                    if (readFully(ch, header) < HEADER) break;
+                    header.flip();
+                    int length = header.getInt();
+                    int crc = header.getInt();
+                    if (length < 0 || length > MAX_RECORD) break;
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    if (readFully(ch, payload) < length) break;
+                    if (crc32c(payload.array(), length) != crc) break;
+                    handler.accept(seq, payload.array());
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends one record and returns the segment it landed in. With {@code durable} set, returns only after the
+     * record has been fsynced.
+     */
+    long append(byte[] payload, boolean durable) throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER + payload.length);
+        frame.putInt(payload.length).putInt(crc32c(payload, payload.length)).put(payload).flip();
+
+        lock.lock();
+        try {
+            if (active == null || segments.get(activeSeq) + frame.remaining() > segmentBytes && segments.get(activeSeq) > 0) {
+                roll();
+            }
+            long seq = activeSeq;
+            int n = frame.remaining();
+            while (frame.hasRemaining()) {
+                active.write(frame);
+            }
+            segments.merge(seq, (long) n, Long::sum);
+            written += n;
+            appends++;
+            if (durable) awaitDurable(written);
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Starts a new segment; later appends go there. Returns its sequence number. */
+    long roll() throws IOException {
+        lock.lock();
+        try {
+            // never close a channel another thread is fsyncing
+            while (syncing) synced.awaitUninterruptibly();
+            if (active != null) {
+                active.force(false);
+                fsyncs++;
+                active.close();
+                durable = written;
+            }
+            activeSeq = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            active = FileChannel.open(segment(activeSeq), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            segments.put(activeSeq, 0L);
+            // make the new file's directory entry durable too
+            forceDirectory();
+            return activeSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long activeSegment() {
+        lock.lock();
+        try {
+            return activeSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Deletes every segment older than {@code seq}. The active segment is never deleted. */
+    void deleteBefore(long seq) {
+        lock.lock();
+        try {
+            while (!segments.isEmpty() && segments.firstKey() < Math.min(seq, activeSeq)) {
+                long first = segments.pollFirstEntry().getKey();
+                try { Files.deleteIfExists(segment(first)); } catch (IOException ignored) {}
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Stats stats() {
+        lock.lock();
+        try {
+            long bytes = segments.values().stream().mapToLong(Long::longValue).sum();
+            return new Stats(segments.size(), bytes, appends, fsyncs);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            while (syncing) synced.awaitUninterruptibly();
+            if (active != null) {
+                active.force(false);
+                active.close();
+                active = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Called with the lock held. */
+    private void awaitDurable(long position) throws IOException {
+        while (durable < position) {
+            if (syncing) {
+                synced.awaitUninterruptibly();
+                continue;
+            }
+            // become the leader: flush everything written so far, including other threads' records
+            syncing = true;
+            long target = written;
+            FileChannel ch = active;
+            lock.unlock();
+            try {
+                ch.force(false);
+            } finally {
+                lock.lock();
+                syncing = false;
+                synced.signalAll();
+            }
+            fsyncs++;
+            durable = Math.max(durable, target);
+        }
+    }
+
+    private void forceDirectory() {
+        // not supported on every platform; the data itself is still fsynced
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (IOException ignored) {}
+    }
+
+    private Path segment(long seq) {
+        return dir.resolve(String.format("%020d", seq) + SUFFIX);
+    }
+
+    private static int readFully(FileChannel ch, ByteBuffer buf) throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int r = ch.read(buf);
+            if (r < 0) break;
+            total += r;
+        }
+        return total;
+    }
+
+    private static int crc32c(byte[] data, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+
+    record Stats(int segments, long bytes, long appends, long fsyncs) {}
+}
@@ -0,0 +1,244 @@
+package io.kindledrop.engine.outbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Durable record of accepted send jobs, so queued and in-progress sends survive a restart.
+ *
+ * <p>Three record types go into a {@link SegmentedLog}. ACCEPT (fsynced before the job is acknowledged)
+ * holds everything needed to run the job again. ATTEMPT counts tries. DONE (fsynced) retires the job.
+ * Records never contain the SMTP password: a job stores either the {@code env} profile or the non-secret
+ * fields of a per-request config. A replayed job takes its password from the environment.
+ *
+ * <p>Completed entries are compacted in two ways. At runtime, a segment is deleted once it and all older
+ * segments hold no live jobs. On {@link #recover()}, the live jobs are rewritten into a fresh segment and
+ * every older segment is dropped.
+ */
+public class SendOutbox implements Closeable {
+
+    private static final byte ACCEPT = 1;
+    private static final byte ATTEMPT = 2;
+    private static final byte DONE = 3;
+
+    private final SegmentedLog log;
+
+    // guarded by this
+    private final Map<String, Long> segmentOf = new HashMap<>();
+    private final TreeMap<Long, Integer> liveBySegment = new TreeMap<>();
+    // segment that was active when each in-flight ACCEPT started; it can only land there or later
+    private final TreeMap<Long, Integer> appendingFrom = new TreeMap<>();
+
+    public SendOutbox(Path dir, long segmentBytes) throws IOException {
+        this.log = new SegmentedLog(dir, segmentBytes);
+    }
+
+    /**
+     * Replays the log and returns the jobs that were accepted but never finished, oldest first. The survivors are
+     * rewritten into a new segment and the old segments are deleted. Call once, before any other method.
+     */
+    public synchronized List<Entry> recover() throws IOException {
+        Map<String, Entry> pending = new LinkedHashMap<>();
+        log.replay((segment, payload) -> {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            byte type = in.readByte();
+            switch (type) {
+                case ACCEPT -> {
+                    // a crash during compaction can leave the same job in an old and a new segment
+                    Entry e = readEntry(in);
+                    pending.merge(e.id(), e, (a, b) -> a.withAttempts(Math.max(a.attempts(), b.attempts())));
+                }
+                case ATTEMPT -> {
+                    String id = in.readUTF();
+                    int attempt = in.readInt();
+                    pending.computeIfPresent(id, (k, e) -> e.withAttempts(Math.max(e.attempts(), attempt)));
+                }
+                case DONE -> pending.remove(in.readUTF());
+                default -> { /* unknown record from a newer version: skip */ }
+            }
+        });
+
+        long fresh = log.roll();
+        for (Entry e : pending.values()) {
+            track(e.id(), log.append(encodeAccept(e), false));
+        }
+        // rolling fsyncs the compacted segment(s) before the originals go away
+        if (!pending.isEmpty()) log.roll();
+        log.deleteBefore(fresh);
+        return new ArrayList<>(pending.values());
+    }
+
+    /** Records a new job. Returns once the record is on disk. */
+    public void accepted(Entry entry) throws IOException {
+        long floor;
+        synchronized (this) {
+            floor = log.activeSegment();
+            appendingFrom.merge(floor, 1, Integer::sum);
+        }
+        try {
+            long segment = log.append(encodeAccept(entry), true);
+            synchronized (this) {
+                track(entry.id(), segment);
+            }
+        } finally {
+            synchronized (this) {
+                appendingFrom.computeIfPresent(floor, (k, n) -> n > 1 ? n - 1 : null);
+            }
+        }
+    }
+
+    public void attempt(String id, int attempt) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ATTEMPT);
+        out.writeUTF(id);
+        out.writeInt(attempt);
+        // losing an attempt count in a crash only costs one extra retry
+        log.append(bytes.toByteArray(), false);
+    }
+
+    /** Retires a job, whatever its outcome. Returns once the record is on disk. */
+    public void done(String id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DONE);
+        out.writeUTF(id);
+        log.append(bytes.toByteArray(), true);
+
+        synchronized (this) {
+            Long segment = segmentOf.remove(id);
+            if (segment != null) {
+                liveBySegment.computeIfPresent(segment, (k, n) -> n > 1 ? n - 1 : null);
+            }
+            // a segment is only garbage once every older one is too: its DONE records may retire jobs
+            // accepted in older segments, which must not come back on replay
+            long keep = Long.MAX_VALUE;
+            if (!liveBySegment.isEmpty()) keep = liveBySegment.firstKey();
+            if (!appendingFrom.isEmpty()) keep = Math.min(keep, appendingFrom.firstKey());
+            log.deleteBefore(keep);
+        }
+    }
+
+    public synchronized Stats stats() {
+        SegmentedLog.Stats s = log.stats();
+        return new Stats(segmentOf.size(), s.segments(), s.bytes(), s.appends(), s.fsyncs());
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    private void track(String id, long segment) {
+        segmentOf.put(id, segment);
+        liveBySegment.merge(segment, 1, Integer::sum);
+    }
+
+    /** An ACCEPT record for {@code e}; also the on-disk form of a job in {@link SharedJobStore}. */
+    static byte[] encodeAccept(Entry e) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(ACCEPT);
+        out.writeUTF(e.id());
+        out.writeLong(e.submittedAt().toEpochMilli());
+        out.writeUTF(e.url());
+        writeNullable(out, e.resolvedUrl());
+        out.writeUTF(e.kindleEmail());
+        out.writeBoolean(e.dryRun());
+        out.writeLong(e.maxBytes());
+        out.writeInt(e.attempts());
+        SmtpProfile smtp = e.smtp();
+        out.writeBoolean(smtp != null);
+        if (smtp != null) {
+            writeNullable(out, smtp.host());
+            out.writeInt(smtp.port());
+            writeNullable(out, smtp.user());
+            writeNullable(out, smtp.from());
+            out.writeBoolean(smtp.useStartTLS());
+            out.writeBoolean(smtp.useSSL());
+        }
+        return bytes.toByteArray();
+    }
+
+    static Entry decodeAccept(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        if (in.readByte() != ACCEPT) throw new IOException("Not an ACCEPT record");
+        return readEntry(in);
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        String id = in.readUTF();
+        Instant submittedAt = Instant.ofEpochMilli(in.readLong());
+        String url = in.readUTF();
+        String resolvedUrl = readNullable(in);
+        String kindleEmail = in.readUTF();
+        boolean dryRun = in.readBoolean();
+        long maxBytes = in.readLong();
+        int attempts = in.readInt();
+        SmtpProfile smtp = null;
+        if (in.readBoolean()) {
+            smtp = new SmtpProfile(readNullable(in), in.readInt(), readNullable(in), readNullable(in), in.readBoolean(), in.readBoolean());
+        }
+        return new Entry(id, submittedAt, url, resolvedUrl, kindleEmail, dryRun, maxBytes, smtp, attempts);
+    }
+
+    static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * One accepted job.
+     *
+     * @param smtp non-secret part of a per-request SMTP config, or null for the {@code env} profile
+     */
+    public record Entry(
+            String id,
+            Instant submittedAt,
+            String url,
+            String resolvedUrl,
+            String kindleEmail,
+            boolean dryRun,
+            long maxBytes,
+            SmtpProfile smtp,
+            int attempts
+    ) {
+        public Entry withAttempts(int attempts) {
+            return new Entry(id, submittedAt, url, resolvedUrl, kindleEmail, dryRun, maxBytes, smtp, attempts);
+        }
+    }
+
+    /** SMTP settings without the password. */
+    public record SmtpProfile(
+            String host,
+            int port,
+            String user,
+            String from,
+            boolean useStartTLS,
+            boolean useSSL
+    ) {}
+
+    public record Stats(
+            int pending,
+            int segments,
+            long bytes,
+            long appends,
+            long fsyncs
+    ) {}
+}
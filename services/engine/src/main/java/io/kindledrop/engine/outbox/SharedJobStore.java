@@ -0,0 +1,611 @@
+package io.kindledrop.engine.outbox;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Job table shared by several engines through a common directory, so any node can accept a send and any node with
+ * a free worker can run it. Nothing but the filesystem is shared; there is no coordinator.
+ *
+ * <pre>
+ *   jobs/&lt;id&gt;.job          the job: an outbox ACCEPT record plus the node it is pinned to, if any. Its mtime is
+ *                          the time it becomes due, so a listing sorted by mtime is the run order.
+ *   leases/&lt;id&gt;.&lt;epoch&gt;   claims on a job. The highest epoch is the current one.
+ *   results/&lt;id&gt;.result    outcome of a finished job, for status queries from any node
+ *   sending/&lt;id&gt;.sending   written by a holder right before it mails the job: the node and its epoch
+ * </pre>
+ *
+ * A node claims a job by hard-linking a lease file into place, which fails if another node got there first.
+ * An expired lease is taken over by claiming the next epoch; the previous holder notices on its next
+ * {@link #renew} and must stop. Every other write goes to a temp file that is fsynced and renamed over the target,
+ * so readers never see a partial file.
+ *
+ * <p>Writes made under a lease ({@link #update}, {@link #release}, {@link #complete}) are dropped once a later epoch
+ * exists. Right before it mails, a holder calls {@link #markSending}, which checks the lease and leaves a mark. A
+ * holder that then stalls or crashes mid-send may or may not have delivered the mail, so whoever takes the job over
+ * finds the mark in {@link Lease#interruptedOn} and must not mail it again. A takeover thus never sends twice, at
+ * the price of failing a job whose holder died between the mark and the relay's answer.
+ *
+ * <p>The directory must be on a filesystem with atomic {@code link(2)} and {@code rename(2)} (a local disk shared
+ * by several JVMs, or a POSIX network filesystem such as NFSv4). Expiry compares wall clocks across nodes, so their
+ * clocks must agree to well within {@code leaseTtl / 3}.
+ */
+public class SharedJobStore {
+
+    private static final String JOB = ".job";
+    private static final String RESULT = ".result";
+    private static final String SENDING = ".sending";
+    private static final Pattern ID = Pattern.compile("[A-Za-z0-9-]{1,64}");
+
+    private final Path jobsDir;
+    private final Path leasesDir;
+    private final Path resultsDir;
+    private final Path sendingDir;
+    private final Path tmpDir;
+    private final String node;
+    private final long ttlMillis;
+    // an expired lease is only taken over this much later, to allow for clock skew between nodes
+    private final long graceMillis;
+    private final Clock clock;
+
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicLong takenOver = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+
+    public SharedJobStore(Path dir, String node, Duration leaseTtl) throws IOException {
+        this(dir, node, leaseTtl, Clock.systemUTC());
+    }
+
+    public SharedJobStore(Path dir, String node, Duration leaseTtl, Clock clock) throws IOException {
+        if (node.isBlank() || node.contains("\n")) throw new IllegalArgumentException("Bad node id: " + node);
+        this.jobsDir = Files.createDirectories(dir.resolve("jobs"));
+        this.leasesDir = Files.createDirectories(dir.resolve("leases"));
+        this.resultsDir = Files.createDirectories(dir.resolve("results"));
+        this.sendingDir = Files.createDirectories(dir.resolve("sending"));
+        this.tmpDir = Files.createDirectories(dir.resolve("tmp"));
+        this.node = node;
+        this.ttlMillis = leaseTtl.toMillis();
+        this.graceMillis = ttlMillis / 3;
+        this.clock = clock;
+        checkLinks();
+    }
+
+    public String node() {
+        return node;
+    }
+
+    /** Adds a job. With {@code pinnedTo} set, only that node may claim it. */
+    public void add(SendOutbox.Entry entry, String pinnedTo) throws IOException {
+        writeAtomically(jobFile(entry.id()), encodeJob(entry, pinnedTo), clock.millis());
+    }
+
+    /** Ids of the jobs whose turn has come, in the order they became due. Includes jobs other nodes hold. */
+    public List<String> due() throws IOException {
+        long now = clock.millis();
+        List<Map.Entry<String, Long>> due = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(jobsDir, "*" + JOB)) {
+            for (Path f : files) {
+                long at;
+                try {
+                    at = Files.getLastModifiedTime(f).toMillis();
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (at <= now) due.add(Map.entry(idOf(f, JOB), at));
+            }
+        }
+        due.sort(Map.Entry.comparingByValue());
+        return due.stream().map(Map.Entry::getKey).toList();
+    }
+
+    /**
+     * Claims job {@code id} for this node. Returns null if another node holds a live lease on it, it is pinned to
+     * another node, or it is gone.
+     */
+    public Lease tryClaim(String id) throws IOException {
+        checkId(id);
+        Job job = readJob(id);
+        if (job == null || job.pinnedTo() != null && !job.pinnedTo().equals(node)) return null;
+
+        long now = clock.millis();
+        Holder current = currentHolder(id);
+        if (current != null && (current.info() == null || now <= current.info().expiresAt() + graceMillis)) return null;
+
+        long epoch = current == null ? 1 : current.epoch() + 1;
+        Lease lease = new Lease(id, epoch, UUID.randomUUID().toString(), job.entry(), job.pinnedTo(), now + ttlMillis);
+        Path tmp = writeTemp(leaseContent(node, lease.token(), lease.expiresAt()), now);
+        try {
+            Files.createLink(leaseFile(id, epoch), tmp);
+        } catch (FileAlreadyExistsException e) {
+            return null;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        // finished (or being finished) between our read and our claim
+        if (!Files.exists(jobFile(id)) || Files.exists(resultFile(id))) {
+            Files.deleteIfExists(jobFile(id));
+            Files.deleteIfExists(leaseFile(id, epoch));
+            return null;
+        }
+        if (current != null) {
+            takenOver.incrementAndGet();
+            for (long older : epochs(id)) {
+                if (older < epoch) Files.deleteIfExists(leaseFile(id, older));
+            }
+        }
+        byte[] mark = readIfExists(sendingFile(id));
+        if (mark != null) lease.interruptedOn = new String(mark, StandardCharsets.UTF_8).split("\n")[0];
+        claimed.incrementAndGet();
+        return lease;
+    }
+
+    /**
+     * Extends the lease by another {@code leaseTtl}. Returns false if the job has been taken over or finished by
+     * another node, in which case this node must stop working on it, and once this node has released or completed it.
+     */
+    public boolean renew(Lease lease) throws IOException {
+        synchronized (lease.lock) {
+            // the lease file is gone or going, and rewriting it would claim the job again
+            if (lease.ended) return false;
+            long now = clock.millis();
+            if (!holds(lease)) {
+                lost.incrementAndGet();
+                return false;
+            }
+            long expiresAt = now + ttlMillis;
+            writeAtomically(leaseFile(lease.id(), lease.epoch()), leaseContent(node, lease.token(), expiresAt), now);
+            lease.expiresAt = expiresAt;
+            return true;
+        }
+    }
+
+    /**
+     * Marks the job as being mailed by this node, right before the first byte goes to the relay. Returns false, and
+     * marks nothing, if the lease has been lost; the job must not be mailed then.
+     */
+    public boolean markSending(Lease lease) throws IOException {
+        synchronized (lease.lock) {
+            if (lease.ended || !holds(lease)) return false;
+            writeAtomically(sendingFile(lease.id()), (node + "\n" + lease.epoch() + "\n").getBytes(StandardCharsets.UTF_8), clock.millis());
+            return true;
+        }
+    }
+
+    /** Rewrites the job, e.g. with a new attempt count, while this node holds it. */
+    public void update(Lease lease, SendOutbox.Entry entry) throws IOException {
+        synchronized (lease.lock) {
+            if (lease.ended || !holds(lease)) return;
+            writeAtomically(jobFile(lease.id()), encodeJob(entry, lease.pinnedTo()), clock.millis());
+        }
+    }
+
+    /**
+     * Gives the job back after a transient failure; it becomes due again at {@code notBefore}. Does nothing if the
+     * lease has already been lost, since the job is then another node's. Clears the sending mark: the holder saw the
+     * attempt fail and chose to retry it.
+     */
+    public void release(Lease lease, SendOutbox.Entry entry, Instant notBefore) throws IOException {
+        synchronized (lease.lock) {
+            if (lease.ended) return;
+            lease.ended = true;
+            if (!holds(lease)) return;
+            writeAtomically(jobFile(lease.id()), encodeJob(entry, lease.pinnedTo()), notBefore.toEpochMilli());
+            Files.deleteIfExists(sendingFile(lease.id()));
+            Files.deleteIfExists(leaseFile(lease.id(), lease.epoch()));
+        }
+    }
+
+    /**
+     * Records the outcome and removes the job. Returns false, and changes nothing, if another node has taken the job
+     * over; the outcome is then that node's to record.
+     */
+    public boolean complete(Lease lease, Result result) throws IOException {
+        synchronized (lease.lock) {
+            if (lease.ended) return false;
+            lease.ended = true;
+            if (!holds(lease)) {
+                lost.incrementAndGet();
+                return false;
+            }
+            finish(lease.id(), result, lease.epoch());
+            return true;
+        }
+    }
+
+    /** The job's outcome if it has finished, otherwise where it stands. Empty for an unknown id. */
+    public Optional<Status> status(String id) throws IOException {
+        if (!ID.matcher(id).matches()) return Optional.empty();
+        Result result = readResult(id);
+        if (result != null) return Optional.of(new Status(null, null, result));
+        Job job = readJob(id);
+        if (job == null) {
+            // it may have finished since we looked
+            result = readResult(id);
+            return result == null ? Optional.empty() : Optional.of(new Status(null, null, result));
+        }
+        Holder holder = currentHolder(id);
+        boolean running = holder != null && holder.info() != null && holder.info().expiresAt() >= clock.millis();
+        return Optional.of(new Status(job.entry(), running ? holder.info().node() : null, null));
+    }
+
+    /** The job's outcome once it has finished. Reads the result file and nothing else, so it is cheap to poll. */
+    public Optional<Result> result(String id) throws IOException {
+        if (!ID.matcher(id).matches()) return Optional.empty();
+        return Optional.ofNullable(readResult(id));
+    }
+
+    /**
+     * Deletes results finished before {@code cutoff}, and leases and sending marks left behind by crashed nodes. Jobs pinned to a node
+     * that has not claimed them since {@code cutoff} are failed: that node is gone, and with it the password.
+     */
+    public void purge(Instant cutoff) throws IOException {
+        long before = cutoff.toEpochMilli();
+        long now = clock.millis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(resultsDir, "*" + RESULT)) {
+            for (Path f : files) {
+                if (modifiedBefore(f, before)) Files.deleteIfExists(f);
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(jobsDir, "*" + JOB)) {
+            for (Path f : files) {
+                String id = idOf(f, JOB);
+                if (!modifiedBefore(f, before) || currentHolder(id) != null) continue;
+                Job job = readJob(id);
+                if (job == null || job.pinnedTo() == null) continue;
+                SendOutbox.Entry e = job.entry();
+                // unleased, so no lease to delete; a claim racing with this one sees the result and backs off
+                finish(id, new Result(id, false, "The node that accepted this job (" + job.pinnedTo() + ") is gone, and with it the SMTP password.",
+                        e.resolvedUrl(), null, 0, e.submittedAt(), null, Instant.ofEpochMilli(now), e.attempts(), node), 0);
+            }
+        }
+        Set<String> orphans = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(leasesDir)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                String id = name.substring(0, Math.max(0, name.lastIndexOf('.')));
+                if (!Files.exists(jobFile(id))) orphans.add(id);
+            }
+        }
+        for (String id : orphans) {
+            Holder holder = currentHolder(id);
+            if (holder != null && holder.info() != null && holder.info().expiresAt() + graceMillis < now) deleteLeases(id);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(sendingDir, "*" + SENDING)) {
+            for (Path f : files) {
+                if (modifiedBefore(f, before) && !Files.exists(jobFile(idOf(f, SENDING)))) Files.deleteIfExists(f);
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tmpDir)) {
+            for (Path f : files) {
+                if (modifiedBefore(f, before)) Files.deleteIfExists(f);
+            }
+        }
+    }
+
+    /** Counts by listing the directory; meant for the stats endpoint, not for hot paths. */
+    public Stats stats() throws IOException {
+        long now = clock.millis();
+        int jobs = 0;
+        int leased = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(jobsDir, "*" + JOB)) {
+            for (Path f : files) {
+                jobs++;
+                Holder holder = currentHolder(idOf(f, JOB));
+                if (holder != null && holder.info() != null && holder.info().expiresAt() >= now) leased++;
+            }
+        }
+        int results = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(resultsDir, "*" + RESULT)) {
+            for (Path ignored : files) results++;
+        }
+        return new Stats(node, jobs - leased, leased, results, claimed.get(), takenOver.get(), lost.get(), completed.get());
+    }
+
+    /** Writes the result and deletes the job and its leases up to {@code maxEpoch}, so a later claim is never undone. */
+    private void finish(String id, Result result, long maxEpoch) throws IOException {
+        writeAtomically(resultFile(id), encodeResult(result), clock.millis());
+        Files.deleteIfExists(jobFile(id));
+        Files.deleteIfExists(sendingFile(id));
+        for (long epoch : epochs(id)) {
+            if (epoch <= maxEpoch) Files.deleteIfExists(leaseFile(id, epoch));
+        }
+        completed.incrementAndGet();
+    }
+
+    /**
+     * True while {@code lease} is still ours and no node has claimed a later epoch. Expiry alone does not end it;
+     * only a takeover does.
+     */
+    public boolean holds(Lease lease) throws IOException {
+        LeaseInfo info = readLease(leaseFile(lease.id(), lease.epoch()));
+        if (info == null || !info.token().equals(lease.token())) return false;
+        for (long epoch : epochs(lease.id())) {
+            if (epoch > lease.epoch()) return false;
+        }
+        return true;
+    }
+
+    /** Highest-epoch lease on {@code id}, or null if there is none. Its info is null if it vanished while we read it. */
+    private Holder currentHolder(String id) throws IOException {
+        long max = 0;
+        for (long epoch : epochs(id)) max = Math.max(max, epoch);
+        return max == 0 ? null : new Holder(max, readLease(leaseFile(id, max)));
+    }
+
+    private List<Long> epochs(String id) throws IOException {
+        List<Long> epochs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(leasesDir, id + ".*")) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                try {
+                    epochs.add(Long.parseLong(name.substring(id.length() + 1)));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return epochs;
+    }
+
+    private void deleteLeases(String id) throws IOException {
+        for (long epoch : epochs(id)) Files.deleteIfExists(leaseFile(id, epoch));
+    }
+
+    private Job readJob(String id) throws IOException {
+        byte[] bytes = readIfExists(jobFile(id));
+        if (bytes == null) return null;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        String pinnedTo = SendOutbox.readNullable(in);
+        byte[] record = new byte[in.readInt()];
+        in.readFully(record);
+        return new Job(SendOutbox.decodeAccept(record), pinnedTo);
+    }
+
+    private static byte[] encodeJob(SendOutbox.Entry entry, String pinnedTo) throws IOException {
+        byte[] record = SendOutbox.encodeAccept(entry);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.length + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        SendOutbox.writeNullable(out, pinnedTo);
+        out.writeInt(record.length);
+        out.write(record);
+        return bytes.toByteArray();
+    }
+
+    private Result readResult(String id) throws IOException {
+        byte[] bytes = readIfExists(resultFile(id));
+        if (bytes == null) return null;
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        return new Result(
+                in.readUTF(),
+                in.readBoolean(),
+                SendOutbox.readNullable(in),
+                SendOutbox.readNullable(in),
+                SendOutbox.readNullable(in),
+                in.readLong(),
+                readInstant(in),
+                readInstant(in),
+                readInstant(in),
+                in.readInt(),
+                in.readUTF()
+        );
+    }
+
+    private static byte[] encodeResult(Result r) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(r.id());
+        out.writeBoolean(r.ok());
+        SendOutbox.writeNullable(out, r.message());
+        SendOutbox.writeNullable(out, r.resolvedUrl());
+        SendOutbox.writeNullable(out, r.fileName());
+        out.writeLong(r.bytes());
+        writeInstant(out, r.submittedAt());
+        writeInstant(out, r.startedAt());
+        writeInstant(out, r.finishedAt());
+        out.writeInt(r.attempts());
+        out.writeUTF(r.node());
+        return bytes.toByteArray();
+    }
+
+    private static void writeInstant(DataOutputStream out, Instant t) throws IOException {
+        out.writeLong(t == null ? Long.MIN_VALUE : t.toEpochMilli());
+    }
+
+    private static Instant readInstant(DataInputStream in) throws IOException {
+        long millis = in.readLong();
+        return millis == Long.MIN_VALUE ? null : Instant.ofEpochMilli(millis);
+    }
+
+    private static byte[] leaseContent(String node, String token, long expiresAt) {
+        return (node + "\n" + token + "\n" + expiresAt + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static LeaseInfo readLease(Path file) throws IOException {
+        byte[] bytes = readIfExists(file);
+        if (bytes == null) return null;
+        String[] lines = new String(bytes, StandardCharsets.UTF_8).split("\n");
+        if (lines.length < 3) throw new IOException("Corrupt lease file " + file);
+        return new LeaseInfo(lines[0], lines[1], Long.parseLong(lines[2]));
+    }
+
+    private static byte[] readIfExists(Path file) throws IOException {
+        try {
+            return Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /** Writes {@code bytes} to {@code target} in one step, with mtime {@code modifiedAt}. */
+    private void writeAtomically(Path target, byte[] bytes, long modifiedAt) throws IOException {
+        Path tmp = writeTemp(bytes, modifiedAt);
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path writeTemp(byte[] bytes, long modifiedAt) throws IOException {
+        Path tmp = tmpDir.resolve(UUID.randomUUID() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(false);
+        }
+        Files.setLastModifiedTime(tmp, FileTime.fromMillis(modifiedAt));
+        return tmp;
+    }
+
+    /** Fails fast on a filesystem without hard links, where claims could not be made safely. */
+    private void checkLinks() throws IOException {
+        Path probe = writeTemp(new byte[0], clock.millis());
+        Path link = tmpDir.resolve(UUID.randomUUID() + ".tmp");
+        try {
+            Files.createLink(link, probe);
+        } catch (UnsupportedOperationException e) {
+            throw new IOException("Shared job directory " + tmpDir.getParent() + " does not support hard links", e);
+        } finally {
+            Files.deleteIfExists(link);
+            Files.deleteIfExists(probe);
+        }
+    }
+
+    private static boolean modifiedBefore(Path file, long millis) throws IOException {
+        try {
+            return Files.getLastModifiedTime(file).toMillis() < millis;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static void checkId(String id) {
+        if (!ID.matcher(id).matches()) throw new IllegalArgumentException("Bad job id: " + id);
+    }
+
+    private Path jobFile(String id) {
+        return jobsDir.resolve(id + JOB);
+    }
+
+    private Path resultFile(String id) {
+        return resultsDir.resolve(id + RESULT);
+    }
+
+    private Path sendingFile(String id) {
+        return sendingDir.resolve(id + SENDING);
+    }
+
+    private Path leaseFile(String id, long epoch) {
+        return leasesDir.resolve(id + "." + epoch);
+    }
+
+    private static String idOf(Path file, String suffix) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - suffix.length());
+    }
+
+    private record Job(SendOutbox.Entry entry, String pinnedTo) {}
+
+    private record LeaseInfo(String node, String token, long expiresAt) {}
+
+    private record Holder(long epoch, LeaseInfo info) {}
+
+    /**
+     * This node's claim on a job. Writes under one lease never overlap, so a heartbeat's renewal cannot put the
+     * lease file back after the worker has released or completed the job.
+     */
+    public static final class Lease {
+
+        private final String id;
+        private final long epoch;
+        private final String token;
+        private final SendOutbox.Entry entry;
+        private final String pinnedTo;
+        private final Object lock = new Object();
+        private volatile long expiresAt;
+        // released or completed by this node; guarded by lock
+        private boolean ended;
+        private String interruptedOn;
+
+        Lease(String id, long epoch, String token, SendOutbox.Entry entry, String pinnedTo, long expiresAt) {
+            this.id = id;
+            this.epoch = epoch;
+            this.token = token;
+            this.entry = entry;
+            this.pinnedTo = pinnedTo;
+            this.expiresAt = expiresAt;
+        }
+
+        public String id() { return id; }
+        public long epoch() { return epoch; }
+        String token() { return token; }
+        /** The job as it was when claimed. */
+        public SendOutbox.Entry entry() { return entry; }
+        public String pinnedTo() { return pinnedTo; }
+        /** Node that began mailing the job under an earlier lease and never recorded how it went, or null. */
+        public String interruptedOn() { return interruptedOn; }
+        /** Epoch millis; extended by each successful {@link SharedJobStore#renew}. */
+        public long expiresAt() { return expiresAt; }
+    }
+
+    /** Outcome of a finished job, whichever node ran it. */
+    public record Result(
+            String id,
+            boolean ok,
+            String message,
+            String resolvedUrl,
+            String fileName,
+            long bytes,
+            Instant submittedAt,
+            Instant startedAt,
+            Instant finishedAt,
+            int attempts,
+            String node
+    ) {}
+
+    /**
+     * @param entry     the job, while it is not finished
+     * @param runningOn node holding a live lease on it, or null while it waits
+     * @param result    set once it has finished
+     */
+    public record Status(SendOutbox.Entry entry, String runningOn, Result result) {}
+
+    public record Stats(
+            String node,
+            int queued,
+            int running,
+            int results,
+            long claimed,
+            long takenOver,
+            long lost,
+            long completed
+    ) {}
+}
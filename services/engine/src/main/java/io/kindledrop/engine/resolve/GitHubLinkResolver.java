@@ -1,97 +1,354 @@
 package io.kindledrop.engine.resolve;
 
+import io.kindledrop.engine.metrics.SendEvents;
+
+import java.net.URI;
 import java.net.URL;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+/**
+ * Turns a GitHub file link into a direct raw.githubusercontent.com download URL.
+ *
+ * <p>Ordinary {@code http(s)://host/path?query} input is handled by a hand-written scanner: one pass to find
+ * the parts, one to decode the path and one to re-encode the segments into the output. Rarer shapes
+ * (userinfo, ports, dot segments) go through {@link URL}, which normalizes them, and then share the same
+ * rewrite, so both paths produce identical results. Recent inputs are memoized, so repeated links (dry run
+ * followed by the real send, retries, batches) cost a map lookup.
+ */
 public class GitHubLinkResolver {
 
-    private static final Set<String> ALLOWED_HOSTS = Set.of(
-            "github.com",
-            "raw.githubusercontent.com"
-            // Add "objects.githubusercontent.com" when you support release assets safely.
-    );
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private static final String GITHUB = "github.com";
+    private static final String RAW = "raw.githubusercontent.com";
+    // Add "objects.githubusercontent.com" when you support release assets safely.
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private final LinkCache cache;
+    private final Set<String> extraOrigins;
+
+    public GitHubLinkResolver() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /** @param cacheSize memoized inputs; 0 disables the cache */
+    public GitHubLinkResolver(int cacheSize) {
+        this(cacheSize, List.of());
+    }
+
+    /**
+     * @param extraOrigins {@code scheme://host[:port]} origins whose links are taken as direct file links, like
+     *                     raw.githubusercontent.com ones (e.g. a local stub for load tests)
+     */
+    public GitHubLinkResolver(int cacheSize, List<String> extraOrigins) {
+        this.cache = cacheSize > 0 ? new LinkCache(cacheSize) : null;
+        Set<String> origins = new HashSet<>();
+        for (String o : extraOrigins) origins.add(Origins.of(URI.create(o.trim())));
+        this.extraOrigins = Set.copyOf(origins);
+    }
 
     public ResolvedLink resolve(String inputUrl) {
-        URL url = parseLenientUrl(inputUrl);
+        if (inputUrl == null) throw new IllegalArgumentException("Invalid URL: null");
+        SendEvents.Resolve event = new SendEvents.Resolve();
+        event.begin();
+        ResolvedLink hit = cache == null ? null : cache.get(inputUrl);
+        ResolvedLink link = hit != null ? hit : resolveUncached(inputUrl);
+        if (hit == null && cache != null) cache.put(inputUrl, link);
+        event.finish(inputUrl, link.url(), hit != null);
+        return link;
+    }
 
-        String host = url.getHost();
-        if (host == null || !ALLOWED_HOSTS.contains(host.toLowerCase())) {
+    public LinkCache.Stats cacheStats() {
+        return cache == null ? LinkCache.Stats.EMPTY : cache.stats();
+    }
+
+    /**
+     * Parses a folder link, {@code github.com/<org>/<repo>/tree/<branch>[/<path>]}. The path is decoded and has
+     * no leading or trailing slash; it is empty for the repository root.
+     */
+    public TreeLink resolveTree(String inputUrl) {
+        if (inputUrl == null) throw new IllegalArgumentException("Invalid URL: null");
+        Parts parts = locate(inputUrl);
+        if (!GITHUB.equalsIgnoreCase(parts.host())) {
+            throw new IllegalArgumentException("Unsupported host. Only GitHub folder links are allowed.");
+        }
+
+        String[] segs = decode(parts.path()).split("/");
+        if (segs.length < 5 || !"tree".equals(segs[3])) {
+            throw new IllegalArgumentException("Unsupported GitHub URL format. Expected a folder 'tree' link.");
+        }
+        StringBuilder path = new StringBuilder();
+        for (int i = 5; i < segs.length; i++) {
+            if (segs[i].isEmpty()) continue;
+            if (!path.isEmpty()) path.append('/');
+            path.append(segs[i]);
+        }
+        return new TreeLink(segs[1], segs[2], segs[4], path.toString());
+    }
+
+    private ResolvedLink resolveUncached(String input) {
+        if (!extraOrigins.isEmpty()) {
+            ResolvedLink extra = resolveExtraOrigin(input);
+            if (extra != null) return extra;
+        }
+        Parts parts = locate(input);
+        String host = parts.host();
+        String path = parts.path();
+        String query = parts.query();
+
+        boolean raw = RAW.equalsIgnoreCase(host);
+        if (host == null || !(raw || GITHUB.equalsIgnoreCase(host))) {
             throw new IllegalArgumentException("Unsupported host. Only GitHub file links are allowed.");
         }
 
         // Decode path so we can safely work with real characters (spaces etc.)
-        String decodedPath = URLDecoder.decode(url.getPath(), StandardCharsets.UTF_8);
+        String decodedPath = decode(path);
 
         // If already raw, normalize/encode segments so downstream URI/HTTP works
-        if ("raw.githubusercontent.com".equalsIgnoreCase(host)) {
-            String normalized = rebuildUrl(host, decodedPath, url.getQuery());
-            return new ResolvedLink(normalized, fileNameFromPath(decodedPath));
+        if (raw) {
+            return new ResolvedLink(rebuildRawUrl(host, decodedPath, query), fileNameFromPath(decodedPath));
         }
+        return new ResolvedLink(blobToRaw(decodedPath), fileNameFromPath(decodedPath));
+    }
 
-        // github.com/<org>/<repo>/blob/<branch>/path/file.ext
-        String[] parts = decodedPath.split("/");
+    /** A link on one of the extra origins, or null to carry on with the GitHub rules. */
+    private ResolvedLink resolveExtraOrigin(String input) {
+        URL url;
+        String origin;
+        try {
+            url = parseLenientUrl(input);
+            origin = Origins.of(new URI(url.getProtocol(), null, url.getHost(), url.getPort(), null, null, null));
+        } catch (Exception e) {
+            return null;
+        }
+        if (!extraOrigins.contains(origin)) return null;
+        String decodedPath = decode(url.getPath());
+        return new ResolvedLink(rebuildUrl(origin, decodedPath, url.getQuery()), fileNameFromPath(decodedPath));
+    }
 
-        if (parts.length < 6 || !"blob".equals(parts[3])) {
-            throw new IllegalArgumentException("Unsupported GitHub URL format. Expected a file 'blob' link.");
+    private Parts locate(String input) {
+        Parts parts = scan(input);
+        if (parts != null) return parts;
+        URL url = parseLenientUrl(input);
+        return new Parts(url.getHost(), url.getPath(), url.getQuery());
+    }
+
+    /**
+     * Splits {@code http(s)://host/path?query#fragment} the way {@link URL} would, or returns null when the
+     * input needs URL's full parser (other schemes, userinfo, ports, {@code .}/{@code ..} segments).
+     */
+    private static Parts scan(String s) {
+        int start = 0;
+        int end = s.length();
+        // URL ignores leading/trailing whitespace and control chars
+        while (start < end && s.charAt(start) <= ' ') start++;
+        while (end > start && s.charAt(end - 1) <= ' ') end--;
+
+        int p;
+        if (s.regionMatches(true, start, "https://", 0, 8)) {
+            p = start + 8;
+        } else if (s.regionMatches(true, start, "http://", 0, 7)) {
+            p = start + 7;
+        } else {
+            return null;
         }
 
-        String org = parts[1];
-        String repo = parts[2];
-        String branch = parts[4];
+        int limit = indexOf(s, '#', p, end);
+        int queryStart = indexOf(s, '?', p, limit);
 
-        // Encode each path segment after the branch
-        StringBuilder encodedRest = new StringBuilder();
-        for (int i = 5; i < parts.length; i++) {
-            encodedRest.append("/").append(encodePathSegment(parts[i]));
+        int authorityEnd = indexOf(s, '/', p, queryStart);
+        for (int i = p; i < authorityEnd; i++) {
+            char c = s.charAt(i);
+            if (c == '@' || c == ':' || c == '[') return null;
+        }
+        for (int i = authorityEnd; i + 1 < queryStart; i++) {
+            if (s.charAt(i) == '/' && s.charAt(i + 1) == '.') return null;
         }
 
-        String raw = "https://raw.githubusercontent.com/" + org + "/" + repo + "/" + branch + encodedRest;
-        return new ResolvedLink(raw, fileNameFromPath(decodedPath));
+        return new Parts(
+                s.substring(p, authorityEnd),
+                s.substring(authorityEnd, queryStart),
+                queryStart < limit ? s.substring(queryStart + 1, limit) : null);
     }
 
-    private URL parseLenientUrl(String input) {
-        try {
-            // URL is more tolerant than URI for user-pasted strings.
-            return new URL(input);
-        } catch (Exception e) {
-            // Try a minimal salvage: replace spaces with %20 and retry
-            try {
-                return new URL(input.replace(" ", "%20"));
-            } catch (Exception e2) {
-                throw new IllegalArgumentException("Invalid URL: " + input, e2);
+    private static int indexOf(String s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c) return i;
+        }
+        return to;
+    }
+
+    /** Same result as {@code URLDecoder.decode(path, UTF_8)}, including {@code +} as space. */
+    private static String decode(String s) {
+        int first = -1;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%' || c == '+') {
+                first = i;
+                break;
+            }
+        }
+        if (first < 0) return s;
+
+        StringBuilder out = new StringBuilder(s.length()).append(s, 0, first);
+        byte[] bytes = null;
+        int i = first;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '+') {
+                out.append(' ');
+                i++;
+            } else if (c == '%') {
+                // a run of %XX escapes is one UTF-8 byte sequence
+                if (bytes == null) bytes = new byte[(s.length() - i) / 3];
+                int n = 0;
+                while (i + 2 < s.length() && s.charAt(i) == '%') {
+                    bytes[n++] = (byte) hexByte(s.charAt(i + 1), s.charAt(i + 2));
+                    i += 3;
+                }
+                if (i < s.length() && s.charAt(i) == '%') {
+                    throw new IllegalArgumentException("URLDecoder: Incomplete trailing escape (%) pattern");
+                }
+                out.append(new String(bytes, 0, n, StandardCharsets.UTF_8));
+            } else {
+                out.append(c);
+                i++;
             }
         }
+        return out.toString();
     }
 
-    private String rebuildUrl(String host, String decodedPath, String query) {
+    /** {@code Integer.parseInt(hi + lo, 16)} as URLDecoder uses it, so a sign is accepted ({@code %+b}, {@code %-0}). */
+    private static int hexByte(char hi, char lo) {
+        int l = Character.digit(lo, 16);
+        int h = hi == '+' || hi == '-' ? 0 : Character.digit(hi, 16);
+        if (l < 0 || h < 0 || (hi == '-' && l != 0)) {
+            throw new IllegalArgumentException("URLDecoder: Illegal hex characters in escape (%) pattern");
+        }
+        return (h << 4) | l;
+    }
+
+    private static String rebuildRawUrl(String host, String decodedPath, String query) {
         // Rebuild as a properly encoded HTTPS URL
-        StringBuilder out = new StringBuilder("https://").append(host);
+        return rebuildUrl("https://" + host, decodedPath, query);
+    }
+
+    private static String rebuildUrl(String prefix, String decodedPath, String query) {
+        StringBuilder out = new StringBuilder(decodedPath.length() + 48).append(prefix);
 
-        String[] segs = decodedPath.split("/");
-        for (String seg : segs) {
-            if (seg.isEmpty()) continue;
-            out.append("/").append(encodePathSegment(seg));
+        int i = 0;
+        int n = decodedPath.length();
+        while (i < n) {
+            int slash = indexOf(decodedPath, '/', i, n);
+            if (slash > i) {
+                out.append('/');
+                encodePathSegment(out, decodedPath, i, slash);
+            }
+            i = slash + 1;
         }
 
         if (query != null && !query.isBlank()) {
-            out.append("?").append(query);
+            out.append('?').append(query);
         }
         return out.toString();
     }
 
-    private String encodePathSegment(String s) {
-        // URLEncoder is for query params; adapt for path segments.
-        return URLEncoder.encode(s, StandardCharsets.UTF_8).replace("+", "%20");
+    /** {@code github.com/<org>/<repo>/blob/<branch>/<path>} to {@code raw.githubusercontent.com/<org>/<repo>/<branch>/<path>}. */
+    private static String blobToRaw(String decodedPath) {
+        // like String.split("/"): trailing empty segments do not count
+        int end = decodedPath.length();
+        while (end > 0 && decodedPath.charAt(end - 1) == '/') end--;
+
+        // segment 0 is the empty string before the leading '/'
+        int[] bounds = new int[12];
+        int segments = 0;
+        int i = 0;
+        while (true) {
+            int slash = indexOf(decodedPath, '/', i, end);
+            if (segments * 2 + 1 >= bounds.length) bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            bounds[segments * 2] = i;
+            bounds[segments * 2 + 1] = slash;
+            segments++;
+            if (slash >= end) break;
+            i = slash + 1;
+        }
+
+        if (segments < 6 || !decodedPath.startsWith("blob", bounds[6]) || bounds[7] - bounds[6] != 4) {
+            throw new IllegalArgumentException("Unsupported GitHub URL format. Expected a file 'blob' link.");
+        }
+
+        StringBuilder out = new StringBuilder(decodedPath.length() + 48).append("https://raw.githubusercontent.com/");
+        out.append(decodedPath, bounds[2], bounds[3]).append('/');   // org
+        out.append(decodedPath, bounds[4], bounds[5]).append('/');   // repo
+        out.append(decodedPath, bounds[8], bounds[9]);               // branch
+        // Encode each path segment after the branch
+        for (int s = 5; s < segments; s++) {
+            out.append('/');
+            encodePathSegment(out, decodedPath, bounds[s * 2], bounds[s * 2 + 1]);
+        }
+        return out.toString();
     }
 
-    private String fileNameFromPath(String path) {
+    /**
+     * Appends {@code s[from, to)} percent-encoded like {@code URLEncoder.encode(seg, UTF_8).replace("+", "%20")}:
+     * letters, digits and {@code -_.*} pass through, everything else becomes UTF-8 {@code %XX}.
+     */
+    private static void encodePathSegment(StringBuilder out, String s, int from, int to) {
+        int i = from;
+        while (i < to) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                        || c == '-' || c == '_' || c == '.' || c == '*') {
+                    out.append(c);
+                } else {
+                    appendEscaped(out, c);
+                }
+                i++;
+            } else {
+                int j = i + 1;
+                while (j < to && s.charAt(j) >= 0x80) j++;
+                // unpaired surrogates become '?' (%3F), as with URLEncoder
+                for (byte b : s.substring(i, j).getBytes(StandardCharsets.UTF_8)) {
+                    appendEscaped(out, b & 0xff);
+                }
+                i = j;
+            }
+        }
+    }
+
+    private static void appendEscaped(StringBuilder out, int b) {
+        out.append('%').append(HEX[b >> 4]).append(HEX[b & 0xf]);
+    }
+
+    private URL parseLenientUrl(String input) {
+        try {
+            // URL is more tolerant than URI for user-pasted strings.
+            return new URL(input);
+        } catch (Exception e) {
+            // Try a minimal salvage: replace spaces with %20 and retry
+            try {
+                return new URL(input.replace(" ", "%20"));
+            } catch (Exception e2) {
+                throw new IllegalArgumentException("Invalid URL: " + input, e2);
+            }
+        }
+    }
+
+    private static String fileNameFromPath(String path) {
         if (path == null || path.isBlank()) return "document";
         int idx = path.lastIndexOf('/');
         return idx >= 0 ? path.substring(idx + 1) : path;
     }
 
+    private record Parts(String host, String path, String query) {}
+
     public record ResolvedLink(String url, String fileName) {}
+
+    public record TreeLink(String owner, String repo, String ref, String path) {}
 }
@@ -0,0 +1,167 @@
+package io.kindledrop.engine.resolve;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.kindledrop.engine.download.HttpStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Expands a {@link GitHubLinkResolver.TreeLink} into the files below it through the GitHub contents API
+ * ({@code GET /repos/{owner}/{repo}/contents/{path}?ref={ref}}). Subdirectories are listed in parallel, at most
+ * {@code concurrency} requests at a time. Files are handed to the sink as soon as their directory has been
+ * listed. The sink may block, which also pauses listing.
+ *
+ * <p>The API base URL is configurable so tests and load runs can point it at a local stub. Files are linked by the
+ * {@code html_url} the API reports, so a stub listed in {@code download.extra-origins} can serve them too.
+ */
+public class GitHubTreeLister {
+
+    @FunctionalInterface
+    public interface Sink {
+        void accept(TreeFile file) throws InterruptedException;
+    }
+
+    private final URI apiBase;
+    private final String token;
+    private final int concurrency;
+    private final int maxFiles;
+    private final HttpClient client;
+    private final ObjectMapper json = new ObjectMapper();
+
+    public GitHubTreeLister(URI apiBase, String token, int concurrency, int maxFiles) {
+        String base = apiBase.toString();
+        this.apiBase = URI.create(base.endsWith("/") ? base : base + "/");
+        this.token = token == null || token.isBlank() ? null : token;
+        this.concurrency = concurrency;
+        this.maxFiles = maxFiles;
+        this.client = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    /**
+     * Lists every file under {@code tree} that {@code include} accepts. Stops after {@code maxFiles} files.
+     */
+    public Listing list(GitHubLinkResolver.TreeLink tree, Predicate<String> include, Sink sink) throws IOException, InterruptedException {
+        Semaphore permits = new Semaphore(concurrency);
+        Phaser pending = new Phaser(1);
+        AtomicInteger emitted = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            class Walker {
+                void submit(String dir) {
+                    pending.register();
+                    executor.submit(() -> {
+                        try {
+                            if (failure.get() != null) return;
+                            JsonNode listing;
+                            permits.acquire();
+                            try {
+                                listing = fetch(tree, dir);
+                            } finally {
+                                permits.release();
+                            }
+                            // a tree link that points at a single file
+                            Iterable<JsonNode> entries = listing.isArray() ? listing : List.of(listing);
+                            for (JsonNode entry : entries) {
+                                String type = entry.path("type").asText();
+                                String path = entry.path("path").asText();
+                                if ("dir".equals(type)) {
+                                    submit(path);
+                                } else if ("file".equals(type) && include.test(entry.path("name").asText())) {
+                                    if (emitted.incrementAndGet() > maxFiles) {
+                                        emitted.decrementAndGet();
+                                        skipped.incrementAndGet();
+                                        return;
+                                    }
+                                    String link = entry.path("html_url").asText("");
+                                    sink.accept(new TreeFile(path, entry.path("size").asLong(-1), link.isEmpty() ? blobUrl(tree, path) : link));
+                                }
+                            }
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            pending.arriveAndDeregister();
+                        }
+                    });
+                }
+            }
+            new Walker().submit(tree.path());
+            pending.arriveAndAwaitAdvance();
+        }
+
+        Exception e = failure.get();
+        if (e instanceof IOException io) throw io;
+        if (e instanceof InterruptedException ie) throw ie;
+        if (e instanceof RuntimeException re) throw re;
+        if (e != null) throw new IOException(e);
+        return new Listing(emitted.get(), skipped.get() > 0);
+    }
+
+    private JsonNode fetch(GitHubLinkResolver.TreeLink tree, String dir) throws IOException, InterruptedException {
+        URI uri = apiBase.resolve("repos/" + encode(tree.owner()) + "/" + encode(tree.repo()) + "/contents"
+                + encodePath(dir) + "?ref=" + encode(tree.ref()));
+        HttpRequest.Builder req = HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(30))
+                .header("Accept", "application/vnd.github+json")
+                .header("User-Agent", "KindleDrop")
+                .GET();
+        if (token != null) req.header("Authorization", "Bearer " + token);
+
+        HttpResponse<InputStream> resp = client.send(req.build(), HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream body = resp.body()) {
+            if (resp.statusCode() == 404) {
+                throw new HttpStatusException("Folder not found: " + tree.owner() + "/" + tree.repo() + "/" + tree.ref() + "/" + dir, 404);
+            }
+            if (resp.statusCode() != 200) {
+                throw new HttpStatusException("GitHub API listing failed with status " + resp.statusCode(), resp.statusCode());
+            }
+            return json.readTree(body);
+        }
+    }
+
+    /** A github.com blob link for the file, for entries without an {@code html_url}. */
+    private static String blobUrl(GitHubLinkResolver.TreeLink tree, String path) {
+        return "https://github.com/" + encode(tree.owner()) + "/" + encode(tree.repo()) + "/blob/" + encode(tree.ref()) + encodePath(path);
+    }
+
+    private static String encodePath(String path) {
+        StringBuilder out = new StringBuilder();
+        for (String seg : path.split("/")) {
+            if (!seg.isEmpty()) out.append('/').append(encode(seg));
+        }
+        return out.toString();
+    }
+
+    private static String encode(String s) {
+        return URLEncoder.encode(s, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    /**
+     * @param size bytes as reported by the API, or -1
+     * @param blobUrl the file's page, as the API's {@code html_url}; {@link GitHubLinkResolver#resolve} turns it into a raw URL
+     */
+    public record TreeFile(String path, long size, String blobUrl) {}
+
+    /** @param truncated true if more than {@code maxFiles} files matched */
+    public record Listing(int files, boolean truncated) {}
+}
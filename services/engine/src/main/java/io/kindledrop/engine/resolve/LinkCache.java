@@ -0,0 +1,77 @@
+package io.kindledrop.engine.resolve;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded memo of resolved links with approximate LRU eviction (CLOCK / second chance). A hit is a
+ * {@link ConcurrentHashMap} lookup plus setting a flag, with no locking and no allocation. Only inserts pay
+ * for eviction: entries used since the last sweep get their flag cleared and survive, the first unused
+ * one is dropped.
+ */
+public class LinkCache {
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Node> map;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    LinkCache(int capacity) {
+        this.capacity = capacity;
+        this.map = new ConcurrentHashMap<>(capacity * 4 / 3 + 1);
+    }
+
+    GitHubLinkResolver.ResolvedLink get(String input) {
+        Node node = map.get(input);
+        if (node == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        // only write when needed so hot entries don't bounce their cache line between cores
+        if (!node.referenced) node.referenced = true;
+        hits.incrementAndGet();
+        return node.link;
+    }
+
+    void put(String input, GitHubLinkResolver.ResolvedLink link) {
+        if (map.putIfAbsent(input, new Node(link)) == null && map.size() > capacity) {
+            evict();
+        }
+    }
+
+    private synchronized void evict() {
+        // at most two sweeps: the first clears every flag, so the second always finds a victim
+        for (int sweep = 0; sweep < 2 && map.size() > capacity; sweep++) {
+            Iterator<Map.Entry<String, Node>> it = map.entrySet().iterator();
+            while (it.hasNext() && map.size() > capacity) {
+                Node node = it.next().getValue();
+                if (node.referenced) {
+                    node.referenced = false;
+                } else {
+                    it.remove();
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.get(), misses.get(), evictions.get(), map.size(), capacity);
+    }
+
+    private static final class Node {
+        final GitHubLinkResolver.ResolvedLink link;
+        volatile boolean referenced;
+
+        Node(GitHubLinkResolver.ResolvedLink link) {
+            this.link = link;
+        }
+    }
+
+    public record Stats(long hits, long misses, long evictions, int size, int capacity) {
+        static final Stats EMPTY = new Stats(0, 0, 0, 0, 0);
+    }
+}
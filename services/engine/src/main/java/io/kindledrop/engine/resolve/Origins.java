@@ -0,0 +1,19 @@
+package io.kindledrop.engine.resolve;
+
+import java.net.URI;
+import java.util.Locale;
+
+/** Compares links by origin, e.g. against the configured extra origins. */
+public final class Origins {
+
+    private Origins() {
+    }
+
+    /** {@code scheme://host:port}, lower-cased, with the scheme's default port filled in. */
+    public static String of(URI uri) {
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+        String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase(Locale.ROOT);
+        int port = uri.getPort() >= 0 ? uri.getPort() : ("http".equals(scheme) ? 80 : 443);
+        return scheme + "://" + host + ":" + port;
+    }
+}
@@ -0,0 +1,166 @@
+package io.kindledrop.engine.service;
+
+import io.kindledrop.engine.api.BatchSendRequest;
+import io.kindledrop.engine.api.BatchSendResponse;
+import io.kindledrop.engine.config.KindleDropProperties;
+import io.kindledrop.engine.download.AdmissionControl;
+import io.kindledrop.engine.download.DownloadCoalescer;
+import io.kindledrop.engine.download.DownloadResult;
+import io.kindledrop.engine.mail.AttachmentPacker;
+import io.kindledrop.engine.mail.KindleMailSender;
+import io.kindledrop.engine.metrics.SendEvents;
+import io.kindledrop.engine.resolve.GitHubLinkResolver;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+/**
+ * Sends a reading list to one Kindle address: downloads in parallel (capped), then bundles the files
+ * into as few emails as fit the per-message budget. Every URL gets its own result, so one bad link
+ * doesn't fail the rest.
+ */
+@Service
+public class BatchSendService {
+
+    private final SendToKindleService sendService;
+    private final KindleDropProperties.Batch props;
+
+    public BatchSendService(SendToKindleService sendService, KindleDropProperties props) {
+        this.sendService = sendService;
+        this.props = props.batch();
+    }
+
+    public BatchSendResponse send(BatchSendRequest req) throws InterruptedException {
+        List<String> urls = req.urls();
+        if (urls.size() > props.maxUrls()) {
+            throw new IllegalArgumentException("Too many URLs in one batch (" + urls.size() + "). Max allowed is " + props.maxUrls() + ".");
+        }
+
+        BatchSendResponse.Item[] results = new BatchSendResponse.Item[urls.size()];
+        List<Pending> pending = new ArrayList<>();
+
+        for (int i = 0; i < urls.size(); i++) {
+            try {
+                pending.add(new Pending(i, sendService.resolver().resolve(urls.get(i))));
+            } catch (IllegalArgumentException e) {
+                results[i] = failed(urls.get(i), null, null, e.getMessage());
+            }
+        }
+
+        if (req.dryRun()) {
+            for (Pending p : pending) {
+                results[p.index()] = new BatchSendResponse.Item(urls.get(p.index()), true, p.link().url(), p.link().fileName(), 0, "Dry run: resolved + validated.");
+            }
+            return response(results, 0);
+        }
+
+        KindleMailSender.Smtp smtp = SendToKindleService.resolveSmtp(req.smtp());
+        if (smtp == null) {
+            for (Pending p : pending) {
+                results[p.index()] = failed(urls.get(p.index()), p.link(), null, SendToKindleService.MISSING_SMTP_MESSAGE);
+            }
+            return response(results, 0);
+        }
+
+        long maxBytes = SendToKindleService.maxBytes(req.limits());
+        List<Downloaded> downloaded = Collections.synchronizedList(new ArrayList<>());
+        int messages = 0;
+
+        try {
+            Semaphore permits = new Semaphore(props.downloadConcurrency());
+            try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (Pending p : pending) {
+                    executor.submit(SendEvents.carry(() -> {
+                        permits.acquire();
+                        AdmissionControl.Ticket ticket = null;
+                        try {
+                            // each file is admitted on its own, so an overloaded engine fails only the files that don't fit
+                            ticket = sendService.admission().admit();
+                            var download = sendService.downloader().acquire(URI.create(p.link().url()), p.link().fileName(), maxBytes, ticket);
+                            downloaded.add(new Downloaded(p, download, ticket));
+                        } catch (Exception e) {
+                            if (ticket != null) ticket.close();
+                            results[p.index()] = failed(urls.get(p.index()), p.link(), null, e.getMessage());
+                        } finally {
+                            permits.release();
+                        }
+                        return null;
+                    }));
+                }
+            }
+
+            // keep the input order within each bundle
+            List<List<Downloaded>> bundles = AttachmentPacker.pack(downloaded, d -> d.result().bytes(), props.maxMessageSize().toBytes());
+            for (List<Downloaded> bundle : bundles) {
+                bundle.sort((a, b) -> Integer.compare(a.pending().index(), b.pending().index()));
+                try {
+                    sendService.mailer().sendWithAttachments(
+                            smtp,
+                            req.kindleEmail(),
+                            subject(bundle),
+                            body(bundle, urls),
+                            bundle.stream().map(d -> new KindleMailSender.Attachment(d.result().dataSource(), d.result().fileName())).toList()
+                    );
+                    messages++;
+                    for (Downloaded d : bundle) {
+                        results[d.pending().index()] = new BatchSendResponse.Item(urls.get(d.pending().index()), true,
+                                d.pending().link().url(), d.result().fileName(), d.result().bytes(), "Sent to Kindle.");
+                    }
+                } catch (Exception e) {
+                    for (Downloaded d : bundle) {
+                        results[d.pending().index()] = failed(urls.get(d.pending().index()), d.pending().link(), d.result(), e.getMessage());
+                    }
+                }
+            }
+        } finally {
+            for (Downloaded d : downloaded) {
+                d.download().close();
+                d.ticket().close();
+            }
+        }
+
+        return response(results, messages);
+    }
+
+    private static String subject(List<Downloaded> bundle) {
+        if (bundle.size() == 1) return "KindleDrop: " + bundle.get(0).result().fileName();
+        return "KindleDrop: " + bundle.size() + " documents";
+    }
+
+    private static String body(List<Downloaded> bundle, List<String> urls) {
+        return "Sent by KindleDrop.\n\n" + bundle.stream()
+                .map(d -> "Source: " + urls.get(d.pending().index()) + "\nResolved: " + d.pending().link().url())
+                .collect(Collectors.joining("\n\n"));
+    }
+
+    private static BatchSendResponse.Item failed(String url, GitHubLinkResolver.ResolvedLink link, DownloadResult result, String message) {
+        return new BatchSendResponse.Item(
+                url,
+                false,
+                link == null ? null : link.url(),
+                result != null ? result.fileName() : (link == null ? null : link.fileName()),
+                result == null ? 0 : result.bytes(),
+                message
+        );
+    }
+
+    private static BatchSendResponse response(BatchSendResponse.Item[] results, int messages) {
+        boolean ok = Arrays.stream(results).allMatch(BatchSendResponse.Item::ok);
+        return new BatchSendResponse(ok, messages, List.of(results));
+    }
+
+    private record Pending(int index, GitHubLinkResolver.ResolvedLink link) {}
+
+    private record Downloaded(Pending pending, DownloadCoalescer.SharedDownload download, AdmissionControl.Ticket ticket) {
+        DownloadResult result() {
+            return download.result();
+        }
+    }
+}
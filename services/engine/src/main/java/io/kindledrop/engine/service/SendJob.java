@@ -0,0 +1,106 @@
+package io.kindledrop.engine.service;
+
+import io.kindledrop.engine.api.SendRequest;
+import io.kindledrop.engine.api.SendResponse;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * One queued send. Mutable state is only written by the worker that runs it; readers take a snapshot.
+ */
+public class SendJob {
+
+    public enum State { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    private final String id;
+    private final SendRequest request;
+    private final Instant submittedAt;
+    private final StageTimings timings = new StageTimings();
+
+    private volatile State state = State.QUEUED;
+    private volatile int attempts;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile SendResponse result;
+    private volatile String error;
+    private volatile long expectedBytes = -1;
+    private volatile long queueNanos;
+
+    SendJob(String id, SendRequest request) {
+        this(id, request, Instant.now(), 0);
+    }
+
+    /** A job restored from the outbox after a restart. */
+    SendJob(String id, SendRequest request, Instant submittedAt, int attempts) {
+        this.id = id;
+        this.request = request;
+        this.submittedAt = submittedAt;
+        this.attempts = attempts;
+    }
+
+    /** A job another node ran or is running, rebuilt from the shared job store for a status query. */
+    static SendJob snapshot(String id, Instant submittedAt, int attempts, State state, Instant startedAt,
+                            Instant finishedAt, SendResponse result, String error) {
+        SendJob job = new SendJob(id, null, submittedAt, attempts);
+        job.state = state;
+        job.startedAt = startedAt;
+        job.finishedAt = finishedAt;
+        job.result = result;
+        job.error = error;
+        return job;
+    }
+
+    public String id() { return id; }
+    public SendRequest request() { return request; }
+    public State state() { return state; }
+    public Instant submittedAt() { return submittedAt; }
+    public Instant startedAt() { return startedAt; }
+    public Instant finishedAt() { return finishedAt; }
+    public SendResponse result() { return result; }
+    public String error() { return error; }
+    public StageTimings timings() { return timings; }
+    public int attempts() { return attempts; }
+    /** Expected download size the scheduler ordered this job by; -1 if it was not estimated. */
+    public long expectedBytes() { return expectedBytes; }
+    /** Time spent waiting for a worker, over all attempts (retry backoff excluded). */
+    public Duration queueWait() { return Duration.ofNanos(queueNanos); }
+
+    public boolean isFinished() {
+        return state == State.SUCCEEDED || state == State.FAILED;
+    }
+
+    void expect(long bytes) {
+        expectedBytes = bytes;
+    }
+
+    void waited(long nanos) {
+        queueNanos += nanos;
+    }
+
+    void markRunning() {
+        attempts++;
+        startedAt = Instant.now();
+        state = State.RUNNING;
+    }
+
+    /** Back to the queue after a transient failure; {@code message} says why. */
+    void markRetrying(String message) {
+        error = message;
+        state = State.QUEUED;
+    }
+
+    void markDone(SendResponse response) {
+        error = null;
+        result = response;
+        finishedAt = Instant.now();
+        state = response.ok() ? State.SUCCEEDED : State.FAILED;
+        if (!response.ok()) error = response.message();
+    }
+
+    void markFailed(String message) {
+        error = message;
+        finishedAt = Instant.now();
+        state = State.FAILED;
+    }
+}
@@ -0,0 +1,669 @@
+package io.kindledrop.engine.service;
+
+import io.kindledrop.engine.api.SendRequest;
+import io.kindledrop.engine.api.SendResponse;
+import io.kindledrop.engine.config.KindleDropProperties;
+import io.kindledrop.engine.metrics.SendEvents;
+import io.kindledrop.engine.metrics.SendMetrics;
+import io.kindledrop.engine.outbox.SendOutbox;
+import io.kindledrop.engine.outbox.SharedJobStore;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.SendFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs sends in the background so the HTTP request returns as soon as the job is queued.
+ * Concurrency and queue length are bounded; when both are full new jobs are rejected.
+ *
+ * <p>With the outbox enabled, a job is written to disk before it is acknowledged. Unfinished jobs are replayed
+ * on startup, and jobs that hit a transient SMTP or network failure are retried with backoff. Jobs that do not
+ * fit the executor queue are parked instead of rejected, up to {@code outbox.max-pending}. The job queue then
+ * absorbs an SMTP outage and drains at whatever rate the relay sustains.
+ *
+ * <p>With {@code cluster.enabled}, jobs go to a {@link SharedJobStore} instead of the outbox, and every engine
+ * pointed at the same directory works off it: a poller claims due jobs while this node has idle workers, and a
+ * heartbeat renews the leases of the jobs it runs. A worker whose lease is lost or about to lapse unrenewed is
+ * interrupted, so at most one node sends a job at a time. A job taken over from a node that had begun mailing it
+ * fails instead of being mailed again. Jobs whose request carries an SMTP password are pinned to the node that
+ * accepted them, as the password is never written down.
+ *
+ * <p>With {@code jobs.size-aware}, queued jobs are taken smallest expected download first through a
+ * {@link SendQueue}, with dry runs in a lane of their own. Each job records how long it waited for a worker.
+ */
+@Service
+public class SendJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(SendJobService.class);
+
+    // sendShared polls for a result from another node, backing off from the first to the second
+    private static final Duration SHARED_POLL_MIN = Duration.ofMillis(20);
+    private static final Duration SHARED_POLL_MAX = Duration.ofSeconds(1);
+    private static final Duration SWEEP_INTERVAL = Duration.ofMinutes(1);
+
+    private final SendToKindleService sendService;
+    private final KindleDropProperties.Jobs props;
+    private final KindleDropProperties.Outbox outboxProps;
+    private final ThreadPoolExecutor executor;
+    private final SendQueue queue;
+    private final ScheduledExecutorService retries;
+    private final SendOutbox outbox;
+    private final SharedJobStore shared;
+    private final ScheduledExecutorService heartbeats;
+    private final Duration sendTimeout;
+    private final long leaseMargin;
+    private final ConcurrentHashMap<String, SendJob> jobs = new ConcurrentHashMap<>();
+    // jobs this node has claimed from the shared store
+    private final ConcurrentHashMap<String, Held> held = new ConcurrentHashMap<>();
+    // sendShared calls waiting for a job, completed when this node records its outcome
+    private final ConcurrentHashMap<String, CompletableFuture<SendJob>> waiting = new ConcurrentHashMap<>();
+    private volatile long nextSweep;
+
+    public SendJobService(SendToKindleService sendService, KindleDropProperties props) {
+        this.sendService = sendService;
+        this.props = props.jobs();
+        this.outboxProps = props.outbox();
+        this.sendTimeout = props.send().timeout();
+        this.leaseMargin = props.cluster().leaseTtl().toMillis() / 3;
+
+        // null in FIFO mode
+        this.queue = this.props.sizeAware()
+                ? new SendQueue(this.props.queueCapacity(), this.props.ageingRate().toBytes())
+                : null;
+        ThreadFactory threads = this.props.virtualThreads()
+                ? Thread.ofVirtual().name("send-job-", 0).factory()
+                : Executors.defaultThreadFactory();
+        this.executor = new ThreadPoolExecutor(
+                this.props.workers(),
+                this.props.workers(),
+                60, TimeUnit.SECONDS,
+                queue != null ? queue : new ArrayBlockingQueue<>(this.props.queueCapacity()),
+                threads,
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        this.retries = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "send-job-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        this.shared = openShared(props.cluster());
+        // the shared directory is the durable record in cluster mode
+        this.outbox = shared == null ? openOutbox(outboxProps) : null;
+        if (outbox != null) recover();
+
+        if (shared != null) {
+            long poll = props.cluster().pollInterval().toMillis();
+            long beat = props.cluster().leaseTtl().toMillis() / 3;
+            retries.scheduleWithFixedDelay(this::claimDue, poll, poll, TimeUnit.MILLISECONDS);
+            // own thread, so a slow directory listing in the poller never delays a renewal
+            this.heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "send-job-lease");
+                t.setDaemon(true);
+                return t;
+            });
+            heartbeats.scheduleWithFixedDelay(this::heartbeat, beat, beat, TimeUnit.MILLISECONDS);
+            log.info("Sharing send jobs through {} as node {}", props.cluster().dir(), shared.node());
+        } else {
+            this.heartbeats = null;
+        }
+    }
+
+    public SendJob submit(SendRequest req) {
+        purgeExpired();
+
+        // resolve up front so a bad link is a 400 now rather than a failed job later
+        var resolved = sendService.resolver().resolve(req.url());
+
+        SendJob job = new SendJob(UUID.randomUUID().toString(), req);
+        if (shared != null) return submitShared(job, resolved.url());
+        job.expect(estimate(req, resolved.url()));
+        if (outbox != null) {
+            if (outbox.stats().pending() >= outboxProps.maxPending()) {
+                throw new JobQueueFullException("Send outbox is full (" + outboxProps.maxPending() + " jobs). Try again later.");
+            }
+            try {
+                outbox.accepted(toEntry(job, resolved.url()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not record the send job in the outbox.", e);
+            }
+        }
+
+        jobs.put(job.id(), job);
+        try {
+            executor.execute(task(job, () -> run(job)));
+        } catch (RejectedExecutionException e) {
+            if (outbox != null) {
+                // durable already: wait for a free slot instead of refusing
+                requeue(job, Duration.ofSeconds(1));
+                return job;
+            }
+            jobs.remove(job.id());
+            throw new JobQueueFullException("Send queue is full (" + props.queueCapacity() + " jobs). Try again later.");
+        }
+        return job;
+    }
+
+    public Optional<SendJob> find(String id) {
+        SendJob job = jobs.get(id);
+        // a job this node accepted but has not run (or has handed back) may be running elsewhere
+        if (shared == null || job != null && job.state() != SendJob.State.QUEUED) return Optional.ofNullable(job);
+        try {
+            return shared.status(id).map(SendJobService::fromStatus).or(() -> Optional.ofNullable(job));
+        } catch (IOException e) {
+            log.warn("Could not read the status of send job {} from the shared store", id, e);
+            return Optional.ofNullable(job);
+        }
+    }
+
+    public boolean isShared() {
+        return shared != null;
+    }
+
+    /**
+     * {@code POST /api/send} in cluster mode: queues the send in the shared store, where whichever node has a free
+     * worker runs it, and waits up to {@code send.timeout} for the outcome. Failures come back as {@code ok=false}
+     * with the job's message.
+     *
+     * <p>A job run on this node hands its outcome straight over. For one run elsewhere, only its result file is
+     * polled, at intervals that grow from {@code SHARED_POLL_MIN} to {@code SHARED_POLL_MAX}.
+     */
+    public SendResponse sendShared(SendRequest req) throws StageTimeoutException, InterruptedException {
+        CompletableFuture<SendJob> outcome = new CompletableFuture<>();
+        SendJob job = submit(req);
+        waiting.put(job.id(), outcome);
+        try {
+            long deadline = System.nanoTime() + sendTimeout.toNanos();
+            long pause = SHARED_POLL_MIN.toNanos();
+            SendJob done = null;
+            while (done == null) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    throw new StageTimeoutException("Send did not finish within " + sendTimeout.toSeconds() + "s; it continues as job " + job.id() + ".", "queue");
+                }
+                try {
+                    done = outcome.get(Math.min(pause, left), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException e) {
+                    // also catches a job that finished here before we started waiting
+                    done = finishedResult(job.id());
+                    pause = Math.min(pause * 2, SHARED_POLL_MAX.toNanos());
+                } catch (ExecutionException e) {
+                    // never completed exceptionally
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return done.result() != null ? done.result() : new SendResponse(false, req.url(), null, 0, done.error());
+        } finally {
+            waiting.remove(job.id());
+        }
+    }
+
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int activeWorkers() {
+        return executor.getActiveCount();
+    }
+
+    public SendQueue.Stats schedulerStats() {
+        return queue == null ? null : queue.stats();
+    }
+
+    public SendOutbox.Stats outboxStats() {
+        return outbox == null ? null : outbox.stats();
+    }
+
+    public SharedJobStore.Stats clusterStats() {
+        if (shared == null) return null;
+        try {
+            return shared.stats();
+        } catch (IOException e) {
+            log.warn("Could not read shared job store stats", e);
+            return null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retries.shutdownNow();
+        if (heartbeats != null) heartbeats.shutdownNow();
+        executor.shutdownNow();
+        if (shared != null) {
+            // interrupted workers hand their jobs back, so other nodes need not wait out the leases
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (outbox != null) {
+            try {
+                outbox.close();
+            } catch (IOException e) {
+                log.warn("Could not close send outbox", e);
+            }
+        }
+    }
+
+    private void run(SendJob job) {
+        job.markRunning();
+        if (outbox != null) {
+            try {
+                outbox.attempt(job.id(), job.attempts());
+            } catch (IOException e) {
+                log.warn("Could not record attempt {} of send job {}", job.attempts(), job.id(), e);
+            }
+        }
+        try (var ignored = SendEvents.correlate(job.id())) {
+            job.markDone(sendService.send(job.request(), job.timings()));
+        } catch (Exception e) {
+            String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            if (outbox != null && retryable(e) && job.attempts() < outboxProps.maxAttempts()) {
+                log.debug("Send job {} failed (attempt {}), retrying", job.id(), job.attempts(), e);
+                job.markRetrying(message);
+                requeue(job, outboxProps.retryBackoff().multipliedBy(job.attempts()));
+                return;
+            }
+            log.debug("Send job {} failed", job.id(), e);
+            job.markFailed(message);
+        }
+        retire(job);
+    }
+
+    private void retire(SendJob job) {
+        if (outbox == null) return;
+        try {
+            outbox.done(job.id());
+        } catch (IOException e) {
+            // the job may run again after a restart
+            log.warn("Could not record completion of send job {}", job.id(), e);
+        }
+    }
+
+    /** Hands the job to the executor after {@code delay}, retrying while the queue is full. */
+    private void requeue(SendJob job, Duration delay) {
+        try {
+            retries.schedule(() -> {
+                try {
+                    executor.execute(task(job, () -> run(job)));
+                } catch (RejectedExecutionException e) {
+                    if (!executor.isShutdown()) requeue(job, Duration.ofSeconds(1));
+                }
+            }, delay.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shutting down: the outbox replays the job on the next start
+        }
+    }
+
+    private void recover() {
+        try {
+            var pending = outbox.recover();
+            for (SendOutbox.Entry e : pending) {
+                SendJob job = new SendJob(e.id(), toRequest(e), e.submittedAt(), e.attempts());
+                // no probes for a replay: it would send a burst of HEADs at startup
+                job.expect(e.dryRun() ? 0 : SendToKindleService.maxBytes(job.request().limits()));
+                jobs.put(job.id(), job);
+                requeue(job, Duration.ZERO);
+            }
+            if (!pending.isEmpty()) log.info("Replaying {} unfinished send job(s) from the outbox", pending.size());
+        } catch (IOException e) {
+            log.warn("Could not replay the send outbox", e);
+        }
+    }
+
+    private SendJob submitShared(SendJob job, String resolvedUrl) {
+        SendRequest.SmtpConfig smtp = job.request().smtp();
+        String pinnedTo = smtp != null && smtp.password() != null && !smtp.password().isBlank() ? shared.node() : null;
+        // kept before the add, so a claim by this node finds the request and its password
+        jobs.put(job.id(), job);
+        try {
+            shared.add(toEntry(job, resolvedUrl), pinnedTo);
+        } catch (IOException e) {
+            jobs.remove(job.id());
+            throw new IllegalStateException("Could not record the send job in the shared job store.", e);
+        }
+        try {
+            // start it here right away if a worker is free, instead of at the next poll
+            retries.execute(this::claimDue);
+        } catch (RejectedExecutionException e) {
+            // shutting down: another node picks it up
+        }
+        return job;
+    }
+
+    /** Claims due jobs from the shared store while this node has idle workers. Runs on the retry thread only. */
+    private void claimDue() {
+        try {
+            if (System.currentTimeMillis() >= nextSweep) sweep();
+            if (idleWorkers() <= 0) return;
+            for (String id : shared.due()) {
+                if (idleWorkers() <= 0) return;
+                if (held.containsKey(id)) continue;
+                SharedJobStore.Lease lease = shared.tryClaim(id);
+                if (lease == null) continue;
+
+                SendOutbox.Entry e = lease.entry();
+                SendJob local = jobs.get(id);
+                SendJob job = new SendJob(id, local != null ? local.request() : toRequest(e), e.submittedAt(), e.attempts());
+                jobs.put(id, job);
+                held.put(id, new Held(lease));
+                try {
+                    executor.execute(task(job, () -> runShared(job, lease)));
+                } catch (RejectedExecutionException ex) {
+                    held.remove(id);
+                    shared.release(lease, e, Instant.now());
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not poll the shared job store", e);
+        } catch (RuntimeException e) {
+            // keep the poller scheduled
+            log.warn("Shared job poller failed", e);
+        }
+    }
+
+    /**
+     * The cost the scheduler orders {@code req} by. Only worth a HEAD request when the job will actually queue;
+     * otherwise a worker takes it right away and the size cap stands in, should it ever be requeued.
+     */
+    private long estimate(SendRequest req, String resolvedUrl) {
+        if (req.dryRun()) return 0;
+        if (queue != null && executor.getActiveCount() >= props.workers()) {
+            return sendService.expectedBytes(req, resolvedUrl, props.probeTimeout());
+        }
+        return SendToKindleService.maxBytes(req.limits());
+    }
+
+    /** Wraps a job's work with its lane and cost, and records how long it waits for a worker. */
+    private Runnable task(SendJob job, Runnable body) {
+        SendQueue.Lane lane = job.request().dryRun() ? SendQueue.Lane.DRY_RUN : SendQueue.Lane.SEND;
+        long enqueued = System.nanoTime();
+        return new SendQueue.Task(lane, Math.max(0, job.expectedBytes()), () -> {
+            long waited = System.nanoTime() - enqueued;
+            job.waited(waited);
+            sendService.metrics().recordQueueWait(lane == SendQueue.Lane.DRY_RUN ? "dry_run" : "send", waited);
+            body.run();
+        });
+    }
+
+    private int idleWorkers() {
+        return props.workers() - executor.getActiveCount() - executor.getQueue().size();
+    }
+
+    private void runShared(SendJob job, SharedJobStore.Lease lease) {
+        Held h = held.get(job.id());
+        job.markRunning();
+        SendOutbox.Entry entry = lease.entry().withAttempts(job.attempts());
+        try {
+            shared.update(lease, entry);
+        } catch (IOException e) {
+            log.warn("Could not record attempt {} of send job {}", job.attempts(), job.id(), e);
+        }
+        boolean lost;
+        Exception failure = null;
+        try {
+            if (lease.interruptedOn() != null) {
+                // the mail may have gone out before that node stopped; a failed job beats the same book twice
+                log.warn("Send job {} was being mailed on node {} when it stopped; not sending it again", job.id(), lease.interruptedOn());
+                job.markFailed("Node " + lease.interruptedOn() + " stopped while mailing this file, so it may have been delivered. It is not sent again.");
+            } else if (h.start()) {
+                try (var ignored = SendEvents.correlate(job.id())) {
+                    // a takeover the heartbeat has not noticed yet still stops the send before DATA
+                    job.markDone(sendService.send(job.request(), job.timings(), () -> {
+                        if (!shared.markSending(lease)) {
+                            h.lose();
+                            throw new IOException("Lost the lease on send job " + job.id() + " before mailing.");
+                        }
+                    }));
+                }
+            }
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            lost = h.end();
+            // the heartbeat stops renewing before the lease is released or completed below
+            held.remove(job.id());
+        }
+
+        try {
+            if (!job.isFinished()) {
+                if (lost || failure == null) {
+                    // the new holder owns the outcome; our local copy just says where it went
+                    log.warn("Lost the lease on send job {}; another node continues it", job.id());
+                    job.markRetrying("Handed over to another node.");
+                    return;
+                }
+                String message = failure.getMessage() == null ? failure.getClass().getSimpleName() : failure.getMessage();
+                if (executor.isShutdown()) {
+                    job.markRetrying("Engine shutting down; another node continues it.");
+                    shared.release(lease, entry, Instant.now());
+                    return;
+                }
+                if (retryable(failure) && job.attempts() < outboxProps.maxAttempts()) {
+                    log.debug("Send job {} failed (attempt {}), retrying", job.id(), job.attempts(), failure);
+                    job.markRetrying(message);
+                    shared.release(lease, entry, Instant.now().plus(outboxProps.retryBackoff().multipliedBy(job.attempts())));
+                    return;
+                }
+                log.debug("Send job {} failed", job.id(), failure);
+                job.markFailed(message);
+            } else if (lost) {
+                // mailed, but the lease lapsed meanwhile: record it, unless taken over, so the job is not sent yet again
+                log.warn("Send job {} finished after its lease was lost; another node may send it too", job.id());
+            }
+            if (!shared.complete(lease, toResult(job, entry))) {
+                log.warn("Send job {} was taken over before its outcome was recorded; the new holder records it", job.id());
+            } else {
+                CompletableFuture<SendJob> waiter = waiting.get(job.id());
+                if (waiter != null) waiter.complete(job);
+            }
+        } catch (IOException e) {
+            // the lease expires and another node runs the job again
+            log.warn("Could not record the outcome of send job {} in the shared store", job.id(), e);
+        }
+    }
+
+    /**
+     * Renews the leases of running jobs. A worker is stopped when its lease is lost, or when it cannot be renewed
+     * and less than a third of the TTL is left, well before another node may take the job over.
+     */
+    private void heartbeat() {
+        for (Held h : held.values()) {
+            boolean keep;
+            try {
+                keep = shared.renew(h.lease);
+            } catch (IOException | RuntimeException e) {
+                long left = h.lease.expiresAt() - System.currentTimeMillis();
+                keep = left > leaseMargin;
+                log.warn("Could not renew the lease on send job {} ({} ms left)", h.lease.id(), left, e);
+            }
+            if (!keep) h.lose();
+        }
+    }
+
+    /** Occasional clean-up of the shared store and of local copies of jobs other nodes ran. */
+    private void sweep() throws IOException {
+        nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL.toMillis();
+        Instant cutoff = Instant.now().minus(props.retention());
+        jobs.values().removeIf(j -> j.state() == SendJob.State.QUEUED && !held.containsKey(j.id()) && j.submittedAt().isBefore(cutoff));
+        shared.purge(cutoff);
+    }
+
+    private void purgeExpired() {
+        Instant cutoff = Instant.now().minus(props.retention());
+        jobs.values().removeIf(j -> j.isFinished() && j.finishedAt().isBefore(cutoff));
+    }
+
+    /**
+     * SMTP hiccups, network errors, timeouts and a full engine are worth another try; bad input, size caps and rejected
+     * recipients are not.
+     */
+    static boolean retryable(Throwable e) {
+        if (e instanceof SendFailedException) return false;
+        String cause = SendMetrics.cause(e);
+        return cause.equals("smtp") || cause.equals("io") || cause.equals("timeout") || cause.equals("overloaded");
+    }
+
+    private static SendOutbox.Entry toEntry(SendJob job, String resolvedUrl) {
+        SendRequest req = job.request();
+        SendRequest.SmtpConfig smtp = req.smtp();
+        return new SendOutbox.Entry(
+                job.id(),
+                job.submittedAt(),
+                req.url(),
+                resolvedUrl,
+                req.kindleEmail(),
+                req.dryRun(),
+                req.limits() == null ? 0 : req.limits().maxBytes(),
+                // the password stays in memory only
+                smtp == null ? null : new SendOutbox.SmtpProfile(smtp.host(), smtp.port(), smtp.user(), smtp.from(), smtp.useStartTLS(), smtp.useSSL()),
+                job.attempts()
+        );
+    }
+
+    private static SendRequest toRequest(SendOutbox.Entry e) {
+        SendOutbox.SmtpProfile p = e.smtp();
+        return new SendRequest(
+                e.url(),
+                e.kindleEmail(),
+                e.dryRun(),
+                p == null ? null : new SendRequest.SmtpConfig(p.host(), p.port(), p.user(), p.from(), p.useStartTLS(), p.useSSL(), null),
+                e.maxBytes() > 0 ? new SendRequest.Limits(e.maxBytes()) : null
+        );
+    }
+
+    private SharedJobStore.Result toResult(SendJob job, SendOutbox.Entry entry) {
+        SendResponse r = job.result();
+        return new SharedJobStore.Result(
+                job.id(),
+                job.state() == SendJob.State.SUCCEEDED,
+                job.error() != null ? job.error() : (r == null ? null : r.message()),
+                r == null ? entry.resolvedUrl() : r.resolvedUrl(),
+                r == null ? null : r.fileName(),
+                r == null ? 0 : r.bytes(),
+                job.submittedAt(),
+                job.startedAt(),
+                job.finishedAt(),
+                job.attempts(),
+                shared.node()
+        );
+    }
+
+    /** The job as recorded in its result file, or null while it has not finished. */
+    private SendJob finishedResult(String id) {
+        try {
+            return shared.result(id).map(SendJobService::fromResult).orElse(null);
+        } catch (IOException e) {
+            log.warn("Could not read the result of send job {} from the shared store", id, e);
+            return null;
+        }
+    }
+
+    private static SendJob fromStatus(SharedJobStore.Status s) {
+        if (s.result() != null) return fromResult(s.result());
+        SendOutbox.Entry e = s.entry();
+        return SendJob.snapshot(e.id(), e.submittedAt(), e.attempts(), s.runningOn() != null ? SendJob.State.RUNNING : SendJob.State.QUEUED,
+                null, null, null, null);
+    }
+
+    private static SendJob fromResult(SharedJobStore.Result r) {
+        return SendJob.snapshot(r.id(), r.submittedAt(), r.attempts(), r.ok() ? SendJob.State.SUCCEEDED : SendJob.State.FAILED,
+                r.startedAt(), r.finishedAt(), new SendResponse(r.ok(), r.resolvedUrl(), r.fileName(), r.bytes(), r.message()),
+                r.ok() ? null : r.message());
+    }
+
+    private static SharedJobStore openShared(KindleDropProperties.Cluster props) {
+        if (!props.enabled()) return null;
+        if (props.dir().isBlank()) {
+            throw new IllegalStateException("kindledrop.cluster.enabled needs kindledrop.cluster.dir, a directory every node shares.");
+        }
+        String node = props.nodeId().isBlank() ? defaultNodeId() : props.nodeId();
+        try {
+            // unlike the outbox, no fallback: a node that cannot see the shared jobs must not pretend to be part of the cluster
+            return new SharedJobStore(Path.of(props.dir()), node, props.leaseTtl());
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open the shared job store in " + props.dir(), e);
+        }
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "node";
+        }
+        return host + "-" + ProcessHandle.current().pid();
+    }
+
+    private static SendOutbox openOutbox(KindleDropProperties.Outbox props) {
+        if (!props.enabled()) return null;
+        Path dir = props.dir().isBlank()
+                ? Path.of(System.getProperty("java.io.tmpdir"), "kindledrop-outbox")
+                : Path.of(props.dir());
+        try {
+            return new SendOutbox(dir, props.segmentSize().toBytes());
+        } catch (Exception e) {
+            // run without durability rather than refuse to start
+            log.warn("Send outbox disabled: could not open {}", dir, e);
+            return null;
+        }
+    }
+
+    /** A claimed job and the worker running it; the heartbeat interrupts the worker when the lease is lost. */
+    private static final class Held {
+
+        final SharedJobStore.Lease lease;
+        private Thread worker;
+        private boolean lost;
+
+        Held(SharedJobStore.Lease lease) {
+            this.lease = lease;
+        }
+
+        /** Binds the calling worker; false if the lease was lost before it started. */
+        synchronized boolean start() {
+            worker = Thread.currentThread();
+            return !lost;
+        }
+
+        /** Unbinds the worker and clears a pending interrupt; returns whether the lease was lost. */
+        synchronized boolean end() {
+            worker = null;
+            Thread.interrupted();
+            return lost;
+        }
+
+        synchronized void lose() {
+            lost = true;
+            if (worker != null) worker.interrupt();
+        }
+    }
+
+    public static class JobQueueFullException extends RuntimeException {
+        public JobQueueFullException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package io.kindledrop.engine.service;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Work queue for the job executor that hands out the cheapest send first instead of the oldest. A send's cost is
+ * its expected download size. It waits as if it had been queued {@code cost / ageingRate} seconds later than it
+ * was, so a 30 MB file no longer holds up the small files queued behind it. Every send is still bounded: with an
+ * ageing rate of 1 MB/s, a 30 MB send is passed by at most 30 s worth of later arrivals. The order is fixed at
+ * enqueue time, so both offer and take are O(log n).
+ *
+ * <p>Dry runs only resolve the link and never download. They have their own lane, which is always served first.
+ * Both lanes share the capacity, and a full queue rejects like {@link java.util.concurrent.ArrayBlockingQueue}.
+ * Runnables that are not {@link Task}s go to the send lane at zero cost.
+ */
+public final class SendQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    public enum Lane { DRY_RUN, SEND }
+
+    /** A unit of work with its lane and expected cost in bytes. */
+    public record Task(Lane lane, long cost, Runnable body) implements Runnable {
+        @Override
+        public void run() {
+            body.run();
+        }
+    }
+
+    public record Stats(int dryRuns, int sends, long largestQueuedCost) {}
+
+    private record Entry(long key, long seq, Runnable task) {}
+
+    private static final Comparator<Entry> ORDER = Comparator.comparingLong(Entry::key).thenComparingLong(Entry::seq);
+
+    private final int capacity;
+    private final double nanosPerByte;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Runnable> dryRuns = new ArrayDeque<>();
+    private final PriorityQueue<Entry> sends = new PriorityQueue<>(ORDER);
+    private long seq;
+
+    /** {@code ageingRate}: bytes of expected size that weigh as much as one second of waiting. */
+    public SendQueue(int capacity, long ageingRate) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+        if (ageingRate <= 0) throw new IllegalArgumentException("ageingRate must be positive");
+        this.capacity = capacity;
+        this.nanosPerByte = 1e9 / ageingRate;
+    }
+
+    @Override
+    public boolean offer(Runnable r) {
+        if (r == null) throw new NullPointerException();
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            if (size() >= capacity) return false;
+            if (r instanceof Task t && t.lane() == Lane.DRY_RUN) {
+                dryRuns.add(r);
+            } else {
+                long cost = r instanceof Task t ? Math.max(0, t.cost()) : 0;
+                // saturates instead of wrapping for absurd sizes
+                long key = now + (long) Math.min(cost * nanosPerByte, Long.MAX_VALUE / 4);
+                sends.add(new Entry(key, seq++, r));
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable r, long timeout, TimeUnit unit) {
+        // never blocks: the executor only calls offer(r), and a full job queue is reported to the caller at once
+        return offer(r);
+    }
+
+    @Override
+    public void put(Runnable r) {
+        if (!offer(r)) throw new IllegalStateException("Queue full");
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Runnable r;
+            while ((r = dequeue()) == null) notEmpty.await();
+            return r;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Runnable r;
+            while ((r = dequeue()) == null) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return r;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            if (!dryRuns.isEmpty()) return dryRuns.peek();
+            Entry e = sends.peek();
+            return e == null ? null : e.task();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return dryRuns.size() + sends.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        lock.lock();
+        try {
+            return dryRuns.remove(o) || sends.removeIf(e -> e.task().equals(o));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> c, int maxElements) {
+        if (c == this) throw new IllegalArgumentException();
+        lock.lock();
+        try {
+            int n = 0;
+            Runnable r;
+            while (n < maxElements && (r = dequeue()) != null) {
+                c.add(r);
+                n++;
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** A snapshot in the order the tasks would run. */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> all = new ArrayList<>(dryRuns);
+            sends.stream().sorted(ORDER).forEach(e -> all.add(e.task()));
+            return all.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        lock.lock();
+        try {
+            long largest = 0;
+            for (Entry e : sends) {
+                if (e.task() instanceof Task t) largest = Math.max(largest, t.cost());
+            }
+            return new Stats(dryRuns.size(), sends.size(), largest);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Runnable dequeue() {
+        Runnable r = dryRuns.poll();
+        if (r != null) return r;
+        Entry e = sends.poll();
+        return e == null ? null : e.task();
+    }
+}
@@ -0,0 +1,136 @@
+package io.kindledrop.engine.service;
+
+import io.kindledrop.engine.metrics.SendEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Deadlines and cancellation for the stages of one send. Each stage runs in its own virtual thread; the caller
+ * waits for it until the stage timeout or the send's overall deadline, whichever comes first. On timeout, or if
+ * the caller is interrupted, the stage thread is interrupted and joined before the caller moves on, so a stage
+ * does not outlive its send. Interrupting a virtual thread also aborts blocking socket I/O (the HTTP download, the
+ * SMTP DATA phase), which is what makes the cancellation stick.
+ *
+ * <p>The join is bounded by a grace period. A stage stuck in something the interrupt cannot reach is logged and
+ * left to finish on its own, so the caller is never held past its deadline plus the grace; a result it still
+ * produces goes to the discard callback when it does.
+ *
+ * <p>This is the shape of {@code StructuredTaskScope.ShutdownOnFailure} with one subtask per scope; the JDK class
+ * is still a preview API in Java 21.
+ */
+public final class SendScope {
+
+    private static final Logger log = LoggerFactory.getLogger(SendScope.class);
+
+    public static final Duration DEFAULT_GRACE = Duration.ofSeconds(5);
+
+    private final long deadline;
+    private final Duration grace;
+
+    /** @param timeout for the whole send; zero or null means no overall deadline */
+    public SendScope(Duration timeout) {
+        this(timeout, DEFAULT_GRACE);
+    }
+
+    /** @param grace how long an interrupted stage is waited for before it is detached */
+    public SendScope(Duration timeout, Duration grace) {
+        this.deadline = isSet(timeout) ? System.nanoTime() + timeout.toNanos() : Long.MAX_VALUE;
+        this.grace = grace;
+    }
+
+    public static SendScope unbounded() {
+        return new SendScope(null);
+    }
+
+    public <T> T run(String stage, Duration timeout, Callable<T> task) throws Exception {
+        return run(stage, timeout, task, null);
+    }
+
+    /**
+     * Runs {@code task} as stage {@code stage} and returns its result.
+     *
+     * @param timeout for this stage; zero or null means only the overall deadline applies
+     * @param discard receives a result that was produced after the stage had already been abandoned, so it
+     *                can be released (e.g. a download that completed just as the timeout fired); may be null
+     * @throws StageTimeoutException if the stage or the send ran out of time
+     */
+    public <T> T run(String stage, Duration timeout, Callable<T> task, Consumer<? super T> discard) throws Exception {
+        long now = System.nanoTime();
+        long until = isSet(timeout) ? Math.min(deadline, now + timeout.toNanos()) : deadline;
+        if (until - now <= 0) throw timedOut(stage);
+
+        FutureTask<T> future = new FutureTask<>(SendEvents.carry(task));
+        Thread thread = Thread.ofVirtual().name("send-" + stage).start(future);
+        try {
+            return until == Long.MAX_VALUE ? future.get() : future.get(until - now, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) throw cause;
+            if (e.getCause() instanceof Error error) throw error;
+            throw e;
+        } catch (TimeoutException e) {
+            abandon(stage, future, thread, discard);
+            throw timedOut(stage);
+        } catch (InterruptedException e) {
+            abandon(stage, future, thread, discard);
+            throw e;
+        }
+    }
+
+    private <T> void abandon(String stage, FutureTask<T> future, Thread thread, Consumer<? super T> discard) {
+        thread.interrupt();
+        boolean interrupted = false;
+        long until = System.nanoTime() + grace.toNanos();
+        while (thread.isAlive()) {
+            long left = until - System.nanoTime();
+            if (left <= 0) break;
+            try {
+                TimeUnit.NANOSECONDS.timedJoin(thread, left);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (thread.isAlive()) {
+            log.warn("Send stage {} ignored its interrupt for {}ms; detaching it", stage, grace.toMillis());
+            if (discard != null) {
+                Thread.ofVirtual().name("send-" + stage + "-detached").start(() -> {
+                    awaitUninterruptibly(thread);
+                    discardResult(future, discard);
+                });
+            }
+            return;
+        }
+        discardResult(future, discard);
+    }
+
+    private static <T> void discardResult(FutureTask<T> future, Consumer<? super T> discard) {
+        if (discard != null && future.state() == Future.State.SUCCESS) discard.accept(future.resultNow());
+    }
+
+    private static void awaitUninterruptibly(Thread thread) {
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                // nobody waits on this thread; keep going until the stage lets go of its result
+            }
+        }
+    }
+
+    private static StageTimeoutException timedOut(String stage) {
+        return new StageTimeoutException("Send timed out during " + stage + ".", stage);
+    }
+
+    private static boolean isSet(Duration d) {
+        return d != null && d.isPositive();
+    }
+}
@@ -2,37 +2,517 @@ package io.kindledrop.engine.service;
 
 import io.kindledrop.engine.api.SendRequest;
 import io.kindledrop.engine.api.SendResponse;
+import io.kindledrop.engine.config.KindleDropProperties;
+import io.kindledrop.engine.download.AdmissionControl;
+import io.kindledrop.engine.download.BufferPool;
+import io.kindledrop.engine.download.ContentValidator;
+import io.kindledrop.engine.download.DownloadCache;
+import io.kindledrop.engine.download.DownloadCoalescer;
+import io.kindledrop.engine.download.DownloadResult;
+import io.kindledrop.engine.download.EpubRepacker;
+import io.kindledrop.engine.download.HostRateLimiter;
+import io.kindledrop.engine.download.MagicByteValidator;
+import io.kindledrop.engine.download.OverloadedException;
+import io.kindledrop.engine.download.RangeOptions;
 import io.kindledrop.engine.download.SecureDownloader;
+import io.kindledrop.engine.download.Stager;
+import io.kindledrop.engine.download.StreamingDownload;
 import io.kindledrop.engine.mail.KindleMailSender;
+import io.kindledrop.engine.mail.SmtpTransportPool;
+import io.kindledrop.engine.metrics.SendEvents;
+import io.kindledrop.engine.metrics.SendMetrics;
 import io.kindledrop.engine.resolve.GitHubLinkResolver;
+import io.kindledrop.engine.resolve.LinkCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.net.URI;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @Service
 public class SendToKindleService {
 
-    private final GitHubLinkResolver resolver = new GitHubLinkResolver();
-    private final SecureDownloader downloader = new SecureDownloader();
-    private final KindleMailSender mailer = new KindleMailSender();
+    private static final Logger log = LoggerFactory.getLogger(SendToKindleService.class);
+
+    private final GitHubLinkResolver resolver;
+    private final SecureDownloader downloader;
+    private final EpubRepacker repacker;
+    private final KindleMailSender mailer;
+    private final AdmissionControl admission;
+    private final KindleDropProperties.Streaming streaming;
+    private final KindleDropProperties.Send limits;
+    private final ExecutorService mailPool;
+    private final SendMetrics metrics;
+
+    public SendToKindleService(KindleDropProperties props, MeterRegistry registry) {
+        this.streaming = props.streaming();
+        this.limits = props.send();
+        this.metrics = new SendMetrics(registry);
+        var download = props.download();
+        this.resolver = new GitHubLinkResolver(GitHubLinkResolver.DEFAULT_CACHE_SIZE, download.extraOrigins());
+        Stager stager = stager(props.staging());
+        this.downloader = new SecureDownloader(
+                openCache(props.cache()),
+                new RangeOptions(download.rangeParts(), download.rangeMinSize().toBytes(), download.rangeMaxAttempts()),
+                new HostRateLimiter(rateLimitOptions(props.rateLimit())),
+                metrics,
+                stager,
+                download.extraOrigins(),
+                download.validateContent() ? new MagicByteValidator() : ContentValidator.NONE
+        );
+        var repack = props.repack();
+        // copies are staged like downloads: small ones in pooled memory, the rest in a temp file
+        this.repacker = repack.enabled() ? new EpubRepacker(stager, repack.level(), repack.minSavings()) : null;
+        var pool = props.smtpPool();
+        this.mailer = new KindleMailSender(new SmtpTransportPool(
+                pool.maxPerKey(),
+                pool.maxKeys(),
+                pool.idleTimeout(),
+                pool.validateAfterIdle(),
+                pool.borrowTimeout()
+        ), metrics);
+        this.admission = admissionControl(props.admission());
+        this.mailPool = Executors.newFixedThreadPool(props.nonBlocking().mailThreads(),
+                Thread.ofPlatform().name("send-mail-", 0).daemon().factory());
+
+        metrics.watch("kindledrop.admission.utilization", "resource", "bytes", admission, a -> (double) a.stats().bytes() / a.stats().maxBytes());
+        metrics.watch("kindledrop.admission.utilization", "resource", "sends", admission, a -> (double) a.stats().sends() / a.stats().maxSends());
+        metrics.watchCount("kindledrop.admission.rejected", admission, a -> a.stats().rejected());
+        metrics.watchCount("kindledrop.smtp.pool.hits", mailer, m -> m.poolStats().hits());
+        metrics.watchCount("kindledrop.smtp.pool.misses", mailer, m -> m.poolStats().misses());
+        metrics.watchCount("kindledrop.download.coalesced", downloader, d -> d.coalescerStats().coalesced());
+        metrics.watchCount("kindledrop.staging.memory", downloader, d -> d.stagingStats().inMemory());
+        metrics.watchCount("kindledrop.staging.disk", downloader, d -> d.stagingStats().onDisk());
+        if (repacker != null) {
+            metrics.watchCount("kindledrop.repack.bytes.saved", repacker, r -> r.stats().bytesSaved());
+        }
+        if (downloader.cacheStats() != null) {
+            metrics.watchCount("kindledrop.cache.hits", downloader, d -> d.cacheStats().hits());
+            metrics.watchCount("kindledrop.cache.misses", downloader, d -> d.cacheStats().misses());
+            metrics.watchCount("kindledrop.cache.bytes.saved", downloader, d -> d.cacheStats().bytesSaved());
+        }
+    }
+
+    GitHubLinkResolver resolver() {
+        return resolver;
+    }
+
+    SendMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Expected download size of {@code req}, for scheduling: the {@code Content-Length} of a HEAD request, or the
+     * size cap if there is none. A file over the cap fails on its first response, so it counts as cheap.
+     */
+    long expectedBytes(SendRequest req, String resolvedUrl, Duration timeout) {
+        if (req.dryRun()) return 0;
+        long cap = maxBytes(req.limits());
+        try {
+            // completes within the timeout, with -1 on any miss
+            long declared = downloader.probeSize(URI.create(resolvedUrl), timeout).join();
+            if (declared > cap) return 0;
+            if (declared >= 0) return declared;
+        } catch (RuntimeException e) {
+            log.debug("Could not probe the size of {}", resolvedUrl, e);
+        }
+        return cap;
+    }
+
+    SecureDownloader downloader() {
+        return downloader;
+    }
+
+    KindleMailSender mailer() {
+        return mailer;
+    }
+
+    AdmissionControl admission() {
+        return admission;
+    }
+
+    public AdmissionControl.Stats admissionStats() {
+        return admission.stats();
+    }
+
+    public DownloadCache.Stats downloadCacheStats() {
+        return downloader.cacheStats();
+    }
+
+    public DownloadCoalescer.Stats coalescerStats() {
+        return downloader.coalescerStats();
+    }
+
+    public Stager.Stats stagingStats() {
+        return downloader.stagingStats();
+    }
+
+    public Map<String, HostRateLimiter.HostStats> rateLimiterStats() {
+        return downloader.rateLimiterStats();
+    }
+
+    public LinkCache.Stats resolverCacheStats() {
+        return resolver.cacheStats();
+    }
+
+    public SmtpTransportPool.Stats smtpPoolStats() {
+        return mailer.poolStats();
+    }
+
+    /**
+     * Runs the resolver, both HTTP clients and MIME assembly once, so the first real send does not pay for class
+     * loading and first-call setup. Contacts no host but {@code self} (the engine's own URL, or null) and mails
+     * nothing; the resolver cache and SMTP pool are left untouched.
+     */
+    public void warmUp(URI self) throws Exception {
+        GitHubLinkResolver scratch = new GitHubLinkResolver(0);
+        for (String link : WARM_UP_LINKS) scratch.resolve(link);
+        scratch.resolveTree("https://github.com/kindledrop/warmup/tree/main/books");
+        if (self != null) downloader.warmUp(self);
+        mailer.warmUp();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        mailPool.shutdownNow();
+        mailer.close();
+    }
 
     public SendResponse send(SendRequest req) throws Exception {
+        return send(req, new StageTimings());
+    }
+
+    public SendResponse send(SendRequest req, StageTimings timings) throws Exception {
+        return send(req, timings, MailGate.OPEN);
+    }
+
+    /** Like {@link #send(SendRequest, StageTimings)}, asking {@code gate} right before anything is mailed. */
+    public SendResponse send(SendRequest req, StageTimings timings, MailGate gate) throws Exception {
+        Timer.Sample sample = metrics.start();
+        String outcome = "failure";
+        try (var ignored = metrics.track("send")) {
+            SendResponse response = doSend(req, timings, new SendScope(limits.timeout()), gate);
+            outcome = req.dryRun() ? "dry_run" : (response.ok() ? "success" : "rejected");
+            return response;
+        } catch (Exception e) {
+            metrics.failure(e);
+            throw e;
+        } finally {
+            metrics.stop(sample, "kindledrop.send", "outcome", outcome, "mode", streaming.enabled() ? "streaming" : "file");
+        }
+    }
+
+    /**
+     * Like {@link #send(SendRequest)}, without a thread per send: the download runs on HTTP client callbacks and
+     * only the SMTP upload takes a thread, from a small fixed pool. A bad link and a full engine fail right away;
+     * everything else completes the returned future, and the admission ticket is always given back.
+     */
+    public CompletableFuture<SendResponse> sendNonBlocking(SendRequest req) throws IOException {
         var resolved = resolver.resolve(req.url());
+        long maxBytes = maxBytes(req.limits());
 
-        long maxBytes = 30L * 1024 * 1024; // default 30MB
-        if (req.limits() != null && req.limits().maxBytes() > 0) {
-            maxBytes = req.limits().maxBytes();
+        if (req.dryRun()) {
+            return CompletableFuture.completedFuture(new SendResponse(true, resolved.url(), resolved.fileName(), 0, "Dry run: resolved + validated."));
         }
 
+        var smtp = resolveSmtp(req.smtp());
+        if (smtp == null) {
+            return CompletableFuture.completedFuture(new SendResponse(false, resolved.url(), resolved.fileName(), 0, MISSING_SMTP_MESSAGE));
+        }
+
+        Timer.Sample sample = metrics.start();
+        AdmissionControl.Ticket ticket = admission.admit();
+        SendMetrics.InFlight tracked = metrics.track("send");
+        long t0 = System.nanoTime();
+        String correlationId = SendEvents.correlationId();
+        CompletableFuture<SendResponse> response = new CompletableFuture<>();
+
+        CompletableFuture<DownloadResult> download;
+        try {
+            download = downloader.downloadAsync(URI.create(resolved.url()), resolved.fileName(), maxBytes, ticket, limits.downloadTimeout());
+        } catch (RuntimeException e) {
+            // the host or extension was refused before any request; nothing else will close the ticket
+            ticket.close();
+            tracked.close();
+            metrics.failure(e);
+            metrics.stop(sample, "kindledrop.send", "outcome", "failure", "mode", "non_blocking");
+            return CompletableFuture.failedFuture(e);
+        }
+
+        download
+                .thenApply(result -> {
+                    metrics.recordStage("download", System.nanoTime() - t0);
+                    return result;
+                })
+                .thenApplyAsync(result -> {
+                    // the releases stay inside the scope, so their Cleanup events carry the id too
+                    try (var ignored = SendEvents.correlate(correlationId)) {
+                        EpubRepacker.Repacked repacked = null;
+                        long t1;
+                        try {
+                            repacked = repack(result, new StageTimings());
+                            t1 = System.nanoTime();
+                            mailer.sendWithAttachment(
+                                    smtp,
+                                    req.kindleEmail(),
+                                    "KindleDrop: " + result.fileName(),
+                                    "Sent by KindleDrop.\n\nSource: " + req.url() + "\nResolved: " + resolved.url(),
+                                    repacked != null ? repacked.content().dataSource(result.fileName()) : result.dataSource(),
+                                    result.fileName()
+                            );
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        } finally {
+                            if (repacked != null) repacked.content().release();
+                            result.content().release();
+                        }
+                        metrics.recordStage("mail", System.nanoTime() - t1);
+                        metrics.bytesMailed(repacked != null ? repacked.bytes() : result.bytes());
+                        return new SendResponse(true, resolved.url(), result.fileName(), result.bytes(), "Sent to Kindle.",
+                                repacked != null ? repacked.saved() : 0);
+                    }
+                }, mailPool)
+                .whenComplete((ok, e) -> {
+                    ticket.close();
+                    tracked.close();
+                    if (e == null) {
+                        metrics.stop(sample, "kindledrop.send", "outcome", "success", "mode", "non_blocking");
+                        response.complete(ok);
+                        return;
+                    }
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    metrics.failure(cause);
+                    metrics.stop(sample, "kindledrop.send", "outcome", "failure", "mode", "non_blocking");
+                    response.completeExceptionally(cause);
+                });
+        return response;
+    }
+
+    private SendResponse doSend(SendRequest req, StageTimings timings, SendScope scope, MailGate gate) throws Exception {
+        long t0 = System.nanoTime();
+        // CPU only (and memoized), so it runs inline; the blocking stages below run in the scope
+        var resolved = resolver.resolve(req.url());
+        stage(timings, "resolve", t0);
+
+        long maxBytes = maxBytes(req.limits());
+
         if (req.dryRun()) {
             return new SendResponse(true, resolved.url(), resolved.fileName(), 0, "Dry run: resolved + validated.");
         }
 
-        // determine SMTP config: prefer request-level config, otherwise fall back to environment / .env
-        var smtpConfig = req.smtp();
+        var smtp = resolveSmtp(req.smtp());
+        if (smtp == null) {
+            return new SendResponse(false, resolved.url(), resolved.fileName(), 0, MISSING_SMTP_MESSAGE);
+        }
 
+        // fail fast when the engine is full instead of slowing every send down
+        try (var ticket = admission.admit()) {
+            if (streaming.enabled()) {
+                return sendStreaming(req, resolved, smtp, maxBytes, ticket, timings, scope, gate);
+            }
+            return sendFile(req, resolved, smtp, maxBytes, ticket, timings, scope, gate);
+        }
+    }
+
+    private SendResponse sendFile(SendRequest req, GitHubLinkResolver.ResolvedLink resolved, KindleMailSender.Smtp smtp,
+                                  long maxBytes, AdmissionControl.Ticket ticket, StageTimings timings, SendScope scope,
+                                  MailGate gate) throws Exception {
+        long t0 = System.nanoTime();
+        DownloadCoalescer.SharedDownload download;
+        try (var ignored = metrics.track("download")) {
+            // identical concurrent sends share one download; the file lives until the last of them closes it
+            download = scope.run("download", limits.downloadTimeout(),
+                    () -> downloader.acquire(URI.create(resolved.url()), resolved.fileName(), maxBytes, ticket),
+                    DownloadCoalescer.SharedDownload::close);
+        }
+        stage(timings, "download", t0);
+
+        try (download) {
+            String body = "Sent by KindleDrop.\n\nSource: " + req.url() + "\nResolved: " + resolved.url();
+            return mail(req, smtp, resolved.url(), download.result(), body, timings, scope, gate);
+        }
+    }
+
+    /**
+     * The mail stage of {@link #send(SendRequest)} for a file the caller has already downloaded; folder sends run
+     * their own download stage and hand each file here. Repacks an EPUB, mails within {@code send.mail-timeout} and
+     * records the stage like a single send does. {@code result} stays the caller's to release.
+     */
+    SendResponse mailDownloaded(SendRequest req, KindleMailSender.Smtp smtp, String resolvedUrl, DownloadResult result,
+                                String body) throws Exception {
+        try {
+            return mail(req, smtp, resolvedUrl, result, body, new StageTimings(), new SendScope(limits.timeout()), MailGate.OPEN);
+        } catch (Exception e) {
+            metrics.failure(e);
+            throw e;
+        }
+    }
+
+    private SendResponse mail(SendRequest req, KindleMailSender.Smtp smtp, String resolvedUrl, DownloadResult result,
+                              String body, StageTimings timings, SendScope scope, MailGate gate) throws Exception {
+        // the download may be shared with identical sends, so the repacked copy is this send's own
+        EpubRepacker.Repacked repacked = repack(result, timings);
+        try {
+            var attachment = repacked != null ? repacked.content().dataSource(result.fileName()) : result.dataSource();
+            gate.check();
+            long t0 = System.nanoTime();
+            scope.run("mail", limits.mailTimeout(), () -> {
+                mailer.sendWithAttachment(
+                        smtp,
+                        req.kindleEmail(),
+                        "KindleDrop: " + result.fileName(),
+                        body,
+                        attachment,
+                        result.fileName()
+                );
+                return null;
+            });
+            stage(timings, "mail", t0);
+            metrics.bytesMailed(repacked != null ? repacked.bytes() : result.bytes());
+
+            return new SendResponse(true, resolvedUrl, result.fileName(), result.bytes(), "Sent to Kindle.",
+                    repacked != null ? repacked.saved() : 0);
+        } finally {
+            if (repacked != null) repacked.content().release();
+        }
+    }
+
+    /**
+     * Download and SMTP upload overlap: the attachment is base64-encoded straight from the download buffer,
+     * so nothing is written to disk and the send finishes shortly after the last byte arrives.
+     */
+    private SendResponse sendStreaming(SendRequest req, GitHubLinkResolver.ResolvedLink resolved, KindleMailSender.Smtp smtp,
+                                       long maxBytes, AdmissionControl.Ticket ticket, StageTimings timings, SendScope scope,
+                                       MailGate gate) throws Exception {
+        long t0 = System.nanoTime();
+        try (var download = scope.run("connect", limits.downloadTimeout(),
+                () -> downloader.openStream(URI.create(resolved.url()), resolved.fileName(), maxBytes, (int) streaming.bufferSize().toBytes(), ticket),
+                StreamingDownload::close)) {
+            stage(timings, "connect", t0);
+
+            String subject = "KindleDrop: " + download.fileName();
+            String body = "Sent by KindleDrop.\n\nSource: " + req.url() + "\nResolved: " + resolved.url();
+
+            gate.check();
+            t0 = System.nanoTime();
+            scope.run("transfer", limits.mailTimeout(), () -> {
+                mailer.sendStreaming(
+                        smtp,
+                        req.kindleEmail(),
+                        subject,
+                        body,
+                        download.fileName(),
+                        download.contentType(),
+                        download.stream()
+                );
+                return null;
+            });
+            stage(timings, "transfer", t0);
+            metrics.bytesDownloaded(download.bytes());
+            metrics.bytesMailed(download.bytes());
+
+            return new SendResponse(true, resolved.url(), download.fileName(), download.bytes(), "Sent to Kindle.");
+        } catch (Exception e) {
+            // a refused budget charge reaches us wrapped by JavaMail; report it as overload, not as an SMTP error
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof OverloadedException overloaded) throw overloaded;
+            }
+            throw e;
+        }
+    }
+
+    /** Repacks an EPUB download; null, to send the download as is, when repacking is off, does not pay or fails. */
+    private EpubRepacker.Repacked repack(DownloadResult result, StageTimings timings) {
+        if (repacker == null || !EpubRepacker.applies(result.fileName())) return null;
+        long t0 = System.nanoTime();
+        try {
+            return repacker.repack(result.content(), result.fileName());
+        } catch (IOException e) {
+            log.debug("Could not repack {}; sending it as downloaded", result.fileName(), e);
+            return null;
+        } finally {
+            stage(timings, "repack", t0);
+        }
+    }
+
+    private void stage(StageTimings timings, String stage, long startNanos) {
+        timings.record(stage, startNanos);
+        metrics.recordStage(stage, System.nanoTime() - startNanos);
+    }
+
+    private static Stager stager(KindleDropProperties.Staging props) {
+        if (!props.enabled()) return Stager.diskOnly();
+        return new Stager(new BufferPool((int) props.slabSize().toBytes(), props.poolSize().toBytes()), props.memoryThreshold().toBytes());
+    }
+
+    private static AdmissionControl admissionControl(KindleDropProperties.Admission props) {
+        if (!props.enabled()) return AdmissionControl.unlimited();
+        return new AdmissionControl(
+                props.maxInFlightBytes().toBytes(),
+                props.maxInFlightSends(),
+                props.initialEstimate().toBytes(),
+                props.retryAfter()
+        );
+    }
+
+    private static HostRateLimiter.Options rateLimitOptions(KindleDropProperties.RateLimit props) {
+        return new HostRateLimiter.Options(
+                props.initialLimit(),
+                props.minLimit(),
+                props.maxLimit(),
+                props.maxWait(),
+                props.maxQueue(),
+                props.maxAttempts(),
+                props.maxRetryAfter()
+        );
+    }
+
+    private static DownloadCache openCache(KindleDropProperties.Cache props) {
+        if (!props.enabled()) return null;
+        Path dir = props.dir().isBlank()
+                ? Path.of(System.getProperty("java.io.tmpdir"), "kindledrop-cache")
+                : Path.of(props.dir());
+        try {
+            return new DownloadCache(dir, props.maxSize().toBytes());
+        } catch (Exception e) {
+            // run uncached rather than refuse to start
+            log.warn("Download cache disabled: could not open {}", dir, e);
+            return null;
+        }
+    }
+
+    private static final String[] WARM_UP_LINKS = {
+            "https://github.com/kindledrop/warmup/blob/main/books/Warm%20Up.pdf",
+            "https://raw.githubusercontent.com/kindledrop/warmup/main/books/warmup.epub",
+    };
+
+    static final String MISSING_SMTP_MESSAGE =
+            "Missing SMTP config. Provide SMTP via request or set KINDLEDROP_SMTP_HOST, KINDLEDROP_SMTP_USER, KINDLEDROP_SMTP_FROM and KINDLEDROP_SMTP_PASS environment variables (or a local .env).";
+
+    static long maxBytes(SendRequest.Limits limits) {
+        long maxBytes = 30L * 1024 * 1024; // default 30MB
+        if (limits != null && limits.maxBytes() > 0) {
+            maxBytes = limits.maxBytes();
+        }
+        return maxBytes;
+    }
+
+    /**
+     * Determines SMTP config: prefers request-level config, otherwise falls back to environment / .env.
+     * Returns null when a required field is missing.
+     */
+    static KindleMailSender.Smtp resolveSmtp(SendRequest.SmtpConfig smtpConfig) {
         String host = null;
         int port = 587;
         String user = null;
@@ -51,85 +531,46 @@ public class SendToKindleService {
             password = smtpConfig.password();
         }
 
-        // env/system fallback helpers
-        final class Helpers {
-            String envOrProp(String key, String current) {
-                if (current != null && !current.isBlank()) return current;
-                String v = System.getenv(key);
-                if (v != null && !v.isBlank()) return v;
-                v = System.getProperty(key);
-                return (v == null || v.isBlank()) ? null : v;
-            }
-        }
-        var helpers = new Helpers();
-
         // read from environment or .env-loaded system properties
-        host = helpers.envOrProp("KINDLEDROP_SMTP_HOST", host);
-        String portStr = helpers.envOrProp("KINDLEDROP_SMTP_PORT", null);
+        host = envOrProp("KINDLEDROP_SMTP_HOST", host);
+        String portStr = envOrProp("KINDLEDROP_SMTP_PORT", null);
         if (portStr != null) {
             try { port = Integer.parseInt(portStr); } catch (NumberFormatException ignored) {}
         }
-        user = helpers.envOrProp("KINDLEDROP_SMTP_USER", user);
-        from = helpers.envOrProp("KINDLEDROP_SMTP_FROM", from);
-        String starttlsStr = helpers.envOrProp("KINDLEDROP_SMTP_STARTTLS", null);
+        user = envOrProp("KINDLEDROP_SMTP_USER", user);
+        from = envOrProp("KINDLEDROP_SMTP_FROM", from);
+        String starttlsStr = envOrProp("KINDLEDROP_SMTP_STARTTLS", null);
         if (starttlsStr != null) {
             useStartTLS = Boolean.parseBoolean(starttlsStr);
         }
-        String sslStr = helpers.envOrProp("KINDLEDROP_SMTP_SSL", null);
+        String sslStr = envOrProp("KINDLEDROP_SMTP_SSL", null);
         if (sslStr != null) {
             useSSL = Boolean.parseBoolean(sslStr);
         }
-        password = helpers.envOrProp("KINDLEDROP_SMTP_PASS", password);
+        password = envOrProp("KINDLEDROP_SMTP_PASS", password);
 
         // validate required fields are present
         if (host == null || host.isBlank() || user == null || user.isBlank() || from == null || from.isBlank() || password == null || password.isBlank()) {
-            return new SendResponse(false, resolved.url(), resolved.fileName(), 0,
-                    "Missing SMTP config. Provide SMTP via request or set KINDLEDROP_SMTP_HOST, KINDLEDROP_SMTP_USER, KINDLEDROP_SMTP_FROM and KINDLEDROP_SMTP_PASS environment variables (or a local .env).");
+            return null;
         }
 
-        Path downloadedFile = null;
-        Path downloadedDir = null;
+        return new KindleMailSender.Smtp(host, port, user, from, useStartTLS, useSSL, password);
+    }
 
-        try {
-            var result = downloader.downloadToTemp(URI.create(resolved.url()), resolved.fileName(), maxBytes);
-            downloadedFile = result.file();
-            downloadedDir = downloadedFile.getParent();
-
-                var smtp = new KindleMailSender.Smtp(
-                    host,
-                    port,
-                    user,
-                    from,
-                    useStartTLS,
-                    useSSL,
-                    password
-                );
+    private static String envOrProp(String key, String current) {
+        if (current != null && !current.isBlank()) return current;
+        String v = System.getenv(key);
+        if (v != null && !v.isBlank()) return v;
+        v = System.getProperty(key);
+        return (v == null || v.isBlank()) ? null : v;
+    }
 
-            String subject = "KindleDrop: " + result.fileName();
-            String body = "Sent by KindleDrop.\n\nSource: " + req.url() + "\nResolved: " + resolved.url();
+    /** Asked once per send, right before SMTP; throwing stops the send with nothing mailed. */
+    @FunctionalInterface
+    public interface MailGate {
 
-            mailer.sendWithAttachment(
-                    smtp,
-                    req.kindleEmail(),
-                    subject,
-                    body,
-                    downloadedFile,
-                    result.fileName()
-            );
+        MailGate OPEN = () -> {};
 
-            return new SendResponse(true, resolved.url(), result.fileName(), result.bytes(), "Sent to Kindle.");
-        } finally {
-            // cleanup temp files
-            if (downloadedFile != null) {
-                try { Files.deleteIfExists(downloadedFile); } catch (Exception ignored) {}
-            }
-            if (downloadedDir != null) {
-                try {
-                    Files.walk(downloadedDir)
-                            .sorted((a, b) -> b.getNameCount() - a.getNameCount())
-                            .forEach(p -> { try { Files.deleteIfExists(p); } catch (Exception ignored) {} });
-                } catch (Exception ignored) {}
-            }
-        }
+        void check() throws IOException;
     }
 }
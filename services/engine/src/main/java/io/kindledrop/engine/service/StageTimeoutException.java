@@ -0,0 +1,18 @@
+package io.kindledrop.engine.service;
+
+import java.io.InterruptedIOException;
+
+/** A send stage ran past its own timeout or the send's deadline and was cancelled. */
+public class StageTimeoutException extends InterruptedIOException {
+
+    private final String stage;
+
+    public StageTimeoutException(String message, String stage) {
+        super(message);
+        this.stage = stage;
+    }
+
+    public String stage() {
+        return stage;
+    }
+}
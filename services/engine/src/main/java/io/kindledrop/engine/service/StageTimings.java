@@ -0,0 +1,23 @@
+package io.kindledrop.engine.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wall-clock time spent in each stage of one send (resolve, download, mail, ...), in insertion order.
+ */
+public class StageTimings {
+
+    private final Map<String, Long> nanos = new LinkedHashMap<>();
+
+    /** Records the time elapsed since {@code startNanos} (a {@link System#nanoTime()} value). */
+    public synchronized void record(String stage, long startNanos) {
+        nanos.merge(stage, System.nanoTime() - startNanos, Long::sum);
+    }
+
+    public synchronized Map<String, Long> millis() {
+        Map<String, Long> out = new LinkedHashMap<>();
+        nanos.forEach((stage, n) -> out.put(stage, n / 1_000_000));
+        return out;
+    }
+}
@@ -0,0 +1,225 @@
+package io.kindledrop.engine.service;
+
+import io.kindledrop.engine.api.SendRequest;
+import io.kindledrop.engine.api.TreeSendEvent;
+import io.kindledrop.engine.config.KindleDropProperties;
+import io.kindledrop.engine.download.AdmissionControl;
+import io.kindledrop.engine.download.DownloadCoalescer;
+import io.kindledrop.engine.download.DownloadResult;
+import io.kindledrop.engine.download.SecureDownloader;
+import io.kindledrop.engine.mail.KindleMailSender;
+import io.kindledrop.engine.metrics.SendEvents;
+import io.kindledrop.engine.resolve.GitHubLinkResolver;
+import io.kindledrop.engine.resolve.GitHubTreeLister;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Sends every document in a GitHub folder, one email per file, as a three-stage pipeline:
+ * list (contents API), download, mail. Each stage has its own concurrency limit, and the stages are joined by
+ * small bounded queues. A slow SMTP relay therefore stalls the downloads instead of filling the disk. At most
+ * {@code download-concurrency + mail-queue + mail-concurrency} files exist at any moment.
+ */
+@Service
+public class TreeSendService {
+
+    private static final Logger log = LoggerFactory.getLogger(TreeSendService.class);
+
+    private static final Work END = new Work(null, null, null, null);
+
+    private final SendToKindleService sendService;
+    private final KindleDropProperties.Tree props;
+    private final GitHubTreeLister lister;
+
+    public TreeSendService(SendToKindleService sendService, KindleDropProperties props) {
+        this.sendService = sendService;
+        this.props = props.tree();
+        this.lister = new GitHubTreeLister(URI.create(this.props.apiBaseUrl()), this.props.token(),
+                this.props.listConcurrency(), this.props.maxFiles());
+    }
+
+    /** Parses the folder link; throws {@link IllegalArgumentException} for anything else. */
+    public GitHubLinkResolver.TreeLink parse(String url) {
+        return sendService.resolver().resolveTree(url);
+    }
+
+    /** Runs the pipeline, reporting each file to {@code events} as it finishes. Blocks until all files are done. */
+    public void send(SendRequest req, GitHubLinkResolver.TreeLink tree, Consumer<TreeSendEvent> events) throws InterruptedException {
+        Emitter out = new Emitter(events);
+        long maxBytes = SendToKindleService.maxBytes(req.limits());
+
+        if (req.dryRun()) {
+            AtomicInteger files = new AtomicInteger();
+            try {
+                var listing = lister.list(tree, SecureDownloader::isAllowedFile, f -> {
+                    files.incrementAndGet();
+                    var link = sendService.resolver().resolve(f.blobUrl());
+                    out.accept(TreeSendEvent.file(f.path(), true, link.url(), link.fileName(), Math.max(0, f.size()), "Dry run: resolved + validated."));
+                });
+                out.accept(TreeSendEvent.done(files.get(), files.get(), listing.truncated()));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                out.accept(TreeSendEvent.error(message(e)));
+            }
+            return;
+        }
+
+        KindleMailSender.Smtp smtp = SendToKindleService.resolveSmtp(req.smtp());
+        if (smtp == null) {
+            out.accept(TreeSendEvent.error(SendToKindleService.MISSING_SMTP_MESSAGE));
+            return;
+        }
+
+        BlockingQueue<Work> toDownload = new ArrayBlockingQueue<>(props.downloadConcurrency());
+        BlockingQueue<Work> toMail = new ArrayBlockingQueue<>(props.mailQueue());
+        AtomicInteger files = new AtomicInteger();
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger downloadersLeft = new AtomicInteger(props.downloadConcurrency());
+        GitHubTreeLister.Listing listing = null;
+        Exception listingFailure = null;
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < props.downloadConcurrency(); i++) {
+                executor.submit(SendEvents.carry(() -> {
+                    try {
+                        download(toDownload, toMail, maxBytes, out);
+                    } finally {
+                        if (downloadersLeft.decrementAndGet() == 0) {
+                            for (int m = 0; m < props.mailConcurrency(); m++) toMail.put(END);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < props.mailConcurrency(); i++) {
+                executor.submit(SendEvents.carry(() -> {
+                    mail(toMail, req, smtp, sent, out);
+                    return null;
+                }));
+            }
+
+            try {
+                listing = lister.list(tree, SecureDownloader::isAllowedFile, f -> {
+                    files.incrementAndGet();
+                    toDownload.put(new Work(f, null, null, null));
+                });
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                listingFailure = e;
+            } finally {
+                for (int i = 0; i < props.downloadConcurrency(); i++) toDownload.put(END);
+            }
+        }
+
+        if (listingFailure != null) {
+            out.accept(TreeSendEvent.error(message(listingFailure)));
+        } else {
+            out.accept(TreeSendEvent.done(files.get(), sent.get(), listing.truncated()));
+        }
+    }
+
+    private void download(BlockingQueue<Work> in, BlockingQueue<Work> out, long maxBytes, Emitter events) throws InterruptedException {
+        while (true) {
+            Work w = in.take();
+            if (w == END) return;
+
+            GitHubLinkResolver.ResolvedLink link = null;
+            AdmissionControl.Ticket ticket = null;
+            DownloadCoalescer.SharedDownload download;
+            try {
+                link = sendService.resolver().resolve(w.file().blobUrl());
+                if (w.file().size() > maxBytes) {
+                    events.accept(TreeSendEvent.file(w.file().path(), false, link.url(), link.fileName(), w.file().size(),
+                            "File too large (" + w.file().size() + " bytes). Max allowed is " + maxBytes + " bytes."));
+                    continue;
+                }
+                ticket = sendService.admission().admit();
+                download = sendService.downloader().acquire(URI.create(link.url()), link.fileName(), maxBytes, ticket);
+            } catch (Exception e) {
+                if (ticket != null) ticket.close();
+                if (e instanceof InterruptedException ie) throw ie;
+                events.accept(failed(w, link, null, e));
+                continue;
+            }
+            try {
+                // blocks while the mail stage is behind, which keeps the number of files on disk bounded
+                out.put(new Work(w.file(), link, download, ticket));
+            } catch (InterruptedException e) {
+                download.close();
+                ticket.close();
+                throw e;
+            }
+        }
+    }
+
+    private void mail(BlockingQueue<Work> in, SendRequest req, KindleMailSender.Smtp smtp, AtomicInteger sent, Emitter events)
+            throws InterruptedException {
+        while (true) {
+            Work w = in.take();
+            if (w == END) return;
+
+            try (var ticket = w.ticket(); var download = w.download()) {
+                var response = sendService.mailDownloaded(req, smtp, w.link().url(), download.result(),
+                        "Sent by KindleDrop.\n\nSource: " + req.url() + "\nFile: " + w.file().path() + "\nResolved: " + w.link().url());
+                sent.incrementAndGet();
+                events.accept(TreeSendEvent.file(w.file().path(), true, response.resolvedUrl(), response.fileName(), response.bytes(), response.message()));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                events.accept(failed(w, w.link(), w.download().result(), e));
+            }
+        }
+    }
+
+    private static TreeSendEvent failed(Work w, GitHubLinkResolver.ResolvedLink link, DownloadResult result, Exception e) {
+        return TreeSendEvent.file(
+                w.file().path(),
+                false,
+                link == null ? null : link.url(),
+                result != null ? result.fileName() : (link == null ? null : link.fileName()),
+                result == null ? 0 : result.bytes(),
+                message(e)
+        );
+    }
+
+    private static String message(Exception e) {
+        return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+    }
+
+    private record Work(
+            GitHubTreeLister.TreeFile file,
+            GitHubLinkResolver.ResolvedLink link,
+            DownloadCoalescer.SharedDownload download,
+            AdmissionControl.Ticket ticket
+    ) {}
+
+    /** Serializes events from the stage threads. Once the client is gone, sending carries on without output. */
+    private static final class Emitter {
+        private final Consumer<TreeSendEvent> target;
+        private boolean broken;
+
+        Emitter(Consumer<TreeSendEvent> target) {
+            this.target = target;
+        }
+
+        synchronized void accept(TreeSendEvent event) {
+            if (broken) return;
+            try {
+                target.accept(event);
+            } catch (RuntimeException e) {
+                broken = true;
+                log.debug("Folder send client went away; continuing without progress output", e);
+            }
+        }
+    }
+}
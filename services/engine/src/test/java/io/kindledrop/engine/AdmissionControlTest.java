@@ -0,0 +1,60 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.download.AdmissionControl;
+import io.kindledrop.engine.download.OverloadedException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControlTest {
+
+    @Test
+    void rejectsSendsOverTheByteBudgetAndRecoversOnClose() throws Exception {
+        // 300 bytes weigh 400 (base64 adds a third)
+        AdmissionControl admission = new AdmissionControl(3000, 8, 300, Duration.ofSeconds(7));
+
+        var first = admission.admit();
+        assertEquals(400, admission.stats().bytes());
+
+        // Content-Length arrives: 1800 bytes weigh 2400
+        first.charge(1800);
+        assertEquals(2400, admission.stats().bytes());
+
+        var second = admission.admit();
+        OverloadedException e = assertThrows(OverloadedException.class, admission::admit);
+        assertEquals(Duration.ofSeconds(7), e.retryAfter());
+        assertThrows(OverloadedException.class, () -> second.charge(600));
+        assertEquals(2, admission.stats().rejected());
+
+        first.close();
+        first.close();
+        second.charge(600);
+        assertEquals(800, admission.stats().bytes());
+
+        second.close();
+        assertEquals(0, admission.stats().bytes());
+        assertEquals(0, admission.stats().sends());
+    }
+
+    @Test
+    void rejectsOverTheSendLimit() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1 << 30, 2, 0, Duration.ofSeconds(5));
+        try (var a = admission.admit(); var b = admission.admit()) {
+            assertThrows(OverloadedException.class, admission::admit);
+            assertEquals(1.0, admission.stats().utilization());
+        }
+        admission.admit().close();
+    }
+
+    @Test
+    void aLoneSendMayExceedTheBudget() throws Exception {
+        AdmissionControl admission = new AdmissionControl(1000, 8, 100, Duration.ofSeconds(5));
+        try (var big = admission.admit()) {
+            big.charge(10_000);
+            assertTrue(admission.stats().utilization() > 1);
+            assertThrows(OverloadedException.class, admission::admit);
+        }
+    }
+}
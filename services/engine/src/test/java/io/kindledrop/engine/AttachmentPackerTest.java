@@ -0,0 +1,40 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.mail.AttachmentPacker;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AttachmentPackerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void packsSmallFilesIntoOneMessage() {
+        var bins = AttachmentPacker.pack(List.of(1 * MB, 2 * MB, 3 * MB), Long::longValue, 25 * MB);
+        assertEquals(1, bins.size());
+        assertEquals(3, bins.get(0).size());
+    }
+
+    @Test
+    void splitsWhenBase64SizeExceedsBudget() {
+        // 2 x 10MB fits raw (20MB) but not once base64 encoded (~27MB)
+        var bins = AttachmentPacker.pack(List.of(10 * MB, 10 * MB), Long::longValue, 25 * MB);
+        assertEquals(2, bins.size());
+    }
+
+    @Test
+    void oversizedItemGetsItsOwnMessage() {
+        var bins = AttachmentPacker.pack(List.of(40 * MB, 1 * MB), Long::longValue, 25 * MB);
+        assertEquals(2, bins.size());
+        assertEquals(List.of(40 * MB), bins.get(0));
+    }
+
+    @Test
+    void encodedSizeAccountsForBase64AndLineBreaks() {
+        assertEquals(4, AttachmentPacker.encodedSize(3));
+        assertEquals(78, AttachmentPacker.encodedSize(57));
+    }
+}
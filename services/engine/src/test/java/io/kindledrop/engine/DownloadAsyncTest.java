@@ -0,0 +1,255 @@
+package io.kindledrop.engine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.kindledrop.engine.download.BufferPool;
+import io.kindledrop.engine.download.DownloadResult;
+import io.kindledrop.engine.download.FileTooLargeException;
+import io.kindledrop.engine.download.HostRateLimiter;
+import io.kindledrop.engine.download.HttpStatusException;
+import io.kindledrop.engine.download.MagicByteValidator;
+import io.kindledrop.engine.download.OverloadedException;
+import io.kindledrop.engine.download.RangeOptions;
+import io.kindledrop.engine.download.SecureDownloader;
+import io.kindledrop.engine.download.Stager;
+import io.kindledrop.engine.download.UnexpectedContentException;
+import io.kindledrop.engine.metrics.SendMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadAsyncTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private Stager stager;
+    private SecureDownloader downloader;
+    private final CountDownLatch serverGaveUp = new CountDownLatch(1);
+    private final AtomicInteger heads = new AtomicInteger();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.createContext("/book.pdf", ex -> respond(ex, 200, "application/pdf", pdf(200 * 1024), true));
+        server.createContext("/unsized.pdf", ex -> respond(ex, 200, "application/pdf", pdf(256 * 1024), false));
+        server.createContext("/missing.pdf", ex -> respond(ex, 404, "text/plain", "Not Found".getBytes(StandardCharsets.US_ASCII), true));
+        server.createContext("/error-page.pdf", ex -> {
+            // an HTML page under a PDF name, large enough that it cannot fit in the socket buffers
+            byte[] html = "<!DOCTYPE html><html><body>Sign in</body></html>\n".repeat(700_000).getBytes(StandardCharsets.US_ASCII);
+            respond(ex, 200, "application/octet-stream", html, true);
+        });
+        server.createContext("/stalled.pdf", ex -> {
+            ex.getResponseHeaders().set("Content-Type", "application/pdf");
+            ex.sendResponseHeaders(200, MB);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(pdf(16));
+                out.flush();
+                Thread.sleep(5_000);
+            } catch (InterruptedException | IOException e) {
+                // stopped by the test
+            }
+        });
+        server.createContext("/probe.pdf", ex -> {
+            heads.incrementAndGet();
+            ex.getResponseHeaders().set("Content-Length", "12345");
+            ex.sendResponseHeaders(200, -1);
+            ex.close();
+        });
+        server.createContext("/slow-probe.pdf", ex -> {
+            try {
+                Thread.sleep(5_000);
+            } catch (InterruptedException e) {
+                // stopped by the test
+            }
+            ex.close();
+        });
+        server.createContext("/throttled.pdf", ex -> {
+            heads.incrementAndGet();
+            ex.getResponseHeaders().set("Retry-After", "1");
+            ex.sendResponseHeaders(429, -1);
+            ex.close();
+        });
+        server.start();
+        stager = new Stager(new BufferPool(64 * 1024, 4 * MB), MB);
+        downloader = new SecureDownloader(null, RangeOptions.DISABLED, new HostRateLimiter(HostRateLimiter.Options.DEFAULTS),
+                SendMetrics.noop(), stager,
+                List.of("http://127.0.0.1:" + server.getAddress().getPort()), new MagicByteValidator());
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Test
+    void stagesTheBodyAndChargesTheDeclaredLength() throws Exception {
+        List<Long> charges = new CopyOnWriteArrayList<>();
+        DownloadResult result = downloader.downloadAsync(url("/book.pdf"), "book.pdf", 10 * MB, charges::add, Duration.ofSeconds(10))
+                .get(10, TimeUnit.SECONDS);
+        try {
+            assertEquals(200 * 1024, result.bytes());
+            assertEquals("book.pdf", result.fileName());
+            assertNull(result.content().file(), "staged in memory");
+            try (InputStream in = result.content().open()) {
+                assertArrayEquals(pdf(200 * 1024), in.readAllBytes());
+            }
+            assertEquals(List.of(200L * 1024), charges);
+        } finally {
+            result.content().release();
+        }
+    }
+
+    @Test
+    void rejectsADeclaredLengthOverTheCap() {
+        assertFails(FileTooLargeException.class, downloader.downloadAsync(url("/book.pdf"), "book.pdf", 100 * 1024, bytes -> {}, null));
+    }
+
+    @Test
+    void capsABodyWithoutContentLengthWhileItStreams() {
+        List<Long> charges = new CopyOnWriteArrayList<>();
+        assertFails(FileTooLargeException.class, downloader.downloadAsync(url("/unsized.pdf"), "unsized.pdf", 100 * 1024, charges::add, null));
+        // charged ahead of the bytes, never past the cap
+        assertFalse(charges.isEmpty());
+        assertTrue(charges.stream().allMatch(c -> c <= 100 * 1024), charges.toString());
+    }
+
+    @Test
+    void aRefusedBudgetAbortsTheDownload() {
+        assertFails(OverloadedException.class, downloader.downloadAsync(url("/book.pdf"), "book.pdf", 10 * MB, bytes -> {
+            throw new OverloadedException("Engine is busy", Duration.ofSeconds(1));
+        }, null));
+    }
+
+    @Test
+    void theValidatorStopsAWrongBodyOnItsFirstBytes() throws Exception {
+        assertFails(UnexpectedContentException.class, downloader.downloadAsync(url("/error-page.pdf"), "error-page.pdf", 64 * MB, bytes -> {}, null));
+        // the transfer was cancelled, so the server could not write the rest
+        assertTrue(serverGaveUp.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void timesOutAStalledBodyAndReleasesWhatWasStaged() throws Exception {
+        long t0 = System.nanoTime();
+        assertFails(HttpTimeoutException.class, downloader.downloadAsync(url("/stalled.pdf"), "stalled.pdf", 10 * MB, bytes -> {}, Duration.ofMillis(300)));
+        assertTrue(System.nanoTime() - t0 < TimeUnit.SECONDS.toNanos(3));
+        for (int i = 0; i < 100 && stager.stats().pool().inUse() > 0; i++) Thread.sleep(10);
+        assertEquals(0, stager.stats().pool().inUse());
+    }
+
+    @Test
+    void aSlowStagingStepDoesNotHoldTheClientThreads() throws Exception {
+        // more stuck bodies than the client has threads; the budget is charged from the staging step
+        CountDownLatch unblock = new CountDownLatch(1);
+        List<String> chargedOn = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<DownloadResult>> stuck = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                stuck.add(downloader.downloadAsync(url("/book.pdf"), "book.pdf", 10 * MB, bytes -> {
+                    chargedOn.add(Thread.currentThread().getName());
+                    try {
+                        unblock.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, null));
+            }
+            DownloadResult result = downloader.downloadAsync(url("/unsized.pdf"), "unsized.pdf", 10 * MB, bytes -> {}, null)
+                    .get(10, TimeUnit.SECONDS);
+            result.content().release();
+            assertTrue(chargedOn.stream().noneMatch(name -> name.startsWith("download-io-")), chargedOn.toString());
+        } finally {
+            unblock.countDown();
+        }
+        for (var f : stuck) f.get(10, TimeUnit.SECONDS).content().release();
+    }
+
+    @Test
+    void failsOnANonSuccessStatus() {
+        HttpStatusException e = assertFails(HttpStatusException.class,
+                downloader.downloadAsync(url("/missing.pdf"), "missing.pdf", 10 * MB, bytes -> {}, null));
+        assertEquals(404, e.status());
+    }
+
+    @Test
+    void refusesBadInputBeforeAnyRequest() {
+        assertThrows(IllegalArgumentException.class, () -> downloader.downloadAsync(url("/notes.txt"), "notes.txt", MB, bytes -> {}, null));
+    }
+
+    @Test
+    void probesTheSizeWithAHeadRequest() throws Exception {
+        assertEquals(12345L, (long) downloader.probeSize(url("/probe.pdf"), Duration.ofSeconds(2)).get(5, TimeUnit.SECONDS));
+        assertEquals(-1L, (long) downloader.probeSize(url("/missing.pdf"), Duration.ofSeconds(2)).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void aProbeGivesUpAtItsDeadline() throws Exception {
+        long t0 = System.nanoTime();
+        assertEquals(-1L, (long) downloader.probeSize(url("/slow-probe.pdf"), Duration.ofMillis(200)).get(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - t0 < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    void aThrottledProbeIsNotRetriedAndThenSkipped() throws Exception {
+        assertEquals(-1L, (long) downloader.probeSize(url("/throttled.pdf"), Duration.ofSeconds(2)).get(5, TimeUnit.SECONDS));
+        assertEquals(1, heads.get());
+        // the host is paused for its Retry-After, so the next probe does not even ask
+        assertEquals(-1L, (long) downloader.probeSize(url("/probe.pdf"), Duration.ofSeconds(2)).get(5, TimeUnit.SECONDS));
+        assertEquals(1, heads.get());
+    }
+
+    private URI url(String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private void respond(HttpExchange ex, int status, String type, byte[] body, boolean sized) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", type);
+        ex.sendResponseHeaders(status, sized ? body.length : 0);
+        try (OutputStream out = ex.getResponseBody()) {
+            for (int off = 0; off < body.length; off += 16 * 1024) {
+                out.write(body, off, Math.min(16 * 1024, body.length - off));
+            }
+        } catch (IOException e) {
+            serverGaveUp.countDown();
+        }
+    }
+
+    private static byte[] pdf(int size) {
+        byte[] body = new byte[size];
+        Arrays.fill(body, (byte) 'x');
+        byte[] magic = "%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(magic, 0, body, 0, Math.min(magic.length, size));
+        return body;
+    }
+
+    private static <T extends Throwable> T assertFails(Class<T> type, CompletableFuture<?> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        return assertInstanceOf(type, e.getCause());
+    }
+}
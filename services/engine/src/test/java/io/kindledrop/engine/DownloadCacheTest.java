@@ -0,0 +1,71 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.download.DownloadCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadCacheTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void storesAndMaterializesByUrl() throws Exception {
+        DownloadCache cache = new DownloadCache(tmp.resolve("cache"), 1024);
+        Path file = write("a.pdf", "hello");
+
+        cache.store("https://raw.githubusercontent.com/o/r/main/a.pdf", "\"v1\"", null, "application/pdf", file, "sha-a", 5);
+
+        var entry = cache.lookup("https://raw.githubusercontent.com/o/r/main/a.pdf").orElseThrow();
+        assertEquals("\"v1\"", entry.etag());
+
+        Path target = tmp.resolve("out.pdf");
+        cache.materialize(entry, target);
+        assertEquals("hello", Files.readString(target));
+        assertEquals(1, cache.stats().hits());
+        assertEquals(5, cache.stats().bytesSaved());
+    }
+
+    @Test
+    void skipsResponsesWithoutValidators() throws Exception {
+        DownloadCache cache = new DownloadCache(tmp.resolve("cache"), 1024);
+        cache.store("https://x/a.pdf", null, null, "", write("a.pdf", "hello"), "sha-a", 5);
+        assertTrue(cache.lookup("https://x/a.pdf").isEmpty());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedOverCap() throws Exception {
+        DownloadCache cache = new DownloadCache(tmp.resolve("cache"), 10);
+        cache.store("https://x/a.pdf", "a", null, "", write("a.pdf", "aaaa"), "sha-a", 4);
+        cache.store("https://x/b.pdf", "b", null, "", write("b.pdf", "bbbb"), "sha-b", 4);
+        cache.lookup("https://x/a.pdf").ifPresent(e -> {
+            try { cache.materialize(e, tmp.resolve("touch.pdf")); } catch (Exception ex) { fail(ex); }
+        });
+        cache.store("https://x/c.pdf", "c", null, "", write("c.pdf", "cccc"), "sha-c", 4);
+
+        assertTrue(cache.lookup("https://x/a.pdf").isPresent());
+        assertTrue(cache.lookup("https://x/b.pdf").isEmpty());
+        assertTrue(cache.lookup("https://x/c.pdf").isPresent());
+    }
+
+    @Test
+    void reloadsIndexFromDisk() throws Exception {
+        DownloadCache cache = new DownloadCache(tmp.resolve("cache"), 1024);
+        cache.store("https://x/a.pdf", "a", "Mon, 01 Jan 2024 00:00:00 GMT", "", write("a.pdf", "aaaa"), "sha-a", 4);
+
+        DownloadCache reopened = new DownloadCache(tmp.resolve("cache"), 1024);
+        var entry = reopened.lookup("https://x/a.pdf").orElseThrow();
+        assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", entry.lastModified());
+        assertEquals(4, reopened.stats().sizeBytes());
+    }
+
+    private Path write(String name, String content) throws Exception {
+        Path dir = Files.createTempDirectory(tmp, "dl-");
+        return Files.writeString(dir.resolve(name), content);
+    }
+}
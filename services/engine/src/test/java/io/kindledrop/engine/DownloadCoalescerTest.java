@@ -0,0 +1,213 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.download.DownloadCoalescer;
+import io.kindledrop.engine.download.DownloadResult;
+import io.kindledrop.engine.download.OverloadedException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DownloadCoalescerTest {
+
+    private static final URI URL = URI.create("https://raw.githubusercontent.com/o/r/main/a.pdf");
+
+    @Test
+    void concurrentCallersShareOneDownloadAndCleanUpAfterTheLast() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        List<DownloadResult> cleaned = new ArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        DownloadCoalescer coalescer = new DownloadCoalescer((uri, hint, max, budget) -> {
+            loads.incrementAndGet();
+            release.await();
+            return new DownloadResult(Path.of("a.pdf"), hint, 5, "application/pdf");
+        }, cleaned::add);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<DownloadCoalescer.SharedDownload>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(pool.submit(() -> coalescer.acquire(URL, "a.pdf", 100)));
+            }
+            awaitCoalesced(coalescer, 3);
+            release.countDown();
+
+            List<DownloadCoalescer.SharedDownload> downloads = new ArrayList<>();
+            for (var f : futures) downloads.add(f.get(5, TimeUnit.SECONDS));
+
+            assertEquals(1, loads.get());
+            assertEquals(3, downloads.stream().filter(DownloadCoalescer.SharedDownload::joined).count());
+            assertEquals(1, downloads.stream().map(DownloadCoalescer.SharedDownload::result).distinct().count());
+
+            for (int i = 0; i < 3; i++) downloads.get(i).close();
+            assertTrue(cleaned.isEmpty());
+            downloads.get(3).close();
+            downloads.get(3).close();
+            assertEquals(1, cleaned.size());
+            assertEquals(0, coalescer.stats().inFlight());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void errorsReachEveryWaiterAndAreNotRemembered() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        DownloadCoalescer coalescer = new DownloadCoalescer((uri, hint, max, budget) -> {
+            loads.incrementAndGet();
+            release.await();
+            throw new IOException("Download failed with status 404");
+        }, r -> fail("nothing to clean up"));
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<DownloadCoalescer.SharedDownload>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                futures.add(pool.submit(() -> coalescer.acquire(URL, "a.pdf", 100)));
+            }
+            awaitCoalesced(coalescer, 2);
+            release.countDown();
+
+            for (var f : futures) {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(5, TimeUnit.SECONDS));
+                assertInstanceOf(IOException.class, e.getCause());
+                assertEquals("Download failed with status 404", e.getCause().getMessage());
+            }
+            assertEquals(1, loads.get());
+
+            // the next caller tries again
+            assertThrows(IOException.class, () -> coalescer.acquire(URL, "a.pdf", 100));
+            assertEquals(2, loads.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void aWaiterTakesOverWhenTheLeaderIsCancelled() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<DownloadResult> cleaned = new ArrayList<>();
+        DownloadCoalescer coalescer = new DownloadCoalescer((uri, hint, max, budget) -> {
+            if (loads.incrementAndGet() == 1) {
+                release.await();
+                throw new InterruptedIOException("Send timed out during download.");
+            }
+            return new DownloadResult(Path.of("a.pdf"), hint, 5, "application/pdf");
+        }, cleaned::add);
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            Future<DownloadCoalescer.SharedDownload> leader = pool.submit(() -> coalescer.acquire(URL, "a.pdf", 100));
+            awaitLoads(loads, 1);
+            List<Future<DownloadCoalescer.SharedDownload>> waiters = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                waiters.add(pool.submit(() -> coalescer.acquire(URL, "a.pdf", 100)));
+            }
+            awaitCoalesced(coalescer, 2);
+            release.countDown();
+
+            // the leader's own timeout stays with the leader
+            ExecutionException e = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(InterruptedIOException.class, e.getCause());
+
+            List<DownloadCoalescer.SharedDownload> downloads = new ArrayList<>();
+            for (var f : waiters) downloads.add(f.get(5, TimeUnit.SECONDS));
+            assertEquals(2, loads.get());
+            assertEquals(1, downloads.stream().filter(d -> !d.joined()).count());
+            assertSame(downloads.get(0).result(), downloads.get(1).result());
+
+            for (var d : downloads) d.close();
+            assertEquals(1, cleaned.size());
+            assertEquals(0, coalescer.stats().inFlight());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void joinersPayForTheFileOutOfTheirOwnBudget() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<DownloadResult> cleaned = new ArrayList<>();
+        DownloadCoalescer coalescer = new DownloadCoalescer((uri, hint, max, budget) -> {
+            budget.charge(5);
+            loading.countDown();
+            release.await();
+            return new DownloadResult(Path.of("a.pdf"), hint, 5, "application/pdf");
+        }, cleaned::add);
+        List<Long> leaderCharges = new CopyOnWriteArrayList<>();
+        List<Long> joinerCharges = new CopyOnWriteArrayList<>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            Future<DownloadCoalescer.SharedDownload> leader = pool.submit(() -> coalescer.acquire(URL, "a.pdf", 100, leaderCharges::add));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            Future<DownloadCoalescer.SharedDownload> joiner = pool.submit(() -> coalescer.acquire(URL, "a.pdf", 100, joinerCharges::add));
+            Future<DownloadCoalescer.SharedDownload> refused = pool.submit(() -> coalescer.acquire(URL, "a.pdf", 100, bytes -> {
+                throw new OverloadedException("Too many bytes in flight.", Duration.ofSeconds(1));
+            }));
+            awaitCoalesced(coalescer, 2);
+            assertEquals(List.of(), joinerCharges);
+            release.countDown();
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> refused.get(5, TimeUnit.SECONDS));
+            assertInstanceOf(OverloadedException.class, e.getCause());
+            try (var a = leader.get(5, TimeUnit.SECONDS); var b = joiner.get(5, TimeUnit.SECONDS)) {
+                assertTrue(b.joined());
+                assertEquals(List.of(5L), leaderCharges);
+                assertEquals(List.of(5L), joinerCharges);
+            }
+            assertEquals(1, cleaned.size());
+            assertEquals(0, coalescer.stats().inFlight());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void differentSizeCapsDoNotShare() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        DownloadCoalescer coalescer = new DownloadCoalescer((uri, hint, max, budget) -> {
+            loads.incrementAndGet();
+            return new DownloadResult(Path.of("a.pdf"), hint, 5, "application/pdf");
+        }, r -> {});
+
+        try (var a = coalescer.acquire(URL, "a.pdf", 100);
+             var b = coalescer.acquire(URL, "a.pdf", 200)) {
+            assertFalse(a.joined());
+            assertFalse(b.joined());
+        }
+        assertEquals(2, loads.get());
+    }
+
+    private static void awaitLoads(AtomicInteger loads, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (loads.get() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitCoalesced(DownloadCoalescer coalescer, long waiters) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (coalescer.stats().coalesced() < waiters && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.download.BufferPool;
+import io.kindledrop.engine.download.EpubRepacker;
+import io.kindledrop.engine.download.StagedContent;
+import io.kindledrop.engine.download.Stager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EpubRepackerTest {
+
+    @TempDir
+    Path tmp;
+
+    private static final Map<String, String> BOOK = new LinkedHashMap<>();
+
+    static {
+        BOOK.put("META-INF/container.xml", "<container><rootfiles><rootfile full-path=\"OEBPS/content.opf\"/></rootfiles></container>");
+        BOOK.put("OEBPS/content.opf", "<package version=\"3.0\"><metadata/><manifest/><spine/></package>");
+        for (int i = 1; i <= 5; i++) {
+            BOOK.put("OEBPS/chapter" + i + ".xhtml", "<html><body>" + "<p>It was a dark and stormy night. </p>\n".repeat(2000) + "</body></html>");
+        }
+    }
+
+    @Test
+    void redeflatesAStoredEpubAndKeepsMimetypeFirstAndStored() throws Exception {
+        StagedContent original = stage(epub(true, ZipEntry.STORED, Deflater.DEFAULT_COMPRESSION));
+        EpubRepacker repacker = new EpubRepacker(Stager.diskOnly(), 9, 0.05);
+
+        EpubRepacker.Repacked repacked = repacker.repack(original, "book.epub");
+        assertNotNull(repacked);
+        try {
+            assertEquals(original.size(), repacked.originalBytes());
+            assertEquals(repacked.content().size(), repacked.bytes());
+            assertTrue(repacked.saved() > original.size() / 2, "saved " + repacked.saved());
+
+            byte[] bytes = Files.readAllBytes(repacked.content().file());
+            // local header of the first entry: stored, named mimetype, content right after it
+            assertEquals(0, bytes[8] | bytes[9] << 8);
+            assertEquals("mimetype", new String(bytes, 30, 8, StandardCharsets.US_ASCII));
+            assertEquals("application/epub+zip", new String(bytes, 38, 20, StandardCharsets.US_ASCII));
+            assertEquals(contents(epub(true, ZipEntry.STORED, Deflater.DEFAULT_COMPRESSION)), contents(bytes));
+            try (ZipFile zip = new ZipFile(repacked.content().file().toFile())) {
+                assertEquals(BOOK.size() + 1, zip.size());
+            }
+        } finally {
+            repacked.content().release();
+            original.release();
+        }
+        assertEquals(new EpubRepacker.Stats(1, 0, repacked.saved()), repacker.stats());
+    }
+
+    @Test
+    void stagesSmallCopiesInMemory() throws Exception {
+        StagedContent original = stage(epub(true, ZipEntry.STORED, Deflater.DEFAULT_COMPRESSION));
+        EpubRepacker repacker = new EpubRepacker(new Stager(new BufferPool(64 * 1024, 4 * 1024 * 1024), 4 * 1024 * 1024), 6, 0.05);
+
+        EpubRepacker.Repacked repacked = repacker.repack(original, "book.epub");
+        assertNotNull(repacked);
+        assertNull(repacked.content().file());
+        try (InputStream in = repacked.content().open()) {
+            assertEquals(contents(epub(true, ZipEntry.STORED, Deflater.DEFAULT_COMPRESSION)), contents(in.readAllBytes()));
+        }
+        repacked.content().release();
+        original.release();
+    }
+
+    @Test
+    void keepsAnEpubThatIsAlreadyCompact() throws Exception {
+        StagedContent original = stage(epub(true, ZipEntry.DEFLATED, Deflater.BEST_COMPRESSION));
+        EpubRepacker repacker = new EpubRepacker(Stager.diskOnly(), 9, 0.05);
+
+        assertNull(repacker.repack(original, "book.epub"));
+        assertEquals(new EpubRepacker.Stats(0, 1, 0), repacker.stats());
+        assertTrue(Files.exists(original.file()));
+        original.release();
+    }
+
+    @Test
+    void leavesArchivesItMayNotRewrite() throws Exception {
+        EpubRepacker repacker = new EpubRepacker(Stager.diskOnly(), 9, 0.05);
+
+        StagedContent noMimetypeFirst = stage(epub(false, ZipEntry.STORED, Deflater.DEFAULT_COMPRESSION));
+        assertNull(repacker.repack(noMimetypeFirst, "book.epub"));
+        noMimetypeFirst.release();
+
+        StagedContent pdf = stage("%PDF-1.7\n".repeat(1000).getBytes(StandardCharsets.US_ASCII));
+        assertNull(repacker.repack(pdf, "book.pdf"));
+        pdf.release();
+
+        StagedContent notAZip = stage("not a zip at all".getBytes(StandardCharsets.US_ASCII));
+        assertNull(repacker.repack(notAZip, "book.epub"));
+        notAZip.release();
+    }
+
+    private StagedContent stage(byte[] body) throws Exception {
+        Path file = Files.createTempDirectory(tmp, "body-").resolve("book");
+        Files.write(file, body);
+        return StagedContent.onDisk(file);
+    }
+
+    private static byte[] epub(boolean mimetypeFirst, int method, int level) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.setLevel(level);
+            if (mimetypeFirst) put(zip, "mimetype", "application/epub+zip", ZipEntry.STORED);
+            for (var e : BOOK.entrySet()) put(zip, e.getKey(), e.getValue(), method);
+            if (!mimetypeFirst) put(zip, "mimetype", "application/epub+zip", ZipEntry.STORED);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void put(ZipOutputStream zip, String name, String text, int method) throws Exception {
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            entry.setSize(content.length);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    private static Map<String, String> contents(byte[] archive) throws Exception {
+        Map<String, String> out = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            for (ZipEntry e; (e = in.getNextEntry()) != null; ) {
+                out.put(e.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        return out;
+    }
+}
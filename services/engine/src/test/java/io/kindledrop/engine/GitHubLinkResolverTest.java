@@ -3,6 +3,8 @@ package io.kindledrop.engine;
 import io.kindledrop.engine.resolve.GitHubLinkResolver;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class GitHubLinkResolverTest {
@@ -30,5 +32,100 @@ public class GitHubLinkResolverTest {
         assertTrue(out.url().contains("Programming%20The%20Semantic%20Web.pdf"));
         assertEquals("Programming The Semantic Web.pdf", out.fileName());
     }
-    
+
+    @Test
+    void encodesUnicodeAndDecodesPercentEscapes() {
+        GitHubLinkResolver r = new GitHubLinkResolver();
+
+        var out = r.resolve("https://github.com/org/repo/blob/main/Livres/Les Mis%C3%A9rables.epub");
+        assertEquals("https://raw.githubusercontent.com/org/repo/main/Livres/Les%20Mis%C3%A9rables.epub", out.url());
+        assertEquals("Les Misérables.epub", out.fileName());
+
+        out = r.resolve("https://github.com/org/repo/blob/main/文档/入门.pdf");
+        assertEquals("https://raw.githubusercontent.com/org/repo/main/%E6%96%87%E6%A1%A3/%E5%85%A5%E9%97%A8.pdf", out.url());
+        assertEquals("入门.pdf", out.fileName());
+    }
+
+    @Test
+    void treatsPlusAsSpaceLikeUrlDecoder() {
+        GitHubLinkResolver r = new GitHubLinkResolver();
+        var out = r.resolve("https://github.com/org/repo/blob/main/a%2Bb/c+d.pdf");
+        assertEquals("https://raw.githubusercontent.com/org/repo/main/a%2Bb/c%20d.pdf", out.url());
+        assertEquals("c d.pdf", out.fileName());
+    }
+
+    @Test
+    void normalizesRawLinksAndKeepsQuery() {
+        GitHubLinkResolver r = new GitHubLinkResolver();
+        var out = r.resolve("https://raw.githubusercontent.com/org/repo/main//My Books/Clean Code.mobi?token=abc#frag");
+        assertEquals("https://raw.githubusercontent.com/org/repo/main/My%20Books/Clean%20Code.mobi?token=abc", out.url());
+        assertEquals("Clean Code.mobi", out.fileName());
+    }
+
+    @Test
+    void handlesPortsAndDotSegmentsLikeJavaNetUrl() {
+        GitHubLinkResolver r = new GitHubLinkResolver();
+        assertEquals("https://raw.githubusercontent.com/org/repo/main/book.pdf",
+                r.resolve("https://github.com:443/org/repo/blob/main/book.pdf").url());
+        assertEquals("https://raw.githubusercontent.com/org/repo/main/x/../book.pdf",
+                r.resolve("https://github.com/org/repo/blob/main/x/../book.pdf").url());
+    }
+
+    @Test
+    void rejectsOtherHostsAndBrokenEscapes() {
+        GitHubLinkResolver r = new GitHubLinkResolver();
+        assertThrows(IllegalArgumentException.class, () -> r.resolve("https://example.com/org/repo/blob/main/book.pdf"));
+        assertThrows(IllegalArgumentException.class, () -> r.resolve("github.com/org/repo/blob/main/book.pdf"));
+        assertThrows(IllegalArgumentException.class, () -> r.resolve("https://github.com/org/repo/blob/main/%zz.pdf"));
+        assertThrows(IllegalArgumentException.class, () -> r.resolve(null));
+    }
+
+    @Test
+    void memoizesRecentInputsWithinCapacity() {
+        GitHubLinkResolver r = new GitHubLinkResolver(2);
+        String url = "https://github.com/org/repo/blob/main/book.pdf";
+
+        var first = r.resolve(url);
+        assertSame(first, r.resolve(url));
+        assertEquals(1, r.cacheStats().hits());
+
+        for (int i = 0; i < 10; i++) {
+            r.resolve("https://github.com/org/repo/blob/main/book" + i + ".pdf");
+        }
+        assertEquals(2, r.cacheStats().size());
+        assertEquals(9, r.cacheStats().evictions());
+    }
+
+    @Test
+    void doesNotCacheFailures() {
+        GitHubLinkResolver r = new GitHubLinkResolver();
+        assertThrows(IllegalArgumentException.class, () -> r.resolve("https://github.com/org/repo/tree/main/path"));
+        assertThrows(IllegalArgumentException.class, () -> r.resolve("https://github.com/org/repo/tree/main/path"));
+        assertEquals(0, r.cacheStats().size());
+    }
+
+    @Test
+    void parsesFolderLinks() {
+        GitHubLinkResolver r = new GitHubLinkResolver();
+        assertEquals(new GitHubLinkResolver.TreeLink("org", "repo", "main", "books/My Novels"),
+                r.resolveTree("https://github.com/org/repo/tree/main/books/My%20Novels/"));
+        assertEquals(new GitHubLinkResolver.TreeLink("org", "repo", "v1", ""),
+                r.resolveTree("https://github.com/org/repo/tree/v1"));
+        assertThrows(IllegalArgumentException.class, () -> r.resolveTree("https://github.com/org/repo/blob/main/book.pdf"));
+        assertThrows(IllegalArgumentException.class, () -> r.resolveTree("https://raw.githubusercontent.com/org/repo/main/books"));
+    }
+
+    @Test
+    void acceptsConfiguredExtraOriginsAsDirectLinks() {
+        GitHubLinkResolver r = new GitHubLinkResolver(16, List.of("http://127.0.0.1:18080"));
+        var out = r.resolve("http://127.0.0.1:18080/org/repo/main/My Book.pdf?size=1024");
+        assertEquals("http://127.0.0.1:18080/org/repo/main/My%20Book.pdf?size=1024", out.url());
+        assertEquals("My Book.pdf", out.fileName());
+
+        // another port is not the same origin
+        assertThrows(IllegalArgumentException.class, () -> r.resolve("http://127.0.0.1:9999/org/repo/main/book.pdf"));
+        assertThrows(IllegalArgumentException.class, () -> new GitHubLinkResolver().resolve("http://127.0.0.1:18080/org/repo/main/book.pdf"));
+        assertEquals("https://raw.githubusercontent.com/org/repo/main/book.pdf",
+                r.resolve("https://github.com/org/repo/blob/main/book.pdf").url());
+    }
 }
@@ -0,0 +1,148 @@
+package io.kindledrop.engine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.kindledrop.engine.download.HttpStatusException;
+import io.kindledrop.engine.download.SecureDownloader;
+import io.kindledrop.engine.resolve.GitHubLinkResolver;
+import io.kindledrop.engine.resolve.GitHubTreeLister;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GitHubTreeListerTest {
+
+    private static final String CONTENTS = "/repos/org/repo/contents";
+
+    // the contents API answer per folder; anything else is a 404
+    private static final Map<String, String> FOLDERS = Map.of(
+            "/books", "["
+                    + file("books/a.pdf", 10) + ","
+                    + file("books/notes.txt", 20) + ","
+                    + dir("books/sci")
+                    + "]",
+            "/books/sci", "["
+                    + file("books/sci/b.epub", 30) + ","
+                    + dir("books/sci/deep")
+                    + "]",
+            "/books/sci/deep", "[" + file("books/sci/deep/c.azw3", 40) + "]",
+            "/broken", "["
+                    + file("broken/x.pdf", 50) + ","
+                    + dir("broken/failing")
+                    + "]"
+    );
+
+    private HttpServer server;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final List<String> auth = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(CONTENTS, ex -> {
+            requests.add(ex.getRequestURI().toString());
+            String header = ex.getRequestHeaders().getFirst("Authorization");
+            if (header != null) auth.add(header);
+            String folder = ex.getRequestURI().getPath().substring(CONTENTS.length());
+            if (folder.equals("/broken/failing")) {
+                respond(ex, 500, "{\"message\":\"Server Error\"}");
+            } else if (FOLDERS.containsKey(folder)) {
+                respond(ex, 200, FOLDERS.get(folder));
+            } else {
+                respond(ex, 404, "{\"message\":\"Not Found\"}");
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void listsNestedFoldersAndKeepsOnlyDocuments() throws Exception {
+        List<GitHubTreeLister.TreeFile> files = new CopyOnWriteArrayList<>();
+        var listing = lister("secret", 100).list(tree("books"), SecureDownloader::isAllowedFile, files::add);
+
+        assertEquals(List.of("books/a.pdf", "books/sci/b.epub", "books/sci/deep/c.azw3"),
+                files.stream().map(GitHubTreeLister.TreeFile::path).sorted().toList());
+        assertEquals(3, listing.files());
+        assertFalse(listing.truncated());
+
+        var a = files.stream().filter(f -> f.path().equals("books/a.pdf")).findFirst().orElseThrow();
+        assertEquals(10, a.size());
+        assertEquals("https://github.com/org/repo/blob/main/books/a.pdf", a.blobUrl());
+
+        assertEquals(3, requests.size());
+        assertTrue(requests.stream().allMatch(r -> r.endsWith("?ref=main")), requests.toString());
+        assertEquals(List.of("Bearer secret", "Bearer secret", "Bearer secret"), auth);
+    }
+
+    @Test
+    void stopsAtMaxFilesAndSaysSo() throws Exception {
+        List<GitHubTreeLister.TreeFile> files = new CopyOnWriteArrayList<>();
+        var listing = lister("", 2).list(tree("books"), SecureDownloader::isAllowedFile, files::add);
+
+        assertEquals(2, files.size());
+        assertEquals(2, listing.files());
+        assertTrue(listing.truncated());
+        assertTrue(auth.isEmpty());
+    }
+
+    @Test
+    void aFolderThatFailsPartWayFailsTheListing() {
+        List<GitHubTreeLister.TreeFile> files = new CopyOnWriteArrayList<>();
+        HttpStatusException e = assertThrows(HttpStatusException.class,
+                () -> lister("", 100).list(tree("broken"), SecureDownloader::isAllowedFile, files::add));
+
+        assertEquals(500, e.status());
+        // what was listed before the failure has already been handed on
+        assertEquals(List.of("broken/x.pdf"), files.stream().map(GitHubTreeLister.TreeFile::path).toList());
+    }
+
+    @Test
+    void aMissingFolderIsNotFound() {
+        HttpStatusException e = assertThrows(HttpStatusException.class,
+                () -> lister("", 100).list(tree("nowhere"), SecureDownloader::isAllowedFile, f -> fail("no files")));
+
+        assertEquals(404, e.status());
+        assertTrue(e.getMessage().startsWith("Folder not found: org/repo/main/nowhere"), e.getMessage());
+    }
+
+    private GitHubTreeLister lister(String token, int maxFiles) {
+        return new GitHubTreeLister(URI.create("http://127.0.0.1:" + server.getAddress().getPort()), token, 2, maxFiles);
+    }
+
+    private static GitHubLinkResolver.TreeLink tree(String path) {
+        return new GitHubLinkResolver.TreeLink("org", "repo", "main", path);
+    }
+
+    private static String file(String path, long size) {
+        return "{\"type\":\"file\",\"name\":\"" + path.substring(path.lastIndexOf('/') + 1) + "\",\"path\":\"" + path + "\",\"size\":" + size + "}";
+    }
+
+    private static String dir(String path) {
+        return "{\"type\":\"dir\",\"name\":\"" + path.substring(path.lastIndexOf('/') + 1) + "\",\"path\":\"" + path + "\"}";
+    }
+
+    private static void respond(HttpExchange ex, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "application/json");
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
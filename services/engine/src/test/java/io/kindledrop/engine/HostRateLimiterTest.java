@@ -0,0 +1,123 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.download.HostRateLimiter;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HostRateLimiterTest {
+
+    private static HostRateLimiter limiter(int initial) {
+        return new HostRateLimiter(new HostRateLimiter.Options(initial, 1, 16, Duration.ofMillis(100), 10, 3, Duration.ofSeconds(5)));
+    }
+
+    @Test
+    void queuesThenFailsWhenLimitStaysExhausted() throws Exception {
+        HostRateLimiter l = limiter(2);
+        l.acquire("raw.githubusercontent.com");
+        l.acquire("raw.githubusercontent.com");
+        assertThrows(IOException.class, () -> l.acquire("raw.githubusercontent.com"));
+    }
+
+    @Test
+    void releaseLetsQueuedRequestThrough() throws Exception {
+        HostRateLimiter l = limiter(1);
+        var first = l.acquire("github.com");
+        new Thread(() -> {
+            try { Thread.sleep(20); } catch (InterruptedException ignored) {}
+            first.success();
+        }).start();
+        assertNotNull(l.acquire("github.com"));
+    }
+
+    @Test
+    void tryAcquireNeverWaits() throws Exception {
+        HostRateLimiter l = limiter(1);
+        var first = l.tryAcquire("github.com");
+        assertNotNull(first);
+        assertNull(l.tryAcquire("github.com"));
+
+        first.throttled(Duration.ofSeconds(5));
+        // a free slot, but the host is paused
+        assertNull(l.tryAcquire("github.com"));
+        assertNotNull(l.tryAcquire("raw.githubusercontent.com"));
+    }
+
+    @Test
+    void throttleHalvesLimitAndSuccessGrowsIt() throws Exception {
+        HostRateLimiter l = limiter(4);
+        l.acquire("github.com").throttled(Duration.ZERO);
+        assertEquals(2, l.stats().get("github.com").limit());
+
+        for (int i = 0; i < 4; i++) {
+            l.acquire("github.com").success();
+        }
+        assertEquals(3, l.stats().get("github.com").limit());
+    }
+
+    @Test
+    void aBurstOfThrottlesHalvesTheLimitOnce() throws Exception {
+        HostRateLimiter l = limiter(8);
+        List<HostRateLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < 8; i++) permits.add(l.acquire("github.com"));
+        for (var p : permits) p.throttled(Duration.ofSeconds(1));
+
+        var stats = l.stats().get("github.com");
+        assertEquals(4, stats.limit());
+        assertEquals(8, stats.throttled());
+    }
+
+    @Test
+    void retryAfterPausesHost() throws Exception {
+        HostRateLimiter l = new HostRateLimiter(new HostRateLimiter.Options(4, 1, 16, Duration.ofSeconds(2), 10, 3, Duration.ofSeconds(5)));
+        l.acquire("github.com").throttled(Duration.ofMillis(200));
+
+        long start = System.nanoTime();
+        l.acquire("github.com");
+        assertTrue(System.nanoTime() - start >= Duration.ofMillis(150).toNanos());
+    }
+
+    @Test
+    void asyncWaitersAreGrantedFreedSlotsInOrderOrTimeOut() throws Exception {
+        // pinned at one slot, so a success does not raise the limit
+        HostRateLimiter l = new HostRateLimiter(new HostRateLimiter.Options(1, 1, 1, Duration.ofMillis(100), 10, 3, Duration.ofSeconds(5)));
+        var first = l.acquireAsync("github.com").get();
+        var second = l.acquireAsync("github.com");
+        var third = l.acquireAsync("github.com");
+        assertFalse(second.isDone());
+        assertEquals(2, l.stats().get("github.com").queued());
+
+        first.success();
+        assertNotNull(second.get(1, TimeUnit.SECONDS));
+        assertFalse(third.isDone());
+
+        // nobody releases: the third gives up after maxWait
+        ExecutionException e = assertThrows(ExecutionException.class, () -> third.get(1, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+        assertEquals(0, l.stats().get("github.com").queued());
+    }
+
+    @Test
+    void asyncWaitersSitOutRetryAfter() throws Exception {
+        HostRateLimiter l = new HostRateLimiter(new HostRateLimiter.Options(4, 1, 16, Duration.ofSeconds(2), 10, 3, Duration.ofSeconds(5)));
+        l.acquireAsync("github.com").get().throttled(Duration.ofMillis(200));
+
+        long start = System.nanoTime();
+        l.acquireAsync("github.com").get(1, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start >= Duration.ofMillis(150).toNanos());
+    }
+
+    @Test
+    void hostsAreLimitedIndependently() throws Exception {
+        HostRateLimiter l = limiter(1);
+        l.acquire("github.com");
+        assertNotNull(l.acquire("raw.githubusercontent.com"));
+    }
+}
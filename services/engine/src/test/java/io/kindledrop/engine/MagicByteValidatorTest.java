@@ -0,0 +1,136 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.download.ContentValidator;
+import io.kindledrop.engine.download.MagicByteValidator;
+import io.kindledrop.engine.download.UnexpectedContentException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MagicByteValidatorTest {
+
+    private final MagicByteValidator validator = new MagicByteValidator();
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Feeds {@code body} in chunks of {@code chunk} bytes, then ends it. */
+    private void feed(String fileName, String contentType, byte[] body, int chunk) throws Exception {
+        ContentValidator.Check check = validator.begin(fileName, contentType);
+        for (int off = 0; off < body.length; off += chunk) {
+            check.update(body, off, Math.min(chunk, body.length - off));
+        }
+        check.finish();
+    }
+
+    private static byte[] epub(String mimetype) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            byte[] content = ascii(mimetype);
+            ZipEntry entry = new ZipEntry("mimetype");
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            zip.write(content);
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("OEBPS/content.opf"));
+            zip.write(ascii("<package/>"));
+            zip.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] palmDb(String typeAndCreator) {
+        byte[] header = new byte[78];
+        System.arraycopy(ascii(typeAndCreator), 0, header, 60, 8);
+        return header;
+    }
+
+    @Test
+    void acceptsEachFormatByItsMagicBytes() throws Exception {
+        feed("book.pdf", "application/octet-stream", ascii("%PDF-1.7\n1 0 obj"), 3);
+        feed("book.pdf", "", ascii("\r\n\r\n%PDF-1.4\n"), 64);
+        feed("book.epub", "application/octet-stream", epub("application/epub+zip"), 7);
+        feed("book.mobi", "application/octet-stream", palmDb("BOOKMOBI"), 16);
+        feed("book.azw3", "application/x-mobipocket-ebook", palmDb("BOOKMOBI"), 100);
+        feed("book.mobi", null, palmDb("TEXtREAd"), 100);
+    }
+
+    @Test
+    void rejectsAnLfsPointerWithinTheFirstRead() throws Exception {
+        ContentValidator.Check check = validator.begin("book.pdf", "text/plain; charset=utf-8");
+        byte[] pointer = ascii("version https://git-lfs.github.com/spec/v1\noid sha256:4d7a2146\nsize 12345\n");
+
+        UnexpectedContentException e = assertThrows(UnexpectedContentException.class,
+                () -> check.update(pointer, 0, pointer.length));
+        assertTrue(e.getMessage().contains("Git LFS pointer"), e.getMessage());
+    }
+
+    @Test
+    void rejectsAnHtmlPageBeforeThePdfProbeIsFull() throws Exception {
+        ContentValidator.Check check = validator.begin("book.pdf", "application/octet-stream");
+        byte[] page = ascii("\n  <!DOCTYPE html><html><head><title>Page not found</title>");
+
+        UnexpectedContentException e = assertThrows(UnexpectedContentException.class,
+                () -> check.update(ByteBuffer.wrap(page)));
+        assertTrue(e.getMessage().contains("HTML page"), e.getMessage());
+    }
+
+    @Test
+    void rejectsFromTheContentTypeBeforeAnyByte() {
+        assertThrows(UnexpectedContentException.class, () -> validator.begin("book.pdf", "text/html; charset=utf-8"));
+        assertThrows(UnexpectedContentException.class, () -> validator.begin("book.epub", "application/pdf"));
+    }
+
+    @Test
+    void rejectsTheWrongFormatForTheFileName() throws Exception {
+        UnexpectedContentException e = assertThrows(UnexpectedContentException.class,
+                () -> feed("book.epub", "application/octet-stream", ascii("%PDF-1.7\n"), 64));
+        assertTrue(e.getMessage().contains("a PDF"), e.getMessage());
+
+        assertThrows(UnexpectedContentException.class,
+                () -> feed("book.epub", "application/zip", epub("application/vnd.oasis.opendocument.text"), 64));
+        assertThrows(UnexpectedContentException.class,
+                () -> feed("book.mobi", "application/octet-stream", palmDb("DATAPLKR"), 64));
+    }
+
+    @Test
+    void decidesAPdfWithinTheProbeAndIgnoresTheRest() throws Exception {
+        ContentValidator.Check check = validator.begin("book.pdf", "application/octet-stream");
+        byte[] junk = new byte[4096];
+
+        assertThrows(UnexpectedContentException.class, () -> check.update(junk, 0, junk.length));
+
+        ContentValidator.Check ok = validator.begin("book.pdf", "application/octet-stream");
+        byte[] pdf = ascii("%PDF-1.7\n");
+        ok.update(pdf, 0, pdf.length);
+        // once recognized, later bytes are not looked at
+        ok.update(ascii("<html>"), 0, 6);
+        ok.finish();
+    }
+
+    @Test
+    void rejectsABodyThatEndsBeforeItIsRecognized() throws Exception {
+        assertThrows(UnexpectedContentException.class, () -> feed("book.pdf", "application/octet-stream", new byte[0], 1));
+        assertThrows(UnexpectedContentException.class, () -> feed("book.mobi", "application/octet-stream", new byte[40], 8));
+    }
+
+    @Test
+    void noneLetsEverythingThrough() throws Exception {
+        ContentValidator.Check check = ContentValidator.NONE.begin("book.pdf", "text/html");
+        byte[] page = ascii("<html></html>");
+        check.update(page, 0, page.length);
+        check.finish();
+    }
+}
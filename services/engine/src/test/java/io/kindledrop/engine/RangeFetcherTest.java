@@ -0,0 +1,242 @@
+package io.kindledrop.engine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.kindledrop.engine.download.ByteBudget;
+import io.kindledrop.engine.download.DownloadResult;
+import io.kindledrop.engine.download.FileTooLargeException;
+import io.kindledrop.engine.download.HostRateLimiter;
+import io.kindledrop.engine.download.MagicByteValidator;
+import io.kindledrop.engine.download.RangeOptions;
+import io.kindledrop.engine.download.SecureDownloader;
+import io.kindledrop.engine.download.Stager;
+import io.kindledrop.engine.download.UnexpectedContentException;
+import io.kindledrop.engine.metrics.SendMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangeFetcherTest {
+
+    private static final int SIZE = 400 * 1024;
+    private static final int PART = SIZE / 4;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final byte[] book = book();
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final List<String> ifRanges = new CopyOnWriteArrayList<>();
+    private final Set<Long> dropped = ConcurrentHashMap.newKeySet();
+
+    // how the server misbehaves, per test
+    private volatile String etag = "\"v1\"";
+    private volatile boolean ignoreRanges;
+    private volatile boolean dropOnce;
+    private volatile boolean shiftContentRange;
+    private volatile byte[] fullBody;
+    private volatile String fullType = "application/pdf";
+    private volatile byte[] firstBody;
+    private volatile boolean slowRanges;
+
+    private HttpServer server;
+    private ExecutorService handlers;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.createContext("/book.pdf", this::serve);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Test
+    void downloadsInParallelRangesWithIfRange() throws Exception {
+        DownloadResult result = download(10L * SIZE, bytes -> {});
+        try {
+            assertArrayEquals(book, Files.readAllBytes(result.content().file()));
+            // range 0 comes from the initial GET
+            assertEquals(3, ranges.size(), ranges.toString());
+            assertTrue(ranges.containsAll(List.of(range(1), range(2), range(3))), ranges.toString());
+            assertEquals(List.of("\"v1\"", "\"v1\"", "\"v1\""), ifRanges);
+        } finally {
+            result.content().release();
+        }
+    }
+
+    @Test
+    void aWeakEtagIsNotSentAsIfRange() throws Exception {
+        etag = "W/\"v1\"";
+        DownloadResult result = download(10L * SIZE, bytes -> {});
+        result.content().release();
+        assertEquals(3, ranges.size());
+        assertTrue(ifRanges.isEmpty(), ifRanges.toString());
+    }
+
+    @Test
+    void aDroppedRangeResumesFromItsLastByte() throws Exception {
+        dropOnce = true;
+        DownloadResult result = download(10L * SIZE, bytes -> {});
+        try {
+            assertArrayEquals(book, Files.readAllBytes(result.content().file()));
+            assertEquals(Set.of((long) PART, 2L * PART, 3L * PART), dropped);
+            // each range was cut after half of it, and the retry asked only for the rest
+            for (int i = 1; i < 4; i++) {
+                long resumeAt = (long) i * PART + PART / 2;
+                assertTrue(ranges.contains("bytes=" + resumeAt + "-" + ((long) (i + 1) * PART - 1)), ranges.toString());
+            }
+        } finally {
+            result.content().release();
+        }
+    }
+
+    @Test
+    void fallsBackToOneStreamWhenRangesAreIgnored() throws Exception {
+        ignoreRanges = true;
+        DownloadResult result = download(10L * SIZE, bytes -> {});
+        try {
+            assertArrayEquals(book, Files.readAllBytes(result.content().file()));
+            assertEquals(SIZE, result.bytes());
+        } finally {
+            result.content().release();
+        }
+    }
+
+    @Test
+    void theFallbackResponseIsCheckedLikeTheFirst() {
+        // the file changed between the first GET and the fallback
+        ignoreRanges = true;
+        fullBody = new byte[3 * SIZE];
+        List<Long> charges = new CopyOnWriteArrayList<>();
+        assertThrows(FileTooLargeException.class, () -> download(2L * SIZE, charges::add));
+        assertEquals(List.of((long) SIZE), charges);
+
+        fullBody = "<!DOCTYPE html><html><body>Sign in</body></html>".repeat(10_000).getBytes(StandardCharsets.US_ASCII);
+        fullType = "text/html";
+        charges.clear();
+        ranges.clear();
+        assertThrows(UnexpectedContentException.class, () -> download(10L * SIZE, charges::add));
+        assertEquals(List.of((long) SIZE, (long) fullBody.length), charges);
+    }
+
+    @Test
+    void aWrongFirstRangeFailsWithoutWaitingForTheOthers() {
+        byte[] page = "<!DOCTYPE html><html><body>Sign in</body></html>".repeat(SIZE / 48 + 1).getBytes(StandardCharsets.US_ASCII);
+        firstBody = Arrays.copyOf(page, SIZE);
+        slowRanges = true;
+        long t0 = System.nanoTime();
+        assertThrows(UnexpectedContentException.class, () -> download(10L * SIZE, bytes -> {}));
+        assertTrue(System.nanoTime() - t0 < TimeUnit.SECONDS.toNanos(2), "the other ranges were not awaited");
+    }
+
+    @Test
+    void aMismatchedContentRangeFailsTheDownload() {
+        shiftContentRange = true;
+        IOException e = assertThrows(IOException.class, () -> download(10L * SIZE, bytes -> {}));
+        assertTrue(e.getMessage().contains("Content-Range"), e.getMessage());
+        // retried up to maxAttempts, then given up
+        assertTrue(ranges.size() <= 3 * 3, ranges.toString());
+    }
+
+    private DownloadResult download(long maxBytes, ByteBudget budget) throws Exception {
+        String origin = "http://127.0.0.1:" + server.getAddress().getPort();
+        SecureDownloader downloader = new SecureDownloader(null, new RangeOptions(4, 1, 3),
+                new HostRateLimiter(HostRateLimiter.Options.DEFAULTS), SendMetrics.noop(), Stager.diskOnly(),
+                List.of(origin), new MagicByteValidator());
+        return downloader.downloadToTemp(URI.create(origin + "/book.pdf"), "book.pdf", maxBytes, budget);
+    }
+
+    private void serve(HttpExchange ex) throws IOException {
+        String range = ex.getRequestHeaders().getFirst("Range");
+        if (range == null) {
+            // the initial GET, or the fallback once ranges were refused
+            byte[] body = fullBody != null && !ranges.isEmpty() ? fullBody : firstBody != null ? firstBody : book;
+            String type = fullBody != null && !ranges.isEmpty() ? fullType : "application/pdf";
+            ex.getResponseHeaders().set("Content-Type", type);
+            ex.getResponseHeaders().set("Accept-Ranges", "bytes");
+            ex.getResponseHeaders().set("ETag", etag);
+            write(ex, 200, body, body.length);
+            return;
+        }
+        ranges.add(range);
+        if (slowRanges) {
+            try {
+                Thread.sleep(3_000);
+            } catch (InterruptedException e) {
+                ex.close();
+                return;
+            }
+        }
+        String ifRange = ex.getRequestHeaders().getFirst("If-Range");
+        if (ifRange != null) ifRanges.add(ifRange);
+        if (ignoreRanges) {
+            ex.getResponseHeaders().set("Content-Type", "application/pdf");
+            write(ex, 200, book, book.length);
+            return;
+        }
+        Matcher m = RANGE.matcher(range);
+        assertTrue(m.matches(), range);
+        int from = Integer.parseInt(m.group(1));
+        int to = Integer.parseInt(m.group(2));
+        int start = shiftContentRange ? from + 1 : from;
+        byte[] part = new byte[to - from + 1];
+        System.arraycopy(book, from, part, 0, part.length);
+        ex.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + to + "/" + SIZE);
+        if (dropOnce && from % PART == 0 && dropped.add((long) from)) {
+            // announce the whole range, send half of it, then hang up
+            write(ex, 206, part, part.length / 2);
+            return;
+        }
+        write(ex, 206, part, part.length);
+    }
+
+    private static void write(HttpExchange ex, int status, byte[] body, int send) {
+        try {
+            ex.sendResponseHeaders(status, body.length);
+            OutputStream out = ex.getResponseBody();
+            out.write(body, 0, send);
+            out.flush();
+        } catch (IOException ignored) {
+            // the client stopped reading, e.g. after range 0 of the initial GET
+        } finally {
+            ex.close();
+        }
+    }
+
+    private static String range(int i) {
+        return "bytes=" + (long) i * PART + "-" + ((long) (i + 1) * PART - 1);
+    }
+
+    private static byte[] book() {
+        byte[] body = new byte[SIZE];
+        new Random(7).nextBytes(body);
+        byte[] magic = "%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(magic, 0, body, 0, magic.length);
+        return body;
+    }
+}
@@ -0,0 +1,95 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.download.StagedContent;
+import io.kindledrop.engine.metrics.SendEvents;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SendEventsTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void correlationIsScopedAndCarriedExplicitly() throws Exception {
+        assertEquals("", SendEvents.correlationId());
+        AtomicReference<String> seen = new AtomicReference<>();
+        AtomicReference<String> carried = new AtomicReference<>();
+        try (var outer = SendEvents.correlate("req-1")) {
+            try (var inner = SendEvents.correlate("job-2")) {
+                assertEquals("job-2", SendEvents.correlationId());
+            }
+            assertEquals("req-1", SendEvents.correlationId());
+            // a new thread, e.g. one a pool creates on demand, does not pick the id up by itself
+            Thread t = new Thread(() -> seen.set(SendEvents.correlationId()));
+            t.start();
+            t.join();
+            Callable<String> task = SendEvents.carry(SendEvents::correlationId);
+            Thread c = new Thread(() -> {
+                try {
+                    carried.set(task.call());
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+            c.start();
+            c.join();
+        }
+        assertEquals("", seen.get());
+        assertEquals("req-1", carried.get());
+        assertEquals("", SendEvents.correlationId());
+        assertTrue(SendEvents.newId().matches("[0-9a-f]{16}"));
+    }
+
+    @Test
+    void recordsStagesWithTheCorrelationId() throws Exception {
+        Path file = tmp.resolve("stage").resolve("book.pdf");
+        Files.createDirectories(file.getParent());
+        Files.write(file, new byte[1234]);
+        Path dump = tmp.resolve("send.jfr");
+
+        try (Recording recording = new Recording()) {
+            for (Class<? extends Event> type : SendEvents.TYPES) recording.enable(type);
+            recording.start();
+            try (var ignored = SendEvents.correlate("req-1")) {
+                SendEvents.HttpExchange exchange = new SendEvents.HttpExchange();
+                exchange.begin();
+                exchange.finish(SendEvents.correlationId(), "github.com", 302, 0, 1, false);
+                StagedContent.onDisk(file).release();
+            }
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        RecordedEvent exchange = only(events, "io.kindledrop.HttpExchange");
+        assertEquals("req-1", exchange.getString("correlationId"));
+        assertEquals("github.com", exchange.getString("host"));
+        assertEquals(302, exchange.getInt("status"));
+        assertTrue(exchange.getBoolean("redirect"));
+
+        RecordedEvent cleanup = only(events, "io.kindledrop.Cleanup");
+        assertEquals("req-1", cleanup.getString("correlationId"));
+        assertEquals(1234, cleanup.getLong("bytes"));
+        assertTrue(cleanup.getBoolean("onDisk"));
+        assertFalse(Files.exists(file));
+    }
+
+    private static RecordedEvent only(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> matching = events.stream().filter(e -> e.getEventType().getName().equals(name)).toList();
+        assertEquals(1, matching.size(), name);
+        return matching.get(0);
+    }
+}
@@ -0,0 +1,202 @@
+package io.kindledrop.engine;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.kindledrop.engine.api.JobController;
+import io.kindledrop.engine.api.SendController;
+import io.kindledrop.engine.api.SendRequest;
+import io.kindledrop.engine.api.SendResponse;
+import io.kindledrop.engine.config.KindleDropProperties;
+import io.kindledrop.engine.service.SendJob;
+import io.kindledrop.engine.service.SendJobService;
+import io.kindledrop.engine.service.SendToKindleService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+public class SendJobServiceTest {
+
+    private static final String DRY_RUN = "{\"url\":\"https://github.com/org/repo/blob/main/book.pdf\",\"kindleEmail\":\"me@kindle.com\",\"dryRun\":true}";
+
+    private final ObjectMapper json = new ObjectMapper();
+    private final CountDownLatch unstall = new CountDownLatch(1);
+    private HttpServer server;
+    private ExecutorService handlers;
+    private SendToKindleService sendService;
+    private SendJobService jobs;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.createContext("/stalled.pdf", ex -> {
+            ex.getResponseHeaders().set("Content-Type", "application/pdf");
+            ex.sendResponseHeaders(200, 1024);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write("%PDF-1.7\n".getBytes());
+                out.flush();
+                unstall.await();
+            } catch (InterruptedException | IOException e) {
+                // stopped by the test
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        unstall.countDown();
+        if (jobs != null) jobs.shutdown();
+        if (sendService != null) sendService.shutdown();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Test
+    void aSubmittedJobCanBePolledUntilItIsDone() throws Exception {
+        start(TestProperties.jobs(2, 10, true));
+
+        MvcResult submitted = mvc.perform(post("/api/jobs").contentType(MediaType.APPLICATION_JSON).content(DRY_RUN))
+                .andExpect(status().isAccepted())
+                .andReturn();
+        String id = json.readTree(submitted.getResponse().getContentAsString()).get("id").asText();
+        assertEquals("/api/jobs/" + id, submitted.getResponse().getHeader("Location"));
+
+        String state = null;
+        for (int i = 0; i < 100 && !"SUCCEEDED".equals(state); i++) {
+            if (state != null) Thread.sleep(20);
+            MvcResult polled = mvc.perform(get("/api/jobs/" + id)).andExpect(status().isOk()).andReturn();
+            state = json.readTree(polled.getResponse().getContentAsString()).get("state").asText();
+            assertNotEquals("FAILED", state);
+        }
+        assertEquals("SUCCEEDED", state);
+        assertTrue(jobs.find(id).orElseThrow().result().ok());
+
+        mvc.perform(get("/api/jobs/no-such-job")).andExpect(status().isNotFound());
+    }
+
+    @Test
+    void aFullQueueIsAServiceUnavailableWithRetryAfter() throws Exception {
+        start(TestProperties.jobs(1, 1, false));
+
+        // holds the only worker; then one job fits the queue and the next does not
+        SendJob running = jobs.submit(stalledSend());
+        awaitState(running, SendJob.State.RUNNING);
+        SendJob queued = jobs.submit(stalledSend());
+        assertEquals(SendJob.State.QUEUED, queued.state());
+
+        mvc.perform(post("/api/jobs").contentType(MediaType.APPLICATION_JSON).content(json.writeValueAsString(stalledSend())))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "5"))
+                .andExpect(jsonPath("$.ok").value(false));
+        assertEquals(1, jobs.queueDepth());
+    }
+
+    @Test
+    void finishedJobsAreSweptAfterTheRetention() throws Exception {
+        start(new KindleDropProperties.Jobs(2, 10, false, Duration.ofMillis(500), false, DataSize.ofMegabytes(1), Duration.ofSeconds(2)));
+
+        SendJob first = jobs.submit(dryRun());
+        awaitState(first, SendJob.State.SUCCEEDED);
+        assertTrue(jobs.find(first.id()).isPresent());
+
+        // the sweep runs on submit: a fresh job stays, one finished longer ago than the retention goes
+        SendJob second = jobs.submit(dryRun());
+        assertTrue(jobs.find(first.id()).isPresent());
+        Thread.sleep(700);
+        SendJob third = jobs.submit(dryRun());
+
+        assertTrue(jobs.find(first.id()).isEmpty());
+        assertTrue(jobs.find(third.id()).isPresent());
+        awaitState(second, SendJob.State.SUCCEEDED);
+    }
+
+    @Test
+    void asyncAndNonBlockingMapToOneHandlerEach() throws Exception {
+        start(TestProperties.jobs(2, 10, true));
+
+        mvc.perform(post("/api/send?async=true").contentType(MediaType.APPLICATION_JSON).content(DRY_RUN))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.id").exists());
+        mvc.perform(post("/api/send?nonBlocking=true").contentType(MediaType.APPLICATION_JSON).content(DRY_RUN))
+                .andExpect(request().asyncStarted());
+        mvc.perform(post("/api/send?async=true&nonBlocking=true").contentType(MediaType.APPLICATION_JSON).content(DRY_RUN))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("async and nonBlocking cannot be combined."));
+        mvc.perform(post("/api/send").contentType(MediaType.APPLICATION_JSON).content(DRY_RUN))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ok").value(true));
+    }
+
+    @Test
+    void aClusterSendGetsTheOutcomeOfAJobThisNodeRan(@TempDir Path dir) throws Exception {
+        TestProperties props = new TestProperties();
+        props.cluster = new KindleDropProperties.Cluster(true, dir.toString(), "a", Duration.ofSeconds(30), Duration.ofSeconds(10));
+        start(props);
+
+        long t0 = System.nanoTime();
+        SendResponse response = jobs.sendShared(dryRun());
+        assertTrue(System.nanoTime() - t0 < TimeUnit.SECONDS.toNanos(1));
+        assertTrue(response.ok(), response.message());
+        assertTrue(Files.list(dir.resolve("results")).findAny().isPresent());
+    }
+
+    private void start(KindleDropProperties.Jobs jobProps) {
+        TestProperties props = new TestProperties();
+        props.jobs = jobProps;
+        start(props);
+    }
+
+    private void start(TestProperties props) {
+        props.download = TestProperties.download(List.of(origin()));
+        KindleDropProperties built = props.build();
+        sendService = new SendToKindleService(built, new SimpleMeterRegistry());
+        jobs = new SendJobService(sendService, built);
+        mvc = MockMvcBuilders.standaloneSetup(new JobController(jobs), new SendController(sendService, null, null, jobs, json))
+                .build();
+    }
+
+    private SendRequest dryRun() {
+        return new SendRequest("https://github.com/org/repo/blob/main/book.pdf", "me@kindle.com", true, null, null);
+    }
+
+    private SendRequest stalledSend() {
+        return new SendRequest(origin() + "/stalled.pdf", "me@kindle.com", false,
+                new SendRequest.SmtpConfig("127.0.0.1", 1, "user", "from@example.com", false, false, "secret"), null);
+    }
+
+    private String origin() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static void awaitState(SendJob job, SendJob.State state) throws InterruptedException {
+        for (int i = 0; i < 250 && job.state() != state; i++) Thread.sleep(20);
+        assertEquals(state, job.state());
+    }
+}
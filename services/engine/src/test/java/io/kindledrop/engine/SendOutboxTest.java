@@ -0,0 +1,80 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.outbox.SendOutbox;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SendOutboxTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void replaysUnfinishedJobsWithAttempts() throws Exception {
+        try (SendOutbox outbox = open()) {
+            outbox.recover();
+            outbox.accepted(entry("a"));
+            outbox.accepted(entry("b"));
+            outbox.attempt("a", 1);
+            outbox.attempt("a", 2);
+            outbox.done("b");
+        }
+
+        try (SendOutbox outbox = open()) {
+            List<SendOutbox.Entry> pending = outbox.recover();
+            assertEquals(1, pending.size());
+            assertEquals("a", pending.get(0).id());
+            assertEquals(2, pending.get(0).attempts());
+            assertEquals("smtp.example.com", pending.get(0).smtp().host());
+        }
+    }
+
+    @Test
+    void compactsCompletedSegments() throws Exception {
+        try (SendOutbox outbox = open()) {
+            outbox.recover();
+            for (int i = 0; i < 200; i++) {
+                outbox.accepted(entry("job-" + i));
+                outbox.done("job-" + i);
+            }
+            assertEquals(1, outbox.stats().segments());
+            assertEquals(0, outbox.stats().pending());
+        }
+    }
+
+    @Test
+    void ignoresTornTailRecord() throws Exception {
+        try (SendOutbox outbox = open()) {
+            outbox.recover();
+            outbox.accepted(entry("a"));
+        }
+        Path last;
+        try (Stream<Path> files = Files.list(tmp)) {
+            last = files.sorted().reduce((x, y) -> y).orElseThrow();
+        }
+        Files.write(last, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (SendOutbox outbox = open()) {
+            assertEquals(List.of("a"), outbox.recover().stream().map(SendOutbox.Entry::id).toList());
+        }
+    }
+
+    private SendOutbox open() throws Exception {
+        return new SendOutbox(tmp, 1024);
+    }
+
+    private static SendOutbox.Entry entry(String id) {
+        return new SendOutbox.Entry(id, Instant.now(), "https://github.com/o/r/blob/main/" + id + ".pdf",
+                "https://raw.githubusercontent.com/o/r/main/" + id + ".pdf", "me@kindle.com", false, 0,
+                new SendOutbox.SmtpProfile("smtp.example.com", 587, "user", "me@example.com", true, false), 0);
+    }
+}
@@ -0,0 +1,118 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.service.SendQueue;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SendQueueTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    void smallestExpectedDownloadGoesFirst() {
+        SendQueue queue = new SendQueue(10, MB);
+        queue.offer(task(SendQueue.Lane.SEND, 30 * MB, "large"));
+        queue.offer(task(SendQueue.Lane.SEND, 2 * MB, "medium"));
+        queue.offer(task(SendQueue.Lane.SEND, 100_000, "small"));
+
+        assertEquals(List.of("small", "medium", "large"), drain(queue));
+    }
+
+    @Test
+    void equalCostsKeepArrivalOrder() {
+        SendQueue queue = new SendQueue(10, MB);
+        for (int i = 0; i < 5; i++) queue.offer(task(SendQueue.Lane.SEND, MB, "job-" + i));
+
+        assertEquals(List.of("job-0", "job-1", "job-2", "job-3", "job-4"), drain(queue));
+    }
+
+    @Test
+    void ageingLetsALargeJobPassLaterSmallOnes() throws Exception {
+        // 1 KB counts as one second, so a 100-byte job is held back by 0.1 s
+        SendQueue queue = new SendQueue(10, 1000);
+        queue.offer(task(SendQueue.Lane.SEND, 100, "large"));
+        Thread.sleep(200);
+        queue.offer(task(SendQueue.Lane.SEND, 0, "small"));
+
+        assertEquals(List.of("large", "small"), drain(queue));
+    }
+
+    @Test
+    void dryRunsHaveTheirOwnLane() {
+        SendQueue queue = new SendQueue(10, MB);
+        queue.offer(task(SendQueue.Lane.SEND, 0, "send"));
+        queue.offer(task(SendQueue.Lane.DRY_RUN, 0, "dry-1"));
+        queue.offer(task(SendQueue.Lane.DRY_RUN, 0, "dry-2"));
+
+        SendQueue.Stats stats = queue.stats();
+        assertEquals(2, stats.dryRuns());
+        assertEquals(1, stats.sends());
+        assertEquals(List.of("dry-1", "dry-2", "send"), drain(queue));
+    }
+
+    @Test
+    void rejectsOverCapacityAcrossLanes() {
+        SendQueue queue = new SendQueue(2, MB);
+        assertTrue(queue.offer(task(SendQueue.Lane.SEND, MB, "a")));
+        assertTrue(queue.offer(task(SendQueue.Lane.DRY_RUN, 0, "b")));
+        assertFalse(queue.offer(task(SendQueue.Lane.SEND, 0, "c")));
+        assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    void executorRunsQueuedJobsShortestFirst() throws Exception {
+        SendQueue queue = new SendQueue(10, MB);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, queue);
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        try {
+            executor.execute(new SendQueue.Task(SendQueue.Lane.SEND, 0, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }));
+            for (var t : List.of(task(SendQueue.Lane.SEND, 30 * MB, "pdf"), task(SendQueue.Lane.SEND, MB, "epub"),
+                    task(SendQueue.Lane.DRY_RUN, 0, "dry"))) {
+                String name = ((Named) t.body()).name;
+                executor.execute(new SendQueue.Task(t.lane(), t.cost(), () -> {
+                    ran.add(name);
+                    done.countDown();
+                }));
+            }
+            assertEquals(3, executor.getQueue().size());
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of("dry", "epub", "pdf"), ran);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static SendQueue.Task task(SendQueue.Lane lane, long cost, String name) {
+        return new SendQueue.Task(lane, cost, new Named(name));
+    }
+
+    private static List<String> drain(SendQueue queue) {
+        List<Runnable> tasks = new ArrayList<>();
+        queue.drainTo(tasks);
+        return tasks.stream().map(t -> ((Named) ((SendQueue.Task) t).body()).name).toList();
+    }
+
+    private record Named(String name) implements Runnable {
+        @Override
+        public void run() {
+        }
+    }
+}
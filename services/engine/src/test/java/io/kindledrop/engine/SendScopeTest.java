@@ -0,0 +1,105 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.service.SendScope;
+import io.kindledrop.engine.service.StageTimeoutException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SendScopeTest {
+
+    @Test
+    void cancelsAStageThatOverrunsAndWaitsForIt() {
+        SendScope scope = SendScope.unbounded();
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicBoolean finished = new AtomicBoolean();
+
+        StageTimeoutException e = assertThrows(StageTimeoutException.class, () -> scope.run("mail", Duration.ofMillis(50), () -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException ie) {
+                interrupted.set(true);
+                Thread.sleep(100);
+            } finally {
+                finished.set(true);
+            }
+            return null;
+        }));
+
+        assertEquals("mail", e.stage());
+        assertTrue(interrupted.get());
+        // the stage thread was joined before run() gave up
+        assertTrue(finished.get());
+    }
+
+    @Test
+    void discardsAResultThatArrivesAfterTheDeadline() {
+        SendScope scope = SendScope.unbounded();
+        AtomicReference<String> discarded = new AtomicReference<>();
+
+        assertThrows(StageTimeoutException.class, () -> scope.run("download", Duration.ofMillis(20), () -> {
+            // ignores the interrupt, as a stage stuck in uninterruptible I/O would
+            CountDownLatch never = new CountDownLatch(1);
+            long until = System.nanoTime() + 200_000_000L;
+            while (System.nanoTime() < until) {
+                try {
+                    never.await(10, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            return "late.pdf";
+        }, discarded::set));
+
+        assertEquals("late.pdf", discarded.get());
+    }
+
+    @Test
+    void detachesAStageThatOutlastsTheGraceAndStillDiscardsItsResult() throws Exception {
+        SendScope scope = new SendScope(null, Duration.ofMillis(50));
+        CountDownLatch discarded = new CountDownLatch(1);
+        AtomicReference<String> result = new AtomicReference<>();
+
+        long t0 = System.nanoTime();
+        assertThrows(StageTimeoutException.class, () -> scope.run("download", Duration.ofMillis(20), () -> {
+            CountDownLatch never = new CountDownLatch(1);
+            long until = System.nanoTime() + 1_000_000_000L;
+            while (System.nanoTime() < until) {
+                try {
+                    never.await(10, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            return "late.pdf";
+        }, r -> {
+            result.set(r);
+            discarded.countDown();
+        }));
+
+        // the caller moved on after the stage timeout plus the grace, not after the stage
+        assertTrue(System.nanoTime() - t0 < 700_000_000L);
+        assertNull(result.get());
+        assertTrue(discarded.await(5, TimeUnit.SECONDS));
+        assertEquals("late.pdf", result.get());
+    }
+
+    @Test
+    void theOverallDeadlineSpansStagesAndFailuresPassThrough() throws Exception {
+        SendScope scope = new SendScope(Duration.ofMillis(150));
+
+        assertEquals("ok", scope.run("download", null, () -> "ok"));
+        assertThrows(IOException.class, () -> scope.run("download", null, () -> {
+            throw new IOException("boom");
+        }));
+
+        Thread.sleep(200);
+        StageTimeoutException e = assertThrows(StageTimeoutException.class, () -> scope.run("mail", Duration.ofMinutes(1), () -> "late"));
+        assertEquals("mail", e.stage());
+    }
+}
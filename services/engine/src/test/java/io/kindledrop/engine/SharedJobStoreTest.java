@@ -0,0 +1,267 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.outbox.SendOutbox;
+import io.kindledrop.engine.outbox.SharedJobStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SharedJobStoreTest {
+
+    private static final Duration TTL = Duration.ofSeconds(30);
+
+    @TempDir
+    Path tmp;
+
+    private final TestClock clock = new TestClock();
+
+    @Test
+    void onlyOneNodeClaimsAJob() throws Exception {
+        SharedJobStore a = open("a");
+        SharedJobStore b = open("b");
+        a.add(entry("job-1"), null);
+
+        assertEquals(List.of("job-1"), b.due());
+        SharedJobStore.Lease lease = b.tryClaim("job-1");
+        assertNotNull(lease);
+        assertNull(a.tryClaim("job-1"));
+        assertNull(b.tryClaim("job-1"));
+        assertEquals("b", a.status("job-1").orElseThrow().runningOn());
+    }
+
+    @Test
+    void takesOverAnExpiredLeaseAndFencesTheOldHolder() throws Exception {
+        SharedJobStore a = open("a");
+        SharedJobStore b = open("b");
+        a.add(entry("job-1"), null);
+        SharedJobStore.Lease stale = a.tryClaim("job-1");
+
+        // still within the TTL plus the skew allowance
+        clock.advance(TTL.plusSeconds(5));
+        assertNull(b.tryClaim("job-1"));
+
+        clock.advance(TTL);
+        SharedJobStore.Lease taken = b.tryClaim("job-1");
+        assertNotNull(taken);
+        assertTrue(taken.epoch() > stale.epoch());
+        assertFalse(a.renew(stale));
+        assertTrue(b.renew(taken));
+    }
+
+    @Test
+    void renewingKeepsTheJob() throws Exception {
+        SharedJobStore a = open("a");
+        SharedJobStore b = open("b");
+        a.add(entry("job-1"), null);
+        SharedJobStore.Lease lease = a.tryClaim("job-1");
+
+        for (int i = 0; i < 5; i++) {
+            clock.advance(TTL.dividedBy(3));
+            assertTrue(a.renew(lease));
+            assertNull(b.tryClaim("job-1"));
+        }
+    }
+
+    @Test
+    void completionRecordsTheResultForEveryNode() throws Exception {
+        SharedJobStore a = open("a");
+        SharedJobStore b = open("b");
+        a.add(entry("job-1"), null);
+        SharedJobStore.Lease lease = b.tryClaim("job-1");
+
+        b.complete(lease, new SharedJobStore.Result("job-1", true, "Sent.", "https://raw.githubusercontent.com/o/r/main/job-1.pdf",
+                "job-1.pdf", 1234, Instant.EPOCH, clock.instant(), clock.instant(), 1, "b"));
+
+        SharedJobStore.Result result = a.status("job-1").orElseThrow().result();
+        assertTrue(result.ok());
+        assertEquals(1234, result.bytes());
+        assertEquals("b", result.node());
+        assertEquals(List.of(), a.due());
+        assertNull(a.tryClaim("job-1"));
+        assertFalse(b.renew(lease));
+    }
+
+    @Test
+    void aStaleHolderCannotCompleteOrUndoTheTakeover() throws Exception {
+        SharedJobStore a = open("a");
+        SharedJobStore b = open("b");
+        a.add(entry("job-1"), null);
+        SharedJobStore.Lease stale = a.tryClaim("job-1");
+        clock.advance(TTL.multipliedBy(3));
+        SharedJobStore.Lease taken = b.tryClaim("job-1");
+        assertNotNull(taken);
+
+        assertFalse(a.holds(stale));
+        assertFalse(a.complete(stale, new SharedJobStore.Result("job-1", true, "Sent.", null, "job-1.pdf", 1234,
+                Instant.EPOCH, clock.instant(), clock.instant(), 1, "a")));
+        assertNull(b.status("job-1").orElseThrow().result());
+        assertEquals("b", a.status("job-1").orElseThrow().runningOn());
+        assertTrue(b.renew(taken));
+        assertTrue(b.complete(taken, new SharedJobStore.Result("job-1", true, "Sent.", null, "job-1.pdf", 1234,
+                Instant.EPOCH, clock.instant(), clock.instant(), 2, "b")));
+        assertEquals("b", a.status("job-1").orElseThrow().result().node());
+    }
+
+    @Test
+    void aTakeoverAfterMailingBeganIsToldSo() throws Exception {
+        SharedJobStore a = open("a");
+        SharedJobStore b = open("b");
+        a.add(entry("job-1"), null);
+        a.add(entry("job-2"), null);
+
+        SharedJobStore.Lease stale = a.tryClaim("job-1");
+        assertTrue(a.markSending(stale));
+        clock.advance(TTL.multipliedBy(3));
+        SharedJobStore.Lease taken = b.tryClaim("job-1");
+        assertEquals("a", taken.interruptedOn());
+        assertFalse(a.markSending(stale));
+
+        // a holder that saw its attempt fail hands the job back unmarked
+        SharedJobStore.Lease lease = a.tryClaim("job-2");
+        assertNull(lease.interruptedOn());
+        assertTrue(a.markSending(lease));
+        a.release(lease, lease.entry().withAttempts(1), clock.instant());
+        assertNull(b.tryClaim("job-2").interruptedOn());
+    }
+
+    @Test
+    void releasedJobWaitsOutItsBackoff() throws Exception {
+        SharedJobStore a = open("a");
+        a.add(entry("job-1"), null);
+        SharedJobStore.Lease lease = a.tryClaim("job-1");
+
+        a.release(lease, lease.entry().withAttempts(1), clock.instant().plusSeconds(60));
+        assertEquals(List.of(), a.due());
+        assertEquals(1, a.status("job-1").orElseThrow().entry().attempts());
+
+        clock.advance(Duration.ofSeconds(61));
+        assertEquals(List.of("job-1"), a.due());
+        assertNotNull(open("b").tryClaim("job-1"));
+    }
+
+    @Test
+    void aRenewalRacingAReleaseNeverRestoresTheLease() throws Exception {
+        SharedJobStore a = open("a");
+        for (int i = 0; i < 50; i++) {
+            String id = "job-" + i;
+            a.add(entry(id), null);
+            SharedJobStore.Lease lease = a.tryClaim(id);
+            CountDownLatch go = new CountDownLatch(1);
+            Thread heartbeat = Thread.ofPlatform().start(() -> {
+                try {
+                    go.await();
+                    long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+                    while (System.nanoTime() < until && a.renew(lease)) Thread.onSpinWait();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            go.countDown();
+            a.release(lease, lease.entry(), clock.instant());
+            heartbeat.join();
+
+            // the released lease stays gone, so the job is free at once
+            assertNull(a.status(id).orElseThrow().runningOn());
+            assertFalse(a.renew(lease));
+        }
+    }
+
+    @Test
+    void pinnedJobOnlyRunsOnItsNode() throws Exception {
+        SharedJobStore a = open("a");
+        SharedJobStore b = open("b");
+        a.add(entry("job-1"), "a");
+
+        assertNull(b.tryClaim("job-1"));
+        assertNotNull(a.tryClaim("job-1"));
+    }
+
+    @Test
+    void concurrentNodesClaimEachJobOnce() throws Exception {
+        List<SharedJobStore> nodes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) nodes.add(open("node-" + i));
+        for (int i = 0; i < 50; i++) nodes.get(0).add(entry("job-" + i), null);
+
+        Set<String> claimed = ConcurrentHashMap.newKeySet();
+        List<String> duplicates = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (SharedJobStore node : nodes) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                try {
+                    start.await();
+                    for (String id : node.due()) {
+                        if (node.tryClaim(id) != null && !claimed.add(id)) {
+                            synchronized (duplicates) {
+                                duplicates.add(id);
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        start.countDown();
+        for (Thread t : threads) t.join();
+
+        assertEquals(List.of(), duplicates);
+        assertEquals(50, claimed.size());
+    }
+
+    @Test
+    void rejectsIdsThatAreNotPlainNames() throws Exception {
+        SharedJobStore a = open("a");
+        assertTrue(a.status("../jobs/x").isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> a.tryClaim("../x"));
+    }
+
+    private SharedJobStore open(String node) throws Exception {
+        return new SharedJobStore(tmp, node, TTL, clock);
+    }
+
+    private static SendOutbox.Entry entry(String id) {
+        return new SendOutbox.Entry(id, Instant.now(), "https://github.com/o/r/blob/main/" + id + ".pdf",
+                "https://raw.githubusercontent.com/o/r/main/" + id + ".pdf", "me@kindle.com", false, 0,
+                new SendOutbox.SmtpProfile("smtp.example.com", 587, "user", "me@example.com", true, false), 0);
+    }
+
+    /** Wall clock that only moves when told to; starts at the real time so file mtimes line up. */
+    private static final class TestClock extends Clock {
+
+        private volatile Instant now = Instant.ofEpochMilli(System.currentTimeMillis() / 1000 * 1000);
+
+        void advance(Duration d) {
+            now = now.plus(d);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
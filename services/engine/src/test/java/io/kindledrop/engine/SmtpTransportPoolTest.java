@@ -0,0 +1,47 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.mail.KindleMailSender;
+import io.kindledrop.engine.mail.SmtpTransportPool;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SmtpTransportPoolTest {
+
+    @Test
+    void keepsAtMostMaxKeysDroppingTheLeastRecentlyUsed() {
+        try (SmtpTransportPool pool = new SmtpTransportPool(2, 3, Duration.ofMinutes(5), Duration.ofSeconds(5), Duration.ofSeconds(1))) {
+            var a = pool.session(smtp("a"));
+            var b = pool.session(smtp("b"));
+            pool.session(smtp("c"));
+            // a is now the most recently used, so b goes first
+            assertSame(a, pool.session(smtp("a")));
+            pool.session(smtp("d"));
+
+            assertEquals(3, pool.stats().keys());
+            assertEquals(1, pool.stats().keyEvictions());
+            assertSame(a, pool.session(smtp("a")));
+            assertNotSame(b, pool.session(smtp("b")));
+            assertEquals(3, pool.stats().keys());
+        }
+    }
+
+    @Test
+    void dropsKeysThatHaveNoConnectionLeft() throws Exception {
+        try (SmtpTransportPool pool = new SmtpTransportPool(2, 100, Duration.ofMillis(200), Duration.ofSeconds(5), Duration.ofSeconds(1))) {
+            for (int i = 0; i < 10; i++) pool.session(smtp("password-" + i));
+            assertEquals(10, pool.stats().keys());
+
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (pool.stats().keys() > 0 && System.nanoTime() < deadline) Thread.sleep(50);
+            assertEquals(0, pool.stats().keys());
+            assertEquals(10, pool.stats().keyEvictions());
+        }
+    }
+
+    private static KindleMailSender.Smtp smtp(String password) {
+        return new KindleMailSender.Smtp("smtp.example.com", 587, "user", "user@example.com", true, false, password);
+    }
+}
@@ -0,0 +1,117 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.download.BufferPool;
+import io.kindledrop.engine.download.StagedContent;
+import io.kindledrop.engine.download.Stager;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StagerTest {
+
+    private static byte[] bytes(int n) {
+        byte[] b = new byte[n];
+        new Random(n).nextBytes(b);
+        return b;
+    }
+
+    private static byte[] read(StagedContent content) throws Exception {
+        try (InputStream in = content.open()) {
+            return in.readAllBytes();
+        }
+    }
+
+    @Test
+    void keepsSmallBodiesInPooledMemory() throws Exception {
+        BufferPool pool = new BufferPool(1024, 8 * 1024);
+        Stager stager = new Stager(pool, 4096);
+        byte[] body = bytes(3000);
+
+        StagedContent content;
+        try (Stager.Output out = stager.open("a.epub", -1)) {
+            out.write(body, 0, 1000);
+            out.write(body, 1000, 2000);
+            content = out.finish();
+        }
+
+        assertNull(content.file());
+        assertEquals(3000, content.size());
+        // readable more than once, e.g. for an SMTP retry
+        assertArrayEquals(body, read(content));
+        assertArrayEquals(body, read(content));
+        assertEquals(3, pool.stats().inUse());
+
+        content.release();
+        content.release();
+        assertEquals(0, pool.stats().inUse());
+    }
+
+    @Test
+    void spillsToDiskPastTheThresholdOrWhenThePoolRunsDry() throws Exception {
+        BufferPool pool = new BufferPool(1024, 2 * 1024);
+        Stager stager = new Stager(pool, 4096);
+
+        byte[] big = bytes(6000);
+        StagedContent spilled;
+        try (Stager.Output out = stager.open("big.pdf", -1)) {
+            for (int i = 0; i < big.length; i += 500) out.write(big, i, 500);
+            spilled = out.finish();
+        }
+        assertNotNull(spilled.file());
+        assertArrayEquals(big, read(spilled));
+        assertEquals(0, pool.stats().inUse());
+
+        // 3000 bytes fit the threshold but not the two-slab pool
+        byte[] mid = bytes(3000);
+        StagedContent dry;
+        try (Stager.Output out = stager.open("mid.pdf", -1)) {
+            out.write(mid, 0, mid.length);
+            dry = out.finish();
+        }
+        assertNotNull(dry.file());
+        assertArrayEquals(mid, read(dry));
+        assertEquals(2, stager.stats().spilled());
+
+        Path dir = spilled.file().getParent();
+        spilled.release();
+        dry.release();
+        assertTrue(Files.notExists(dir));
+    }
+
+    @Test
+    void stagesBuffersHandedOverByTheHttpClient() throws Exception {
+        BufferPool pool = new BufferPool(1024, 8 * 1024);
+        Stager stager = new Stager(pool, 4096);
+        byte[] body = bytes(3000);
+
+        StagedContent content;
+        try (Stager.Output out = stager.open("a.epub", -1)) {
+            for (int i = 0; i < body.length; i += 700) {
+                out.write(ByteBuffer.wrap(body, i, Math.min(700, body.length - i)).asReadOnlyBuffer());
+            }
+            content = out.finish();
+        }
+
+        assertNull(content.file());
+        assertArrayEquals(body, read(content));
+        content.release();
+    }
+
+    @Test
+    void discardsUnfinishedBodies() throws Exception {
+        BufferPool pool = new BufferPool(1024, 8 * 1024);
+        Stager stager = new Stager(pool, 4096);
+
+        try (Stager.Output out = stager.open("a.pdf", -1)) {
+            out.write(bytes(2000), 0, 2000);
+        }
+        assertEquals(0, pool.stats().inUse());
+        assertEquals(0, stager.stats().inMemory());
+    }
+}
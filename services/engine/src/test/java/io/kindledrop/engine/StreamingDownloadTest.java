@@ -0,0 +1,183 @@
+package io.kindledrop.engine;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.kindledrop.engine.api.SendRequest;
+import io.kindledrop.engine.config.KindleDropProperties;
+import io.kindledrop.engine.download.BufferPool;
+import io.kindledrop.engine.download.FileTooLargeException;
+import io.kindledrop.engine.download.HostRateLimiter;
+import io.kindledrop.engine.download.MagicByteValidator;
+import io.kindledrop.engine.download.RangeOptions;
+import io.kindledrop.engine.download.SecureDownloader;
+import io.kindledrop.engine.download.Stager;
+import io.kindledrop.engine.download.StreamingDownload;
+import io.kindledrop.engine.download.UnexpectedContentException;
+import io.kindledrop.engine.loadtest.SmtpSink;
+import io.kindledrop.engine.metrics.SendMetrics;
+import io.kindledrop.engine.service.SendToKindleService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingDownloadTest {
+
+    private static final long MB = 1024 * 1024;
+    private static final int RING = 64 * 1024;
+    private static final byte[] PDF_HEAD = "%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII);
+
+    private HttpServer server;
+    private ExecutorService handlers;
+    private SecureDownloader downloader;
+    private final AtomicLong written = new AtomicLong();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        server.createContext("/small.pdf", ex -> body(ex, MB, MB));
+        server.createContext("/large.pdf", ex -> body(ex, 64 * MB, 64 * MB));
+        // no Content-Length, so only the streamed count can catch it
+        server.createContext("/unsized.pdf", ex -> body(ex, 0, 2 * MB));
+        // announces 4 MB and hangs up after 1 MB
+        server.createContext("/truncated.pdf", ex -> body(ex, 4 * MB, MB));
+        server.createContext("/error-page.pdf", ex -> {
+            byte[] html = "<!DOCTYPE html><html><body>Sign in</body></html>\n".repeat(20_000).getBytes(StandardCharsets.US_ASCII);
+            ex.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            ex.sendResponseHeaders(200, 0);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(html);
+            } catch (IOException e) {
+                // the client gave up on it
+            }
+        });
+        server.start();
+        downloader = new SecureDownloader(null, RangeOptions.DISABLED, new HostRateLimiter(HostRateLimiter.Options.DEFAULTS),
+                SendMetrics.noop(), new Stager(new BufferPool(64 * 1024, 4 * MB), MB), List.of(origin()), new MagicByteValidator());
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Test
+    void aConsumerThatDoesNotReadStopsTheDownload() throws Exception {
+        try (StreamingDownload download = downloader.openStream(uri("/large.pdf"), "large.pdf", 128 * MB, RING)) {
+            // the ring and the socket buffers fill, then the server can write no more
+            long before;
+            do {
+                before = written.get();
+                Thread.sleep(300);
+            } while (written.get() != before);
+            assertTrue(written.get() < 32 * MB, "server wrote " + written.get() + " bytes with nobody reading");
+            assertEquals(0, download.bytes());
+
+            assertEquals(64 * MB, drain(download.stream()));
+            assertEquals(64 * MB, download.bytes());
+            assertEquals(64 * MB, written.get());
+        }
+    }
+
+    @Test
+    void theCapFailsTheStreamOnceCrossed() throws Exception {
+        try (StreamingDownload download = downloader.openStream(uri("/unsized.pdf"), "unsized.pdf", MB, RING)) {
+            InputStream in = download.stream();
+            assertThrows(FileTooLargeException.class, () -> drain(in));
+            assertTrue(download.bytes() <= MB);
+        }
+    }
+
+    @Test
+    void aRejectedFirstChunkNeverReachesTheConsumer() throws Exception {
+        try (StreamingDownload download = downloader.openStream(uri("/error-page.pdf"), "error-page.pdf", 128 * MB, RING)) {
+            InputStream in = download.stream();
+            assertThrows(UnexpectedContentException.class, () -> drain(in));
+            assertEquals(0, download.bytes());
+        }
+    }
+
+    @Test
+    void aFailedDownloadAbortsTheMailInsteadOfSendingPartOfIt() throws Exception {
+        try (SmtpSink sink = SmtpSink.start(0, Duration.ZERO)) {
+            TestProperties props = new TestProperties();
+            props.streaming = new KindleDropProperties.Streaming(true, DataSize.ofBytes(RING));
+            props.download = TestProperties.download(List.of(origin()));
+            SendToKindleService service = new SendToKindleService(props.build(), new SimpleMeterRegistry());
+            try {
+                assertTrue(service.send(send("/small.pdf", sink, 0)).ok());
+                assertEquals(1, sink.messages());
+
+                assertThrows(Exception.class, () -> service.send(send("/truncated.pdf", sink, 0)));
+                assertThrows(FileTooLargeException.class, () -> service.send(send("/unsized.pdf", sink, MB)));
+
+                // a message only counts once the relay has seen its final dot
+                Thread.sleep(200);
+                assertEquals(1, sink.messages());
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    /** Writes {@code length} bytes of PDF, or announces {@code declared} and stops there if it is more. */
+    private void body(HttpExchange ex, long declared, long length) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", "application/pdf");
+        ex.sendResponseHeaders(200, declared);
+        byte[] chunk = new byte[64 * 1024];
+        System.arraycopy(PDF_HEAD, 0, chunk, 0, PDF_HEAD.length);
+        OutputStream out = ex.getResponseBody();
+        try {
+            for (long sent = 0; sent < length; sent += chunk.length) {
+                int n = (int) Math.min(chunk.length, length - sent);
+                out.write(chunk, 0, n);
+                written.addAndGet(n);
+            }
+            out.close();
+        } catch (IOException e) {
+            // the client went away, or the body was cut short on purpose
+        } finally {
+            ex.close();
+        }
+    }
+
+    private SendRequest send(String path, SmtpSink sink, long maxBytes) {
+        return new SendRequest(origin() + path, "me@kindle.com", false,
+                new SendRequest.SmtpConfig("127.0.0.1", sink.port(), "user", "from@example.com", false, false, "secret"),
+                maxBytes > 0 ? new SendRequest.Limits(maxBytes) : null);
+    }
+
+    private String origin() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private URI uri(String path) {
+        return URI.create(origin() + path);
+    }
+
+    private static long drain(InputStream in) throws IOException {
+        byte[] buf = new byte[8192];
+        long total = 0;
+        int r;
+        while ((r = in.read(buf)) != -1) total += r;
+        return total;
+    }
+}
@@ -0,0 +1,55 @@
+package io.kindledrop.engine;
+
+import io.kindledrop.engine.config.KindleDropProperties;
+import io.kindledrop.engine.config.KindleDropProperties.*;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * {@link KindleDropProperties} with the {@code @DefaultValue}s of application.yml, for services built outside a
+ * Spring context. Tests replace the sections they care about before calling {@link #build()}. The defaults differ
+ * in three places: no download cache, no outbox, and no warm-up, so nothing touches the user's home directory.
+ */
+final class TestProperties {
+
+    SmtpPool smtpPool = new SmtpPool(4, 100, Duration.ofSeconds(60), Duration.ofSeconds(5), Duration.ofSeconds(30));
+    Jobs jobs = jobs(8, 200, true);
+    Batch batch = new Batch(50, 4, DataSize.ofMegabytes(25));
+    Cache cache = new Cache(false, "", DataSize.ofGigabytes(1));
+    Streaming streaming = new Streaming(false, DataSize.ofMegabytes(1));
+    Download download = download(List.of());
+    RateLimit rateLimit = new RateLimit(8, 1, 32, Duration.ofSeconds(60), 500, 4, Duration.ofSeconds(30));
+    Outbox outbox = new Outbox(false, "", DataSize.ofMegabytes(16), 10_000, 5, Duration.ofSeconds(30));
+    Tree tree = tree("https://api.github.com", 100);
+    Admission admission = new Admission(true, DataSize.ofGigabytes(1), 64, DataSize.ofMegabytes(1), Duration.ofSeconds(5));
+    Staging staging = new Staging(true, DataSize.ofMegabytes(4), DataSize.ofMegabytes(128), DataSize.ofKilobytes(256));
+    Send send = send(Duration.ofMinutes(10));
+    NonBlocking nonBlocking = new NonBlocking(8);
+    Startup startup = new Startup(false);
+    Cluster cluster = new Cluster(false, "", "", Duration.ofSeconds(30), Duration.ofMillis(250));
+    FlightRecording flightRecording = new FlightRecording("", Duration.ofSeconds(60), Duration.ofMinutes(5), "default", 10);
+    Repack repack = new Repack(false, 9, 0.05);
+
+    KindleDropProperties build() {
+        return new KindleDropProperties(smtpPool, jobs, batch, cache, streaming, download, rateLimit, outbox, tree,
+                admission, staging, send, nonBlocking, startup, cluster, flightRecording, repack);
+    }
+
+    static Jobs jobs(int workers, int queueCapacity, boolean sizeAware) {
+        return new Jobs(workers, queueCapacity, false, Duration.ofHours(1), sizeAware, DataSize.ofMegabytes(1), Duration.ofSeconds(2));
+    }
+
+    static Download download(List<String> extraOrigins) {
+        return new Download(4, DataSize.ofMegabytes(8), 3, extraOrigins, true);
+    }
+
+    static Tree tree(String apiBaseUrl, int maxFiles) {
+        return new Tree(apiBaseUrl, "", maxFiles, 4, 4, 2, 2);
+    }
+
+    static Send send(Duration timeout) {
+        return new Send(timeout, Duration.ofMinutes(5), Duration.ofMinutes(5));
+    }
+}
@@ -0,0 +1,175 @@
+package io.kindledrop.engine;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.kindledrop.engine.api.SendController;
+import io.kindledrop.engine.api.SendRequest;
+import io.kindledrop.engine.loadtest.SmtpSink;
+import io.kindledrop.engine.service.SendToKindleService;
+import io.kindledrop.engine.service.TreeSendService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+public class TreeSendServiceTest {
+
+    private static final String CONTENTS = "/repos/org/repo/contents";
+
+    private final ObjectMapper json = new ObjectMapper();
+    private HttpServer server;
+    private ExecutorService handlers;
+    private SmtpSink sink;
+    private SimpleMeterRegistry registry;
+    private SendToKindleService sendService;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        handlers = Executors.newCachedThreadPool();
+        server.setExecutor(handlers);
+        Map<String, String> folders = Map.of(
+                "/books", "[" + file("books/a.pdf") + "," + file("books/notes.txt") + "," + dir("books/sci") + "]",
+                "/books/sci", "[" + file("books/sci/b.pdf") + "," + file("books/sci/missing.pdf") + "]",
+                "/broken", "[" + file("broken/x.pdf") + "," + dir("broken/failing") + "]"
+        );
+        server.createContext(CONTENTS, ex -> {
+            String folder = ex.getRequestURI().getPath().substring(CONTENTS.length());
+            String listing = folders.get(folder);
+            respond(ex, listing != null ? 200 : 500, "application/json",
+                    (listing != null ? listing : "{\"message\":\"Server Error\"}").getBytes(StandardCharsets.UTF_8));
+        });
+        server.createContext("/files/", ex -> {
+            if (ex.getRequestURI().getPath().endsWith("/missing.pdf")) {
+                respond(ex, 404, "text/plain", "Not Found".getBytes(StandardCharsets.US_ASCII));
+            } else {
+                byte[] pdf = new byte[64 * 1024];
+                byte[] head = "%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(head, 0, pdf, 0, head.length);
+                respond(ex, 200, "application/pdf", pdf);
+            }
+        });
+        server.start();
+        sink = SmtpSink.start(0, Duration.ZERO);
+
+        TestProperties props = new TestProperties();
+        props.tree = TestProperties.tree(origin(), 100);
+        props.download = TestProperties.download(List.of(origin()));
+        registry = new SimpleMeterRegistry();
+        sendService = new SendToKindleService(props.build(), registry);
+        TreeSendService treeService = new TreeSendService(sendService, props.build());
+        mvc = MockMvcBuilders.standaloneSetup(new SendController(sendService, null, treeService, null, json)).build();
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        sendService.shutdown();
+        sink.close();
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    @Test
+    void mailsEachDocumentAndReportsOneLinePerFileThenDone() throws Exception {
+        List<JsonNode> events = sendTree("https://github.com/org/repo/tree/main/books");
+
+        assertEquals(4, events.size(), events.toString());
+        List<JsonNode> files = events.subList(0, 3);
+        assertTrue(files.stream().allMatch(e -> e.get("event").asText().equals("file")), files.toString());
+        assertEquals(List.of("books/a.pdf", "books/sci/b.pdf", "books/sci/missing.pdf"),
+                files.stream().map(e -> e.get("path").asText()).sorted().toList());
+        for (JsonNode e : files) {
+            boolean missing = e.get("path").asText().endsWith("missing.pdf");
+            assertEquals(!missing, e.get("ok").asBoolean(), e.toString());
+            assertEquals(missing ? "Download failed with status 404" : "Sent to Kindle.", e.get("message").asText());
+        }
+
+        JsonNode done = events.get(3);
+        assertEquals("done", done.get("event").asText());
+        assertEquals(3, done.get("files").asInt());
+        assertEquals(2, done.get("sent").asInt());
+        assertFalse(done.get("truncated").asBoolean());
+
+        assertEquals(2, sink.messages());
+        // mailed through the send service, so the mail stage is measured like a single send's
+        assertEquals(2, registry.get("kindledrop.stage").tag("stage", "mail").timer().count());
+    }
+
+    @Test
+    void aListingThatFailsPartWayEndsWithAnError() throws Exception {
+        List<JsonNode> events = sendTree("https://github.com/org/repo/tree/main/broken");
+
+        JsonNode last = events.get(events.size() - 1);
+        assertEquals("error", last.get("event").asText());
+        assertEquals("GitHub API listing failed with status 500", last.get("message").asText());
+        // a file listed before the failure may still have gone out, and is reported if it did
+        for (JsonNode e : events.subList(0, events.size() - 1)) {
+            assertEquals("file", e.get("event").asText());
+            assertEquals("broken/x.pdf", e.get("path").asText());
+        }
+        assertEquals(events.size() - 1, sink.messages());
+    }
+
+    private List<JsonNode> sendTree(String url) throws Exception {
+        SendRequest req = new SendRequest(url, "me@kindle.com", false,
+                new SendRequest.SmtpConfig("127.0.0.1", sink.port(), "user", "from@example.com", false, false, "secret"), null);
+        MvcResult started = mvc.perform(post("/api/send/tree").contentType(MediaType.APPLICATION_JSON).content(json.writeValueAsBytes(req)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult finished = mvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andReturn();
+
+        List<JsonNode> events = new ArrayList<>();
+        for (String line : Arrays.asList(finished.getResponse().getContentAsString().split("\n"))) {
+            if (!line.isBlank()) events.add(json.readTree(line));
+        }
+        return events;
+    }
+
+    private String origin() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private String file(String path) {
+        return "{\"type\":\"file\",\"name\":\"" + path.substring(path.lastIndexOf('/') + 1) + "\",\"path\":\"" + path
+                + "\",\"size\":65536,\"html_url\":\"" + origin() + "/files/" + path + "\"}";
+    }
+
+    private static String dir(String path) {
+        return "{\"type\":\"dir\",\"name\":\"" + path.substring(path.lastIndexOf('/') + 1) + "\",\"path\":\"" + path + "\"}";
+    }
+
+    private static void respond(HttpExchange ex, int status, String contentType, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", contentType);
+        ex.sendResponseHeaders(status, body.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}